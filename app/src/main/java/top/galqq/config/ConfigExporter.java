@@ -84,6 +84,8 @@ public class ConfigExporter {
                 return ConfigManager.isVerboseLogEnabled();
             case ConfigManager.KEY_DEBUG_HOOK_LOG:
                 return ConfigManager.isDebugHookLogEnabled();
+            case ConfigManager.KEY_PERF_METRICS:
+                return ConfigManager.isPerfMetricsEnabled();
             case ConfigManager.KEY_PROXY_ENABLED:
                 return ConfigManager.isProxyEnabled();
             case ConfigManager.KEY_PROXY_AUTH_ENABLED:
@@ -114,10 +116,14 @@ public class ConfigExporter {
                 return ConfigManager.getAiProvider();
             case ConfigManager.KEY_AI_REASONING_EFFORT:
                 return ConfigManager.getAiReasoningEffort();
+            case ConfigManager.KEY_AI_EXTRA_ENDPOINTS:
+                return ConfigManager.getAiExtraEndpoints();
             case ConfigManager.KEY_SYS_PROMPT:
                 return ConfigManager.getSysPrompt();
             case ConfigManager.KEY_FILTER_MODE:
                 return ConfigManager.getFilterMode();
+            case ConfigManager.KEY_OPTION_ENGINE:
+                return ConfigManager.getOptionEngine();
             case ConfigManager.KEY_BLACKLIST:
                 return ConfigManager.getBlacklist();
             case ConfigManager.KEY_WHITELIST:
@@ -150,6 +156,16 @@ public class ConfigExporter {
                 return ConfigManager.getAiMaxTokens();
             case ConfigManager.KEY_CONTEXT_MESSAGE_COUNT:
                 return ConfigManager.getContextMessageCount();
+            case ConfigManager.KEY_CONTEXT_TOKEN_BUDGET:
+                return ConfigManager.getContextTokenBudget();
+            case ConfigManager.KEY_CONTEXT_SUMMARY_ENABLED:
+                return ConfigManager.isContextSummaryEnabled();
+            case ConfigManager.KEY_CONTEXT_FROM_KERNEL:
+                return ConfigManager.isContextFromKernelEnabled();
+            case ConfigManager.KEY_AI_HEDGE_ENABLED:
+                return ConfigManager.isAiHedgeEnabled();
+            case ConfigManager.KEY_AI_BATCH_ENABLED:
+                return ConfigManager.isAiBatchEnabled();
             case ConfigManager.KEY_HISTORY_THRESHOLD:
                 return ConfigManager.getHistoryThreshold();
             case ConfigManager.KEY_AFFINITY_MODEL:
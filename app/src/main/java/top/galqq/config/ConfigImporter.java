@@ -253,6 +253,9 @@ public class ConfigImporter {
                 case ConfigManager.KEY_DEBUG_HOOK_LOG:
                     ConfigManager.setDebugHookLogEnabled(toBoolean(value));
                     break;
+                case ConfigManager.KEY_PERF_METRICS:
+                    ConfigManager.setPerfMetricsEnabled(toBoolean(value));
+                    break;
                 case ConfigManager.KEY_PROXY_ENABLED:
                     ConfigManager.setProxyEnabled(toBoolean(value));
                     break;
@@ -297,12 +300,18 @@ public class ConfigImporter {
                 case ConfigManager.KEY_AI_REASONING_EFFORT:
                     ConfigManager.setAiReasoningEffort(toString(value));
                     break;
+                case ConfigManager.KEY_AI_EXTRA_ENDPOINTS:
+                    ConfigManager.setAiExtraEndpoints(toString(value));
+                    break;
                 case ConfigManager.KEY_SYS_PROMPT:
                     ConfigManager.setSysPrompt(toString(value));
                     break;
                 case ConfigManager.KEY_FILTER_MODE:
                     ConfigManager.setFilterMode(toString(value));
                     break;
+                case ConfigManager.KEY_OPTION_ENGINE:
+                    ConfigManager.setOptionEngine(toString(value));
+                    break;
                 case ConfigManager.KEY_BLACKLIST:
                     ConfigManager.setBlacklist(toString(value));
                     break;
@@ -350,6 +359,21 @@ public class ConfigImporter {
                 case ConfigManager.KEY_CONTEXT_MESSAGE_COUNT:
                     ConfigManager.setContextMessageCount(toInt(value));
                     break;
+                case ConfigManager.KEY_CONTEXT_TOKEN_BUDGET:
+                    ConfigManager.setContextTokenBudget(toInt(value));
+                    break;
+                case ConfigManager.KEY_CONTEXT_SUMMARY_ENABLED:
+                    ConfigManager.setContextSummaryEnabled(toBoolean(value));
+                    break;
+                case ConfigManager.KEY_CONTEXT_FROM_KERNEL:
+                    ConfigManager.setContextFromKernelEnabled(toBoolean(value));
+                    break;
+                case ConfigManager.KEY_AI_HEDGE_ENABLED:
+                    ConfigManager.setAiHedgeEnabled(toBoolean(value));
+                    break;
+                case ConfigManager.KEY_AI_BATCH_ENABLED:
+                    ConfigManager.setAiBatchEnabled(toBoolean(value));
+                    break;
                 case ConfigManager.KEY_HISTORY_THRESHOLD:
                     ConfigManager.setHistoryThreshold(toInt(value));
                     break;
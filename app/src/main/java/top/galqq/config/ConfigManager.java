@@ -46,7 +46,8 @@ public class ConfigManager {
     public static final Set<String> SENSITIVE_KEYS = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
         "gal_api_key",           // AI API 密钥
         "gal_proxy_password",    // 代理密码
-        "gal_vision_api_key"     // 外挂AI API 密钥
+        "gal_vision_api_key",    // 外挂AI API 密钥
+        "gal_ai_extra_endpoints" // 备用服务商（包含 API 密钥）
     )));
     
     /**
@@ -61,6 +62,7 @@ public class ConfigManager {
         // AI 设置
         map.put("gal_enabled", CATEGORY_AI_SETTINGS);
         map.put("gal_ai_enabled", CATEGORY_AI_SETTINGS);
+        map.put("gal_option_engine", CATEGORY_AI_SETTINGS);
         map.put("gal_api_url", CATEGORY_AI_SETTINGS);
         map.put("gal_custom_api_url", CATEGORY_AI_SETTINGS);
         map.put("gal_api_key", CATEGORY_AI_SETTINGS);
@@ -71,8 +73,14 @@ public class ConfigManager {
         map.put("gal_ai_reasoning_effort", CATEGORY_AI_SETTINGS);
         map.put("gal_ai_qps", CATEGORY_AI_SETTINGS);
         map.put("gal_ai_timeout", CATEGORY_AI_SETTINGS);
+        map.put("gal_ai_extra_endpoints", CATEGORY_AI_SETTINGS);
+        map.put("gal_ai_hedge_enabled", CATEGORY_AI_SETTINGS);
+        map.put("gal_ai_batch_enabled", CATEGORY_AI_SETTINGS);
         map.put("gal_context_enabled", CATEGORY_AI_SETTINGS);
         map.put("gal_context_message_count", CATEGORY_AI_SETTINGS);
+        map.put("gal_context_token_budget", CATEGORY_AI_SETTINGS);
+        map.put("gal_context_summary_enabled", CATEGORY_AI_SETTINGS);
+        map.put("gal_context_from_kernel", CATEGORY_AI_SETTINGS);
         map.put("gal_history_threshold", CATEGORY_AI_SETTINGS);
         
         // 代理设置
@@ -115,6 +123,7 @@ public class ConfigManager {
         map.put("gal_ai_include_affinity", CATEGORY_DISPLAY_SETTINGS);
         map.put("gal_verbose_log", CATEGORY_DISPLAY_SETTINGS);
         map.put("gal_debug_hook_log", CATEGORY_DISPLAY_SETTINGS);
+        map.put("gal_perf_metrics", CATEGORY_DISPLAY_SETTINGS);
         
         // 按钮样式设置
         map.put("gal_button_fill_color", CATEGORY_BUTTON_STYLE);
@@ -243,14 +252,19 @@ public class ConfigManager {
     public static final String KEY_AI_MAX_TOKENS = "gal_ai_max_tokens";
     public static final String KEY_AI_REASONING_EFFORT = "gal_ai_reasoning_effort";
     public static final String KEY_DICT_PATH = "gal_dict_path";
+    public static final String KEY_OPTION_ENGINE = "gal_option_engine"; // 选项引擎：remote / local / auto
     public static final String KEY_FILTER_MODE = "gal_filter_mode";
     public static final String KEY_WHITELIST = "gal_whitelist";
     public static final String KEY_VERBOSE_LOG = "gal_verbose_log";
     public static final String KEY_DEBUG_HOOK_LOG = "gal_debug_hook_log";
+    public static final String KEY_PERF_METRICS = "gal_perf_metrics"; // 性能统计（各阶段耗时直方图）
     
     // Context Keys
     public static final String KEY_CONTEXT_ENABLED = "gal_context_enabled";
     public static final String KEY_CONTEXT_MESSAGE_COUNT = "gal_context_message_count";
+    public static final String KEY_CONTEXT_TOKEN_BUDGET = "gal_context_token_budget"; // 上下文token预算（0=不限制）
+    public static final String KEY_CONTEXT_SUMMARY_ENABLED = "gal_context_summary_enabled"; // 较早的上下文折叠成摘要
+    public static final String KEY_CONTEXT_FROM_KERNEL = "gal_context_from_kernel"; // 从QQ消息服务拉取历史消息作为上下文
     public static final String KEY_HISTORY_THRESHOLD = "gal_history_threshold";
     public static final String KEY_AUTO_SHOW_OPTIONS = "gal_auto_show_options";
     
@@ -351,9 +365,18 @@ public class ConfigManager {
     public static final int DEFAULT_MAX_TOKENS = 120;
     public static final String DEFAULT_FILTER_MODE = "blacklist";
     
+    // 选项引擎
+    public static final String OPTION_ENGINE_REMOTE = "remote"; // 远程AI
+    public static final String OPTION_ENGINE_LOCAL = "local";   // 本地检索（不访问网络）
+    public static final String OPTION_ENGINE_AUTO = "auto";     // 有网用远程，无网或失败时用本地
+    public static final String DEFAULT_OPTION_ENGINE = OPTION_ENGINE_REMOTE;
+    
     // Context Default Values
     public static final boolean DEFAULT_CONTEXT_ENABLED = true;
     public static final int DEFAULT_CONTEXT_MESSAGE_COUNT = 15; // 从10改为15
+    public static final int DEFAULT_CONTEXT_TOKEN_BUDGET = 2000; // 单次请求的输入token预算
+    public static final boolean DEFAULT_CONTEXT_SUMMARY_ENABLED = false;
+    public static final boolean DEFAULT_CONTEXT_FROM_KERNEL = true;
     public static final int DEFAULT_HISTORY_THRESHOLD = 600; // 历史消息阈值（秒），默认10分钟
     public static final boolean DEFAULT_AUTO_SHOW_OPTIONS = false;
     
@@ -365,6 +388,13 @@ public class ConfigManager {
     public static final int DEFAULT_AI_TIMEOUT = 30; // 默认30秒
     public static final String KEY_AI_TIMEOUT = "gal_ai_timeout";
     
+    // 备用服务商与对冲请求（见 AiEndpointRouter）
+    public static final String KEY_AI_EXTRA_ENDPOINTS = "gal_ai_extra_endpoints"; // 每行：服务商|API地址|API Key|模型
+    public static final String KEY_AI_HEDGE_ENABLED = "gal_ai_hedge_enabled"; // 首选服务商超过p90未返回时向次优服务商再发一份
+    public static final boolean DEFAULT_AI_HEDGE_ENABLED = false;
+    public static final String KEY_AI_BATCH_ENABLED = "gal_ai_batch_enabled"; // 同一会话排队中的多条消息合并成一次请求
+    public static final boolean DEFAULT_AI_BATCH_ENABLED = false;
+    
     // Proxy Keys (代理配置)
     public static final String KEY_PROXY_ENABLED = "gal_proxy_enabled";
     public static final String KEY_PROXY_TYPE = "gal_proxy_type";
@@ -507,19 +537,61 @@ public class ConfigManager {
 
     // ========== Prompt List Methods (提示词列表管理) ==========
     
+    // 已解析的提示词列表（只读快照）及其对应的原始 JSON
+    private static volatile java.util.List<PromptItem> sCompiledPrompts;
+    private static volatile String sCompiledPromptJson;
+    private static volatile int sPromptListVersion = 0;
+    
     /**
      * 获取提示词列表（JSON数组格式存储）
+     * 返回的是可修改的副本，修改后需调用 {@link #savePromptList} 保存
      * @return 提示词列表
      */
     public static java.util.List<PromptItem> getPromptList() {
+        java.util.List<PromptItem> compiled = getCompiledPrompts();
+        java.util.List<PromptItem> list = new java.util.ArrayList<>(compiled.size());
+        for (PromptItem item : compiled) {
+            list.add(item.copy());
+        }
+        return list;
+    }
+    
+    /**
+     * 获取已解析的提示词列表（只读，多处共享）
+     * 存储的 JSON 未变化时直接返回上次解析的结果；选择提示词等高频路径使用
+     */
+    public static java.util.List<PromptItem> getCompiledPrompts() {
         String json = getMmkv().decodeString(KEY_PROMPT_LIST, "");
-        java.util.List<PromptItem> list = new java.util.ArrayList<>();
-        if (json == null || json.isEmpty()) {
-            // 默认添加一个提示词
-            list.add(new PromptItem("默认提示词", DEFAULT_SYS_PROMPT));
-            savePromptList(list);
-            return list;
+        java.util.List<PromptItem> compiled = sCompiledPrompts;
+        if (compiled != null && json != null && json.equals(sCompiledPromptJson)) {
+            return compiled;
+        }
+        synchronized (ConfigManager.class) {
+            if (sCompiledPrompts != null && json != null && json.equals(sCompiledPromptJson)) {
+                return sCompiledPrompts;
+            }
+            if (json == null || json.isEmpty()) {
+                // 默认添加一个提示词
+                java.util.List<PromptItem> list = new java.util.ArrayList<>();
+                list.add(new PromptItem("默认提示词", DEFAULT_SYS_PROMPT));
+                savePromptList(list);
+                return sCompiledPrompts != null ? sCompiledPrompts : java.util.Collections.unmodifiableList(list);
+            }
+            compilePrompts(json, parsePromptJson(json));
+            return sCompiledPrompts;
         }
+    }
+    
+    /**
+     * 提示词列表版本号，每次重新解析后递增（用于失效选择结果缓存）
+     */
+    public static int getPromptListVersion() {
+        getCompiledPrompts();
+        return sPromptListVersion;
+    }
+    
+    private static java.util.List<PromptItem> parsePromptJson(String json) {
+        java.util.List<PromptItem> list = new java.util.ArrayList<>();
         try {
             org.json.JSONArray arr = new org.json.JSONArray(json);
             for (int i = 0; i < arr.length(); i++) {
@@ -542,11 +614,27 @@ public class ConfigManager {
                         groupWhitelistEnabled, groupBlacklistEnabled));
             }
         } catch (Exception e) {
+            list.clear();
             list.add(new PromptItem("默认提示词", DEFAULT_SYS_PROMPT));
         }
         return list;
     }
     
+    /**
+     * 生成只读快照：复制每一项并预先解析黑白名单
+     */
+    private static void compilePrompts(String json, java.util.List<PromptItem> items) {
+        java.util.List<PromptItem> compiled = new java.util.ArrayList<>(items.size());
+        for (PromptItem item : items) {
+            PromptItem copy = item.copy();
+            copy.compileIdSets();
+            compiled.add(copy);
+        }
+        sCompiledPrompts = java.util.Collections.unmodifiableList(compiled);
+        sCompiledPromptJson = json;
+        sPromptListVersion++;
+    }
+    
     /**
      * 保存提示词列表
      * @param list 提示词列表
@@ -570,7 +658,11 @@ public class ConfigManager {
                 obj.put("groupBlacklistEnabled", item.groupBlacklistEnabled);
                 arr.put(obj);
             }
-            getMmkv().encode(KEY_PROMPT_LIST, arr.toString());
+            String json = arr.toString();
+            getMmkv().encode(KEY_PROMPT_LIST, json);
+            synchronized (ConfigManager.class) {
+                compilePrompts(json, list);
+            }
         } catch (Exception e) {
             android.util.Log.e("GalQQ.ConfigManager", "Failed to save prompt list", e);
         }
@@ -591,7 +683,7 @@ public class ConfigManager {
     public static void setCurrentPromptIndex(int index) {
         getMmkv().encode(KEY_CURRENT_PROMPT_INDEX, index);
         // 同时更新当前使用的提示词
-        java.util.List<PromptItem> list = getPromptList();
+        java.util.List<PromptItem> list = getCompiledPrompts();
         if (index >= 0 && index < list.size()) {
             setSysPrompt(list.get(index).content);
         }
@@ -649,6 +741,61 @@ public class ConfigManager {
             this.groupBlacklistEnabled = groupBlacklistEnabled;
         }
         
+        // 预解析的ID集合及其来源字符串（字段被修改后自动重新解析）
+        private java.util.Set<String> whitelistIds, blacklistIds, groupWhitelistIds, groupBlacklistIds;
+        private String whitelistIdsSrc, blacklistIdsSrc, groupWhitelistIdsSrc, groupBlacklistIdsSrc;
+        
+        /**
+         * 复制一份（不共享预解析结果）
+         */
+        public PromptItem copy() {
+            return new PromptItem(name, content, whitelist, blacklist, enabled,
+                    whitelistEnabled, blacklistEnabled, groupWhitelist, groupBlacklist,
+                    groupWhitelistEnabled, groupBlacklistEnabled);
+        }
+        
+        /**
+         * 预先解析四个黑白名单
+         */
+        void compileIdSets() {
+            whitelistIds();
+            blacklistIds();
+            groupWhitelistIds();
+            groupBlacklistIds();
+        }
+        
+        private java.util.Set<String> whitelistIds() {
+            if (whitelistIds == null || whitelistIdsSrc != whitelist) {
+                whitelistIds = parseIdList(whitelist);
+                whitelistIdsSrc = whitelist;
+            }
+            return whitelistIds;
+        }
+        
+        private java.util.Set<String> blacklistIds() {
+            if (blacklistIds == null || blacklistIdsSrc != blacklist) {
+                blacklistIds = parseIdList(blacklist);
+                blacklistIdsSrc = blacklist;
+            }
+            return blacklistIds;
+        }
+        
+        private java.util.Set<String> groupWhitelistIds() {
+            if (groupWhitelistIds == null || groupWhitelistIdsSrc != groupWhitelist) {
+                groupWhitelistIds = parseIdList(groupWhitelist);
+                groupWhitelistIdsSrc = groupWhitelist;
+            }
+            return groupWhitelistIds;
+        }
+        
+        private java.util.Set<String> groupBlacklistIds() {
+            if (groupBlacklistIds == null || groupBlacklistIdsSrc != groupBlacklist) {
+                groupBlacklistIds = parseIdList(groupBlacklist);
+                groupBlacklistIdsSrc = groupBlacklist;
+            }
+            return groupBlacklistIds;
+        }
+        
         /**
          * 检查指定QQ号是否在用户白名单中
          * @param qq QQ号
@@ -661,8 +808,7 @@ public class ConfigManager {
             if (qq == null || qq.isEmpty() || whitelist == null || whitelist.isEmpty()) {
                 return false;
             }
-            java.util.Set<String> validQQs = parseIdList(whitelist);
-            return validQQs.contains(qq.trim());
+            return whitelistIds().contains(qq.trim());
         }
         
         /**
@@ -677,8 +823,7 @@ public class ConfigManager {
             if (qq == null || qq.isEmpty() || blacklist == null || blacklist.isEmpty()) {
                 return false;
             }
-            java.util.Set<String> validQQs = parseIdList(blacklist);
-            return validQQs.contains(qq.trim());
+            return blacklistIds().contains(qq.trim());
         }
         
         /**
@@ -693,8 +838,7 @@ public class ConfigManager {
             if (groupId == null || groupId.isEmpty() || groupWhitelist == null || groupWhitelist.isEmpty()) {
                 return false;
             }
-            java.util.Set<String> validIds = parseIdList(groupWhitelist);
-            return validIds.contains(groupId.trim());
+            return groupWhitelistIds().contains(groupId.trim());
         }
         
         /**
@@ -709,8 +853,7 @@ public class ConfigManager {
             if (groupId == null || groupId.isEmpty() || groupBlacklist == null || groupBlacklist.isEmpty()) {
                 return false;
             }
-            java.util.Set<String> validIds = parseIdList(groupBlacklist);
-            return validIds.contains(groupId.trim());
+            return groupBlacklistIds().contains(groupId.trim());
         }
         
         /**
@@ -719,11 +862,11 @@ public class ConfigManager {
          * @param list 逗号分隔的ID字符串
          * @return 有效ID集合
          */
-        private java.util.Set<String> parseIdList(String list) {
-            java.util.Set<String> result = new java.util.HashSet<>();
+        private static java.util.Set<String> parseIdList(String list) {
             if (list == null || list.isEmpty()) {
-                return result;
+                return java.util.Collections.emptySet();
             }
+            java.util.Set<String> result = new java.util.HashSet<>();
             String[] parts = list.split(",");
             for (String part : parts) {
                 String trimmed = part.trim();
@@ -732,7 +875,7 @@ public class ConfigManager {
                     result.add(trimmed);
                 }
             }
-            return result;
+            return java.util.Collections.unmodifiableSet(result);
         }
     }
 
@@ -848,6 +991,39 @@ public class ConfigManager {
     public static void setAiTimeout(int timeout) {
         getMmkv().encode(KEY_AI_TIMEOUT, timeout);
     }
+    
+    /**
+     * 获取备用服务商配置（每行：服务商|API地址|API Key|模型）
+     */
+    public static String getAiExtraEndpoints() {
+        return getMmkv().decodeString(KEY_AI_EXTRA_ENDPOINTS, "");
+    }
+    
+    public static void setAiExtraEndpoints(String endpoints) {
+        getMmkv().encode(KEY_AI_EXTRA_ENDPOINTS, endpoints);
+    }
+    
+    /**
+     * 是否启用对冲请求（配置了备用服务商时生效）
+     */
+    public static boolean isAiHedgeEnabled() {
+        return getMmkv().decodeBool(KEY_AI_HEDGE_ENABLED, DEFAULT_AI_HEDGE_ENABLED);
+    }
+    
+    public static void setAiHedgeEnabled(boolean enabled) {
+        getMmkv().encode(KEY_AI_HEDGE_ENABLED, enabled);
+    }
+    
+    /**
+     * 是否把同一会话排队中的多条消息合并成一次请求
+     */
+    public static boolean isAiBatchEnabled() {
+        return getMmkv().decodeBool(KEY_AI_BATCH_ENABLED, DEFAULT_AI_BATCH_ENABLED);
+    }
+    
+    public static void setAiBatchEnabled(boolean enabled) {
+        getMmkv().encode(KEY_AI_BATCH_ENABLED, enabled);
+    }
 
     public static String getDictPath() {
         return getMmkv().decodeString(KEY_DICT_PATH, "");
@@ -858,6 +1034,17 @@ public class ConfigManager {
     }
 
     // Filter Mode
+    /**
+     * 选项引擎（AI模式下生效）：remote / local / auto
+     */
+    public static String getOptionEngine() {
+        return getMmkv().decodeString(KEY_OPTION_ENGINE, DEFAULT_OPTION_ENGINE);
+    }
+    
+    public static void setOptionEngine(String engine) {
+        getMmkv().encode(KEY_OPTION_ENGINE, engine);
+    }
+    
     public static String getFilterMode() {
         return getMmkv().decodeString(KEY_FILTER_MODE, DEFAULT_FILTER_MODE);
     }
@@ -1074,6 +1261,36 @@ public class ConfigManager {
         clearVerboseLogCache();
     }
     
+    // 缓存性能统计开关，热路径上每条消息都会读取
+    private static volatile Boolean sPerfMetricsCache = null;
+    private static volatile long sPerfMetricsCacheTime = 0;
+    
+    public static boolean isPerfMetricsEnabled() {
+        try {
+            if (sMmkv == null) {
+                return false;
+            }
+            
+            long now = System.currentTimeMillis();
+            if (sPerfMetricsCache != null && (now - sPerfMetricsCacheTime) < VERBOSE_LOG_CACHE_DURATION) {
+                return sPerfMetricsCache;
+            }
+            
+            sMmkv.checkContentChangedByOuterProcess();
+            sPerfMetricsCache = sMmkv.decodeBool(KEY_PERF_METRICS, false);
+            sPerfMetricsCacheTime = now;
+            return sPerfMetricsCache;
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+    
+    public static void setPerfMetricsEnabled(boolean enabled) {
+        getMmkv().encode(KEY_PERF_METRICS, enabled);
+        sPerfMetricsCache = null;
+        sPerfMetricsCacheTime = 0;
+    }
+    
     // ========== Context Methods ==========
     
     public static boolean isContextEnabled() {
@@ -1094,6 +1311,40 @@ public class ConfigManager {
         getMmkv().encode(KEY_CONTEXT_MESSAGE_COUNT, count);
     }
     
+    /**
+     * 单次请求的输入token预算（系统提示词+上下文+当前消息），0 表示不限制
+     */
+    public static int getContextTokenBudget() {
+        int budget = getMmkv().decodeInt(KEY_CONTEXT_TOKEN_BUDGET, DEFAULT_CONTEXT_TOKEN_BUDGET);
+        return Math.max(0, budget);
+    }
+    
+    public static void setContextTokenBudget(int budget) {
+        getMmkv().encode(KEY_CONTEXT_TOKEN_BUDGET, budget);
+    }
+    
+    /**
+     * 是否把较早的上下文折叠成滚动摘要（摘要由AI在后台生成，会额外消耗少量token）
+     */
+    public static boolean isContextSummaryEnabled() {
+        return getMmkv().decodeBool(KEY_CONTEXT_SUMMARY_ENABLED, DEFAULT_CONTEXT_SUMMARY_ENABLED);
+    }
+    
+    public static void setContextSummaryEnabled(boolean enabled) {
+        getMmkv().encode(KEY_CONTEXT_SUMMARY_ENABLED, enabled);
+    }
+    
+    /**
+     * 生成请求前是否从QQ消息服务拉取会话的最近消息（否则只用已显示过的消息）
+     */
+    public static boolean isContextFromKernelEnabled() {
+        return getMmkv().decodeBool(KEY_CONTEXT_FROM_KERNEL, DEFAULT_CONTEXT_FROM_KERNEL);
+    }
+    
+    public static void setContextFromKernelEnabled(boolean enabled) {
+        getMmkv().encode(KEY_CONTEXT_FROM_KERNEL, enabled);
+    }
+    
     public static int getHistoryThreshold() {
         return getMmkv().decodeInt(KEY_HISTORY_THRESHOLD, DEFAULT_HISTORY_THRESHOLD);
     }
@@ -127,6 +127,8 @@ public class ConfigMigrator {
                 return false;
             case ConfigManager.KEY_DEBUG_HOOK_LOG:
                 return false;
+            case ConfigManager.KEY_PERF_METRICS:
+                return false;
             case ConfigManager.KEY_PROXY_ENABLED:
                 return false;
             case ConfigManager.KEY_PROXY_AUTH_ENABLED:
@@ -151,6 +153,8 @@ public class ConfigMigrator {
                 return ConfigManager.DEFAULT_PROVIDER;
             case ConfigManager.KEY_FILTER_MODE:
                 return ConfigManager.DEFAULT_FILTER_MODE;
+            case ConfigManager.KEY_OPTION_ENGINE:
+                return ConfigManager.DEFAULT_OPTION_ENGINE;
             case ConfigManager.KEY_GROUP_FILTER_MODE:
                 return ConfigManager.DEFAULT_FILTER_MODE;
             case ConfigManager.KEY_PROXY_TYPE:
@@ -167,6 +171,16 @@ public class ConfigMigrator {
                 return ConfigManager.DEFAULT_MAX_TOKENS;
             case ConfigManager.KEY_CONTEXT_MESSAGE_COUNT:
                 return ConfigManager.DEFAULT_CONTEXT_MESSAGE_COUNT;
+            case ConfigManager.KEY_CONTEXT_TOKEN_BUDGET:
+                return ConfigManager.DEFAULT_CONTEXT_TOKEN_BUDGET;
+            case ConfigManager.KEY_CONTEXT_SUMMARY_ENABLED:
+                return ConfigManager.DEFAULT_CONTEXT_SUMMARY_ENABLED;
+            case ConfigManager.KEY_CONTEXT_FROM_KERNEL:
+                return ConfigManager.DEFAULT_CONTEXT_FROM_KERNEL;
+            case ConfigManager.KEY_AI_HEDGE_ENABLED:
+                return ConfigManager.DEFAULT_AI_HEDGE_ENABLED;
+            case ConfigManager.KEY_AI_BATCH_ENABLED:
+                return ConfigManager.DEFAULT_AI_BATCH_ENABLED;
             case ConfigManager.KEY_HISTORY_THRESHOLD:
                 return ConfigManager.DEFAULT_HISTORY_THRESHOLD;
             case ConfigManager.KEY_AFFINITY_MODEL:
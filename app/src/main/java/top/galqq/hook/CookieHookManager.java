@@ -5,7 +5,6 @@
 
 package top.galqq.hook;
 
-import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XposedBridge;
 import de.robv.android.xposed.XposedHelpers;
 import de.robv.android.xposed.callbacks.XC_LoadPackage;
@@ -111,9 +110,9 @@ public class CookieHookManager {
                 
                 // Hook onSKeyGet(int ret, String skey)
                 try {
-                    XposedBridge.hookAllMethods(clazz, "onSKeyGet", new XC_MethodHook() {
+                    HookRegistry.hookAllMethods("cookie.wtlogin_callback", clazz, "onSKeyGet", new HookRegistry.Callback() {
                         @Override
-                        protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                        protected void after(MethodHookParam param) throws Throwable {
                             if (param.args.length >= 2 && param.args[1] instanceof String) {
                                 String skey = (String) param.args[1];
                                 if (skey != null && !skey.isEmpty()) {
@@ -137,9 +136,9 @@ public class CookieHookManager {
                 
                 // Hook onPsKeyGet(int ret, String pskey) 或 onPsKeyGet(int ret, String domain, String pskey)
                 try {
-                    XposedBridge.hookAllMethods(clazz, "onPsKeyGet", new XC_MethodHook() {
+                    HookRegistry.hookAllMethods("cookie.wtlogin_callback", clazz, "onPsKeyGet", new HookRegistry.Callback() {
                         @Override
-                        protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                        protected void after(MethodHookParam param) throws Throwable {
                             String pskey = null;
                             String domain = null;
                             
@@ -205,9 +204,9 @@ public class CookieHookManager {
                 
                 // Hook getSKey方法 (可能有多个重载)
                 try {
-                    XposedBridge.hookAllMethods(clazz, "getSKey", new XC_MethodHook() {
+                    HookRegistry.hookAllMethods("cookie.wtlogin_helper", clazz, "getSKey", new HookRegistry.Callback() {
                         @Override
-                        protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                        protected void after(MethodHookParam param) throws Throwable {
                             Object result = param.getResult();
                             if (result instanceof String) {
                                 String skey = (String) result;
@@ -232,9 +231,9 @@ public class CookieHookManager {
                 
                 // Hook getPsKey方法
                 try {
-                    XposedBridge.hookAllMethods(clazz, "getPsKey", new XC_MethodHook() {
+                    HookRegistry.hookAllMethods("cookie.wtlogin_helper", clazz, "getPsKey", new HookRegistry.Callback() {
                         @Override
-                        protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                        protected void after(MethodHookParam param) throws Throwable {
                             Object result = param.getResult();
                             if (result instanceof String) {
                                 String pskey = (String) result;
@@ -326,10 +325,10 @@ public class CookieHookManager {
      */
     private static boolean tryHookGetSkey(Class<?> ticketManagerClass) {
         try {
-            XposedHelpers.findAndHookMethod(ticketManagerClass, "getSkey", String.class,
-                new XC_MethodHook() {
+            HookRegistry.findAndHookMethod("cookie.ticket_manager", ticketManagerClass, "getSkey", String.class,
+                new HookRegistry.Callback() {
                     @Override
-                    protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    protected void after(MethodHookParam param) throws Throwable {
                         Object result = param.getResult();
                         if (result instanceof String) {
                             String skey = (String) result;
@@ -361,10 +360,10 @@ public class CookieHookManager {
             Class<?> qqAppInterface = XposedHelpers.findClass("com.tencent.mobileqq.app.QQAppInterface", classLoader);
             
             // Hook getManager方法来获取TicketManager的类
-            XposedHelpers.findAndHookMethod(qqAppInterface, "getManager", int.class,
-                new XC_MethodHook() {
+            HookRegistry.findAndHookMethod("cookie.get_manager", qqAppInterface, "getManager", int.class,
+                new HookRegistry.Callback() {
                     @Override
-                    protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    protected void after(MethodHookParam param) throws Throwable {
                         int managerId = (int) param.args[0];
                         if (managerId == 2) { // TicketManager的ID是2
                             Object ticketManager = param.getResult();
@@ -464,10 +463,10 @@ public class CookieHookManager {
         
         // Hook getSkey
         try {
-            XposedHelpers.findAndHookMethod(tmClass, "getSkey", String.class,
-                new XC_MethodHook() {
+            HookRegistry.findAndHookMethod("cookie.ticket_manager", tmClass, "getSkey", String.class,
+                new HookRegistry.Callback() {
                     @Override
-                    protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    protected void after(MethodHookParam param) throws Throwable {
                         Object result = param.getResult();
                         if (result instanceof String) {
                             String skey = (String) result;
@@ -491,10 +490,10 @@ public class CookieHookManager {
         
         // Hook getPskey
         try {
-            XposedHelpers.findAndHookMethod(tmClass, "getPskey", String.class, String.class,
-                new XC_MethodHook() {
+            HookRegistry.findAndHookMethod("cookie.ticket_manager", tmClass, "getPskey", String.class, String.class,
+                new HookRegistry.Callback() {
                     @Override
-                    protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    protected void after(MethodHookParam param) throws Throwable {
                         Object result = param.getResult();
                         if (result instanceof String) {
                             String pskey = (String) result;
@@ -535,11 +534,11 @@ public class CookieHookManager {
             try {
                 Class<?> ticketManagerClass = XposedHelpers.findClass(className, classLoader);
                 
-                XposedHelpers.findAndHookMethod(ticketManagerClass, "getPskey", 
+                HookRegistry.findAndHookMethod("cookie.ticket_manager", ticketManagerClass, "getPskey", 
                     String.class, String.class,
-                    new XC_MethodHook() {
+                    new HookRegistry.Callback() {
                         @Override
-                        protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                        protected void after(MethodHookParam param) throws Throwable {
                             Object result = param.getResult();
                             if (result instanceof String) {
                                 String pskey = (String) result;
@@ -583,10 +582,10 @@ public class CookieHookManager {
             try {
                 Class<?> appClass = XposedHelpers.findClass(className, classLoader);
                 
-                XposedHelpers.findAndHookMethod(appClass, "getCurrentAccountUin",
-                    new XC_MethodHook() {
+                HookRegistry.findAndHookMethod("cookie.account_uin", appClass, "getCurrentAccountUin",
+                    new HookRegistry.Callback() {
                         @Override
-                        protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                        protected void after(MethodHookParam param) throws Throwable {
                             Object result = param.getResult();
                             if (result instanceof String) {
                                 String uin = (String) result;
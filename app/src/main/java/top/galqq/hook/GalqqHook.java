@@ -57,65 +57,18 @@ public class GalqqHook implements IXposedHookLoadPackage, IXposedHookZygoteInit
         debugLog(TAG + ": Hooking QQ " + lpparam.packageName);
         
         try {
-            // 初始化 CookieHookManager（需要在其他Hook之前）
-            debugLog(TAG + ": 正在初始化CookieHookManager...");
-            try {
-                CookieHookManager.initHooks(lpparam);
-                debugLog(TAG + ": CookieHookManager初始化完成");
-            } catch (Throwable t) {
-                errorLog(TAG + ": CookieHookManager初始化失败: " + t.getMessage());
-                errorLog(t);
-            }
+            registerStartupTasks(lpparam);
             
-            // 初始化 Hooks
-            MessageInterceptor.init(lpparam.classLoader);
-            SettingsInterceptor.init(lpparam.classLoader);
+            // 只有必须在 Application 创建前安装的 Hook 在这里执行
+            StartupScheduler.runPhase(StartupScheduler.Phase.LOAD_PACKAGE);
             
             XposedHelpers.findAndHookMethod(Instrumentation.class, "callApplicationOnCreate", Application.class, new XC_MethodHook() {
                 @Override
                 protected void afterHookedMethod(MethodHookParam param) throws Throwable {
-                    Application app = (Application) param.args[0];
-                    HostInfo.init(app);
-                    Parasitics.initForStubActivity(app);
-                    
-                    // 初始化 ConfigManager（必须在 MessageSendTracker 之前）
-                    try {
-                        top.galqq.config.ConfigManager.init(app);
-                        debugLog(TAG + ": ConfigManager 初始化完成");
-                    } catch (Throwable t) {
-                        errorLog(TAG + ": ConfigManager 初始化失败: " + t.getMessage());
-                        // 不抛出异常，继续执行
-                    }
-                    
-                    // 启动消息发送追踪
-                    debugLog(TAG + ": 正在启动消息追踪...");
-                    try {
-                        MessageSendTracker.startTracking(app);
-                        debugLog(TAG + ": 消息追踪启动完成");
-                    } catch (Throwable t) {
-                        errorLog(TAG + ": 消息追踪启动失败: " + t.getMessage());
-                        errorLog(t);
-                    }
-                    
-                    // 【DEBUG】分析 AIOElementType 子类，用于发现引用回复相关类型
-                    debugLog(TAG + ": 正在分析 AIOElementType 子类...");
-                    try {
-                        top.galqq.utils.SendMessageHelper.analyzeAIOElementTypes(app.getClassLoader());
-                        debugLog(TAG + ": AIOElementType 分析完成");
-                    } catch (Throwable t) {
-                        errorLog(TAG + ": AIOElementType 分析失败: " + t.getMessage());
-                        errorLog(t);
-                    }
-                    
-                    // 初始化 RkeyHook（用于获取图片下载的rkey）
-                    errorLog(TAG + ": 正在初始化 RkeyHook...");
-                    try {
-                        RkeyHook.init(app.getClassLoader());
-                        errorLog(TAG + ": RkeyHook 初始化完成");
-                    } catch (Throwable t) {
-                        errorLog(TAG + ": RkeyHook 初始化失败: " + t.getMessage());
-                        errorLog(t);
-                    }
+                    sApp = (Application) param.args[0];
+                    StartupScheduler.runPhase(StartupScheduler.Phase.APP_CREATE);
+                    // 其余工作等主线程空闲后在后台执行，不占用QQ启动时间
+                    StartupScheduler.scheduleBackground();
                 }
             });
 
@@ -125,4 +78,54 @@ public class GalqqHook implements IXposedHookLoadPackage, IXposedHookZygoteInit
             errorLog(t);
         }
     }
+    
+    private static volatile Application sApp;
+    
+    /**
+     * 注册启动任务
+     * 
+     * LOAD_PACKAGE（主线程，Application 创建前）：
+     *   cookie_hooks  - 票据 Hook，登录回调可能在很早就触发
+     *   message_hooks - 消息气泡 Hook，必须在第一个聊天界面之前
+     * APP_CREATE（主线程，首个界面前）：
+     *   host_info / stub_activity / config
+     * BACKGROUND（后台线程，主线程空闲后）：
+     *   settings_hooks - 设置入口，用户进入设置页之前完成即可
+     *   send_tracker   - 发送框 Hook，打开聊天窗口之前完成即可
+     *   rkey_hooks     - 图片 rkey，漏掉启动时的响应后会按需刷新
+     *   aio_element_analysis - 仅调试用，只在开启 Hook 调试日志时执行
+     *   debug_hooks    - 开启 Hook 调试日志时安装已登记的调试 Hook（见 HookRegistry）
+     */
+    private static void registerStartupTasks(XC_LoadPackage.LoadPackageParam lpparam) {
+        final ClassLoader classLoader = lpparam.classLoader;
+        
+        StartupScheduler.register("cookie_hooks", StartupScheduler.Phase.LOAD_PACKAGE,
+            () -> CookieHookManager.initHooks(lpparam));
+        StartupScheduler.register("message_hooks", StartupScheduler.Phase.LOAD_PACKAGE,
+            () -> MessageInterceptor.init(classLoader));
+        
+        StartupScheduler.register("host_info", StartupScheduler.Phase.APP_CREATE,
+            () -> HostInfo.init(sApp));
+        StartupScheduler.register("stub_activity", StartupScheduler.Phase.APP_CREATE,
+            () -> Parasitics.initForStubActivity(sApp));
+        // ConfigManager 必须在依赖配置的任务之前
+        StartupScheduler.register("config", StartupScheduler.Phase.APP_CREATE,
+            () -> top.galqq.config.ConfigManager.init(sApp));
+        
+        StartupScheduler.register("settings_hooks", StartupScheduler.Phase.BACKGROUND,
+            () -> SettingsInterceptor.init(classLoader));
+        StartupScheduler.register("send_tracker", StartupScheduler.Phase.BACKGROUND, new String[]{"config"},
+            () -> MessageSendTracker.startTracking(sApp));
+        StartupScheduler.register("rkey_hooks", StartupScheduler.Phase.BACKGROUND, new String[]{"config"},
+            () -> RkeyHook.init(sApp.getClassLoader()));
+        StartupScheduler.register("aio_element_analysis", StartupScheduler.Phase.BACKGROUND, new String[]{"config"},
+            () -> {
+                // 【DEBUG】分析 AIOElementType 子类，结果只输出到日志
+                if (top.galqq.config.ConfigManager.isDebugHookLogEnabled()) {
+                    top.galqq.utils.SendMessageHelper.analyzeAIOElementTypes(sApp.getClassLoader());
+                }
+            });
+        StartupScheduler.register("debug_hooks", StartupScheduler.Phase.BACKGROUND, new String[]{"config"},
+            () -> HookRegistry.setDebugSessionActive(top.galqq.config.ConfigManager.isDebugHookLogEnabled()));
+    }
 }
@@ -0,0 +1,289 @@
+package top.galqq.hook;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.lang.reflect.Member;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import de.robv.android.xposed.XC_MethodHook;
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+import top.galqq.config.ConfigManager;
+
+/**
+ * Hook 统一登记
+ *
+ * 所有经过这里安装的 Hook 按"分组"登记：
+ * - 保存 Unhook 句柄，可以按分组卸载
+ * - 统计每个分组回调的调用次数和累计耗时，用来确认模块在QQ热点方法上的开销
+ * - 调试用的 Hook 通过 {@link #registerDebugHooks} 登记安装函数，只在调试会话（开启 Hook 调试日志）期间安装，
+ *   关闭后立即卸载，正式使用时不产生任何开销
+ *
+ * 回调需要继承 {@link Callback}，重写 before/after（而不是 beforeHookedMethod/afterHookedMethod）。
+ */
+public final class HookRegistry {
+
+    private static final String TAG = "GalQQ.HookRegistry";
+
+    private static void debugLog(String message) {
+        try {
+            if (ConfigManager.isVerboseLogEnabled()) {
+                XposedBridge.log(TAG + ": " + message);
+            }
+        } catch (Throwable ignored) {}
+    }
+
+    /**
+     * 带耗时统计的 Hook 回调
+     * 调用次数在 before 阶段计一次（即被 Hook 方法的调用次数），耗时为 before + after 之和
+     */
+    public abstract static class Callback extends XC_MethodHook {
+        private volatile Group group;
+
+        public Callback() {
+            super();
+        }
+
+        public Callback(int priority) {
+            super(priority);
+        }
+
+        @Override
+        protected final void beforeHookedMethod(MethodHookParam param) throws Throwable {
+            Group g = group;
+            if (g == null) {
+                before(param);
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                before(param);
+            } finally {
+                g.calls.increment();
+                g.nanos.add(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        protected final void afterHookedMethod(MethodHookParam param) throws Throwable {
+            Group g = group;
+            if (g == null) {
+                after(param);
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                after(param);
+            } finally {
+                g.nanos.add(System.nanoTime() - start);
+            }
+        }
+
+        protected void before(MethodHookParam param) throws Throwable {}
+
+        protected void after(MethodHookParam param) throws Throwable {}
+    }
+
+    private static final class Group {
+        final String name;
+        final boolean debug;
+        final List<XC_MethodHook.Unhook> unhooks = new ArrayList<>();
+        final LongAdder calls = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+
+        Group(String name, boolean debug) {
+            this.name = name;
+            this.debug = debug;
+        }
+    }
+
+    // 受 HookRegistry.class 锁保护
+    private static final Map<String, Group> sGroups = new LinkedHashMap<>();
+    private static final Map<String, Runnable> sDebugInstallers = new LinkedHashMap<>();
+    private static boolean sDebugSessionActive = false;
+
+    private HookRegistry() {}
+
+    // ========== 安装 ==========
+
+    public static XC_MethodHook.Unhook hookMethod(String group, Member method, Callback callback) {
+        attach(group, callback);
+        XC_MethodHook.Unhook unhook = XposedBridge.hookMethod(method, callback);
+        record(group, unhook);
+        return unhook;
+    }
+
+    public static Set<XC_MethodHook.Unhook> hookAllMethods(String group, Class<?> clazz, String methodName, Callback callback) {
+        attach(group, callback);
+        Set<XC_MethodHook.Unhook> unhooks = XposedBridge.hookAllMethods(clazz, methodName, callback);
+        for (XC_MethodHook.Unhook unhook : unhooks) {
+            record(group, unhook);
+        }
+        return unhooks;
+    }
+
+    public static Set<XC_MethodHook.Unhook> hookAllConstructors(String group, Class<?> clazz, Callback callback) {
+        attach(group, callback);
+        Set<XC_MethodHook.Unhook> unhooks = XposedBridge.hookAllConstructors(clazz, callback);
+        for (XC_MethodHook.Unhook unhook : unhooks) {
+            record(group, unhook);
+        }
+        return unhooks;
+    }
+
+    /**
+     * 同 XposedHelpers.findAndHookMethod，最后一个参数必须是 {@link Callback}
+     */
+    public static XC_MethodHook.Unhook findAndHookMethod(String group, Class<?> clazz, String methodName,
+                                                         Object... parameterTypesAndCallback) {
+        Object last = parameterTypesAndCallback.length > 0
+                ? parameterTypesAndCallback[parameterTypesAndCallback.length - 1] : null;
+        if (!(last instanceof Callback)) {
+            throw new IllegalArgumentException("no HookRegistry.Callback defined");
+        }
+        attach(group, (Callback) last);
+        XC_MethodHook.Unhook unhook = XposedHelpers.findAndHookMethod(clazz, methodName, parameterTypesAndCallback);
+        record(group, unhook);
+        return unhook;
+    }
+
+    /**
+     * 卸载分组内的所有 Hook（统计数据保留）
+     */
+    public static void unhookGroup(String group) {
+        List<XC_MethodHook.Unhook> unhooks;
+        synchronized (HookRegistry.class) {
+            Group g = sGroups.get(group);
+            if (g == null || g.unhooks.isEmpty()) return;
+            unhooks = new ArrayList<>(g.unhooks);
+            g.unhooks.clear();
+        }
+        for (XC_MethodHook.Unhook unhook : unhooks) {
+            try {
+                unhook.unhook();
+            } catch (Throwable t) {
+                debugLog("卸载失败 " + group + ": " + t.getMessage());
+            }
+        }
+        debugLog("已卸载 " + group + "（" + unhooks.size() + " 个）");
+    }
+
+    // ========== 调试 Hook ==========
+
+    /**
+     * 登记调试用的 Hook 安装函数
+     * 安装函数里应使用同一个分组名调用本类的 hook 方法；调试会话已开启时立即安装
+     */
+    public static void registerDebugHooks(String group, Runnable installer) {
+        boolean installNow;
+        synchronized (HookRegistry.class) {
+            sDebugInstallers.put(group, installer);
+            if (!sGroups.containsKey(group)) {
+                sGroups.put(group, new Group(group, true));
+            }
+            installNow = sDebugSessionActive;
+        }
+        if (installNow) {
+            installDebugGroup(group, installer);
+        }
+    }
+
+    /**
+     * 开启/结束调试会话：开启时安装所有调试 Hook，结束时全部卸载
+     */
+    public static void setDebugSessionActive(boolean active) {
+        Map<String, Runnable> installers;
+        synchronized (HookRegistry.class) {
+            if (sDebugSessionActive == active) return;
+            sDebugSessionActive = active;
+            installers = new LinkedHashMap<>(sDebugInstallers);
+        }
+        for (Map.Entry<String, Runnable> e : installers.entrySet()) {
+            if (active) {
+                installDebugGroup(e.getKey(), e.getValue());
+            } else {
+                unhookGroup(e.getKey());
+            }
+        }
+        debugLog("调试会话" + (active ? "开启" : "结束") + "，调试 Hook 分组 " + installers.size() + " 个");
+    }
+
+    public static synchronized boolean isDebugSessionActive() {
+        return sDebugSessionActive;
+    }
+
+    private static void installDebugGroup(String group, Runnable installer) {
+        try {
+            installer.run();
+        } catch (Throwable t) {
+            debugLog("安装调试 Hook 失败 " + group + ": " + t.getMessage());
+        }
+    }
+
+    // ========== 统计 ==========
+
+    /**
+     * 各分组的 Hook 数量、调用次数和耗时
+     */
+    public static synchronized String formatSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Group g : sGroups.values()) {
+            long calls = g.calls.sum();
+            long nanos = g.nanos.sum();
+            if (g.debug && g.unhooks.isEmpty() && calls == 0) continue;
+            sb.append(String.format(Locale.US, "%-22s %3d个  %8d次  %7.1fms  均%6.1fus%s\n",
+                    g.name, g.unhooks.size(), calls, nanos / 1e6,
+                    calls > 0 ? nanos / 1e3 / calls : 0.0,
+                    g.debug ? "  [调试]" : ""));
+        }
+        if (sb.length() == 0) {
+            return "暂无数据";
+        }
+        return sb.toString().trim();
+    }
+
+    public static synchronized JSONArray exportSnapshot() {
+        JSONArray arr = new JSONArray();
+        try {
+            for (Group g : sGroups.values()) {
+                JSONObject obj = new JSONObject();
+                obj.put("group", g.name);
+                obj.put("debug", g.debug);
+                obj.put("installed", g.unhooks.size());
+                obj.put("calls", g.calls.sum());
+                obj.put("totalNanos", g.nanos.sum());
+                arr.put(obj);
+            }
+        } catch (Exception ignored) {}
+        return arr;
+    }
+
+    public static synchronized void resetStats() {
+        for (Group g : sGroups.values()) {
+            g.calls.reset();
+            g.nanos.reset();
+        }
+    }
+
+    // ========== 内部 ==========
+
+    private static synchronized void attach(String groupName, Callback callback) {
+        Group g = sGroups.get(groupName);
+        if (g == null) {
+            g = new Group(groupName, false);
+            sGroups.put(groupName, g);
+        }
+        callback.group = g;
+    }
+
+    private static synchronized void record(String groupName, XC_MethodHook.Unhook unhook) {
+        sGroups.get(groupName).unhooks.add(unhook);
+    }
+}
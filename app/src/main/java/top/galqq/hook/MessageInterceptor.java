@@ -18,9 +18,12 @@ import de.robv.android.xposed.XposedBridge;
 import de.robv.android.xposed.XposedHelpers;
 import top.galqq.config.ConfigManager;
 import top.galqq.utils.AiRateLimitedQueue;
+import top.galqq.utils.ContextWindowAnchor;
+import top.galqq.utils.ConversationSummaryManager;
 import top.galqq.utils.DictionaryManager;
 import top.galqq.utils.HttpAiClient;
 import top.galqq.utils.MessageContextManager;
+import top.galqq.utils.PerfMetrics;
 import top.galqq.utils.QAppUtils;
 import java.lang.reflect.Field;
 import top.galqq.utils.SendMessageHelper;
@@ -70,6 +73,15 @@ public class MessageInterceptor {
         }
     }
     
+    private static final android.os.Handler sMainHandler = new android.os.Handler(android.os.Looper.getMainLooper());
+    // 读取上下文、组装AI请求的后台线程（读取上下文可能要等磁盘日志恢复，不能放在主线程）
+    private static final java.util.concurrent.ExecutorService sRequestAssembler =
+        java.util.concurrent.Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "GalQQ-RequestAssembler");
+            t.setDaemon(true);
+            return t;
+        });
+
     // AI选项缓存：msgId -> List<String> options
     private static final java.util.Map<String, java.util.List<String>> optionsCache = 
         new java.util.LinkedHashMap<String, java.util.List<String>>(100, 0.75f, true) {
@@ -103,6 +115,19 @@ public class MessageInterceptor {
         affinityDisplayCache.clear();
         XposedBridge.log(TAG + ": 好感度显示缓存已清空");
     }
+    
+    /**
+     * 只移除分数有变化的用户（后台刷新后调用），其余用户的显示缓存保留
+     */
+    public static void invalidateAffinityDisplay(java.util.Collection<String> uins) {
+        if (uins == null || uins.isEmpty()) return;
+        synchronized (affinityDisplayCache) {
+            for (String uin : uins) {
+                affinityDisplayCache.remove(uin);
+            }
+        }
+        debugLog(TAG + ": 好感度显示缓存已失效 " + uins.size() + " 人");
+    }
 
     public static void init(ClassLoader classLoader) {
         // Detect QQ architecture and use appropriate hook strategy
@@ -110,7 +135,7 @@ public class MessageInterceptor {
             debugLog(TAG + ": Detected QQNT, using QQNT hook strategy");
             hookAIOBubbleMsgItemVB(classLoader);  // QQNT architecture
             
-            // 【DEBUG】Hook AIOSendMsgVMDelegate to analyze message structure
+            // 【DEBUG】登记 AIOSendMsgVMDelegate 分析用 Hook（只在调试会话期间安装）
             hookDebugAIOSendMsgVMDelegate(classLoader);
         } else {
             debugLog(TAG + ": Detected legacy QQ, using TextItemBuilder hook strategy");
@@ -135,8 +160,12 @@ public class MessageInterceptor {
                 debugLog(TAG + ": [Affinity] 开始初始化好感度管理器...");
                 top.galqq.utils.AffinityManager affinityManager = 
                     top.galqq.utils.AffinityManager.getInstance(context);
-                // 强制刷新数据
-                affinityManager.refreshData(true, new top.galqq.utils.AffinityManager.RefreshCallback() {
+                // 数据变化时按 UIN 失效显示缓存
+                affinityManager.addChangeListener(MessageInterceptor::invalidateAffinityDisplay);
+                // 之后的定期刷新交给后台调度器
+                top.galqq.utils.AffinityRefreshScheduler.start(context);
+                // 缓存过期或为空时刷新
+                affinityManager.refreshData(false, new top.galqq.utils.AffinityManager.RefreshCallback() {
                     @Override
                     public void onSuccess() {
                         debugLog(TAG + ": [Affinity] ✓ 好感度数据刷新成功");
@@ -201,9 +230,9 @@ public class MessageInterceptor {
             debugLog(TAG + ": Found target method: " + methodName);
             
             // Hook the method using QQ's approach (modify BaseChatItemLayout directly)
-            XposedBridge.hookMethod(targetMethod, new XC_MethodHook() {
+            HookRegistry.hookMethod("message.text_item_builder", targetMethod, new HookRegistry.Callback() {
                 @Override
-                protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                protected void after(MethodHookParam param) throws Throwable {
                     try {
                         Object chatMessage = param.args[0];
                         RelativeLayout baseChatItemLayout = (RelativeLayout) param.args[3];
@@ -377,156 +406,217 @@ public class MessageInterceptor {
             };
             handler.postDelayed(animator, 400);
             
-            // 获取上下文消息（如果启用）
-            List<MessageContextManager.ChatMessage> contextMessages = null;
+            // 先从QQ拉取会话的最近消息（开启时，结果未过期则直接继续），再组装请求
+            final String finalSenderQQ = senderQQ;
+            final String finalPeerUin = peerUin;
+            Runnable submit = () -> submitAiRequest(context, bar, msgContent, msgObj, msgId, conversationId, rootView,
+                finalSenderQQ, finalPeerUin);
             if (ConfigManager.isContextEnabled() && conversationId != null) {
-                int contextCount = ConfigManager.getContextMessageCount();
-                // 多获取一条，以便如果最后一条是当前消息时移除
-                contextMessages = MessageContextManager.getContext(conversationId, contextCount + 1);
-                
-                // 去除当前消息（如果它已经被存入上下文）
-                if (!contextMessages.isEmpty()) {
-                    MessageContextManager.ChatMessage lastMsg = contextMessages.get(contextMessages.size() - 1);
-                    // 通过msgId判断（如果msgId不为空）
-                    boolean isSameMsg = false;
-                    if (msgId != null && lastMsg.msgId != null) {
-                        if (msgId.equals(lastMsg.msgId)) {
-                            isSameMsg = true;
-                        }
-                    } else {
-                        // 降级：通过内容和时间戳判断（防止重复）
-                        // 如果内容相同且时间差在1秒内
-                        if (msgContent.equals(lastMsg.content) && 
-                            Math.abs(System.currentTimeMillis() - lastMsg.timestamp) < 1000) {
-                            isSameMsg = true;
-                        }
-                    }
-                    
-                    if (isSameMsg) {
-                        contextMessages.remove(contextMessages.size() - 1);
-                        // debugLog("Removed current message from context to avoid duplication");
-                    }
-                }
-                
-                // 确保数量不超过配置
-                if (contextMessages.size() > contextCount) {
-                    contextMessages = contextMessages.subList(contextMessages.size() - contextCount, contextMessages.size());
+                top.galqq.utils.KernelContextProvider.refresh(context, msgObj, conversationId,
+                    ConfigManager.getContextMessageCount() + 1, submit);
+            } else {
+                submit.run();
+            }
+        } else {
+            // 本地词库模式：按消息关键词检索（没有命中时随机），不使用缓存
+            useDictionaryNT(context, bar, msgContent, msgObj);
+        }
+    }
+
+    /**
+     * 组装上下文并提交AI请求（选项条已显示"加载中"）
+     * 在主线程读取界面和消息对象上的信息，上下文的读取（可能从磁盘日志恢复）和请求组装放到后台线程
+     */
+    private static void submitAiRequest(Context context, LinearLayout bar, String msgContent, Object msgObj,
+                                        String msgId, String conversationId, ViewGroup rootView,
+                                        String senderQQ, String peerUin) {
+        // 判断选项条是否在屏幕可见区域（用于设置优先级）
+        android.graphics.Rect rect = new android.graphics.Rect();
+        boolean isVisible = bar.getGlobalVisibleRect(rect) && bar.isShown();
+        AiRateLimitedQueue.Priority priority = isVisible ? 
+            AiRateLimitedQueue.Priority.HIGH : 
+            AiRateLimitedQueue.Priority.NORMAL;
+
+        // 【新增】提取当前消息的元数据（发送人昵称、时间戳）
+        String currentSenderName = null;
+        long currentTimestamp = 0;
+        try {
+            // 尝试从msgObj（msgRecord）提取senderName
+            Object remarkNameObj = XposedHelpers.getObjectField(msgObj, "sendRemarkName");
+            if (remarkNameObj != null && !String.valueOf(remarkNameObj).trim().isEmpty()) {
+                currentSenderName = String.valueOf(remarkNameObj);
+            } else {
+                Object nickNameObj = XposedHelpers.getObjectField(msgObj, "sendNickName");
+                if (nickNameObj != null) {
+                    currentSenderName = String.valueOf(nickNameObj);
                 }
             }
 
-            // 判断选项条是否在屏幕可见区域（用于设置优先级）
-            android.graphics.Rect rect = new android.graphics.Rect();
-            boolean isVisible = bar.getGlobalVisibleRect(rect) && bar.isShown();
-            AiRateLimitedQueue.Priority priority = isVisible ? 
-                AiRateLimitedQueue.Priority.HIGH : 
-                AiRateLimitedQueue.Priority.NORMAL;
-            
-            // 【新增】提取当前消息的元数据（发送人昵称、时间戳）
-            // 注意：senderQQ和peerUin已在方法开头提取
-            String currentSenderName = null;
-            long currentTimestamp = 0;
+            // 提取时间戳
+            Object msgTimeObj = XposedHelpers.getObjectField(msgObj, "msgTime");
+            if (msgTimeObj != null) {
+                currentTimestamp = Long.parseLong(String.valueOf(msgTimeObj)) * 1000L; // 秒转毫秒
+            }
+        } catch (Throwable t) {
+            // 提取失败，使用默认值（null和0）
+            debugLog(TAG + ": Failed to extract current message metadata: " + t.getMessage());
+        }
+
+        // 使用 PromptSelector 选择合适的提示词（传递peerUin作为groupId）
+        ConfigManager.PromptItem selectedPrompt = top.galqq.utils.PromptSelector.getSelectedPrompt(
+            senderQQ, peerUin, ConfigManager.isAiEnabled());
+
+        // 如果没有可用的提示词（全部被屏蔽），隐藏选项栏
+        if (selectedPrompt == null) {
+            debugLog(TAG + ": No available prompt for sender: " + senderQQ + ", hiding option bar");
+            bar.setVisibility(View.GONE);
+            return;
+        }
+
+        String customPrompt = selectedPrompt.content;
+        debugLog(TAG + ": Using prompt: " + selectedPrompt.name + " for sender: " + senderQQ);
+
+        // 【图片识别】提取消息中的图片元素
+        java.util.List<top.galqq.utils.ImageExtractor.ImageElement> imageElements = null;
+        if (ConfigManager.isImageRecognitionEnabled() && msgObj != null) {
             try {
-                // 尝试从msgObj（msgRecord）提取senderName
-                Object remarkNameObj = XposedHelpers.getObjectField(msgObj, "sendRemarkName");
-                if (remarkNameObj != null && !String.valueOf(remarkNameObj).trim().isEmpty()) {
-                    currentSenderName = String.valueOf(remarkNameObj);
-                } else {
-                    Object nickNameObj = XposedHelpers.getObjectField(msgObj, "sendNickName");
-                    if (nickNameObj != null) {
-                        currentSenderName = String.valueOf(nickNameObj);
-                    }
-                }
-                
-                // 提取时间戳
-                Object msgTimeObj = XposedHelpers.getObjectField(msgObj, "msgTime");
-                if (msgTimeObj != null) {
-                    currentTimestamp = Long.parseLong(String.valueOf(msgTimeObj)) * 1000L; // 秒转毫秒
+                imageElements = top.galqq.utils.ImageExtractor.extractImages(msgObj);
+                if (imageElements != null && !imageElements.isEmpty()) {
+                    debugLog(TAG + ": 检测到 " + imageElements.size() + " 张图片");
                 }
             } catch (Throwable t) {
-                // 提取失败，使用默认值（null和0）
-                debugLog(TAG + ": Failed to extract current message metadata: " + t.getMessage());
+                debugLog(TAG + ": 图片提取失败: " + t.getMessage());
             }
-            
-            // 使用 PromptSelector 选择合适的提示词（传递peerUin作为groupId）
-            // 注意：peerUin和senderQQ已在方法开头提取
-            java.util.List<ConfigManager.PromptItem> allPrompts = ConfigManager.getPromptList();
-            ConfigManager.PromptItem selectedPrompt = top.galqq.utils.PromptSelector.getSelectedPrompt(
-                allPrompts, senderQQ, peerUin, ConfigManager.isAiEnabled());
-            
-            // 如果没有可用的提示词（全部被屏蔽），隐藏选项栏
-            if (selectedPrompt == null) {
-                debugLog(TAG + ": No available prompt for sender: " + senderQQ + ", hiding option bar");
-                bar.setVisibility(View.GONE);
-                return;
+        }
+
+        // 生成选项（带优先级、上下文、发送者QQ、自定义提示词、图片元素和会话ID）
+        // 使用支持重试的回调接口
+        final String finalSenderQQ = senderQQ;
+        final String finalCustomPrompt = customPrompt;
+        final java.util.List<top.galqq.utils.ImageExtractor.ImageElement> finalImageElements = imageElements;
+        final String finalSenderName = currentSenderName;
+        final long finalTimestamp = currentTimestamp;
+        sRequestAssembler.execute(() -> {
+            try {
+                List<MessageContextManager.ChatMessage> contextMessages =
+                    loadRequestContext(context, conversationId, msgId, msgContent);
+                generateOptions(context, bar, msgContent, msgObj, msgId, conversationId, rootView, priority,
+                    contextMessages, finalSenderName, finalTimestamp, finalSenderQQ, finalCustomPrompt,
+                    finalImageElements);
+            } catch (Throwable t) {
+                debugLog(TAG + ": 组装AI请求失败: " + t.getMessage());
+                sMainHandler.post(() -> bar.setVisibility(View.GONE));
             }
-            
-            String customPrompt = selectedPrompt.content;
-            debugLog(TAG + ": Using prompt: " + selectedPrompt.name + " for sender: " + senderQQ);
-            
-            // 【图片识别】提取消息中的图片元素
-            java.util.List<top.galqq.utils.ImageExtractor.ImageElement> imageElements = null;
-            if (ConfigManager.isImageRecognitionEnabled() && msgObj != null) {
-                try {
-                    imageElements = top.galqq.utils.ImageExtractor.extractImages(msgObj);
-                    if (imageElements != null && !imageElements.isEmpty()) {
-                        debugLog(TAG + ": 检测到 " + imageElements.size() + " 张图片");
+        });
+    }
+
+    /**
+     * 读取请求用的上下文（后台线程：可能等待磁盘日志恢复）
+     * 去掉当前消息，按配置的条数截取，较早的消息折叠成摘要；未启用上下文时返回null
+     */
+    private static List<MessageContextManager.ChatMessage> loadRequestContext(Context context, String conversationId,
+                                                                             String msgId, String msgContent) {
+        // 获取上下文消息（如果启用）
+        List<MessageContextManager.ChatMessage> contextMessages = null;
+        if (ConfigManager.isContextEnabled() && conversationId != null) {
+            int contextCount = ConfigManager.getContextMessageCount();
+            // 多获取一条，以便如果最后一条是当前消息时移除
+            contextMessages = MessageContextManager.getContext(conversationId, contextCount + 1);
+
+            // 去除当前消息（如果它已经被存入上下文）
+            if (!contextMessages.isEmpty()) {
+                MessageContextManager.ChatMessage lastMsg = contextMessages.get(contextMessages.size() - 1);
+                // 通过msgId判断（如果msgId不为空）
+                boolean isSameMsg = false;
+                if (msgId != null && lastMsg.msgId != null) {
+                    if (msgId.equals(lastMsg.msgId)) {
+                        isSameMsg = true;
                     }
-                } catch (Throwable t) {
-                    debugLog(TAG + ": 图片提取失败: " + t.getMessage());
+                } else {
+                    // 降级：通过内容和时间戳判断（防止重复）
+                    // 如果内容相同且时间差在1秒内
+                    if (msgContent.equals(lastMsg.content) && 
+                        Math.abs(System.currentTimeMillis() - lastMsg.timestamp) < 1000) {
+                        isSameMsg = true;
+                    }
+                }
+
+                if (isSameMsg) {
+                    contextMessages.remove(contextMessages.size() - 1);
+                    // debugLog("Removed current message from context to avoid duplication");
                 }
             }
-            
-            // 提交到限流队列（带优先级、上下文、发送者QQ、自定义提示词、图片元素和会话ID）
-            // 使用支持重试的回调接口
-            final String finalSenderQQ = senderQQ;
-            final String finalCustomPrompt = customPrompt;
-            final java.util.List<top.galqq.utils.ImageExtractor.ImageElement> finalImageElements = imageElements;
-            AiRateLimitedQueue.getInstance(context).submitRequest(
-                context, 
-                msgContent, 
-                msgId, // 传递msgId用于持久化
-                priority,
-                contextMessages, // 传递上下文消息
-                currentSenderName, // 当前消息发送人昵称
-                currentTimestamp, // 当前消息时间戳
-                finalSenderQQ, // 发送者QQ号
-                finalCustomPrompt, // 自定义提示词
-                finalImageElements, // 图片元素列表
-                conversationId, // 会话ID（用于图片描述缓存）
-                new HttpAiClient.AiCallbackWithRetry() {
-                    @Override
-                    public void onSuccess(List<String> options) {
-                        // 恢复顶部间距
-                        bar.setPadding(0, dp2px(context, 5), 0, dp2px(context, 5));
-                        
-                        // 缓存AI结果
-                        cacheOptions(msgId, options);
-                        
-                        // 如果有 rootView，使用带操作按钮的版本
-                        if (rootView != null) {
-                            populateBarAndShowWithActions(context, bar, options, msgObj, msgId, conversationId, rootView);
-                        } else {
-                            populateBarAndShow(context, bar, options, msgObj);
-                        }
-                    }
 
-                    @Override
-                    public void onFailure(Exception e) {
-                        // AI失败时隐藏选项条（已在UI线程）
-                        bar.setVisibility(View.GONE);
+            // 确保数量不超过配置（窗口起点保持稳定，便于服务商前缀缓存命中）
+            contextMessages = ContextWindowAnchor.trimToCount(conversationId, contextMessages, contextCount);
+
+            // 较早的消息折叠成摘要（未启用或摘要尚未生成时原样返回）
+            contextMessages = ConversationSummaryManager.applySummary(context, conversationId, contextMessages);
+        }
+
+        return contextMessages;
+    }
+
+    /**
+     * 按"选项引擎"设置生成选项（后台线程调用，回调切回主线程更新选项条）
+     */
+    private static void generateOptions(Context context, LinearLayout bar, String msgContent, Object msgObj,
+                                        String msgId, String conversationId, ViewGroup rootView,
+                                        AiRateLimitedQueue.Priority priority,
+                                        List<MessageContextManager.ChatMessage> contextMessages,
+                                        String currentSenderName, long currentTimestamp,
+                                        String finalSenderQQ, String finalCustomPrompt,
+                                        java.util.List<top.galqq.utils.ImageExtractor.ImageElement> finalImageElements) {
+        // 按"选项引擎"设置选择远程AI或本地检索
+        top.galqq.utils.OptionEngine.Request optionRequest = new top.galqq.utils.OptionEngine.Request(
+            context, 
+            msgContent, 
+            msgId, // 传递msgId用于持久化
+            priority,
+            contextMessages, // 传递上下文消息
+            currentSenderName, // 当前消息发送人昵称
+            currentTimestamp, // 当前消息时间戳
+            finalSenderQQ, // 发送者QQ号
+            finalCustomPrompt, // 自定义提示词
+            finalImageElements, // 图片元素列表
+            conversationId // 会话ID（用于图片描述缓存）
+        );
+        top.galqq.utils.OptionEngines.select(context).generate(
+            optionRequest,
+            new HttpAiClient.AiCallbackWithRetry() {
+                @Override
+                public void onSuccess(List<String> options) {
+                    if (android.os.Looper.myLooper() != android.os.Looper.getMainLooper()) {
+                        sMainHandler.post(() -> onSuccess(options));
+                        return;
                     }
-                    
-                    @Override
-                    public void onAllRetriesFailed(Runnable retryAction) {
-                        // 所有重试都失败后，显示"重新加载"按钮
-                        showReloadButton(context, bar, retryAction, msgObj);
+                    // 恢复顶部间距
+                    bar.setPadding(0, dp2px(context, 5), 0, dp2px(context, 5));
+
+                    // 缓存AI结果
+                    cacheOptions(msgId, options);
+
+                    // 如果有 rootView，使用带操作按钮的版本
+                    if (rootView != null) {
+                        populateBarAndShowWithActions(context, bar, options, msgObj, msgId, conversationId, rootView);
+                    } else {
+                        populateBarAndShow(context, bar, options, msgObj);
                     }
                 }
-            );
-        } else {
-            // 本地词库模式：每次随机生成，不使用缓存
-            useDictionaryNT(context, bar, msgObj);
-        }
+
+                @Override
+                public void onFailure(Exception e) {
+                    // AI失败时隐藏选项条（队列已满时在提交线程同步回调，切回UI线程）
+                    sMainHandler.post(() -> bar.setVisibility(View.GONE));
+                }
+
+                @Override
+                public void onAllRetriesFailed(Runnable retryAction) {
+                    // 所有重试都失败后，显示"重新加载"按钮
+                    sMainHandler.post(() -> showReloadButton(context, bar, retryAction, msgObj));
+                }
+            }
+        );
     }
 
     /**
@@ -581,9 +671,8 @@ public class MessageInterceptor {
     }
 
     private static void useDictionary(Context context, LinearLayout bar, Object chatMessage) {
-        DictionaryManager.loadDictionary(context);
-        List<String> options = DictionaryManager.pickRandomLines(3);
-        populateBarAndShow(context, bar, options, chatMessage);
+        DictionaryManager.pickOptions(context, null, 3,
+            options -> populateBarAndShow(context, bar, options, chatMessage));
     }
 
     // 填充选项条并显示（如果有选项的话）
@@ -1037,9 +1126,9 @@ public class MessageInterceptor {
 
             if (handleUIState != null) {
                 debugLog(TAG + ": Found handleUIState method");
-                XposedBridge.hookMethod(handleUIState, new XC_MethodHook() {
+                HookRegistry.hookMethod("message.bubble_ui_state", handleUIState, new HookRegistry.Callback() {
                     @Override
-                    protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    protected void after(MethodHookParam param) throws Throwable {
                         Object uiState = param.args[0];
                         if (uiState == null) return;
                         
@@ -1086,9 +1175,9 @@ public class MessageInterceptor {
             
             if (bindMethod != null) {
                 debugLog(TAG + ": Found bind method");
-                XposedBridge.hookMethod(bindMethod, new XC_MethodHook() {
+                HookRegistry.hookMethod("message.bubble_bind", bindMethod, new HookRegistry.Callback() {
                     @Override
-                    protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                    protected void after(MethodHookParam param) throws Throwable {
                         Object msgItem = param.args[1];
                         processQQNTMessage(param.thisObject, msgItem, getMsgRecord);
                     }
@@ -1221,13 +1310,15 @@ public class MessageInterceptor {
     }
 
     private static void processQQNTMessage(Object aioBubbleMsgItemVB, Object msgItem, Method getMsgRecord) {
+        long perfStart = PerfMetrics.start();
         try {
             // Get MsgRecord
             Object msgRecord = getMsgRecord.invoke(msgItem);
             
-            // 【调试】分析消息结构（仅当包含图片或表情包时）
+            // 【调试】分析消息结构（仅当开启Hook调试日志且包含图片或表情包时）
             try {
-                List<?> elements = (List<?>) XposedHelpers.getObjectField(msgRecord, "elements");
+                List<?> elements = ConfigManager.isDebugHookLogEnabled()
+                    ? (List<?>) XposedHelpers.getObjectField(msgRecord, "elements") : null;
                 if (elements != null && !elements.isEmpty()) {
                     // 检查是否包含图片或表情包
                     boolean hasImageOrEmoji = false;
@@ -1285,47 +1376,6 @@ public class MessageInterceptor {
                 // debugLog(TAG + ": [Context] Error getting activity: " + t.getMessage());
             }
             
-            // 【方法2】识别 ViewHolder 类型
-            try {
-                String viewHolderName = aioBubbleMsgItemVB.getClass().getName();
-                // debugLog(TAG + ": [ViewHolder] Type: " + viewHolderName);
-            } catch (Throwable t) {
-                // debugLog(TAG + ": [ViewHolder] Error: " + t.getMessage());
-            }
-            
-            // 【方法3】识别 RecyclerView 的 Adapter 类型 (使用反射)
-            try {
-                android.view.ViewParent parent = rootView.getParent();
-                boolean foundRecyclerView = false;
-                while (parent != null) {
-                    Class<?> parentClass = parent.getClass();
-                    // 检查是否是 RecyclerView (通过类名判断，避免依赖)
-                    if (isRecyclerView(parentClass)) {
-                        foundRecyclerView = true;
-                        // 反射调用 getAdapter
-                        try {
-                            Method getAdapterMethod = parentClass.getMethod("getAdapter");
-                            Object adapter = getAdapterMethod.invoke(parent);
-                            if (adapter != null) {
-                                // debugLog(TAG + ": [Adapter] Type: " + adapter.getClass().getName());
-                            } else {
-                                // debugLog(TAG + ": [Adapter] Adapter is null");
-                            }
-                        } catch (NoSuchMethodException e) {
-                            // 可能是混淆后的名字，或者不是标准的RecyclerView
-                            // debugLog(TAG + ": [Adapter] getAdapter method not found on " + parentClass.getName());
-                        }
-                        break;
-                    }
-                    parent = parent.getParent();
-                }
-                if (!foundRecyclerView) {
-                    // debugLog(TAG + ": [Adapter] RecyclerView not found in parent hierarchy");
-                }
-            } catch (Throwable t) {
-                debugLog(TAG + ": [Adapter] Error: " + t.getMessage());
-            }
-            
             // Check if module is enabled
             if (!ConfigManager.isModuleEnabled()) {
                 return; // Module is disabled, don't show option bar
@@ -1568,109 +1618,7 @@ public class MessageInterceptor {
                     }
                     
                     // 【新增】提取引用回复的内容并整合到消息
-                    try {
-                        List<?> elements = (List<?>) XposedHelpers.getObjectField(msgRecord, "elements");
-                        if (elements != null && !elements.isEmpty()) {
-                            // 【调试日志已禁用】
-                            // debugLog(TAG + ": Elements count: " + elements.size());
-                            // for (int i = 0; i < elements.size(); i++) {
-                            //     Object element = elements.get(i);
-                            //     debugLog(TAG + ":   [" + i + "] " + element.getClass().getSimpleName());
-                            //     
-                            //     // 尝试所有可能的引用字段名
-                            //     for (String fieldName : new String[]{"replyElement", "g", "h"}) {
-                            //         try {
-                            //             Object field = XposedHelpers.getObjectField(element, fieldName);
-                            //             if (field != null) {
-                            //                 debugLog(TAG + ":     ." + fieldName + " exists: " + field.getClass().getSimpleName());
-                            //             }
-                            //         } catch (Throwable ignored) {}
-                            //     }
-                            // }
-                            
-                            for (Object element : elements) {
-                                try {
-                                    // 尝试获取replyElement
-                                    Object replyElement = XposedHelpers.getObjectField(element, "replyElement");
-                                    if (replyElement != null) {
-                                        // 提取引用的消息文本
-                                        String replyText = null;
-                                        try {
-                                            Object replyTextObj = XposedHelpers.getObjectField(replyElement, "sourceMsgText");
-                                            if (replyTextObj != null) {
-                                                replyText = String.valueOf(replyTextObj);
-                                            }
-                                        } catch (Throwable ignored) {}
-                                        
-                                        // 提取引用消息的发送人
-                                        String replySenderName = null;
-                                        try {
-                                            Object senderShowNameObj = XposedHelpers.getObjectField(replyElement, "senderShowName");
-                                            if (senderShowNameObj != null) {
-                                                replySenderName = String.valueOf(senderShowNameObj);
-                                            }
-                                        } catch (Throwable ignored) {}
-                                        
-                                        // 降级策略1：尝试从当前消息内容中解析 "@昵称 "
-                                        if (replySenderName == null && msgContent != null) {
-                                            String trimmedContent = msgContent.trim();
-                                            if (trimmedContent.startsWith("@")) {
-                                                int spaceIndex = trimmedContent.indexOf(' ');
-                                                if (spaceIndex > 1) {
-                                                    // 提取 @ 和 空格 之间的内容作为名字
-                                                    String potentialName = trimmedContent.substring(1, spaceIndex);
-                                                    // 简单的合法性检查（避免提取到过长的错误内容）
-                                                    if (potentialName.length() < 20) {
-                                                        replySenderName = potentialName;
-                                                        // debugLog(TAG + ": Extracted reply sender from content: " + replySenderName);
-                                                    }
-                                                }
-                                            }
-                                        }
-                                        
-                                        // 降级策略2：使用 senderUid
-                                        if (replySenderName == null) {
-                                            try {
-                                                long senderUid = XposedHelpers.getLongField(replyElement, "senderUid");
-                                                if (senderUid > 0) {
-                                                    replySenderName = String.valueOf(senderUid);
-                                                } else {
-                                                    // 尝试 senderUidStr
-                                                    Object senderUidStrObj = XposedHelpers.getObjectField(replyElement, "senderUidStr");
-                                                    if (senderUidStrObj != null) {
-                                                        replySenderName = String.valueOf(senderUidStrObj);
-                                                    }
-                                                }
-                                            } catch (Throwable ignored) {}
-                                        }
-                                        
-                                        // 最终兜底
-                                        if (replySenderName == null) {
-                                            replySenderName = "某人";
-                                        }
-                                        
-                                        // 如果成功提取引用内容，整合到当前消息内容中
-                                        if (replyText != null && !replyText.trim().isEmpty()) {
-                                            if (replySenderName == null || replySenderName.trim().isEmpty()) {
-                                                replySenderName = "某人";
-                                            }
-                                            
-                                            // 将引用信息附加到消息内容
-                                            // 格式: 原消息内容 (回复 @被引用者: "被引用内容")
-                                            msgContent = msgContent + " (回复 @" + replySenderName + ": \"" + replyText + "\")";
-                                            
-                                            debugLog(TAG + ": ✓ 已将引用信息整合到消息内容");
-                                        }
-                                        break; // 只处理第一个replyElement
-                                    }
-                                } catch (Throwable ignored) {
-                                    // replyElement字段不存在或获取失败，继续下一个element
-                                }
-                            }
-                        }
-                    } catch (Throwable t) {
-                        debugLog(TAG + ": Error extracting reply content: " + t.getMessage());
-                    }
+                    msgContent = appendReplyInfo(msgRecord, msgContent);
                     
                     // 【修改自己消息的显示格式为"昵称[我]"】
                     if (isSelf && senderName != null && !senderName.isEmpty()) {
@@ -1848,6 +1796,8 @@ public class MessageInterceptor {
         } catch (Throwable t) {
             debugLog(TAG + ": Error processing QQNT message: " + t.getMessage());
             debugLog(t);
+        } finally {
+            PerfMetrics.record(PerfMetrics.Stage.BIND, perfStart);
         }
     }
 
@@ -2240,10 +2190,10 @@ public class MessageInterceptor {
         setupOptionBarContentWithRoot(context, bar, msgContent, msgRecord, msgId, conversationId, rootView);
     }
     
-    private static void useDictionaryNT(Context context, LinearLayout bar, Object msgRecord) {
-        DictionaryManager.loadDictionary(context);
-        List<String> options = DictionaryManager.pickRandomLines(3);
-        populateBarAndShow(context, bar, options, msgRecord);
+    // 词库已加载时同步填充；首次使用时在后台加载完成后回调
+    private static void useDictionaryNT(Context context, LinearLayout bar, String msgContent, Object msgRecord) {
+        DictionaryManager.pickOptions(context, msgContent, 3,
+            options -> populateBarAndShow(context, bar, options, msgRecord));
     }
     
     // ========== 操作按钮（刷新/收起/展开）==========
@@ -2601,7 +2551,118 @@ public class MessageInterceptor {
         bar.setVisibility(View.VISIBLE);
     }
     
-    private static String getMessageContentNT(Object msgRecord) {
+    /**
+     * 消息引用了其他消息时，把被引用的内容附加到消息末尾
+     * 格式: 原消息内容 (回复 @被引用者: "被引用内容")
+     */
+    public static String appendReplyInfo(Object msgRecord, String msgContent) {
+        try {
+            List<?> elements = (List<?>) XposedHelpers.getObjectField(msgRecord, "elements");
+            if (elements != null && !elements.isEmpty()) {
+                // 【调试日志已禁用】
+                // debugLog(TAG + ": Elements count: " + elements.size());
+                // for (int i = 0; i < elements.size(); i++) {
+                //     Object element = elements.get(i);
+                //     debugLog(TAG + ":   [" + i + "] " + element.getClass().getSimpleName());
+                //     
+                //     // 尝试所有可能的引用字段名
+                //     for (String fieldName : new String[]{"replyElement", "g", "h"}) {
+                //         try {
+                //             Object field = XposedHelpers.getObjectField(element, fieldName);
+                //             if (field != null) {
+                //                 debugLog(TAG + ":     ." + fieldName + " exists: " + field.getClass().getSimpleName());
+                //             }
+                //         } catch (Throwable ignored) {}
+                //     }
+                // }
+
+                for (Object element : elements) {
+                    try {
+                        // 尝试获取replyElement
+                        Object replyElement = XposedHelpers.getObjectField(element, "replyElement");
+                        if (replyElement != null) {
+                            // 提取引用的消息文本
+                            String replyText = null;
+                            try {
+                                Object replyTextObj = XposedHelpers.getObjectField(replyElement, "sourceMsgText");
+                                if (replyTextObj != null) {
+                                    replyText = String.valueOf(replyTextObj);
+                                }
+                            } catch (Throwable ignored) {}
+
+                            // 提取引用消息的发送人
+                            String replySenderName = null;
+                            try {
+                                Object senderShowNameObj = XposedHelpers.getObjectField(replyElement, "senderShowName");
+                                if (senderShowNameObj != null) {
+                                    replySenderName = String.valueOf(senderShowNameObj);
+                                }
+                            } catch (Throwable ignored) {}
+
+                            // 降级策略1：尝试从当前消息内容中解析 "@昵称 "
+                            if (replySenderName == null && msgContent != null) {
+                                String trimmedContent = msgContent.trim();
+                                if (trimmedContent.startsWith("@")) {
+                                    int spaceIndex = trimmedContent.indexOf(' ');
+                                    if (spaceIndex > 1) {
+                                        // 提取 @ 和 空格 之间的内容作为名字
+                                        String potentialName = trimmedContent.substring(1, spaceIndex);
+                                        // 简单的合法性检查（避免提取到过长的错误内容）
+                                        if (potentialName.length() < 20) {
+                                            replySenderName = potentialName;
+                                            // debugLog(TAG + ": Extracted reply sender from content: " + replySenderName);
+                                        }
+                                    }
+                                }
+                            }
+
+                            // 降级策略2：使用 senderUid
+                            if (replySenderName == null) {
+                                try {
+                                    long senderUid = XposedHelpers.getLongField(replyElement, "senderUid");
+                                    if (senderUid > 0) {
+                                        replySenderName = String.valueOf(senderUid);
+                                    } else {
+                                        // 尝试 senderUidStr
+                                        Object senderUidStrObj = XposedHelpers.getObjectField(replyElement, "senderUidStr");
+                                        if (senderUidStrObj != null) {
+                                            replySenderName = String.valueOf(senderUidStrObj);
+                                        }
+                                    }
+                                } catch (Throwable ignored) {}
+                            }
+
+                            // 最终兜底
+                            if (replySenderName == null) {
+                                replySenderName = "某人";
+                            }
+
+                            // 如果成功提取引用内容，整合到当前消息内容中
+                            if (replyText != null && !replyText.trim().isEmpty()) {
+                                if (replySenderName == null || replySenderName.trim().isEmpty()) {
+                                    replySenderName = "某人";
+                                }
+
+                                // 将引用信息附加到消息内容
+                                // 格式: 原消息内容 (回复 @被引用者: "被引用内容")
+                                msgContent = msgContent + " (回复 @" + replySenderName + ": \"" + replyText + "\")";
+
+                                debugLog(TAG + ": ✓ 已将引用信息整合到消息内容");
+                            }
+                            break; // 只处理第一个replyElement
+                        }
+                    } catch (Throwable ignored) {
+                        // replyElement字段不存在或获取失败，继续下一个element
+                    }
+                }
+            }
+        } catch (Throwable t) {
+            debugLog(TAG + ": Error extracting reply content: " + t.getMessage());
+        }
+        return msgContent;
+    }
+
+    public static String getMessageContentNT(Object msgRecord) {
         try {
             List<?> elements = (List<?>) XposedHelpers.getObjectField(msgRecord, "elements");
             if (elements == null || elements.isEmpty()) {
@@ -2702,18 +2763,17 @@ public class MessageInterceptor {
         return stateListDrawable;
     }
 
-    // 辅助方法：判断类是否是 RecyclerView 或其子类
-    private static boolean isRecyclerView(Class<?> clazz) {
-        if (clazz == null) return false;
-        if ("androidx.recyclerview.widget.RecyclerView".equals(clazz.getName()) || 
-            "android.support.v7.widget.RecyclerView".equals(clazz.getName())) {
-            return true;
-        }
-        return isRecyclerView(clazz.getSuperclass());
-    }
-
-    // 【DEBUG】Hook AIO消息发送相关类的所有方法以分析调用流程
+    /**
+     * 【DEBUG】登记 AIOSendMsgVMDelegate / AIOSendMsgViewModel 的全方法 Hook
+     * 只在调试会话期间（开启 Hook 调试日志）安装，关闭后卸载
+     */
     private static void hookDebugAIOSendMsgVMDelegate(ClassLoader classLoader) {
+        HookRegistry.registerDebugHooks(DEBUG_HOOK_GROUP_SEND_MSG, () -> installDebugAIOSendMsgHooks(classLoader));
+    }
+    
+    private static final String DEBUG_HOOK_GROUP_SEND_MSG = "debug.aio_send_msg";
+    
+    private static void installDebugAIOSendMsgHooks(ClassLoader classLoader) {
         String[] targetClasses = {
             // 尝试两个可能的包路径
             "com.tencent.mobileqq.aio.input.sendmsg.AIOSendMsgVMDelegate",
@@ -2722,9 +2782,16 @@ public class MessageInterceptor {
             "com.tencent.mobileqq.aio.input.sendmsg.AIOSendMsgViewModel"
         };
 
+        HookRegistry.Callback callback = new HookRegistry.Callback() {
+            @Override
+            protected void before(MethodHookParam param) throws Throwable {
+                logMethodCall(param);
+            }
+        };
         for (String className : targetClasses) {
             try {
-                Class<?> clazz = XposedHelpers.findClass(className, classLoader);
+                Class<?> clazz = XposedHelpers.findClassIfExists(className, classLoader);
+                if (clazz == null) continue;
                 
                 int hookedCount = 0;
                 // 遍历所有方法并 Hook
@@ -2737,28 +2804,20 @@ public class MessageInterceptor {
                     }
                     
                     try {
-                        XposedBridge.hookMethod(method, new XC_MethodHook() {
-                            @Override
-                            protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                                logMethodCall(param);
-                            }
-                        });
+                        HookRegistry.hookMethod(DEBUG_HOOK_GROUP_SEND_MSG, method, callback);
                         hookedCount++;
                     } catch (Throwable hookError) {
                         // 单个方法 Hook 失败不影响整体
                     }
                 }
                 
-                // debugLog(TAG + ": [DEBUG] Hooked " + hookedCount + " methods in " + className);
+                debugLog(TAG + ": [DEBUG] Hooked " + hookedCount + " methods in " + className);
             } catch (Throwable t) {
                 // 类不存在或其他错误，跳过
             }
         }
     }
 
-
-
-
     private static void logMethodCall(XC_MethodHook.MethodHookParam param) {
         // DEBUG 日志已启用 - 用于分析引用回复发送
         try {
@@ -11,15 +11,20 @@ import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.json.JSONObject;
 
-import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XposedBridge;
 
 import top.galqq.config.ConfigManager;
 import top.galqq.utils.FunProtoData;
+import top.galqq.utils.ProtoView;
+import top.galqq.utils.RkeyStore;
 import top.galqq.utils.XField;
 import top.galqq.utils.XMethod;
 
@@ -31,25 +36,42 @@ import top.galqq.utils.XMethod;
  * - PicMd5Hook.java
  * 
  * 通过Hook MsgRespHandler.dispatchRespMsg 拦截 OidbSvcTrpcTcp.0x9067_202 响应
- * 从中解析出 group_rkey 和 private_rkey
+ * 从中解析出 group_rkey 和 private_rkey（连同有效期交给 RkeyStore 管理）
+ * 
+ * MsgRespHandler 处在QQ全部入站流量的路径上，回调里只做字段读取和精确查表，
+ * 命中后的解析放到后台线程
  */
 public class RkeyHook {
 
     private static final String TAG = "GalQQ.RkeyHook";
     
-    // rkey 存储（与 QAuxiliary 一致，使用 public static）
-    public static String rkey_group;
-    public static String rkey_private;
-    
     // 是否已初始化
     private static boolean sInitialized = false;
     
-    // 已记录的命令（避免重复打印）
-    private static final Set<String> sLoggedCommands = new HashSet<>();
+    private static final String FROM_SERVICE_MSG_CLASS = "com.tencent.qphone.base.remote.FromServiceMsg";
+    
+    // 需要处理的命令（精确匹配，MsgRespHandler 上的每个包都会查一次）
+    private static final Set<String> RKEY_COMMANDS = new HashSet<>(Arrays.asList(
+        "OidbSvcTrpcTcp.0x9067_202"     // NTV2 富媒体 FetchRkey
+    ));
+    
+    // FromServiceMsg 的访问器（首次用到时解析一次，之后复用）
+    private static volatile Field sServiceCmdField;
+    private static volatile Method sServiceCmdGetter;
+    private static volatile Method sWupBufferGetter;
+    private static volatile Field sWupBufferField;
+    private static volatile boolean sAccessorResolved = false;
     
-    // 统计信息
-    private static int sTotalMsgCount = 0;
-    private static int sOidbMsgCount = 0;
+    // rkey 响应解析放到后台线程，不占用QQ的网络分发线程
+    private static final ExecutorService sDecodeExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "GalQQ-RkeyDecode");
+        t.setDaemon(true);
+        return t;
+    });
+    
+    // 统计信息（只统计命中的rkey命令，其他包不做任何记账）
+    private static final AtomicInteger sRkeyResponseCount = new AtomicInteger();
+    private static volatile long sLastRkeyTime = 0;
     
     /**
      * 调试日志输出（受 gal_debug_hook_log 配置开关控制）
@@ -70,11 +92,11 @@ public class RkeyHook {
         XposedBridge.log(TAG + ": " + message);
     }
 
-    // 已记录的方法调用（避免重复打印）
-    private static final Set<String> sLoggedMethods = new HashSet<>();
-
     /**
      * 初始化 rkey Hook
+     * 
+     * 只Hook MsgRespHandler 中参数带 FromServiceMsg 的方法（dispatchRespMsg 等），
+     * 并记住 FromServiceMsg 在参数中的位置，回调里不再做类名判断
      * @param classLoader QQ的ClassLoader
      */
     public static void init(ClassLoader classLoader) {
@@ -92,314 +114,210 @@ public class RkeyHook {
             top.galqq.utils.Initiator.init(classLoader);
             debugLog("Initiator 初始化完成");
             
-            // 直接使用 classLoader 加载类
             Class<?> msgRespHandlerClass = classLoader.loadClass("mqq.app.msghandle.MsgRespHandler");
+            Class<?> fromServiceMsgClass = classLoader.loadClass(FROM_SERVICE_MSG_CLASS);
             debugLog("加载 MsgRespHandler 成功: " + msgRespHandlerClass);
             
-            // 【调试】打印所有方法
-            Method[] allMethods = msgRespHandlerClass.getDeclaredMethods();
-            debugLog("MsgRespHandler 共有 " + allMethods.length + " 个方法:");
-            for (Method m : allMethods) {
-                debugLog("  " + m.getName() + "(" + Arrays.toString(m.getParameterTypes()) + ")");
-            }
+            resolveAccessors(fromServiceMsgClass);
             
-            // 【调试】Hook 所有方法，看看哪些会被调用
             int hookedCount = 0;
-            for (Method method : allMethods) {
+            for (Method method : msgRespHandlerClass.getDeclaredMethods()) {
+                final int argIndex = indexOfParam(method.getParameterTypes(), fromServiceMsgClass);
+                if (argIndex < 0) {
+                    continue;
+                }
                 try {
-                    final String methodName = method.getName();
-                    XposedBridge.hookMethod(method, new XC_MethodHook() {
+                    HookRegistry.hookMethod("rkey.msg_resp_handler", method, new HookRegistry.Callback() {
                         @Override
-                        protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
-                            // 只记录第一次调用
-                            if (!sLoggedMethods.contains(methodName)) {
-                                sLoggedMethods.add(methodName);
-                                debugLog("★ 方法被调用: " + methodName);
-                                debugLog("  参数数量: " + param.args.length);
-                                for (int i = 0; i < param.args.length; i++) {
-                                    Object arg = param.args[i];
-                                    debugLog("  args[" + i + "] = " + 
-                                        (arg != null ? arg.getClass().getName() : "null"));
-                                }
-                            }
-                            
-                            // 特别处理可能包含 serviceCmd 的方法
-                            if (param.args.length >= 2) {
-                                Object secondArg = param.args[1];
-                                if (secondArg != null) {
-                                    String className = secondArg.getClass().getName();
-                                    if (className.contains("FromServiceMsg") || className.contains("ServiceMsg")) {
-                                        processFromServiceMsg(secondArg, methodName);
-                                    }
-                                }
-                            }
-                            // 也检查第一个参数
-                            if (param.args.length >= 1) {
-                                Object firstArg = param.args[0];
-                                if (firstArg != null) {
-                                    String className = firstArg.getClass().getName();
-                                    if (className.contains("FromServiceMsg") || className.contains("ServiceMsg")) {
-                                        processFromServiceMsg(firstArg, methodName);
-                                    }
-                                }
-                            }
+                        protected void before(MethodHookParam param) {
+                            onFromServiceMsg(param.args[argIndex]);
                         }
                     });
                     hookedCount++;
+                    debugLog("已Hook: " + method.getName() + Arrays.toString(method.getParameterTypes())
+                            + "，FromServiceMsg 位于 args[" + argIndex + "]");
                 } catch (Throwable t) {
                     debugLog("Hook方法失败 " + method.getName() + ": " + t.getMessage());
                 }
             }
             
+            if (hookedCount == 0) {
+                forceLog("★★★ MsgRespHandler 中没有找到带 FromServiceMsg 参数的方法 ★★★");
+                return;
+            }
             debugLog("成功Hook " + hookedCount + " 个方法");
             
             sInitialized = true;
             forceLog("★★★ RkeyHook 初始化成功 ★★★");
             
+            // 恢复上次保存的 rkey，QQ 下发新的之前图片下载也能用
+            RkeyStore.warmUp();
+            
         } catch (Throwable t) {
             forceLog("★★★ 初始化失败: " + t.getMessage() + " ★★★");
             XposedBridge.log(t);
         }
     }
     
+    private static int indexOfParam(Class<?>[] paramTypes, Class<?> type) {
+        for (int i = 0; i < paramTypes.length; i++) {
+            if (paramTypes[i] == type) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    
     /**
-     * 处理 FromServiceMsg 对象
+     * 解析 FromServiceMsg 的 serviceCmd 和 wupBuffer 访问方式（字段优先，方法兜底）
      */
-    private static void processFromServiceMsg(Object fromServiceMsg, String methodName) {
-        try {
-            sTotalMsgCount++;
-            
-            // 获取 serviceCmd
-            String serviceCmd = null;
+    private static void resolveAccessors(Class<?> clazz) {
+        if (sAccessorResolved) {
+            return;
+        }
+        sServiceCmdField = findField(clazz, "mServiceCmd", String.class);
+        if (sServiceCmdField == null) {
+            sServiceCmdGetter = findGetter(clazz, "getServiceCmd", String.class);
+        }
+        sWupBufferGetter = findGetter(clazz, "getWupBuffer", byte[].class);
+        if (sWupBufferGetter == null) {
+            sWupBufferField = findField(clazz, "mWupBuffer", byte[].class);
+        }
+        sAccessorResolved = true;
+        debugLog("FromServiceMsg 访问器: serviceCmd=" + (sServiceCmdField != null ? "字段" : sServiceCmdGetter != null ? "方法" : "无")
+                + ", wupBuffer=" + (sWupBufferGetter != null ? "方法" : sWupBufferField != null ? "字段" : "无"));
+    }
+    
+    private static Field findField(Class<?> clazz, String name, Class<?> type) {
+        for (Class<?> c = clazz; c != null && c != Object.class; c = c.getSuperclass()) {
             try {
-                Field serviceCmdField = fromServiceMsg.getClass().getDeclaredField("mServiceCmd");
-                serviceCmdField.setAccessible(true);
-                serviceCmd = (String) serviceCmdField.get(fromServiceMsg);
+                Field field = c.getDeclaredField(name);
+                if (field.getType() == type) {
+                    field.setAccessible(true);
+                    return field;
+                }
+            } catch (NoSuchFieldException ignored) {
             } catch (Throwable t) {
-                try {
-                    Method m = fromServiceMsg.getClass().getMethod("getServiceCmd");
-                    serviceCmd = (String) m.invoke(fromServiceMsg);
-                } catch (Throwable ignored) {}
+                return null;
             }
-            
-            if (serviceCmd == null) {
-                return;
-            }
-            
-            // 判断是否是有趣的命令
-            boolean isInteresting = serviceCmd.startsWith("OidbSvcTrpcTcp") || 
-                                   serviceCmd.contains("Pic") || 
-                                   serviceCmd.contains("pic") ||
-                                   serviceCmd.contains("Image") ||
-                                   serviceCmd.contains("image") ||
-                                   serviceCmd.contains("rkey") ||
-                                   serviceCmd.contains("Rkey") ||
-                                   serviceCmd.contains("9067");
-            
-            if (serviceCmd.startsWith("OidbSvcTrpcTcp")) {
-                sOidbMsgCount++;
-            }
-            
-            // 记录有趣的命令
-            String cmdKey = methodName + ":" + serviceCmd;
-            if (isInteresting && !sLoggedCommands.contains(cmdKey)) {
-                sLoggedCommands.add(cmdKey);
-                debugLog("========== 发现命令 ==========");
-                debugLog("方法: " + methodName);
-                debugLog("命令: " + serviceCmd);
-                debugLog("总消息: " + sTotalMsgCount + ", Oidb: " + sOidbMsgCount);
-                debugLog("================================");
+        }
+        return null;
+    }
+    
+    private static Method findGetter(Class<?> clazz, String name, Class<?> returnType) {
+        try {
+            Method method = clazz.getMethod(name);
+            if (method.getReturnType() == returnType) {
+                method.setAccessible(true);
+                return method;
             }
-            
-            // 每100次打印统计
-            if (sTotalMsgCount % 100 == 0) {
-                debugLog("统计 - 总消息: " + sTotalMsgCount + 
-                    ", 已发现方法: " + sLoggedMethods.size() + 
-                    ", 已发现命令: " + sLoggedCommands.size());
+        } catch (Throwable ignored) {
+        }
+        return null;
+    }
+    
+    private static String readServiceCmd(Object fromServiceMsg) throws Exception {
+        Field field = sServiceCmdField;
+        if (field != null) {
+            return (String) field.get(fromServiceMsg);
+        }
+        Method getter = sServiceCmdGetter;
+        return getter != null ? (String) getter.invoke(fromServiceMsg) : null;
+    }
+    
+    private static byte[] readWupBuffer(Object fromServiceMsg) throws Exception {
+        Method getter = sWupBufferGetter;
+        if (getter != null) {
+            return (byte[]) getter.invoke(fromServiceMsg);
+        }
+        Field field = sWupBufferField;
+        return field != null ? (byte[]) field.get(fromServiceMsg) : null;
+    }
+    
+    /**
+     * MsgRespHandler 回调（QQ的网络分发线程，所有入站包都会经过这里）
+     * 只做一次字段读取和一次哈希查表，命中后把数据交给后台线程解析
+     */
+    private static void onFromServiceMsg(Object fromServiceMsg) {
+        if (fromServiceMsg == null) {
+            return;
+        }
+        try {
+            String serviceCmd = readServiceCmd(fromServiceMsg);
+            if (serviceCmd == null || !RKEY_COMMANDS.contains(serviceCmd)) {
+                return;
             }
-            
-            // 处理 rkey 响应
-            if ("OidbSvcTrpcTcp.0x9067_202".equals(serviceCmd)) {
-                debugLog("★★★ 捕获到 rkey 响应 ★★★");
-                processRkeyResponse(fromServiceMsg);
+            byte[] wupBuffer = readWupBuffer(fromServiceMsg);
+            if (wupBuffer == null || wupBuffer.length == 0) {
+                sDecodeExecutor.execute(() -> {
+                    debugLog("rkey 响应中未找到数据，dump FromServiceMsg:");
+                    dumpFromServiceMsg(fromServiceMsg, serviceCmd);
+                });
+                return;
             }
-            
+            // 复制一份，避免QQ后续复用缓冲区
+            final byte[] data = wupBuffer.clone();
+            sDecodeExecutor.execute(() -> processRkeyResponse(data));
         } catch (Throwable t) {
-            // 忽略
+            // 忽略（不能影响QQ的消息分发）
         }
     }
     
     /**
-     * 处理 rkey 响应
+     * 处理 rkey 响应（后台线程）
+     * 
+     * 根据 NapCatQQ 的 proto 结构只读取需要的字段：
+     * 路径: 4 (body) -> 4 (data) -> 1 (rkeyList，repeated)
+     * 每个 rkey 项: 1=rkey, 2=ttl, 4=time, 5=type (10=private, 20=group)
      */
-    private static void processRkeyResponse(Object fromServiceMsg) {
+    private static void processRkeyResponse(byte[] wupBuffer) {
         try {
+            sRkeyResponseCount.incrementAndGet();
+            sLastRkeyTime = System.currentTimeMillis();
             debugLog("========== 处理 rkey 响应 ==========");
-            debugLog("FromServiceMsg 类型: " + fromServiceMsg.getClass().getName());
+            debugLog("数据长度: " + wupBuffer.length);
             
-            // 先打印所有字段，找到正确的数据字段
-            byte[] wupBuffer = null;
-            Field[] fields = fromServiceMsg.getClass().getDeclaredFields();
-            debugLog("FromServiceMsg 共有 " + fields.length + " 个字段:");
+            ProtoView root = unpack(wupBuffer);
+            List<ProtoView> rkeyList = root.all(4, 4, 1);
+            debugLog("找到 " + rkeyList.size() + " 个 rkey 项");
             
-            for (Field field : fields) {
-                try {
-                    field.setAccessible(true);
-                    Object value = field.get(fromServiceMsg);
-                    String valueStr;
-                    
-                    if (value == null) {
-                        valueStr = "null";
-                    } else if (value instanceof byte[]) {
-                        byte[] bytes = (byte[]) value;
-                        valueStr = "byte[" + bytes.length + "]";
-                        // 如果是 byte[] 且长度大于 0，可能是我们要的数据
-                        if (bytes.length > 0 && wupBuffer == null) {
-                            wupBuffer = bytes;
-                            debugLog("  ★ " + field.getName() + " = " + valueStr + " (可能是数据)");
-                        } else {
-                            debugLog("  " + field.getName() + " = " + valueStr);
-                        }
-                    } else {
-                        valueStr = String.valueOf(value);
-                        if (valueStr.length() > 100) {
-                            valueStr = valueStr.substring(0, 100) + "...";
-                        }
-                        debugLog("  " + field.getName() + " = " + valueStr);
-                    }
-                } catch (Throwable t) {
-                    debugLog("  " + field.getName() + " = [访问失败]");
+            boolean updated = false;
+            boolean hasGroup = false;
+            for (int i = 0; i < rkeyList.size(); i++) {
+                ProtoView rkeyItem = rkeyList.get(i);
+                String rkey = rkeyItem.string(1);
+                int type = (int) rkeyItem.varint(5, 0);
+                long ttl = rkeyItem.varint(2, 0);
+                long time = rkeyItem.varint(4, 0);
+                
+                debugLog("rkey[" + i + "]: type=" + type + ", ttl=" + ttl + ", time=" + time);
+                if (rkey == null || rkey.isEmpty()) {
+                    continue;
                 }
-            }
-            
-            // 尝试通过方法获取数据
-            if (wupBuffer == null) {
-                debugLog("尝试通过方法获取数据...");
-                Method[] methods = fromServiceMsg.getClass().getDeclaredMethods();
-                for (Method method : methods) {
-                    if (method.getParameterCount() == 0 && method.getReturnType() == byte[].class) {
-                        try {
-                            method.setAccessible(true);
-                            byte[] result = (byte[]) method.invoke(fromServiceMsg);
-                            if (result != null && result.length > 0) {
-                                debugLog("  ★ " + method.getName() + "() 返回 byte[" + result.length + "]");
-                                if (wupBuffer == null) {
-                                    wupBuffer = result;
-                                }
-                            }
-                        } catch (Throwable ignored) {}
-                    }
+                
+                if (type != RkeyStore.TYPE_PRIVATE && type != RkeyStore.TYPE_GROUP) {
+                    // 未知类型，按顺序分配（先群聊后私聊）
+                    type = hasGroup ? RkeyStore.TYPE_PRIVATE : RkeyStore.TYPE_GROUP;
                 }
+                hasGroup |= type == RkeyStore.TYPE_GROUP;
+                RkeyStore.onHookedRkey(type, rkey, ttl, time);
+                updated = true;
             }
             
-            if (wupBuffer == null || wupBuffer.length == 0) {
-                debugLog("未找到有效的数据字段");
-                return;
-            }
-            
-            debugLog("数据长度: " + wupBuffer.length);
-            debugLog("数据前50字节: " + bytesToHex(wupBuffer, 50));
-            
-            // 尝试解析 protobuf
-            try {
+            if (updated) {
+                debugLog("★★★ rkey 获取成功 ★★★ " + RkeyStore.getStatus());
+            } else if (ConfigManager.isDebugHookLogEnabled()) {
+                // 结构和预期不符时才做完整解析，方便排查
+                debugLog("未能提取有效的 rkey，数据前50字节: " + bytesToHex(wupBuffer, 50));
                 FunProtoData data = new FunProtoData();
-                byte[] unpacked = getUnpPackage(wupBuffer);
-                debugLog("解包后长度: " + (unpacked != null ? unpacked.length : 0));
-                
-                data.fromBytes(unpacked);
-                
+                data.fromBytes(getUnpPackage(wupBuffer));
                 JSONObject obj = data.toJSON();
                 String jsonStr = obj.toString(2);
                 if (jsonStr.length() > 3000) {
                     jsonStr = jsonStr.substring(0, 3000) + "\n... [截断]";
                 }
                 debugLog("解析结果:\n" + jsonStr);
-                
-                // 根据 NapCatQQ 的 proto 结构解析
-                // 路径: 4 (body) -> 4 (data) -> 1 (rkeyList array)
-                // 每个 rkey 项: 1=rkey, 2=ttl, 4=time, 5=type (10=private, 20=group)
-                try {
-                    JSONObject body = obj.optJSONObject("4");
-                    if (body == null) {
-                        debugLog("未找到 field 4 (body)");
-                        findRkeyInJson(obj, "");
-                        return;
-                    }
-                    
-                    JSONObject rkeyData = body.optJSONObject("4");
-                    if (rkeyData == null) {
-                        debugLog("未找到 field 4.4 (data)");
-                        findRkeyInJson(obj, "");
-                        return;
-                    }
-                    
-                    // rkeyList 可能是数组或单个对象
-                    Object rkeyListObj = rkeyData.opt("1");
-                    if (rkeyListObj == null) {
-                        debugLog("未找到 field 4.4.1 (rkeyList)");
-                        findRkeyInJson(obj, "");
-                        return;
-                    }
-                    
-                    org.json.JSONArray rkeyList;
-                    if (rkeyListObj instanceof org.json.JSONArray) {
-                        rkeyList = (org.json.JSONArray) rkeyListObj;
-                    } else if (rkeyListObj instanceof JSONObject) {
-                        rkeyList = new org.json.JSONArray();
-                        rkeyList.put(rkeyListObj);
-                    } else {
-                        debugLog("rkeyList 类型不正确: " + rkeyListObj.getClass().getName());
-                        findRkeyInJson(obj, "");
-                        return;
-                    }
-                    
-                    debugLog("找到 " + rkeyList.length() + " 个 rkey 项");
-                    
-                    for (int i = 0; i < rkeyList.length(); i++) {
-                        JSONObject rkeyItem = rkeyList.getJSONObject(i);
-                        String rkey = rkeyItem.optString("1", null);
-                        int type = rkeyItem.optInt("5", 0);
-                        long ttl = rkeyItem.optLong("2", 0);
-                        long time = rkeyItem.optLong("4", 0);
-                        
-                        debugLog("rkey[" + i + "]: type=" + type + ", ttl=" + ttl + ", time=" + time);
-                        debugLog("  rkey=" + (rkey != null ? rkey.substring(0, Math.min(80, rkey.length())) + "..." : "null"));
-                        
-                        if (type == 10) {
-                            // private
-                            rkey_private = rkey;
-                            debugLog("✓ 设置 rkey_private");
-                        } else if (type == 20) {
-                            // group
-                            rkey_group = rkey;
-                            debugLog("✓ 设置 rkey_group");
-                        } else {
-                            // 未知类型，尝试按顺序分配
-                            if (rkey_group == null) {
-                                rkey_group = rkey;
-                                debugLog("✓ 设置 rkey_group (按顺序)");
-                            } else if (rkey_private == null) {
-                                rkey_private = rkey;
-                                debugLog("✓ 设置 rkey_private (按顺序)");
-                            }
-                        }
-                    }
-                    
-                    if (rkey_group != null || rkey_private != null) {
-                        debugLog("★★★ rkey 获取成功 ★★★");
-                        debugLog("rkey_group: " + (rkey_group != null ? "有效" : "无"));
-                        debugLog("rkey_private: " + (rkey_private != null ? "有效" : "无"));
-                    } else {
-                        debugLog("未能提取有效的 rkey");
-                        findRkeyInJson(obj, "");
-                    }
-                } catch (Throwable t) {
-                    debugLog("解析rkey失败: " + t.getMessage());
-                    debugLog("尝试遍历JSON查找rkey...");
-                    findRkeyInJson(obj, "");
-                }
-            } catch (Throwable t) {
-                debugLog("解析protobuf失败: " + t.getMessage());
+                findRkeyInJson(obj, "");
             }
             
             debugLog("========================================");
@@ -517,6 +435,16 @@ public class RkeyHook {
         }
     }
     
+    /**
+     * 解包数据的只读视图（去除前4字节头，不拷贝）
+     */
+    private static ProtoView unpack(byte[] b) {
+        if (b.length >= 4 && b[0] == 0) {
+            return ProtoView.of(b, 4, b.length - 4);
+        }
+        return ProtoView.of(b);
+    }
+    
     /**
      * 解包数据（去除前4字节头）
      * 完全按照 QAuxiliary 的 getUnpPackage 方法
@@ -552,27 +480,20 @@ public class RkeyHook {
     }
     
     /**
-     * 检查是否有有效的 rkey
+     * 检查是否有有效的 rkey（未过期）
      */
     public static boolean hasValidRkey() {
-        return rkey_group != null && !rkey_group.isEmpty() 
-            && rkey_private != null && !rkey_private.isEmpty();
+        return RkeyStore.hasValidRkey();
     }
     
     /**
      * 获取统计信息
      */
     public static String getStats() {
-        return "总消息: " + sTotalMsgCount + ", Oidb消息: " + sOidbMsgCount + 
-               ", 已发现命令数: " + sLoggedCommands.size() +
-               ", rkey_group: " + (rkey_group != null ? "有" : "无") +
-               ", rkey_private: " + (rkey_private != null ? "有" : "无");
-    }
-    
-    /**
-     * 获取所有已发现的 OidbSvcTrpcTcp 命令
-     */
-    public static Set<String> getDiscoveredCommands() {
-        return new HashSet<>(sLoggedCommands);
+        long last = sLastRkeyTime;
+        return "已Hook: " + (sInitialized ? "是" : "否") +
+               ", rkey响应: " + sRkeyResponseCount.get() +
+               (last > 0 ? "（最近 " + (System.currentTimeMillis() - last) / 1000 + " 秒前）" : "") +
+               ", " + RkeyStore.getStatus();
     }
 }
@@ -0,0 +1,221 @@
+package top.galqq.hook;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.robv.android.xposed.XposedBridge;
+import top.galqq.config.ConfigManager;
+import top.galqq.utils.PerfMetrics;
+
+/**
+ * 启动任务调度
+ *
+ * 模块的初始化工作按阶段执行，只有必须在首个界面之前完成的才放在主线程：
+ * - LOAD_PACKAGE：handleLoadPackage 中，Application 创建之前（只放必须最早安装的 Hook）
+ * - APP_CREATE：callApplicationOnCreate 之后，仍在主线程（配置等后续任务依赖的基础设施）
+ * - BACKGROUND：主线程第一次空闲后在低优先级后台线程执行（其余 Hook 和分析工作）
+ *
+ * 任务可以声明依赖：依赖的任务失败或被跳过时，该任务也跳过。
+ * 同一阶段内按注册顺序执行，依赖只能指向同一阶段或更早阶段的任务。
+ * 每个任务和每个阶段的耗时都会记录，开启详细日志时输出汇总，开启性能统计时计入 PerfMetrics。
+ */
+public final class StartupScheduler {
+
+    private static final String TAG = "GalQQ.Startup";
+
+    private static void debugLog(String message) {
+        try {
+            if (ConfigManager.isVerboseLogEnabled()) {
+                XposedBridge.log(TAG + ": " + message);
+            }
+        } catch (Throwable ignored) {}
+    }
+
+    // 主线程一直不空闲时，最多等这么久再开始后台阶段
+    private static final long BACKGROUND_MAX_DELAY_MS = 5000;
+
+    public enum Phase {
+        LOAD_PACKAGE,
+        APP_CREATE,
+        BACKGROUND
+    }
+
+    public interface Task {
+        void run() throws Throwable;
+    }
+
+    private static final class Entry {
+        final String name;
+        final Phase phase;
+        final String[] dependsOn;
+        final Task task;
+
+        Entry(String name, Phase phase, String[] dependsOn, Task task) {
+            this.name = name;
+            this.phase = phase;
+            this.dependsOn = dependsOn;
+            this.task = task;
+        }
+    }
+
+    private enum State {
+        DONE,
+        FAILED,
+        SKIPPED
+    }
+
+    private static final List<Entry> sEntries = new ArrayList<>();
+    private static final Map<String, State> sStates = new HashMap<>();
+    // 任务名 -> 耗时（毫秒），按执行顺序
+    private static final Map<String, Long> sTaskTimings = new LinkedHashMap<>();
+    private static final Map<Phase, Long> sPhaseTimings = new LinkedHashMap<>();
+    private static boolean sBackgroundStarted = false;
+
+    private StartupScheduler() {}
+
+    /**
+     * 注册启动任务
+     *
+     * @param name 任务名（用于依赖声明和日志）
+     * @param phase 执行阶段
+     * @param dependsOn 依赖的任务名
+     */
+    public static synchronized void register(String name, Phase phase, String[] dependsOn, Task task) {
+        sEntries.add(new Entry(name, phase, dependsOn != null ? dependsOn : new String[0], task));
+    }
+
+    public static void register(String name, Phase phase, Task task) {
+        register(name, phase, null, task);
+    }
+
+    /**
+     * 在当前线程执行某个阶段的所有任务
+     */
+    public static void runPhase(Phase phase) {
+        List<Entry> entries = new ArrayList<>();
+        synchronized (StartupScheduler.class) {
+            for (Entry entry : sEntries) {
+                if (entry.phase == phase && !sStates.containsKey(entry.name)) {
+                    entries.add(entry);
+                }
+            }
+        }
+
+        long phaseStart = System.nanoTime();
+        for (Entry entry : entries) {
+            String missing = unmetDependency(entry);
+            if (missing != null) {
+                XposedBridge.log(TAG + ": 跳过 " + entry.name + "（依赖 " + missing + " 未完成）");
+                setState(entry.name, State.SKIPPED, 0);
+                continue;
+            }
+            long start = System.nanoTime();
+            State state;
+            try {
+                entry.task.run();
+                state = State.DONE;
+            } catch (Throwable t) {
+                XposedBridge.log(TAG + ": " + entry.name + " 失败: " + t.getMessage());
+                XposedBridge.log(t);
+                state = State.FAILED;
+            }
+            setState(entry.name, state, (System.nanoTime() - start) / 1_000_000L);
+        }
+        long phaseMs = (System.nanoTime() - phaseStart) / 1_000_000L;
+        synchronized (StartupScheduler.class) {
+            sPhaseTimings.put(phase, phaseMs);
+        }
+        if (phase != Phase.LOAD_PACKAGE) {
+            // LOAD_PACKAGE 阶段配置还没初始化，耗时在后续阶段一起记录
+            PerfMetrics.recordMillis(phase == Phase.APP_CREATE
+                    ? PerfMetrics.Stage.STARTUP_MAIN : PerfMetrics.Stage.STARTUP_BACKGROUND, phaseMs);
+            if (phase == Phase.APP_CREATE) {
+                Long loadMs;
+                synchronized (StartupScheduler.class) {
+                    loadMs = sPhaseTimings.get(Phase.LOAD_PACKAGE);
+                }
+                if (loadMs != null) {
+                    PerfMetrics.recordMillis(PerfMetrics.Stage.STARTUP_MAIN, loadMs);
+                }
+            }
+        }
+        debugLog(phase + " 阶段完成，耗时 " + phaseMs + "ms " + formatTimings(entries));
+    }
+
+    /**
+     * 主线程第一次空闲后在后台线程执行 BACKGROUND 阶段（只会启动一次）
+     * 必须在主线程调用
+     */
+    public static void scheduleBackground() {
+        synchronized (StartupScheduler.class) {
+            if (sBackgroundStarted) return;
+            sBackgroundStarted = true;
+        }
+        final Runnable start = new Runnable() {
+            private boolean started = false;
+
+            @Override
+            public void run() {
+                if (started) return;
+                started = true;
+                Thread thread = new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runPhase(Phase.BACKGROUND);
+                }, "GalQQ-Startup");
+                thread.setDaemon(true);
+                thread.start();
+            }
+        };
+        Looper.myQueue().addIdleHandler(() -> {
+            start.run();
+            return false;
+        });
+        new Handler(Looper.getMainLooper()).postDelayed(start, BACKGROUND_MAX_DELAY_MS);
+    }
+
+    /**
+     * 各阶段耗时汇总
+     */
+    public static synchronized String getSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<Phase, Long> e : sPhaseTimings.entrySet()) {
+            if (sb.length() > 0) sb.append(", ");
+            sb.append(e.getKey()).append('=').append(e.getValue()).append("ms");
+        }
+        return sb.toString();
+    }
+
+    private static synchronized String unmetDependency(Entry entry) {
+        for (String dep : entry.dependsOn) {
+            if (sStates.get(dep) != State.DONE) {
+                return dep;
+            }
+        }
+        return null;
+    }
+
+    private static synchronized void setState(String name, State state, long millis) {
+        sStates.put(name, state);
+        sTaskTimings.put(name, millis);
+    }
+
+    private static synchronized String formatTimings(List<Entry> entries) {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < entries.size(); i++) {
+            String name = entries.get(i).name;
+            if (i > 0) sb.append(", ");
+            sb.append(name).append('=').append(sTaskTimings.get(name)).append("ms");
+            if (sStates.get(name) != State.DONE) {
+                sb.append('(').append(sStates.get(name)).append(')');
+            }
+        }
+        return sb.append(']').toString();
+    }
+}
@@ -4,106 +4,411 @@ import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.text.Editable;
+import android.text.TextWatcher;
+import android.util.LruCache;
+import android.view.LayoutInflater;
 import android.view.View;
+import android.view.ViewGroup;
+import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.Button;
-import android.widget.ScrollView;
+import android.widget.EditText;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 import androidx.core.content.FileProvider;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import top.galqq.R;
 import top.galqq.utils.AiLogManager;
-import top.galqq.utils.HostInfo;
 
 import java.io.File;
-import java.io.FileWriter;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * AI日志查看Activity
- * 使用 ScrollView + TextView 实现自由文本选择复制
+ * 使用 RecyclerView 按条目展示，正文在滚动到时才从日志文件按偏移读取；
+ * 支持按状态 / 服务商 / 模型筛选和关键字搜索，点击条目展开全文（可选择复制）
  */
 public class AiLogViewerActivity extends AppCompatTransferActivity {
-    
-    private ScrollView logScrollView;
-    private TextView logTextView;
+
+    private static final String FILTER_ALL_STATUS = "全部状态";
+    private static final String FILTER_ALL_PROVIDER = "全部服务商";
+    private static final String FILTER_ALL_MODEL = "全部模型";
+    private static final long SEARCH_DEBOUNCE_MS = 300;
+    // 正文缓存上限（字符数）
+    private static final int BODY_CACHE_CHARS = 512 * 1024;
+
+    private RecyclerView recyclerView;
+    private TextView countText;
+    private EditText searchEdit;
+    private Spinner statusSpinner;
+    private Spinner providerSpinner;
+    private Spinner modelSpinner;
     private Button btnExport;
     private Button btnClear;
-    
+
+    private final LogAdapter adapter = new LogAdapter();
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "GalQQ-LogViewer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final LruCache<AiLogManager.LogEntry, String> bodyCache =
+        new LruCache<AiLogManager.LogEntry, String>(BODY_CACHE_CHARS) {
+            @Override
+            protected int sizeOf(AiLogManager.LogEntry key, String value) {
+                return Math.max(1, value.length());
+            }
+        };
+
+    // 筛选请求序号，用于丢弃过期的结果
+    private int queryGeneration = 0;
+    private boolean spinnersReady = false;
+    private final Runnable searchRunnable = this::applyFilter;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         // 应用主题管理器，检测QQ的夜间模式设置
         top.galqq.utils.ThemeManager.applyTheme(this);
         top.galqq.utils.ThemeManager.updateConfiguration(this);
-        
+
         // 设置主题
         setTheme(top.galqq.utils.ThemeManager.getThemeResId(this));
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_ai_log_viewer);
-        
+
         if (getSupportActionBar() != null) {
             getSupportActionBar().setTitle(R.string.ai_log_title);
             getSupportActionBar().setDisplayHomeAsUpEnabled(true);
         }
-        
-        logScrollView = findViewById(R.id.log_scroll_view);
-        logTextView = findViewById(R.id.log_text_view);
+
+        recyclerView = findViewById(R.id.log_recycler_view);
+        countText = findViewById(R.id.log_count_text);
+        searchEdit = findViewById(R.id.edit_search);
+        statusSpinner = findViewById(R.id.spinner_status);
+        providerSpinner = findViewById(R.id.spinner_provider);
+        modelSpinner = findViewById(R.id.spinner_model);
         btnExport = findViewById(R.id.btn_export);
         btnClear = findViewById(R.id.btn_clear);
-        
+
+        recyclerView.setLayoutManager(new LinearLayoutManager(this));
+        recyclerView.setAdapter(adapter);
+
+        AdapterView.OnItemSelectedListener filterListener = new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (spinnersReady) applyFilter();
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        };
+        statusSpinner.setOnItemSelectedListener(filterListener);
+        providerSpinner.setOnItemSelectedListener(filterListener);
+        modelSpinner.setOnItemSelectedListener(filterListener);
+
+        searchEdit.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                mainHandler.removeCallbacks(searchRunnable);
+                mainHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
+            }
+        });
+
         btnExport.setOnClickListener(v -> exportLogs());
         btnClear.setOnClickListener(v -> {
-            AiLogManager.clearLogs(this);
-            Toast.makeText(this, R.string.logs_cleared, Toast.LENGTH_SHORT).show();
-            loadLogs();
+            btnClear.setEnabled(false);
+            ioExecutor.execute(() -> {
+                AiLogManager.clearLogs(this);
+                mainHandler.post(() -> {
+                    if (isFinishing()) return;
+                    btnClear.setEnabled(true);
+                    Toast.makeText(this, R.string.logs_cleared, Toast.LENGTH_SHORT).show();
+                    loadLogs();
+                });
+            });
         });
-        
+
         loadLogs();
     }
-    
+
+    @Override
+    protected void onDestroy() {
+        mainHandler.removeCallbacksAndMessages(null);
+        ioExecutor.shutdownNow();
+        super.onDestroy();
+    }
+
     @Override
     public boolean onSupportNavigateUp() {
         finish();
         return true;
     }
-    
+
+    /**
+     * 在后台建立/读取索引，填充筛选项后显示全部条目
+     */
     private void loadLogs() {
-        String logs = AiLogManager.getLogs(this);
-        logTextView.setText(logs);
-        
-        // 滚动到底部显示最新日志
-        logScrollView.post(() -> logScrollView.fullScroll(View.FOCUS_DOWN));
+        countText.setText(R.string.loading_logs);
+        bodyCache.evictAll();
+        ioExecutor.execute(() -> {
+            List<AiLogManager.LogEntry> entries = AiLogManager.getEntries(this);
+            Set<String> providers = new TreeSet<>();
+            Set<String> models = new TreeSet<>();
+            for (AiLogManager.LogEntry e : entries) {
+                if (e.provider != null) providers.add(e.provider);
+                if (e.model != null) models.add(e.model);
+            }
+            mainHandler.post(() -> {
+                if (isFinishing()) return;
+                setupSpinners(providers, models);
+                showEntries(entries);
+            });
+        });
     }
-    
+
+    private void setupSpinners(Set<String> providers, Set<String> models) {
+        spinnersReady = false;
+        String status = selected(statusSpinner);
+        String provider = selected(providerSpinner);
+        String model = selected(modelSpinner);
+
+        List<String> statusItems = new ArrayList<>();
+        statusItems.add(FILTER_ALL_STATUS);
+        Collections.addAll(statusItems,
+            AiLogManager.STATUS_REQUEST, AiLogManager.STATUS_SUCCESS, AiLogManager.STATUS_ERROR,
+            AiLogManager.STATUS_IMAGE, AiLogManager.STATUS_VISION, AiLogManager.STATUS_OTHER);
+        List<String> providerItems = new ArrayList<>();
+        providerItems.add(FILTER_ALL_PROVIDER);
+        providerItems.addAll(providers);
+        List<String> modelItems = new ArrayList<>();
+        modelItems.add(FILTER_ALL_MODEL);
+        modelItems.addAll(models);
+
+        bindSpinner(statusSpinner, statusItems, status);
+        bindSpinner(providerSpinner, providerItems, provider);
+        bindSpinner(modelSpinner, modelItems, model);
+        // 等本轮布局回调的 onItemSelected 过去再开始响应
+        mainHandler.post(() -> spinnersReady = true);
+    }
+
+    private void bindSpinner(Spinner spinner, List<String> items, String previous) {
+        ArrayAdapter<String> spinnerAdapter =
+            new ArrayAdapter<>(this, android.R.layout.simple_spinner_item, items);
+        spinnerAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        spinner.setAdapter(spinnerAdapter);
+        int idx = previous != null ? items.indexOf(previous) : -1;
+        spinner.setSelection(Math.max(0, idx), false);
+    }
+
+    private static String selected(Spinner spinner) {
+        Object item = spinner.getSelectedItem();
+        return item != null ? item.toString() : null;
+    }
+
+    private void applyFilter() {
+        AiLogManager.LogFilter filter = new AiLogManager.LogFilter();
+        String status = selected(statusSpinner);
+        String provider = selected(providerSpinner);
+        String model = selected(modelSpinner);
+        filter.status = FILTER_ALL_STATUS.equals(status) ? null : status;
+        filter.provider = FILTER_ALL_PROVIDER.equals(provider) ? null : provider;
+        filter.model = FILTER_ALL_MODEL.equals(model) ? null : model;
+        filter.keyword = searchEdit.getText().toString().trim();
+
+        int generation = ++queryGeneration;
+        countText.setText(R.string.loading_logs);
+        ioExecutor.execute(() -> {
+            List<AiLogManager.LogEntry> result = AiLogManager.query(this, filter);
+            mainHandler.post(() -> {
+                if (isFinishing() || generation != queryGeneration) return;
+                showEntries(result);
+            });
+        });
+    }
+
+    private void showEntries(List<AiLogManager.LogEntry> entries) {
+        adapter.setEntries(entries);
+        if (entries.isEmpty()) {
+            countText.setText(R.string.ai_log_empty);
+        } else {
+            countText.setText("共 " + entries.size() + " 条");
+            // 滚动到底部显示最新日志
+            recyclerView.scrollToPosition(entries.size() - 1);
+        }
+    }
+
+    /**
+     * 正文不在缓存中时到后台按偏移读取，读完后若该 ViewHolder 仍绑定同一条目再填充
+     */
+    private void bindBody(LogAdapter.ViewHolder holder, AiLogManager.LogEntry entry) {
+        String cached = bodyCache.get(entry);
+        if (cached != null) {
+            holder.bodyText.setText(cached);
+            return;
+        }
+        holder.bodyText.setText(R.string.loading_logs);
+        ioExecutor.execute(() -> {
+            String text = AiLogManager.readEntry(this, entry);
+            if (text == null) text = "";
+            String body = stripHeaderLine(text);
+            mainHandler.post(() -> {
+                bodyCache.put(entry, body);
+                if (holder.entry == entry) {
+                    holder.bodyText.setText(body);
+                }
+            });
+        });
+    }
+
+    /**
+     * 去掉首行（时间和标题已单独显示）
+     */
+    private static String stripHeaderLine(String text) {
+        int nl = text.indexOf('\n');
+        return nl >= 0 ? text.substring(nl + 1) : "";
+    }
+
     private void exportLogs() {
-        try {
-            String logs = AiLogManager.getLogs(this);
-            
-            String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
-            String filename = "galqq_ai_logs_" + timestamp + ".txt";
-            
-            File downloadsDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
-            File logFile = new File(downloadsDir, filename);
-            
-            FileWriter writer = new FileWriter(logFile);
-            writer.write(logs);
-            writer.close();
-            
-            Uri fileUri = FileProvider.getUriForFile(this, 
-                getApplicationContext().getPackageName() + ".fileprovider", logFile);
-            
-            Intent shareIntent = new Intent(Intent.ACTION_SEND);
-            shareIntent.setType("text/plain");
-            shareIntent.putExtra(Intent.EXTRA_STREAM, fileUri);
-            shareIntent.putExtra(Intent.EXTRA_SUBJECT, "GalQQ AI Logs");
-            shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
-            
-            startActivity(Intent.createChooser(shareIntent, getString(R.string.export_logs)));
-            Toast.makeText(this, "日志已保存到: " + logFile.getAbsolutePath(), Toast.LENGTH_LONG).show();
-            
-        } catch (Exception e) {
-            Toast.makeText(this, "导出失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+        String filename = "galqq_ai_logs_" + timestamp + ".txt";
+        File downloadsDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
+        File logFile = new File(downloadsDir, filename);
+
+        btnExport.setEnabled(false);
+        ioExecutor.execute(() -> {
+            Exception error = null;
+            try {
+                AiLogManager.exportTo(this, logFile);
+            } catch (Exception e) {
+                error = e;
+            }
+            final Exception failure = error;
+            mainHandler.post(() -> {
+                if (isFinishing()) return;
+                btnExport.setEnabled(true);
+                if (failure != null) {
+                    Toast.makeText(this, "导出失败: " + failure.getMessage(), Toast.LENGTH_SHORT).show();
+                    return;
+                }
+                try {
+                    Uri fileUri = FileProvider.getUriForFile(this,
+                        getApplicationContext().getPackageName() + ".fileprovider", logFile);
+
+                    Intent shareIntent = new Intent(Intent.ACTION_SEND);
+                    shareIntent.setType("text/plain");
+                    shareIntent.putExtra(Intent.EXTRA_STREAM, fileUri);
+                    shareIntent.putExtra(Intent.EXTRA_SUBJECT, "GalQQ AI Logs");
+                    shareIntent.addFlags(Intent.FLAG_GRANT_READ_URI_PERMISSION);
+
+                    startActivity(Intent.createChooser(shareIntent, getString(R.string.export_logs)));
+                    Toast.makeText(this, "日志已保存到: " + logFile.getAbsolutePath(), Toast.LENGTH_LONG).show();
+                } catch (Exception e) {
+                    Toast.makeText(this, "导出失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+                }
+            });
+        });
+    }
+
+    class LogAdapter extends RecyclerView.Adapter<LogAdapter.ViewHolder> {
+
+        private List<AiLogManager.LogEntry> entries = Collections.emptyList();
+        // 已展开的条目
+        private final Set<AiLogManager.LogEntry> expanded =
+            Collections.newSetFromMap(new java.util.IdentityHashMap<>());
+
+        void setEntries(List<AiLogManager.LogEntry> newEntries) {
+            entries = newEntries;
+            expanded.clear();
+            notifyDataSetChanged();
+        }
+
+        @Override
+        public ViewHolder onCreateViewHolder(ViewGroup parent, int viewType) {
+            View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_ai_log, parent, false);
+            return new ViewHolder(view);
+        }
+
+        @Override
+        public void onBindViewHolder(ViewHolder holder, int position) {
+            AiLogManager.LogEntry entry = entries.get(position);
+            holder.entry = entry;
+
+            holder.headerText.setText("[" + entry.time + "] " + entry.title);
+            StringBuilder meta = new StringBuilder();
+            if (entry.provider != null) meta.append(entry.provider);
+            if (entry.model != null) {
+                if (meta.length() > 0) meta.append(" / ");
+                meta.append(entry.model);
+            }
+            if (meta.length() > 0) {
+                holder.metaText.setText(meta.toString());
+                holder.metaText.setVisibility(View.VISIBLE);
+            } else {
+                holder.metaText.setVisibility(View.GONE);
+            }
+
+            boolean isExpanded = expanded.contains(entry);
+            holder.bodyText.setMaxLines(isExpanded ? Integer.MAX_VALUE : 6);
+            holder.bodyText.setTextIsSelectable(isExpanded);
+            bindBody(holder, entry);
+
+            // 点击展开/折叠（展开后可选择复制）
+            holder.itemView.setOnClickListener(v -> {
+                int currentPosition = holder.getAdapterPosition();
+                if (currentPosition == RecyclerView.NO_POSITION) return;
+                AiLogManager.LogEntry current = entries.get(currentPosition);
+                if (!expanded.remove(current)) {
+                    expanded.add(current);
+                }
+                notifyItemChanged(currentPosition);
+            });
+        }
+
+        @Override
+        public void onViewRecycled(ViewHolder holder) {
+            holder.entry = null;
+        }
+
+        @Override
+        public int getItemCount() {
+            return entries.size();
+        }
+
+        class ViewHolder extends RecyclerView.ViewHolder {
+            TextView headerText, metaText, bodyText;
+            AiLogManager.LogEntry entry;
+
+            ViewHolder(View itemView) {
+                super(itemView);
+                headerText = itemView.findViewById(R.id.log_header);
+                metaText = itemView.findViewById(R.id.log_meta);
+                bodyText = itemView.findViewById(R.id.log_body);
+            }
         }
     }
 }
@@ -1,12 +1,23 @@
 package top.galqq.ui;
 
+import android.content.Intent;
 import android.os.Bundle;
+import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
 import android.widget.TextView;
+import android.widget.Toast;
 import top.galqq.R;
+import top.galqq.hook.HookRegistry;
+import top.galqq.utils.AiEndpointRouter;
 import top.galqq.utils.AiRateLimitedQueue;
 import top.galqq.utils.HostInfo;
+import top.galqq.utils.PerfMetrics;
+import top.galqq.utils.VisionAiQueue;
+import java.io.File;
+import java.io.FileWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
 import java.util.List;
 import java.util.Locale;
 
@@ -16,6 +27,15 @@ public class AiMonitorActivity extends AppCompatTransferActivity {
     private TextView tvQps;
     private TextView tvThreads;
     private TextView tvActiveRequests;
+    private TextView tvStageLatency;
+    private TextView tvHookCost;
+    private TextView tvEndpoints;
+    private TextView tvThroughput;
+    private TextView tvLimiter;
+    private TextView tvTokens;
+    private TextView tvTailLatency;
+    private TextView tvRecentEvents;
+    private final AiMonitorStats eventStats = new AiMonitorStats();
     private Handler handler;
     private Runnable refreshRunnable;
     private boolean isResumed = false;
@@ -37,6 +57,20 @@ public class AiMonitorActivity extends AppCompatTransferActivity {
         tvQps = findViewById(R.id.tv_qps);
         tvThreads = findViewById(R.id.tv_threads);
         tvActiveRequests = findViewById(R.id.tv_active_requests);
+        tvStageLatency = findViewById(R.id.tv_stage_latency);
+        tvHookCost = findViewById(R.id.tv_hook_cost);
+        tvEndpoints = findViewById(R.id.tv_endpoints);
+        tvThroughput = findViewById(R.id.tv_throughput);
+        tvLimiter = findViewById(R.id.tv_limiter);
+        tvTokens = findViewById(R.id.tv_tokens);
+        tvTailLatency = findViewById(R.id.tv_tail_latency);
+        tvRecentEvents = findViewById(R.id.tv_recent_events);
+        findViewById(R.id.btn_export_metrics).setOnClickListener(v -> exportMetrics());
+        findViewById(R.id.btn_reset_metrics).setOnClickListener(v -> {
+            PerfMetrics.reset();
+            HookRegistry.resetStats();
+            updateStats();
+        });
         handler = new Handler(Looper.getMainLooper());
 
         refreshRunnable = new Runnable() {
@@ -75,7 +109,7 @@ public class AiMonitorActivity extends AppCompatTransferActivity {
         
         // Update Stats Cards
         tvQueueSize.setText(String.valueOf(queue.getQueueSize()));
-        tvQps.setText(String.format(Locale.getDefault(), "%.2f", queue.getCurrentQPS()));
+        tvQps.setText(String.format(Locale.getDefault(), "%.1f", queue.getConcurrencyLimit()));
         
         // Parse thread info: "Active: X, Pool: Y..."
         String threadInfo = queue.getThreadPoolInfo();
@@ -97,6 +131,24 @@ public class AiMonitorActivity extends AppCompatTransferActivity {
         }
         tvThreads.setText(activeThreads + "/" + poolSize);
 
+        // Update Stage Latency
+        tvStageLatency.setText(PerfMetrics.formatSummary());
+        tvHookCost.setText(HookRegistry.formatSummary());
+        tvEndpoints.setText(AiEndpointRouter.formatSummary());
+
+        // Consume queue events incrementally
+        eventStats.poll();
+        tvThroughput.setText(eventStats.formatThroughput());
+        tvTokens.setText(eventStats.formatTokens());
+        tvTailLatency.setText(eventStats.formatTailLatency());
+        tvRecentEvents.setText(eventStats.formatRecentEvents());
+
+        VisionAiQueue visionQueue = VisionAiQueue.peekInstance();
+        tvLimiter.setText("主AI: " + queue.getLimiterState() + "\n" +
+                "外挂AI: " + (visionQueue != null
+                        ? visionQueue.getLimiterState() + "，队列 " + visionQueue.getQueueSize()
+                        : "未启动"));
+
         // Update Active Requests List
         List<String> requests = queue.getActiveRequests();
         if (requests.isEmpty()) {
@@ -106,10 +158,37 @@ public class AiMonitorActivity extends AppCompatTransferActivity {
             for (String req : requests) {
                 // Translate Priority
                 String displayReq = req.replace("HIGH", "高优")
-                                     .replace("NORMAL", "普通");
+                                     .replace("NORMAL", "普通")
+                                     .replace("LOW", "低优");
                 sb.append("• ").append(displayReq).append("\n\n");
             }
             tvActiveRequests.setText(sb.toString());
         }
     }
+
+    private void exportMetrics() {
+        try {
+            org.json.JSONObject root = PerfMetrics.exportSnapshot();
+            root.put("hooks", HookRegistry.exportSnapshot());
+            root.put("endpoints", AiEndpointRouter.exportSnapshot());
+            String snapshot = root.toString(2);
+            
+            String timestamp = new SimpleDateFormat("yyyyMMdd_HHmmss", Locale.getDefault()).format(new Date());
+            File downloadsDir = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DOWNLOADS);
+            File file = new File(downloadsDir, "galqq_perf_" + timestamp + ".json");
+            
+            try (FileWriter writer = new FileWriter(file)) {
+                writer.write(snapshot);
+            }
+            
+            Intent shareIntent = new Intent(Intent.ACTION_SEND);
+            shareIntent.setType("text/plain");
+            shareIntent.putExtra(Intent.EXTRA_TEXT, snapshot);
+            shareIntent.putExtra(Intent.EXTRA_SUBJECT, "GalQQ Perf Snapshot");
+            startActivity(Intent.createChooser(shareIntent, "导出性能快照"));
+            Toast.makeText(this, "快照已保存到: " + file.getAbsolutePath(), Toast.LENGTH_LONG).show();
+        } catch (Exception e) {
+            Toast.makeText(this, "导出失败: " + e.getMessage(), Toast.LENGTH_SHORT).show();
+        }
+    }
 }
@@ -0,0 +1,264 @@
+package top.galqq.ui;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import top.galqq.utils.AiQueueEvents;
+
+/**
+ * 监控面板的事件聚合
+ *
+ * 从 {@link AiQueueEvents} 增量读取事件，按秒分桶统计最近 60 秒的吞吐，
+ * 保留最近的耗时样本用于计算尾延迟，并累计本次打开面板以来的流量与 token 消耗。
+ * 只在主线程使用，不需要同步。
+ */
+class AiMonitorStats {
+
+    private static final int WINDOW_SECONDS = 60;
+    private static final int MAX_LATENCY_SAMPLES = 200;
+    private static final int MAX_RECENT_EVENTS = 30;
+    private static final String SPARK_CHARS = "▁▂▃▄▅▆▇█";
+
+    private long lastSeq = 0;
+
+    // 按秒分桶（下标 = 秒 % WINDOW_SECONDS），bucketSecond 记录桶对应的秒
+    private final long[] bucketSecond = new long[WINDOW_SECONDS];
+    private final int[] succeeded = new int[WINDOW_SECONDS];
+    private final int[] failed = new int[WINDOW_SECONDS];
+    private final int[] rateLimited = new int[WINDOW_SECONDS];
+    private final long[] tokens = new long[WINDOW_SECONDS];
+
+    // 会话累计
+    private long totalSucceeded;
+    private long totalFailed;
+    private long totalRateLimited;
+    private long totalRetried;
+    private long totalTokens;
+    private long totalBytesOut;
+    private long totalBytesIn;
+    private boolean tokensEstimated;
+    // 服务商前缀缓存（只统计返回了命中数据的响应）
+    private long cacheReportedPromptTokens;
+    private long cacheHitTokens;
+    private long lastPromptTokens = -1;
+    private long lastCachedTokens = -1;
+
+    private final ArrayDeque<Long> mainLatency = new ArrayDeque<>();
+    private final ArrayDeque<Long> visionLatency = new ArrayDeque<>();
+    private final ArrayDeque<Long> queueWait = new ArrayDeque<>();
+    private final ArrayDeque<String> recentEvents = new ArrayDeque<>();
+
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("HH:mm:ss", Locale.getDefault());
+    private final List<AiQueueEvents.Event> buffer = new ArrayList<>();
+
+    /**
+     * 拉取新事件并更新统计
+     */
+    void poll() {
+        buffer.clear();
+        lastSeq = AiQueueEvents.readSince(lastSeq, buffer);
+        for (AiQueueEvents.Event e : buffer) {
+            consume(e);
+        }
+    }
+
+    private void consume(AiQueueEvents.Event e) {
+        int slot = slotFor(e.timeMs / 1000);
+        switch (e.type) {
+            case SUCCEEDED:
+                succeeded[slot]++;
+                totalSucceeded++;
+                addSample(e.source == AiQueueEvents.Source.MAIN ? mainLatency : visionLatency, e.latencyMs);
+                break;
+            case FAILED:
+                failed[slot]++;
+                totalFailed++;
+                break;
+            case RATE_LIMITED:
+                rateLimited[slot]++;
+                totalRateLimited++;
+                break;
+            case RETRIED:
+                totalRetried++;
+                break;
+            case STARTED:
+                if (e.source == AiQueueEvents.Source.MAIN) {
+                    addSample(queueWait, e.latencyMs);
+                }
+                break;
+            case RESPONSE:
+                tokens[slot] += e.tokens;
+                totalTokens += e.tokens;
+                totalBytesOut += e.bytesOut;
+                totalBytesIn += e.bytesIn;
+                if (e.detail != null) {
+                    tokensEstimated = true;
+                }
+                if (e.cachedTokens >= 0 && e.promptTokens > 0) {
+                    cacheReportedPromptTokens += e.promptTokens;
+                    cacheHitTokens += e.cachedTokens;
+                    lastPromptTokens = e.promptTokens;
+                    lastCachedTokens = e.cachedTokens;
+                }
+                break;
+            default:
+                break;
+        }
+        if (e.type != AiQueueEvents.Type.RESPONSE) {
+            addRecent(e);
+        }
+    }
+
+    private int slotFor(long second) {
+        int slot = (int) (second % WINDOW_SECONDS);
+        if (bucketSecond[slot] != second) {
+            bucketSecond[slot] = second;
+            succeeded[slot] = 0;
+            failed[slot] = 0;
+            rateLimited[slot] = 0;
+            tokens[slot] = 0;
+        }
+        return slot;
+    }
+
+    private static void addSample(ArrayDeque<Long> samples, long value) {
+        samples.addLast(value);
+        while (samples.size() > MAX_LATENCY_SAMPLES) {
+            samples.removeFirst();
+        }
+    }
+
+    private void addRecent(AiQueueEvents.Event e) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(timeFormat.format(new Date(e.timeMs)))
+          .append(' ').append(e.source.displayName)
+          .append(" #").append(e.requestId)
+          .append(' ').append(e.type.displayName);
+        if (e.latencyMs > 0) {
+            sb.append(' ').append(e.latencyMs).append("ms");
+        }
+        if (e.detail != null && !e.detail.isEmpty()) {
+            String detail = e.detail.length() > 30 ? e.detail.substring(0, 30) + "..." : e.detail;
+            sb.append(" (").append(detail).append(')');
+        }
+        recentEvents.addFirst(sb.toString());
+        while (recentEvents.size() > MAX_RECENT_EVENTS) {
+            recentEvents.removeLast();
+        }
+    }
+
+    /**
+     * 最近60秒吞吐：每秒成功数的走势 + 汇总
+     */
+    String formatThroughput() {
+        long nowSecond = System.currentTimeMillis() / 1000;
+        int[] series = new int[WINDOW_SECONDS];
+        int max = 0;
+        int ok = 0, fail = 0, limited = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            long second = nowSecond - (WINDOW_SECONDS - 1) + i;
+            int slot = (int) (second % WINDOW_SECONDS);
+            if (bucketSecond[slot] != second) continue;
+            series[i] = succeeded[slot];
+            max = Math.max(max, series[i]);
+            ok += succeeded[slot];
+            fail += failed[slot];
+            limited += rateLimited[slot];
+        }
+        StringBuilder sb = new StringBuilder();
+        for (int value : series) {
+            int level = max == 0 ? 0 : (int) Math.round(value * (SPARK_CHARS.length() - 1) / (double) max);
+            sb.append(SPARK_CHARS.charAt(level));
+        }
+        sb.append("\n近60秒: 成功 ").append(ok)
+          .append("，失败 ").append(fail)
+          .append("，429 ").append(limited)
+          .append(String.format(Locale.getDefault(), "，%.2f 次/秒", ok / (double) WINDOW_SECONDS));
+        sb.append("\n累计: 成功 ").append(totalSucceeded)
+          .append("，失败 ").append(totalFailed)
+          .append("，429 ").append(totalRateLimited)
+          .append("，重试 ").append(totalRetried);
+        return sb.toString();
+    }
+
+    /**
+     * token 消耗与流量
+     */
+    String formatTokens() {
+        long nowSecond = System.currentTimeMillis() / 1000;
+        long windowTokens = 0;
+        for (int i = 0; i < WINDOW_SECONDS; i++) {
+            if (nowSecond - bucketSecond[i] < WINDOW_SECONDS) {
+                windowTokens += tokens[i];
+            }
+        }
+        return "近60秒: " + windowTokens + " tokens\n" +
+               "累计: " + totalTokens + " tokens" + (tokensEstimated ? "（部分为估算）" : "") + "\n" +
+               "上行 " + formatBytes(totalBytesOut) + " / 下行 " + formatBytes(totalBytesIn) + "\n" +
+               formatCacheHits();
+    }
+
+    /**
+     * 服务商前缀缓存命中情况
+     */
+    private String formatCacheHits() {
+        if (cacheReportedPromptTokens <= 0) {
+            return "前缀缓存: 服务商未返回命中数据";
+        }
+        return String.format(Locale.getDefault(), "前缀缓存: 累计命中 %d / %d 输入tokens (%.0f%%)，最近一次 %d / %d",
+                cacheHitTokens, cacheReportedPromptTokens, cacheHitTokens * 100.0 / cacheReportedPromptTokens,
+                lastCachedTokens, lastPromptTokens);
+    }
+
+    /**
+     * 最近样本的尾延迟（端到端）
+     */
+    String formatTailLatency() {
+        return formatPercentiles("主AI请求", mainLatency) + "\n" +
+               formatPercentiles("主AI排队", queueWait) + "\n" +
+               formatPercentiles("外挂AI", visionLatency);
+    }
+
+    String formatRecentEvents() {
+        if (recentEvents.isEmpty()) {
+            return "暂无事件";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String line : recentEvents) {
+            sb.append(line).append('\n');
+        }
+        return sb.toString().trim();
+    }
+
+    private static String formatPercentiles(String label, ArrayDeque<Long> samples) {
+        if (samples.isEmpty()) {
+            return label + ": 暂无数据";
+        }
+        long[] sorted = new long[samples.size()];
+        int i = 0;
+        for (Long v : samples) {
+            sorted[i++] = v;
+        }
+        Arrays.sort(sorted);
+        return label + ": p50=" + percentile(sorted, 0.50) + "ms" +
+               " p95=" + percentile(sorted, 0.95) + "ms" +
+               " p99=" + percentile(sorted, 0.99) + "ms" +
+               " (n=" + sorted.length + ")";
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int index = (int) Math.ceil(p * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) return bytes + " B";
+        if (bytes < 1024 * 1024) return String.format(Locale.getDefault(), "%.1f KB", bytes / 1024.0);
+        return String.format(Locale.getDefault(), "%.2f MB", bytes / (1024.0 * 1024.0));
+    }
+}
@@ -134,6 +134,16 @@ public class GalSettingsFragment extends PreferenceFragmentCompat {
             });
         }
 
+        // Option Engine (选项引擎)
+        androidx.preference.ListPreference optionEnginePref = findPreference(ConfigManager.KEY_OPTION_ENGINE);
+        if (optionEnginePref != null) {
+            optionEnginePref.setValue(ConfigManager.getOptionEngine());
+            optionEnginePref.setOnPreferenceChangeListener((preference, newValue) -> {
+                ConfigManager.setOptionEngine((String) newValue);
+                return true;
+            });
+        }
+
         // Prompt Manager (提示词管理)
         Preference promptManagerPref = findPreference("gal_prompt_manager");
         if (promptManagerPref != null) {
@@ -345,7 +355,43 @@ public class GalSettingsFragment extends PreferenceFragmentCompat {
                 return false;
             });
         }
-        
+
+        // Extra Endpoints (备用服务商)
+        EditTextPreference extraEndpointsPref = findPreference(ConfigManager.KEY_AI_EXTRA_ENDPOINTS);
+        if (extraEndpointsPref != null) {
+            extraEndpointsPref.setText(ConfigManager.getAiExtraEndpoints());
+            extraEndpointsPref.setOnPreferenceChangeListener((preference, newValue) -> {
+                String endpoints = ((String) newValue).trim();
+                ConfigManager.setAiExtraEndpoints(endpoints);
+                extraEndpointsPref.setText(endpoints);
+                return true;
+            });
+        }
+
+        // Hedged Requests (对冲请求)
+        Preference hedgeSwitch = findPreference(ConfigManager.KEY_AI_HEDGE_ENABLED);
+        if (hedgeSwitch != null) {
+            if (hedgeSwitch instanceof androidx.preference.TwoStatePreference) {
+                ((androidx.preference.TwoStatePreference) hedgeSwitch).setChecked(ConfigManager.isAiHedgeEnabled());
+            }
+            hedgeSwitch.setOnPreferenceChangeListener((preference, newValue) -> {
+                ConfigManager.setAiHedgeEnabled((Boolean) newValue);
+                return true;
+            });
+        }
+
+        // Batched Requests (批量生成)
+        Preference batchSwitch = findPreference(ConfigManager.KEY_AI_BATCH_ENABLED);
+        if (batchSwitch != null) {
+            if (batchSwitch instanceof androidx.preference.TwoStatePreference) {
+                ((androidx.preference.TwoStatePreference) batchSwitch).setChecked(ConfigManager.isAiBatchEnabled());
+            }
+            batchSwitch.setOnPreferenceChangeListener((preference, newValue) -> {
+                ConfigManager.setAiBatchEnabled((Boolean) newValue);
+                return true;
+            });
+        }
+
         // Context Enabled (启用对话上下文)
         Preference contextEnabledSwitch = findPreference(ConfigManager.KEY_CONTEXT_ENABLED);
         if (contextEnabledSwitch != null) {
@@ -375,6 +421,47 @@ public class GalSettingsFragment extends PreferenceFragmentCompat {
             });
         }
         
+        // Context Token Budget (上下文Token预算)
+        EditTextPreference tokenBudgetPref = findPreference(ConfigManager.KEY_CONTEXT_TOKEN_BUDGET);
+        if (tokenBudgetPref != null) {
+            tokenBudgetPref.setText(String.valueOf(ConfigManager.getContextTokenBudget()));
+            tokenBudgetPref.setOnPreferenceChangeListener((preference, newValue) -> {
+                try {
+                    int budget = Integer.parseInt((String) newValue);
+                    if (budget >= 0 && budget <= 128000) {
+                        ConfigManager.setContextTokenBudget(budget);
+                        tokenBudgetPref.setText((String) newValue);
+                        return true;
+                    }
+                } catch (Exception e) {}
+                return false;
+            });
+        }
+        
+        // Context Summary (对话摘要)
+        Preference contextSummarySwitch = findPreference(ConfigManager.KEY_CONTEXT_SUMMARY_ENABLED);
+        if (contextSummarySwitch != null) {
+            if (contextSummarySwitch instanceof androidx.preference.TwoStatePreference) {
+                ((androidx.preference.TwoStatePreference) contextSummarySwitch).setChecked(ConfigManager.isContextSummaryEnabled());
+            }
+            contextSummarySwitch.setOnPreferenceChangeListener((preference, newValue) -> {
+                ConfigManager.setContextSummaryEnabled((Boolean) newValue);
+                return true;
+            });
+        }
+        
+        // Context From Kernel (从QQ拉取历史消息)
+        Preference contextFromKernelSwitch = findPreference(ConfigManager.KEY_CONTEXT_FROM_KERNEL);
+        if (contextFromKernelSwitch != null) {
+            if (contextFromKernelSwitch instanceof androidx.preference.TwoStatePreference) {
+                ((androidx.preference.TwoStatePreference) contextFromKernelSwitch).setChecked(ConfigManager.isContextFromKernelEnabled());
+            }
+            contextFromKernelSwitch.setOnPreferenceChangeListener((preference, newValue) -> {
+                ConfigManager.setContextFromKernelEnabled((Boolean) newValue);
+                return true;
+            });
+        }
+        
         // History Threshold (历史消息阈值)
         EditTextPreference historyThresholdPref = findPreference(ConfigManager.KEY_HISTORY_THRESHOLD);
         if (historyThresholdPref != null) {
@@ -582,6 +669,18 @@ public class GalSettingsFragment extends PreferenceFragmentCompat {
             debugHookLogPref.setChecked(ConfigManager.isDebugHookLogEnabled());
             debugHookLogPref.setOnPreferenceChangeListener((preference, newValue) -> {
                 ConfigManager.setDebugHookLogEnabled((Boolean) newValue);
+                // 调试 Hook 跟随开关即时安装/卸载
+                top.galqq.hook.HookRegistry.setDebugSessionActive((Boolean) newValue);
+                return true;
+            });
+        }
+        
+        // Perf Metrics (性能统计)
+        SwitchPreference perfMetricsPref = findPreference(ConfigManager.KEY_PERF_METRICS);
+        if (perfMetricsPref != null) {
+            perfMetricsPref.setChecked(ConfigManager.isPerfMetricsEnabled());
+            perfMetricsPref.setOnPreferenceChangeListener((preference, newValue) -> {
+                ConfigManager.setPerfMetricsEnabled((Boolean) newValue);
                 return true;
             });
         }
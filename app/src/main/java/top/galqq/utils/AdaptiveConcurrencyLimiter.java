@@ -0,0 +1,366 @@
+package top.galqq.utils;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import de.robv.android.xposed.XposedBridge;
+import okhttp3.Dispatcher;
+import okhttp3.Headers;
+import top.galqq.config.ConfigManager;
+
+/**
+ * 自适应并发限流（主AI和外挂AI共用）
+ *
+ * 每个（服务商, 模型）一份独立的名额，限制的是同时进行中的请求数，而不是固定的请求间隔：
+ * - 延迟梯度：当前延迟取最近 10 个样本的中位数；无负载延迟取长窗口（最近 20 组、每组 10 个样本）
+ *   各组中位数的最小值。当前延迟不超过无负载延迟的 2 倍时逐步增加并发，明显变慢（服务端开始排队）时按比例收缩。
+ *   两者都是窗口统计，单个慢/快样本不会拉动基线，持续高负载也只能在长窗口滑过之后才抬高基线
+ * - 429：并发减半，并按 Retry-After 暂停（没有时暂停 1 秒）
+ * - x-ratelimit-remaining-requests / -tokens 为 0 时暂停到对应的 reset 时间，剩余请求数少于并发时收紧并发
+ *
+ * 设置里的 QPS 只作为起始并发，之后由服务商的实际表现决定。
+ *
+ * 用法：
+ * <pre>
+ * AdaptiveConcurrencyLimiter.Budget budget = AdaptiveConcurrencyLimiter.budget(provider, model, initialLimit);
+ * budget.acquire();
+ * try { ... 发请求，收到响应时 budget.onResponse(code, headers, latencyMs) ... }
+ * finally { budget.release(); }
+ * </pre>
+ */
+public final class AdaptiveConcurrencyLimiter {
+
+    private static final String TAG = "GalQQ.Limiter";
+
+    private static void debugLog(String message) {
+        try {
+            if (ConfigManager.isVerboseLogEnabled()) {
+                XposedBridge.log(TAG + ": " + message);
+            }
+        } catch (Throwable ignored) {}
+    }
+
+    private static final double MIN_LIMIT = 1;
+    private static final double MAX_LIMIT = 16;
+    // 延迟不超过无负载延迟的这个倍数时视为正常
+    private static final double LATENCY_TOLERANCE = 2.0;
+    // 新限制值的平滑系数
+    private static final double SMOOTHING = 0.2;
+    // 短窗口：最近这么多个样本的中位数作为当前延迟
+    private static final int SHORT_WINDOW = 10;
+    // 长窗口：保留最近这么多组（每组 SHORT_WINDOW 个样本）的中位数，其中最小的作为无负载延迟
+    private static final int LONG_WINDOW_GROUPS = 20;
+    private static final long DEFAULT_RETRY_AFTER_MS = 1000;
+    private static final long MAX_BLOCK_MS = 5 * 60_000;
+
+    private static final Map<String, Budget> sBudgets = new ConcurrentHashMap<>();
+
+    private AdaptiveConcurrencyLimiter() {}
+
+    /**
+     * 获取（服务商, 模型）对应的名额，不存在时按 initialLimit 创建
+     */
+    public static Budget budget(String provider, String model, double initialLimit) {
+        String key = provider + "/" + model;
+        Budget budget = sBudgets.get(key);
+        if (budget == null) {
+            Budget created = new Budget(key, initialLimit);
+            budget = sBudgets.putIfAbsent(key, created);
+            if (budget == null) budget = created;
+        }
+        return budget;
+    }
+
+    /**
+     * 给 AI 客户端用的 OkHttp Dispatcher
+     * OkHttp 默认每个主机最多 5 个并发请求，多出的在客户端排队，排队时间会被当成服务端延迟算进梯度；
+     * 这里放宽到名额上限的 2 倍（同一主机上可能有多个模型、对冲请求），并发交给名额控制
+     */
+    public static Dispatcher newDispatcher() {
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequestsPerHost((int) MAX_LIMIT * 2);
+        return dispatcher;
+    }
+
+    /**
+     * 是否因为 429 或限流响应头暂停中（没有创建过名额时返回 false）
+     */
+    public static boolean isBlocked(String provider, String model) {
+        Budget budget = sBudgets.get(provider + "/" + model);
+        return budget != null && budget.blockedForMs() > 0;
+    }
+
+    /**
+     * 各名额的状态，供监控界面显示
+     */
+    public static String formatSummary() {
+        if (sBudgets.isEmpty()) {
+            return "暂无数据";
+        }
+        List<Budget> budgets = new ArrayList<>(sBudgets.values());
+        StringBuilder sb = new StringBuilder();
+        for (Budget budget : budgets) {
+            sb.append(budget.describe()).append("\n");
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * 一个（服务商, 模型）的并发名额
+     */
+    public static final class Budget {
+        final String key;
+
+        // 以下受 Budget 自身锁保护
+        private double limit;
+        private int inFlight = 0;
+        private long blockedUntil = 0;
+        private double baselineLatencyMs = -1;
+        private double recentLatencyMs = -1;
+        private final long[] shortSamples = new long[SHORT_WINDOW];
+        private int shortCount = 0;
+        private int shortPos = 0;
+        private final double[] groupMedians = new double[LONG_WINDOW_GROUPS];
+        private int groupCount = 0;
+        private int groupPos = 0;
+        private long last429Time = 0;
+
+        Budget(String key, double initialLimit) {
+            this.key = key;
+            this.limit = clamp(initialLimit);
+        }
+
+        /**
+         * 占用一个名额，没有空闲名额或暂停中时阻塞等待
+         */
+        public void acquire() throws InterruptedException {
+            synchronized (this) {
+                while (true) {
+                    long blocked = blockedUntil - System.currentTimeMillis();
+                    if (blocked > 0) {
+                        wait(blocked);
+                    } else if (inFlight >= Math.floor(limit)) {
+                        wait();
+                    } else {
+                        inFlight++;
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * 有空闲名额且没有暂停时占用一个，否则立即返回 false（用于可以放弃的请求，如对冲请求）
+         */
+        public synchronized boolean tryAcquire() {
+            if (blockedUntil > System.currentTimeMillis() || inFlight >= Math.floor(limit)) {
+                return false;
+            }
+            inFlight++;
+            return true;
+        }
+
+        /**
+         * 归还名额（与 acquire / tryAcquire 成对调用）
+         */
+        public synchronized void release() {
+            if (inFlight > 0) inFlight--;
+            notifyAll();
+        }
+
+        /**
+         * 剩余的暂停时间（毫秒），没有暂停时返回 0
+         */
+        public synchronized long blockedForMs() {
+            return Math.max(0, blockedUntil - System.currentTimeMillis());
+        }
+
+        public synchronized double getLimit() {
+            return limit;
+        }
+
+        public synchronized int getInFlight() {
+            return inFlight;
+        }
+
+        public synchronized long getLast429Time() {
+            return last429Time;
+        }
+
+        /**
+         * 收到一个 HTTP 响应
+         * @param code HTTP 状态码
+         * @param headers 响应头（可为 null）
+         * @param latencyMs 从发出请求到收到响应的耗时
+         */
+        public void onResponse(int code, Headers headers, long latencyMs) {
+            long now = System.currentTimeMillis();
+            synchronized (this) {
+                if (code == 429) {
+                    double old = limit;
+                    limit = clamp(limit * 0.5);
+                    last429Time = now;
+                    long retryAfter = headers != null ? parseRetryAfter(headers.get("Retry-After"), now) : -1;
+                    block(now, retryAfter >= 0 ? retryAfter : DEFAULT_RETRY_AFTER_MS);
+                    debugLog(key + " 触发429，并发 " + format(old) + " → " + format(limit)
+                            + "，暂停 " + (blockedUntil - now) + "ms");
+                } else if (code >= 200 && code < 300) {
+                    onLatency(latencyMs);
+                }
+                if (headers != null) {
+                    applyRateLimitHeaders(headers, now);
+                }
+                notifyAll();
+            }
+        }
+
+        private void onLatency(long latencyMs) {
+            if (latencyMs <= 0) return;
+            shortSamples[shortPos] = latencyMs;
+            shortPos = (shortPos + 1) % SHORT_WINDOW;
+            if (shortCount < SHORT_WINDOW) shortCount++;
+            recentLatencyMs = median(shortSamples, shortCount);
+            // 每满一组把这组的中位数放进长窗口，基线取长窗口里的最小值
+            if (shortPos == 0) {
+                groupMedians[groupPos] = recentLatencyMs;
+                groupPos = (groupPos + 1) % LONG_WINDOW_GROUPS;
+                if (groupCount < LONG_WINDOW_GROUPS) groupCount++;
+                baselineLatencyMs = groupMedians[0];
+                for (int i = 1; i < groupCount; i++) {
+                    baselineLatencyMs = Math.min(baselineLatencyMs, groupMedians[i]);
+                }
+            } else if (groupCount == 0) {
+                // 第一组还没满：暂时以当前延迟为基线（只会增长，不会收缩）
+                baselineLatencyMs = recentLatencyMs;
+            }
+            // 梯度 < 1 表示服务端开始排队，按比例收缩；延迟正常时在当前基础上再探测 sqrt(limit) 的余量
+            double gradient = Math.max(0.5, Math.min(1.0, LATENCY_TOLERANCE * baselineLatencyMs / recentLatencyMs));
+            double target = gradient < 1.0 ? limit * gradient : limit + Math.sqrt(limit);
+            // 并发没有用满时不增长，避免空闲时虚高
+            if (target > limit && inFlight < limit / 2) return;
+            limit = clamp(limit * (1 - SMOOTHING) + target * SMOOTHING);
+        }
+
+        private void applyRateLimitHeaders(Headers headers, long now) {
+            long remainingRequests = parseLong(headers.get("x-ratelimit-remaining-requests"));
+            if (remainingRequests == 0) {
+                long reset = parseDurationMs(headers.get("x-ratelimit-reset-requests"));
+                block(now, reset >= 0 ? reset : DEFAULT_RETRY_AFTER_MS);
+                debugLog(key + " 请求配额用尽，暂停 " + (blockedUntil - now) + "ms");
+            } else if (remainingRequests > 0 && remainingRequests < limit) {
+                limit = clamp(remainingRequests);
+            }
+            long remainingTokens = parseLong(headers.get("x-ratelimit-remaining-tokens"));
+            if (remainingTokens == 0) {
+                long reset = parseDurationMs(headers.get("x-ratelimit-reset-tokens"));
+                block(now, reset >= 0 ? reset : DEFAULT_RETRY_AFTER_MS);
+                debugLog(key + " token配额用尽，暂停 " + (blockedUntil - now) + "ms");
+            }
+        }
+
+        private void block(long now, long durationMs) {
+            blockedUntil = Math.max(blockedUntil, now + Math.min(durationMs, MAX_BLOCK_MS));
+        }
+
+        synchronized String describe() {
+            StringBuilder sb = new StringBuilder(key).append(": 并发 ")
+                    .append(inFlight).append("/").append(format(limit));
+            if (recentLatencyMs >= 0) {
+                sb.append(String.format(Locale.US, "，延迟 %.0fms（基线 %.0fms）", recentLatencyMs, baselineLatencyMs));
+            }
+            long blocked = blockedUntil - System.currentTimeMillis();
+            if (blocked > 0) {
+                sb.append("，暂停 ").append(blocked / 1000 + 1).append("s");
+            }
+            if (last429Time > 0) {
+                sb.append("，上次429: ").append((System.currentTimeMillis() - last429Time) / 1000).append("秒前");
+            }
+            return sb.toString();
+        }
+
+        private static double median(long[] samples, int count) {
+            long[] sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            return count % 2 == 1 ? sorted[count / 2] : (sorted[count / 2 - 1] + sorted[count / 2]) / 2.0;
+        }
+
+        private static double clamp(double value) {
+            return Math.max(MIN_LIMIT, Math.min(MAX_LIMIT, value));
+        }
+
+        private static String format(double value) {
+            return String.format(Locale.US, "%.1f", value);
+        }
+    }
+
+    // ========== 响应头解析 ==========
+
+    private static final Pattern DURATION_PART = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|h|m|s)");
+
+    /**
+     * Retry-After：秒数或 HTTP 日期
+     * @return 需要等待的毫秒数，无法解析时返回 -1
+     */
+    static long parseRetryAfter(String value, long now) {
+        if (value == null || value.trim().isEmpty()) return -1;
+        value = value.trim();
+        try {
+            return Math.max(0, (long) (Double.parseDouble(value) * 1000));
+        } catch (NumberFormatException ignored) {}
+        try {
+            SimpleDateFormat format = new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzz", Locale.US);
+            return Math.max(0, format.parse(value).getTime() - now);
+        } catch (Exception ignored) {}
+        return -1;
+    }
+
+    /**
+     * x-ratelimit-reset-*：形如 "1s"、"6m0s"、"20ms"、"1h2m3.5s"，也接受纯数字（秒）
+     * @return 毫秒数，无法解析时返回 -1
+     */
+    static long parseDurationMs(String value) {
+        if (value == null || value.trim().isEmpty()) return -1;
+        value = value.trim();
+        try {
+            return Math.max(0, (long) (Double.parseDouble(value) * 1000));
+        } catch (NumberFormatException ignored) {}
+        Matcher matcher = DURATION_PART.matcher(value);
+        double total = 0;
+        boolean matched = false;
+        while (matcher.find()) {
+            matched = true;
+            double amount = Double.parseDouble(matcher.group(1));
+            switch (matcher.group(2)) {
+                case "h":
+                    total += amount * 3_600_000;
+                    break;
+                case "m":
+                    total += amount * 60_000;
+                    break;
+                case "s":
+                    total += amount * 1000;
+                    break;
+                default:
+                    total += amount;
+                    break;
+            }
+        }
+        return matched ? (long) total : -1;
+    }
+
+    private static long parseLong(String value) {
+        if (value == null) return -1;
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -6,15 +6,19 @@ import de.robv.android.xposed.XposedBridge;
 
 import org.json.JSONObject;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.Set;
 
 import top.galqq.config.ConfigManager;
 
 /**
  * 好感度数据缓存
  * 使用 MMKV 存储好感度数据，支持缓存有效期检查
+ * 内存中保留一份解析后的表，读取时不再每次解析 JSON；写入前比较哈希，数据没变就不重写
  */
 public class AffinityCache {
 
@@ -32,11 +36,16 @@ public class AffinityCache {
     private static final String KEY_WHO_CARES_ME = "affinity_who_cares_me";
     private static final String KEY_WHO_I_CARE = "affinity_who_i_care";
     private static final String KEY_TIMESTAMP = "affinity_timestamp";
+    private static final String KEY_HASH_SUFFIX = "_hash";
     
     // 缓存有效期：1小时（毫秒）
     public static final long CACHE_DURATION_MS = 60 * 60 * 1000L;
 
     private Context mContext;
+    
+    // 内存中的表（null 表示尚未从 MMKV 加载）
+    private volatile Map<String, Integer> mWhoCaresMe;
+    private volatile Map<String, Integer> mWhoICare;
 
     public AffinityCache(Context context) {
         mContext = context.getApplicationContext();
@@ -47,35 +56,59 @@ public class AffinityCache {
     /**
      * 保存"谁在意我"数据
      * @param data UIN -> 分数 映射
+     * @return 与旧数据相比发生变化（新增、删除、分数改变）的 UIN
      */
-    public void saveWhoCaresMe(Map<String, Integer> data) {
-        saveData(KEY_WHO_CARES_ME, data);
+    public synchronized Set<String> saveWhoCaresMe(Map<String, Integer> data) {
+        Set<String> changed = diff(getWhoCaresMe(), data);
+        if (saveIfChanged(KEY_WHO_CARES_ME, data)) {
+            mWhoCaresMe = Collections.unmodifiableMap(new HashMap<>(data));
+        }
         updateTimestamp();
+        return changed;
     }
 
     /**
      * 保存"我在意谁"数据
      * @param data UIN -> 分数 映射
+     * @return 与旧数据相比发生变化（新增、删除、分数改变）的 UIN
      */
-    public void saveWhoICare(Map<String, Integer> data) {
-        saveData(KEY_WHO_I_CARE, data);
+    public synchronized Set<String> saveWhoICare(Map<String, Integer> data) {
+        Set<String> changed = diff(getWhoICare(), data);
+        if (saveIfChanged(KEY_WHO_I_CARE, data)) {
+            mWhoICare = Collections.unmodifiableMap(new HashMap<>(data));
+        }
         updateTimestamp();
+        return changed;
     }
 
     /**
      * 获取"谁在意我"数据
-     * @return UIN -> 分数 映射，如果没有缓存返回 null
+     * @return UIN -> 分数 映射（只读），如果没有缓存返回 null
      */
     public Map<String, Integer> getWhoCaresMe() {
-        return loadData(KEY_WHO_CARES_ME);
+        Map<String, Integer> data = mWhoCaresMe;
+        if (data == null) {
+            data = loadData(KEY_WHO_CARES_ME);
+            if (data != null) {
+                mWhoCaresMe = data = Collections.unmodifiableMap(data);
+            }
+        }
+        return data;
     }
 
     /**
      * 获取"我在意谁"数据
-     * @return UIN -> 分数 映射，如果没有缓存返回 null
+     * @return UIN -> 分数 映射（只读），如果没有缓存返回 null
      */
     public Map<String, Integer> getWhoICare() {
-        return loadData(KEY_WHO_I_CARE);
+        Map<String, Integer> data = mWhoICare;
+        if (data == null) {
+            data = loadData(KEY_WHO_I_CARE);
+            if (data != null) {
+                mWhoICare = data = Collections.unmodifiableMap(data);
+            }
+        }
+        return data;
     }
 
     /**
@@ -108,13 +141,67 @@ public class AffinityCache {
     /**
      * 清除所有缓存
      */
-    public void clearCache() {
+    public synchronized void clearCache() {
         ConfigManager.remove(KEY_WHO_CARES_ME);
         ConfigManager.remove(KEY_WHO_I_CARE);
+        ConfigManager.remove(KEY_WHO_CARES_ME + KEY_HASH_SUFFIX);
+        ConfigManager.remove(KEY_WHO_I_CARE + KEY_HASH_SUFFIX);
         ConfigManager.remove(KEY_TIMESTAMP);
+        mWhoCaresMe = null;
+        mWhoICare = null;
         debugLog(TAG + ": 缓存已清除");
     }
 
+    /**
+     * 哈希不同才写入 MMKV
+     * @return 是否写入
+     */
+    private boolean saveIfChanged(String key, Map<String, Integer> data) {
+        long hash = hashOf(data);
+        String hashKey = key + KEY_HASH_SUFFIX;
+        if (ConfigManager.getLong(hashKey, 0) == hash && ConfigManager.getString(key, null) != null) {
+            debugLog(TAG + ": 数据未变化，跳过写入: " + key);
+            return false;
+        }
+        saveData(key, data);
+        ConfigManager.putLong(hashKey, hash);
+        return true;
+    }
+
+    /**
+     * 与顺序无关的表哈希（每条 uin/分数 混合后求和）
+     */
+    static long hashOf(Map<String, Integer> data) {
+        if (data == null) return 0;
+        long hash = data.size();
+        for (Map.Entry<String, Integer> entry : data.entrySet()) {
+            long h = entry.getKey().hashCode() * 0x9E3779B97F4A7C15L + (entry.getValue() != null ? entry.getValue() : -1);
+            h ^= h >>> 29;
+            h *= 0xBF58476D1CE4E5B9L;
+            h ^= h >>> 32;
+            hash += h;
+        }
+        return hash == 0 ? 1 : hash;
+    }
+
+    private static Set<String> diff(Map<String, Integer> oldData, Map<String, Integer> newData) {
+        Set<String> changed = new HashSet<>();
+        if (oldData == null) oldData = Collections.emptyMap();
+        if (newData == null) newData = Collections.emptyMap();
+        for (Map.Entry<String, Integer> entry : newData.entrySet()) {
+            Integer old = oldData.get(entry.getKey());
+            if (old == null || !old.equals(entry.getValue())) {
+                changed.add(entry.getKey());
+            }
+        }
+        for (String uin : oldData.keySet()) {
+            if (!newData.containsKey(uin)) {
+                changed.add(uin);
+            }
+        }
+        return changed;
+    }
+
     /**
      * 保存数据到 MMKV
      */
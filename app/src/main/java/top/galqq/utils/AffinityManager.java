@@ -4,6 +4,12 @@ import android.content.Context;
 
 import de.robv.android.xposed.XposedBridge;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
 /**
  * 好感度管理器 - 核心类
  * 负责管理好感度数据的获取、计算和缓存
@@ -16,7 +22,10 @@ public class AffinityManager {
     private Context mContext;
     private AffinityCache mCache;
     private CloseRankClient mClient;
-    private boolean mIsRefreshing = false;
+    private volatile boolean mIsRefreshing = false;
+    // 刷新进行中时到达的回调，等本次刷新结束一并通知
+    private final List<RefreshCallback> mPendingCallbacks = new ArrayList<>();
+    private final List<AffinityChangeListener> mChangeListeners = new CopyOnWriteArrayList<>();
 
     /**
      * 刷新回调接口
@@ -26,6 +35,30 @@ public class AffinityManager {
         void onFailure(Exception e);
     }
 
+    /**
+     * 好感度数据变化监听（只通知分数实际变化的 UIN）
+     */
+    public interface AffinityChangeListener {
+        void onAffinityChanged(Set<String> changedUins);
+    }
+
+    public void addChangeListener(AffinityChangeListener listener) {
+        if (listener != null && !mChangeListeners.contains(listener)) {
+            mChangeListeners.add(listener);
+        }
+    }
+
+    public void removeChangeListener(AffinityChangeListener listener) {
+        mChangeListeners.remove(listener);
+    }
+
+    /**
+     * 缓存数据的写入时间（毫秒），没有缓存时返回 0
+     */
+    public long getCacheTimestamp() {
+        return mCache.getTimestamp();
+    }
+
     private AffinityManager(Context context) {
         mContext = context.getApplicationContext();
         mCache = new AffinityCache(mContext);
@@ -117,11 +150,6 @@ public class AffinityManager {
      * @param callback 刷新完成回调
      */
     public void refreshData(boolean force, RefreshCallback callback) {
-        // 检查是否正在刷新
-        if (mIsRefreshing) {
-            return;
-        }
-        
         // 检查缓存是否有效（非强制刷新时）
         if (!force && mCache.isCacheValid()) {
             if (callback != null) {
@@ -130,40 +158,68 @@ public class AffinityManager {
             return;
         }
         
-        mIsRefreshing = true;
+        // 正在刷新时合并到本次刷新
+        synchronized (mPendingCallbacks) {
+            if (callback != null) {
+                mPendingCallbacks.add(callback);
+            }
+            if (mIsRefreshing) {
+                return;
+            }
+            mIsRefreshing = true;
+        }
         
         // 使用新的双向数据获取方法，一次请求获取两种数据
         mClient.fetchBothRankData(mContext, new CloseRankClient.BothRankCallback() {
             @Override
             public void onSuccess(java.util.Map<String, Integer> whoICare, java.util.Map<String, Integer> whoCaresMe) {
-                mIsRefreshing = false;
-                
-                // 保存数据到缓存
+                // 保存数据到缓存（数据没变时不会重写），收集分数变化的 UIN
+                Set<String> changed = new HashSet<>();
                 if (whoCaresMe != null && !whoCaresMe.isEmpty()) {
-                    mCache.saveWhoCaresMe(whoCaresMe);
+                    changed.addAll(mCache.saveWhoCaresMe(whoCaresMe));
                 }
                 
                 if (whoICare != null && !whoICare.isEmpty()) {
-                    mCache.saveWhoICare(whoICare);
+                    changed.addAll(mCache.saveWhoICare(whoICare));
+                }
+                
+                if (!changed.isEmpty()) {
+                    XposedBridge.log(TAG + ": 好感度数据已更新，变化 " + changed.size() + " 人");
+                    for (AffinityChangeListener listener : mChangeListeners) {
+                        try {
+                            listener.onAffinityChanged(changed);
+                        } catch (Throwable t) {
+                            XposedBridge.log(TAG + ": 通知好感度变化失败: " + t.getMessage());
+                        }
+                    }
                 }
+                AffinityRefreshScheduler.onRefreshedExternally();
                 
-                if (callback != null) {
-                    callback.onSuccess();
+                for (RefreshCallback cb : finishRefresh()) {
+                    cb.onSuccess();
                 }
             }
 
             @Override
             public void onFailure(Exception e) {
-                mIsRefreshing = false;
                 XposedBridge.log(TAG + ": 刷新好感度数据失败: " + e.getMessage());
                 
-                if (callback != null) {
-                    callback.onFailure(e);
+                for (RefreshCallback cb : finishRefresh()) {
+                    cb.onFailure(e);
                 }
             }
         });
     }
 
+    private List<RefreshCallback> finishRefresh() {
+        synchronized (mPendingCallbacks) {
+            mIsRefreshing = false;
+            List<RefreshCallback> callbacks = new ArrayList<>(mPendingCallbacks);
+            mPendingCallbacks.clear();
+            return callbacks;
+        }
+    }
+
     // 好感度计算模型常量
     public static final int MODEL_MUTUAL = 0;      // 双向奔赴模型
     public static final int MODEL_BALANCED = 1;    // 加权平衡模型
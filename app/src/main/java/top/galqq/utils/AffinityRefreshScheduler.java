@@ -0,0 +1,211 @@
+package top.galqq.utils;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.PowerManager;
+
+import de.robv.android.xposed.XposedBridge;
+
+import java.util.Random;
+
+import top.galqq.config.ConfigManager;
+
+/**
+ * 好感度后台刷新调度器
+ *
+ * 数据到期后不在聊天界面上同步触发，而是等 QQ 空闲时在后台刷新：
+ * - 到期时间 = 上次刷新时间 + 缓存有效期，带 ±10% 抖动，避免多个设备/进程同时请求
+ * - 到期后优先等待"网络可用 + 屏幕关闭"的窗口；屏幕一直亮着时最多再等 IDLE_WAIT_MS
+ * - 失败后指数退避（1分钟起，最多30分钟），同样带抖动
+ */
+public final class AffinityRefreshScheduler {
+
+    private static final String TAG = "GalQQ.AffinityScheduler";
+
+    private static void debugLog(String message) {
+        try {
+            if (ConfigManager.isVerboseLogEnabled()) {
+                XposedBridge.log(message);
+            }
+        } catch (Throwable ignored) {}
+    }
+
+    private static final long BASE_INTERVAL_MS = AffinityCache.CACHE_DURATION_MS;
+    private static final double JITTER_RATIO = 0.1;
+    // 到期后等待空闲窗口的最长时间
+    private static final long IDLE_WAIT_MS = 30 * 60 * 1000L;
+    private static final long BACKOFF_MIN_MS = 60 * 1000L;
+    private static final long BACKOFF_MAX_MS = 30 * 60 * 1000L;
+    // 功能关闭时的复查间隔
+    private static final long DISABLED_RECHECK_MS = 10 * 60 * 1000L;
+
+    private static final Random sRandom = new Random();
+
+    private static Handler sHandler;
+    private static Context sContext;
+    private static volatile boolean sScreenOff = false;
+    private static volatile boolean sNetworkAvailable = true;
+    private static long sNextDueAt = 0;
+    private static int sFailures = 0;
+    private static boolean sRefreshing = false;
+
+    private static final Runnable sCheckRunnable = AffinityRefreshScheduler::check;
+
+    private AffinityRefreshScheduler() {}
+
+    /**
+     * 启动调度（只会启动一次）
+     */
+    public static synchronized void start(Context context) {
+        if (sHandler != null) {
+            return;
+        }
+        sContext = context.getApplicationContext();
+        HandlerThread thread = new HandlerThread("GalQQ-AffinityRefresh");
+        thread.start();
+        sHandler = new Handler(thread.getLooper());
+
+        try {
+            PowerManager pm = (PowerManager) sContext.getSystemService(Context.POWER_SERVICE);
+            sScreenOff = pm != null && !pm.isInteractive();
+        } catch (Throwable ignored) {
+        }
+
+        // 屏幕开关
+        try {
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_SCREEN_OFF);
+            filter.addAction(Intent.ACTION_SCREEN_ON);
+            sContext.registerReceiver(new BroadcastReceiver() {
+                @Override
+                public void onReceive(Context ctx, Intent intent) {
+                    sScreenOff = Intent.ACTION_SCREEN_OFF.equals(intent.getAction());
+                    if (sScreenOff) {
+                        postCheck(0);
+                    }
+                }
+            }, filter, null, sHandler);
+        } catch (Throwable t) {
+            debugLog(TAG + ": 注册屏幕广播失败: " + t.getMessage());
+        }
+
+        // 网络状态
+        try {
+            ConnectivityManager cm = (ConnectivityManager) sContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (cm != null) {
+                sNetworkAvailable = cm.getActiveNetwork() != null;
+                cm.registerDefaultNetworkCallback(new ConnectivityManager.NetworkCallback() {
+                    @Override
+                    public void onAvailable(Network network) {
+                        sNetworkAvailable = true;
+                        postCheck(0);
+                    }
+
+                    @Override
+                    public void onLost(Network network) {
+                        sNetworkAvailable = false;
+                    }
+                }, sHandler);
+            }
+        } catch (Throwable t) {
+            debugLog(TAG + ": 注册网络回调失败: " + t.getMessage());
+        }
+
+        long lastRefresh = AffinityManager.getInstance(sContext).getCacheTimestamp();
+        sNextDueAt = lastRefresh > 0 ? lastRefresh + jitter(BASE_INTERVAL_MS) : System.currentTimeMillis();
+        debugLog(TAG + ": 调度已启动，下次刷新约在 " + Math.max(0, (sNextDueAt - System.currentTimeMillis()) / 1000) + " 秒后");
+        postCheck(0);
+    }
+
+    private static void postCheck(long delayMs) {
+        Handler handler = sHandler;
+        if (handler == null) return;
+        handler.removeCallbacks(sCheckRunnable);
+        handler.postDelayed(sCheckRunnable, Math.max(0, delayMs));
+    }
+
+    /**
+     * 在调度线程上检查是否该刷新
+     */
+    private static void check() {
+        synchronized (AffinityRefreshScheduler.class) {
+            if (sRefreshing) return;
+
+            if (!ConfigManager.isAffinityEnabled()) {
+                postCheck(DISABLED_RECHECK_MS);
+                return;
+            }
+
+            long now = System.currentTimeMillis();
+            if (now < sNextDueAt) {
+                postCheck(sNextDueAt - now);
+                return;
+            }
+            if (!sNetworkAvailable) {
+                // 等网络回调
+                return;
+            }
+            long overdue = now - sNextDueAt;
+            if (!sScreenOff && overdue < IDLE_WAIT_MS) {
+                // 等屏幕关闭；超过等待上限后不再等
+                postCheck(IDLE_WAIT_MS - overdue);
+                return;
+            }
+            sRefreshing = true;
+        }
+
+        debugLog(TAG + ": 开始后台刷新好感度 (screenOff=" + sScreenOff + ")");
+        AffinityManager.getInstance(sContext).refreshData(true, new AffinityManager.RefreshCallback() {
+            @Override
+            public void onSuccess() {
+                synchronized (AffinityRefreshScheduler.class) {
+                    sRefreshing = false;
+                    sFailures = 0;
+                    sNextDueAt = System.currentTimeMillis() + jitter(BASE_INTERVAL_MS);
+                }
+                debugLog(TAG + ": 后台刷新成功");
+                postCheck(sNextDueAt - System.currentTimeMillis());
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                long delay;
+                synchronized (AffinityRefreshScheduler.class) {
+                    sRefreshing = false;
+                    sFailures++;
+                    long backoff = BACKOFF_MIN_MS << Math.min(sFailures - 1, 10);
+                    delay = jitter(Math.min(BACKOFF_MAX_MS, backoff));
+                    sNextDueAt = System.currentTimeMillis() + delay;
+                }
+                debugLog(TAG + ": 后台刷新失败(" + sFailures + "次)，" + (delay / 1000) + " 秒后重试: " + e.getMessage());
+                postCheck(delay);
+            }
+        });
+    }
+
+    /**
+     * 立即重新计算下次刷新时间（例如手动刷新成功后）
+     */
+    public static void onRefreshedExternally() {
+        synchronized (AffinityRefreshScheduler.class) {
+            if (sHandler == null || sRefreshing) return;
+            sFailures = 0;
+            sNextDueAt = System.currentTimeMillis() + jitter(BASE_INTERVAL_MS);
+        }
+        postCheck(sNextDueAt - System.currentTimeMillis());
+    }
+
+    private static long jitter(long base) {
+        double factor;
+        synchronized (sRandom) {
+            factor = 1.0 + (sRandom.nextDouble() * 2 - 1) * JITTER_RATIO;
+        }
+        return (long) (base * factor);
+    }
+}
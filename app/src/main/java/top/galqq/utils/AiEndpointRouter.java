@@ -0,0 +1,384 @@
+package top.galqq.utils;
+
+import android.text.TextUtils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import de.robv.android.xposed.XposedBridge;
+import top.galqq.config.ConfigManager;
+
+/**
+ * 主AI服务商路由
+ *
+ * 除了设置里的主服务商，还可以在"备用服务商"里配置多个端点（每行：服务商|API地址|API Key|模型）。
+ * 每个端点记录：
+ * - 延迟的指数加权平均（EWMA）和最近若干次延迟（用于估算 p90）
+ * - 失败率的指数加权平均，以及连续失败次数
+ *
+ * 每次请求选择可用端点中预估延迟（按失败率加权）最低的一个；连续失败的端点暂停一段时间（指数退避），
+ * 暂停结束后重新参与选择，全部在暂停中时选最早恢复的那个；因 429 或限流响应头暂停的端点
+ * （见 AdaptiveConcurrencyLimiter）同样排在后面。开启对冲请求时，首选端点超过自己的 p90 仍未返回，
+ * 会向次优端点再发一份同样的请求，先成功的结果生效（见 HttpAiClient）。
+ */
+public final class AiEndpointRouter {
+
+    private static final String TAG = "GalQQ.AiRouter";
+
+    private static void debugLog(String message) {
+        try {
+            if (ConfigManager.isVerboseLogEnabled()) {
+                XposedBridge.log(TAG + ": " + message);
+            }
+        } catch (Throwable ignored) {}
+    }
+
+    // EWMA 平滑系数
+    private static final double ALPHA = 0.2;
+    // 连续失败达到此次数后暂停使用
+    private static final int FAILURES_BEFORE_COOLDOWN = 3;
+    private static final long BASE_COOLDOWN_MS = 30_000;
+    private static final long MAX_COOLDOWN_MS = 5 * 60_000;
+    // 计算 p90 使用的最近样本数，样本不足时不对冲
+    private static final int LATENCY_WINDOW = 32;
+    private static final int MIN_SAMPLES_FOR_HEDGE = 8;
+    // 对冲等待时间的下限，避免网络抖动时成倍放大请求
+    private static final long MIN_HEDGE_DELAY_MS = 300;
+
+    /**
+     * 一个可用的服务端点及其统计
+     */
+    public static final class Endpoint {
+        public final String provider;
+        public final String url;
+        public final String apiKey;
+        public final String model;
+        public final boolean primary;
+
+        // 以下受 Endpoint 自身锁保护
+        private double ewmaLatencyMs = -1;
+        private double ewmaErrorRate = 0;
+        private int consecutiveFailures = 0;
+        private long cooldownUntil = 0;
+        private final long[] recentLatencies = new long[LATENCY_WINDOW];
+        private int recentCount = 0;
+        private int recentPos = 0;
+        private long successes = 0;
+        private long failures = 0;
+
+        Endpoint(String provider, String url, String apiKey, String model, boolean primary) {
+            this.provider = provider;
+            this.url = url;
+            this.apiKey = apiKey;
+            this.model = model;
+            this.primary = primary;
+        }
+
+        String id() {
+            return url + "#" + model;
+        }
+
+        /**
+         * 该端点的并发名额（见 AdaptiveConcurrencyLimiter）
+         */
+        public AdaptiveConcurrencyLimiter.Budget budget() {
+            return AdaptiveConcurrencyLimiter.budget(provider, model, ConfigManager.getAiQps());
+        }
+
+        /**
+         * 显示用的名称（服务商/模型）
+         */
+        public String label() {
+            return provider + "/" + model;
+        }
+
+        synchronized void copyStatsFrom(Endpoint other) {
+            synchronized (other) {
+                ewmaLatencyMs = other.ewmaLatencyMs;
+                ewmaErrorRate = other.ewmaErrorRate;
+                consecutiveFailures = other.consecutiveFailures;
+                cooldownUntil = other.cooldownUntil;
+                System.arraycopy(other.recentLatencies, 0, recentLatencies, 0, LATENCY_WINDOW);
+                recentCount = other.recentCount;
+                recentPos = other.recentPos;
+                successes = other.successes;
+                failures = other.failures;
+            }
+        }
+
+        synchronized void onSuccess(long latencyMs) {
+            // latencyMs <= 0 表示不计延迟（例如批量请求，耗时和单条请求不可比）
+            if (latencyMs > 0) {
+                ewmaLatencyMs = ewmaLatencyMs < 0 ? latencyMs : ewmaLatencyMs + ALPHA * (latencyMs - ewmaLatencyMs);
+                recentLatencies[recentPos] = latencyMs;
+                recentPos = (recentPos + 1) % LATENCY_WINDOW;
+                if (recentCount < LATENCY_WINDOW) recentCount++;
+            }
+            ewmaErrorRate = ewmaErrorRate * (1 - ALPHA);
+            consecutiveFailures = 0;
+            cooldownUntil = 0;
+            successes++;
+        }
+
+        /**
+         * 被对冲请求抢先而取消的请求：真实延迟至少是取消时已等待的时间
+         * 只计入延迟统计，不算成功也不算失败；不记的话慢请求总被对冲掉，p90 会越来越低、对冲越来越频繁
+         */
+        synchronized void onCensored(long elapsedMs) {
+            if (elapsedMs <= 0) return;
+            ewmaLatencyMs = ewmaLatencyMs < 0 ? elapsedMs : ewmaLatencyMs + ALPHA * (elapsedMs - ewmaLatencyMs);
+            recentLatencies[recentPos] = elapsedMs;
+            recentPos = (recentPos + 1) % LATENCY_WINDOW;
+            if (recentCount < LATENCY_WINDOW) recentCount++;
+        }
+
+        synchronized void onFailure(long now) {
+            ewmaErrorRate = ewmaErrorRate + ALPHA * (1 - ewmaErrorRate);
+            consecutiveFailures++;
+            failures++;
+            if (consecutiveFailures >= FAILURES_BEFORE_COOLDOWN) {
+                int exp = Math.min(consecutiveFailures - FAILURES_BEFORE_COOLDOWN, 4);
+                cooldownUntil = now + Math.min(BASE_COOLDOWN_MS << exp, MAX_COOLDOWN_MS);
+            }
+        }
+
+        synchronized boolean isHealthy(long now) {
+            return now >= cooldownUntil;
+        }
+
+        /**
+         * 预估耗时：EWMA 延迟按失败率加权（失败意味着还要重试一次）
+         * 还没有成功样本的端点返回 0，会被优先尝试一次以获得样本
+         */
+        synchronized double score() {
+            if (ewmaLatencyMs < 0) return 0;
+            return ewmaLatencyMs / Math.max(0.05, 1 - ewmaErrorRate);
+        }
+
+        synchronized long cooldownUntil() {
+            return cooldownUntil;
+        }
+
+        /**
+         * 最近延迟的 p90（毫秒），样本不足时返回 -1
+         */
+        synchronized long p90() {
+            if (recentCount < MIN_SAMPLES_FOR_HEDGE) return -1;
+            long[] copy = Arrays.copyOf(recentLatencies, recentCount);
+            Arrays.sort(copy);
+            return copy[Math.min(recentCount - 1, (int) Math.ceil(0.9 * recentCount) - 1)];
+        }
+
+        synchronized String describe(long now) {
+            StringBuilder sb = new StringBuilder(label());
+            if (primary) sb.append(" [主]");
+            sb.append("\n  ");
+            if (ewmaLatencyMs < 0) {
+                sb.append("暂无样本");
+            } else {
+                sb.append(String.format(Locale.US, "均%.0fms", ewmaLatencyMs));
+                long p90 = p90();
+                if (p90 >= 0) sb.append(" p90=").append(p90).append("ms");
+            }
+            sb.append(String.format(Locale.US, " 失败率%.0f%%", ewmaErrorRate * 100))
+              .append(" 成功").append(successes).append(" 失败").append(failures);
+            if (now < cooldownUntil) {
+                sb.append(" 暂停").append((cooldownUntil - now) / 1000).append("s");
+            }
+            return sb.toString();
+        }
+
+        synchronized JSONObject toJson(long now) {
+            JSONObject json = new JSONObject();
+            try {
+                json.put("provider", provider);
+                json.put("model", model);
+                json.put("primary", primary);
+                json.put("ewma_latency_ms", Math.round(ewmaLatencyMs));
+                json.put("p90_ms", p90());
+                json.put("error_rate", ewmaErrorRate);
+                json.put("successes", successes);
+                json.put("failures", failures);
+                json.put("cooling_down", now < cooldownUntil);
+            } catch (Exception ignored) {}
+            return json;
+        }
+    }
+
+    // 受 AiEndpointRouter.class 锁保护
+    private static List<Endpoint> sEndpoints = new ArrayList<>();
+    private static String sConfigSignature = null;
+
+    private AiEndpointRouter() {}
+
+    /**
+     * 按预估延迟从低到高排列的端点，暂停中的排在最后
+     * 第一个用于本次请求，第二个（如果有）用于对冲；没有任何配置时返回空列表
+     */
+    public static List<Endpoint> rank() {
+        List<Endpoint> endpoints = new ArrayList<>(endpoints());
+        if (endpoints.size() <= 1) return endpoints;
+        final long now = System.currentTimeMillis();
+        final Map<Endpoint, Boolean> healthy = new HashMap<>();
+        final Map<Endpoint, Double> scores = new HashMap<>();
+        final Map<Endpoint, Long> cooldowns = new HashMap<>();
+        for (Endpoint e : endpoints) {
+            healthy.put(e, e.isHealthy(now) && !AdaptiveConcurrencyLimiter.isBlocked(e.provider, e.model));
+            scores.put(e, e.score());
+            cooldowns.put(e, e.cooldownUntil());
+        }
+        Collections.sort(endpoints, (a, b) -> {
+            boolean ha = healthy.get(a);
+            boolean hb = healthy.get(b);
+            if (ha != hb) return ha ? -1 : 1;
+            if (!ha) {
+                // 都在暂停中：最早恢复的优先
+                int c = Long.compare(cooldowns.get(a), cooldowns.get(b));
+                if (c != 0) return c;
+            }
+            int c = Double.compare(scores.get(a), scores.get(b));
+            if (c != 0) return c;
+            // 同分时主服务商优先
+            return Boolean.compare(b.primary, a.primary);
+        });
+        return endpoints;
+    }
+
+    /**
+     * 对冲等待时间：端点最近延迟的 p90，样本不足时返回 -1（不对冲）
+     */
+    public static long hedgeDelayMs(Endpoint endpoint) {
+        long p90 = endpoint.p90();
+        if (p90 < 0) return -1;
+        return Math.max(MIN_HEDGE_DELAY_MS, p90);
+    }
+
+    /**
+     * @param latencyMs 请求耗时，<= 0 时只记成功、不计入延迟统计
+     */
+    public static void recordSuccess(Endpoint endpoint, long latencyMs) {
+        endpoint.onSuccess(latencyMs);
+    }
+
+    /**
+     * 记录被取消的首选请求已等待的时间（延迟的下界）
+     */
+    public static void recordCensored(Endpoint endpoint, long elapsedMs) {
+        endpoint.onCensored(elapsedMs);
+    }
+
+    public static void recordFailure(Endpoint endpoint) {
+        endpoint.onFailure(System.currentTimeMillis());
+    }
+
+    /**
+     * 各端点的统计，供监控界面显示
+     */
+    public static String formatSummary() {
+        List<Endpoint> endpoints = endpoints();
+        if (endpoints.isEmpty()) {
+            return "未配置";
+        }
+        long now = System.currentTimeMillis();
+        StringBuilder sb = new StringBuilder();
+        for (Endpoint e : endpoints) {
+            sb.append(e.describe(now)).append("\n");
+        }
+        if (endpoints.size() > 1) {
+            sb.append(ConfigManager.isAiHedgeEnabled() ? "对冲请求: 开启" : "对冲请求: 关闭");
+        }
+        return sb.toString().trim();
+    }
+
+    public static JSONArray exportSnapshot() {
+        JSONArray arr = new JSONArray();
+        long now = System.currentTimeMillis();
+        for (Endpoint e : endpoints()) {
+            arr.put(e.toJson(now));
+        }
+        return arr;
+    }
+
+    /**
+     * 当前配置对应的端点列表（配置变化时重建，相同地址和模型的端点保留统计）
+     */
+    private static synchronized List<Endpoint> endpoints() {
+        String primaryUrl = HttpAiClient.normalizeApiUrl(ConfigManager.getApiUrl());
+        String primaryKey = ConfigManager.getApiKey();
+        String primaryModel = ConfigManager.getAiModel();
+        String primaryProvider = ConfigManager.getAiProvider();
+        String extra = ConfigManager.getAiExtraEndpoints();
+        String signature = primaryProvider + "\n" + primaryUrl + "\n" + primaryKey + "\n" + primaryModel + "\n" + extra;
+        if (signature.equals(sConfigSignature)) {
+            return sEndpoints;
+        }
+
+        List<Endpoint> rebuilt = new ArrayList<>();
+        if (!TextUtils.isEmpty(primaryUrl) && !TextUtils.isEmpty(primaryKey)) {
+            rebuilt.add(new Endpoint(primaryProvider, primaryUrl, primaryKey, primaryModel, true));
+        }
+        for (Endpoint e : parseExtraEndpoints(extra)) {
+            boolean duplicate = false;
+            for (Endpoint existing : rebuilt) {
+                if (existing.id().equals(e.id())) {
+                    duplicate = true;
+                    break;
+                }
+            }
+            if (!duplicate) rebuilt.add(e);
+        }
+        for (Endpoint e : rebuilt) {
+            for (Endpoint old : sEndpoints) {
+                if (old.id().equals(e.id())) {
+                    e.copyStatsFrom(old);
+                    break;
+                }
+            }
+        }
+        sEndpoints = rebuilt;
+        sConfigSignature = signature;
+        return rebuilt;
+    }
+
+    /**
+     * 解析备用服务商配置
+     * 每行一个：服务商|API地址|API Key|模型，API地址留空时使用服务商的默认地址；空行和 # 开头的行忽略
+     */
+    static List<Endpoint> parseExtraEndpoints(String text) {
+        List<Endpoint> result = new ArrayList<>();
+        if (TextUtils.isEmpty(text)) return result;
+        String[] lines = text.split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split("\\|", -1);
+            if (parts.length < 4) {
+                // 不打印整行，里面可能有 API Key
+                debugLog("备用服务商第 " + (i + 1) + " 行格式错误，已忽略");
+                continue;
+            }
+            String provider = parts[0].trim();
+            String url = parts[1].trim();
+            String key = parts[2].trim();
+            String model = parts[3].trim();
+            if (url.isEmpty()) {
+                url = ConfigManager.getDefaultApiUrl(provider);
+            }
+            url = HttpAiClient.normalizeApiUrl(url);
+            if (TextUtils.isEmpty(url) || key.isEmpty() || model.isEmpty()) {
+                debugLog("备用服务商第 " + (i + 1) + " 行配置不完整，已忽略: " + provider + "/" + model);
+                continue;
+            }
+            result.add(new Endpoint(provider.isEmpty() ? ConfigManager.PROVIDER_CUSTOM : provider, url, key, model, false));
+        }
+        return result;
+    }
+}
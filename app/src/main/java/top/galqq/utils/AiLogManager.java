@@ -3,60 +3,195 @@ package top.galqq.utils;
 import android.content.Context;
 import android.util.Log;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 
 /**
  * AI日志管理器 - 持久化AI请求/错误日志
+ *
+ * 日志按段存储：当前段写满后整体改名为上一段（只保留一段历史），
+ * 内存中维护每条日志的偏移索引（所在段、起始偏移、长度以及标题/服务商/模型），
+ * 查看和筛选只读取需要的条目，不再把整个文件读进一个字符串。
  */
 public class AiLogManager {
     private static final String TAG = "GalQQ.AiLog";
     private static final String LOG_FILE_NAME = "ai_requests.log";
-    private static final int MAX_LOG_SIZE = 1024 * 1024; // 1MB
-    
-    private static File getLogFile(Context context) {
+    private static final String ARCHIVE_FILE_NAME = "ai_requests.1.log";
+    private static final int MAX_LOG_SIZE = 1024 * 1024; // 1MB，每段
+
+    // 条目分隔符
+    private static final byte[] SEPARATOR = "\n---\n".getBytes(StandardCharsets.UTF_8);
+    // 建索引时只解析条目开头这么多字节（标题、Provider、Model 都在前几行）
+    private static final int HEADER_PEEK_BYTES = 512;
+
+    // 段编号
+    static final int SEGMENT_ACTIVE = 0;
+    static final int SEGMENT_ARCHIVE = 1;
+
+    // 条目状态（同时用作筛选项的显示文字）
+    public static final String STATUS_REQUEST = "请求";
+    public static final String STATUS_SUCCESS = "成功";
+    public static final String STATUS_ERROR = "失败";
+    public static final String STATUS_IMAGE = "图片识别";
+    public static final String STATUS_VISION = "Vision";
+    public static final String STATUS_OTHER = "其他";
+
+    /**
+     * 索引中的一条日志
+     */
+    public static final class LogEntry {
+        int segment;
+        final long offset;
+        final int length;
+        public final String time;
+        public final String title;
+        public final String status;
+        public final String provider;
+        public final String model;
+
+        LogEntry(int segment, long offset, int length, String header) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+
+            String firstLine = header;
+            int nl = header.indexOf('\n');
+            if (nl >= 0) firstLine = header.substring(0, nl);
+            String t = "";
+            if (firstLine.startsWith("[")) {
+                int close = firstLine.indexOf("] ");
+                if (close > 0) {
+                    t = firstLine.substring(1, close);
+                    firstLine = firstLine.substring(close + 2);
+                }
+            }
+            this.time = t;
+            this.title = firstLine.trim();
+            this.status = statusOf(this.title);
+            this.provider = headerValue(header, "Provider: ");
+            this.model = headerValue(header, "Model: ");
+        }
+
+        /**
+         * 条目字节数（不含分隔符）
+         */
+        public int getLength() {
+            return length;
+        }
+    }
+
+    /**
+     * 筛选条件，字段为 null 或空表示不限制
+     */
+    public static final class LogFilter {
+        public String status;
+        public String provider;
+        public String model;
+        public String keyword;
+
+        boolean matchesHeader(LogEntry e) {
+            if (!isEmpty(status) && !status.equals(e.status)) return false;
+            if (!isEmpty(provider) && !provider.equals(e.provider)) return false;
+            if (!isEmpty(model) && !model.equals(e.model)) return false;
+            return true;
+        }
+    }
+
+    // 偏移索引（按写入顺序：先历史段，后当前段），null 表示尚未建立
+    private static List<LogEntry> index;
+    private static String indexDir;
+
+    private static File getLogDir(Context context) {
         File logDir = new File(context.getFilesDir(), "galqq_logs");
         if (!logDir.exists()) {
             logDir.mkdirs();
         }
-        return new File(logDir, LOG_FILE_NAME);
+        return logDir;
     }
-    
+
+    private static File getLogFile(Context context) {
+        return new File(getLogDir(context), LOG_FILE_NAME);
+    }
+
+    private static File getSegmentFile(Context context, int segment) {
+        return new File(getLogDir(context), segment == SEGMENT_ARCHIVE ? ARCHIVE_FILE_NAME : LOG_FILE_NAME);
+    }
+
     /**
      * 添加日志
      */
     public static synchronized void addLog(Context context, String message) {
         try {
             File logFile = getLogFile(context);
-            
-            // 检查文件大小，超过限制则清空
+
+            // 当前段超过限制则轮转，旧段保留一份
             if (logFile.exists() && logFile.length() > MAX_LOG_SIZE) {
-                clearLogs(context);
+                rotate(context, logFile);
             }
-            
+
             // 添加时间戳
             SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault());
             String timestamp = sdf.format(new Date());
-            String logEntry = "[" + timestamp + "] " + message + "\n---\n";
-            
+            String entryText = "[" + timestamp + "] " + message;
+            byte[] entryBytes = entryText.getBytes(StandardCharsets.UTF_8);
+
             // 追加到文件
+            long offset = logFile.exists() ? logFile.length() : 0;
             FileOutputStream fos = new FileOutputStream(logFile, true);
-            fos.write(logEntry.getBytes());
-            fos.close();
-            
+            try {
+                fos.write(entryBytes);
+                fos.write(SEPARATOR);
+            } finally {
+                fos.close();
+            }
+
+            if (index != null) {
+                index.add(new LogEntry(SEGMENT_ACTIVE, offset, entryBytes.length, entryText));
+            }
+
             Log.d(TAG, "日志已记录: " + message);
         } catch (IOException e) {
             Log.e(TAG, "Failed to write log", e);
         }
     }
-    
+
+    private static void rotate(Context context, File logFile) {
+        File archive = getSegmentFile(context, SEGMENT_ARCHIVE);
+        if (archive.exists()) {
+            archive.delete();
+        }
+        if (!logFile.renameTo(archive)) {
+            logFile.delete();
+            index = null;
+            return;
+        }
+        if (index != null) {
+            Iterator<LogEntry> it = index.iterator();
+            while (it.hasNext()) {
+                LogEntry e = it.next();
+                if (e.segment == SEGMENT_ARCHIVE) {
+                    it.remove();
+                } else {
+                    e.segment = SEGMENT_ARCHIVE;
+                }
+            }
+        }
+        Log.d(TAG, "日志已轮转");
+    }
+
     /**
      * 添加AI请求失败日志
      */
@@ -102,51 +237,216 @@ public class AiLogManager {
         addLog(context, sb.toString());
     }
     
+    // ========== 索引与读取 ==========
+
+    /**
+     * 获取全部条目的索引快照（首次调用时扫描日志文件建立索引，请勿在主线程调用）
+     */
+    public static synchronized List<LogEntry> getEntries(Context context) {
+        ensureIndex(context);
+        return new ArrayList<>(index);
+    }
+
     /**
-     * 获取所有日志
+     * 按条件筛选条目（关键字需要读取条目内容，请勿在主线程调用）
      */
-    public static String getLogs(Context context) {
+    public static synchronized List<LogEntry> query(Context context, LogFilter filter) {
+        ensureIndex(context);
+        List<LogEntry> result = new ArrayList<>();
+        String keyword = filter != null && !isEmpty(filter.keyword)
+            ? filter.keyword.toLowerCase(Locale.ROOT) : null;
+
+        RandomAccessFile[] files = new RandomAccessFile[2];
         try {
-            File logFile = getLogFile(context);
-            if (!logFile.exists()) {
-                return "暂无日志";
+            for (LogEntry e : index) {
+                if (filter != null && !filter.matchesHeader(e)) continue;
+                if (keyword != null) {
+                    if (files[e.segment] == null) {
+                        files[e.segment] = new RandomAccessFile(getSegmentFile(context, e.segment), "r");
+                    }
+                    String text = read(files[e.segment], e);
+                    if (text == null || !text.toLowerCase(Locale.ROOT).contains(keyword)) continue;
+                }
+                result.add(e);
             }
-            
-            BufferedReader reader = new BufferedReader(
-                new InputStreamReader(new FileInputStream(logFile)));
-            StringBuilder sb = new StringBuilder();
-            String line;
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append("\n");
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to query logs", e);
+        } finally {
+            for (RandomAccessFile f : files) {
+                closeQuietly(f);
             }
-            reader.close();
-            
-            if (sb.length() == 0) {
-                return "暂无日志";
+        }
+        return result;
+    }
+
+    /**
+     * 读取单条日志的完整内容
+     * @return 条目已被轮转删除或读取失败时返回 null
+     */
+    public static synchronized String readEntry(Context context, LogEntry entry) {
+        if (index == null || !index.contains(entry)) {
+            return null;
+        }
+        RandomAccessFile file = null;
+        try {
+            file = new RandomAccessFile(getSegmentFile(context, entry.segment), "r");
+            return read(file, entry);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read log entry", e);
+            return null;
+        } finally {
+            closeQuietly(file);
+        }
+    }
+
+    private static String read(RandomAccessFile file, LogEntry entry) throws IOException {
+        if (entry.offset + entry.length > file.length()) {
+            return null;
+        }
+        byte[] data = new byte[entry.length];
+        file.seek(entry.offset);
+        file.readFully(data);
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 导出全部日志（先历史段后当前段），直接在文件通道之间拷贝
+     * @return 写入的字节数
+     */
+    public static synchronized long exportTo(Context context, File dest) throws IOException {
+        long written = 0;
+        FileOutputStream out = new FileOutputStream(dest);
+        try {
+            FileChannel target = out.getChannel();
+            for (int segment : new int[]{SEGMENT_ARCHIVE, SEGMENT_ACTIVE}) {
+                File src = getSegmentFile(context, segment);
+                if (!src.exists()) continue;
+                FileInputStream in = new FileInputStream(src);
+                try {
+                    FileChannel source = in.getChannel();
+                    long size = source.size();
+                    long pos = 0;
+                    while (pos < size) {
+                        long n = source.transferTo(pos, size - pos, target);
+                        if (n <= 0) break;
+                        pos += n;
+                    }
+                    written += pos;
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            out.close();
+        }
+        return written;
+    }
+
+    private static void ensureIndex(Context context) {
+        String dir = getLogDir(context).getAbsolutePath();
+        if (index != null && dir.equals(indexDir)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        List<LogEntry> entries = new ArrayList<>();
+        scanSegment(getSegmentFile(context, SEGMENT_ARCHIVE), SEGMENT_ARCHIVE, entries);
+        scanSegment(getSegmentFile(context, SEGMENT_ACTIVE), SEGMENT_ACTIVE, entries);
+        index = entries;
+        indexDir = dir;
+        Log.d(TAG, "日志索引已建立: " + entries.size() + " 条, 耗时 " + (System.currentTimeMillis() - start) + "ms");
+    }
+
+    /**
+     * 顺序扫描一个段，按分隔符切出条目，只保留每条开头的少量字节用于解析标题
+     */
+    private static void scanSegment(File file, int segment, List<LogEntry> out) {
+        if (!file.exists()) return;
+        BufferedInputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+            ByteArrayOutputStream header = new ByteArrayOutputStream(HEADER_PEEK_BYTES);
+            long pos = 0;
+            long entryStart = 0;
+            int matched = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                pos++;
+                if (header.size() < HEADER_PEEK_BYTES) {
+                    header.write(b);
+                }
+                if (b == SEPARATOR[matched]) {
+                    matched++;
+                } else {
+                    // 分隔符只有开头的换行能作为前缀重新匹配
+                    matched = b == SEPARATOR[0] ? 1 : 0;
+                }
+                if (matched == SEPARATOR.length) {
+                    long length = pos - SEPARATOR.length - entryStart;
+                    String head = new String(header.toByteArray(), StandardCharsets.UTF_8);
+                    out.add(new LogEntry(segment, entryStart, (int) length, head));
+                    entryStart = pos;
+                    matched = 0;
+                    header.reset();
+                }
             }
-            
-            return sb.toString();
         } catch (IOException e) {
-            Log.e(TAG, "Failed to read logs", e);
-            return "读取日志失败: " + e.getMessage();
+            Log.e(TAG, "Failed to index " + file.getName(), e);
+        } finally {
+            closeQuietly(in);
         }
     }
-    
+
+    private static String statusOf(String title) {
+        if (title.endsWith("失败")) return STATUS_ERROR;
+        if (title.equals("AI请求成功")) return STATUS_SUCCESS;
+        if (title.equals("AI请求")) return STATUS_REQUEST;
+        if (title.startsWith("Vision")) return STATUS_VISION;
+        if (title.startsWith("图片识别")) return STATUS_IMAGE;
+        return STATUS_OTHER;
+    }
+
+    private static String headerValue(String header, String prefix) {
+        int idx = header.indexOf("\n" + prefix);
+        if (idx < 0) return null;
+        int from = idx + 1 + prefix.length();
+        int end = header.indexOf('\n', from);
+        // 被 HEADER_PEEK_BYTES 截断的行不可信
+        if (end < 0) return null;
+        String value = header.substring(from, end).trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static boolean isEmpty(String s) {
+        return s == null || s.isEmpty();
+    }
+
+    private static void closeQuietly(java.io.Closeable c) {
+        if (c == null) return;
+        try {
+            c.close();
+        } catch (IOException ignored) {
+        }
+    }
+
     /**
      * 清除所有日志
      */
     public static synchronized void clearLogs(Context context) {
         try {
-            File logFile = getLogFile(context);
-            if (logFile.exists()) {
-                logFile.delete();
+            for (int segment : new int[]{SEGMENT_ACTIVE, SEGMENT_ARCHIVE}) {
+                File file = getSegmentFile(context, segment);
+                if (file.exists()) {
+                    file.delete();
+                }
             }
+            index = new ArrayList<>();
+            indexDir = getLogDir(context).getAbsolutePath();
             Log.d(TAG, "日志已清除");
         } catch (Exception e) {
             Log.e(TAG, "Failed to clear logs", e);
         }
     }
-    
+
     /**
      * 获取日志文件路径（用于调试）
      */
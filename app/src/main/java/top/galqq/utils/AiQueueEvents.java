@@ -0,0 +1,164 @@
+package top.galqq.utils;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * AI队列事件流
+ *
+ * 主AI队列和外挂AI队列把请求生命周期（入队、开始、重试、429、成功、失败）
+ * 写入一个固定容量的环形缓冲区，监控面板按序号增量读取。
+ * 缓冲区写满后覆盖最旧的事件，读取方落后太多时只会丢失最旧的部分。
+ */
+public final class AiQueueEvents {
+
+    /**
+     * 事件来源
+     */
+    public enum Source {
+        MAIN("主AI"),
+        VISION("外挂AI");
+
+        public final String displayName;
+
+        Source(String displayName) {
+            this.displayName = displayName;
+        }
+    }
+
+    /**
+     * 事件类型
+     */
+    public enum Type {
+        ENQUEUED("入队"),
+        STARTED("开始"),
+        RETRIED("重试"),
+        RATE_LIMITED("429"),
+        SUCCEEDED("成功"),
+        FAILED("失败"),
+        RESPONSE("响应");   // HTTP响应（携带收发字节数和token用量）
+
+        public final String displayName;
+
+        Type(String displayName) {
+            this.displayName = displayName;
+        }
+    }
+
+    /**
+     * 单个事件（不可变）
+     */
+    public static final class Event {
+        public final long seq;
+        public final long timeMs;
+        public final Source source;
+        public final Type type;
+        public final long requestId;
+        public final long bytesOut;     // 发送字节数
+        public final long bytesIn;      // 接收字节数
+        public final long latencyMs;    // STARTED 为排队时长，SUCCEEDED/FAILED/RESPONSE 为处理耗时
+        public final long tokens;       // 消耗token数（API未返回时为估算值）
+        public final long promptTokens; // 输入token数，-1 表示未知
+        public final long cachedTokens; // 命中服务商前缀缓存的输入token数，-1 表示服务商未返回
+        public final String detail;
+
+        Event(long seq, long timeMs, Source source, Type type, long requestId,
+              long bytesOut, long bytesIn, long latencyMs, long tokens,
+              long promptTokens, long cachedTokens, String detail) {
+            this.seq = seq;
+            this.timeMs = timeMs;
+            this.source = source;
+            this.type = type;
+            this.requestId = requestId;
+            this.bytesOut = bytesOut;
+            this.bytesIn = bytesIn;
+            this.latencyMs = latencyMs;
+            this.tokens = tokens;
+            this.promptTokens = promptTokens;
+            this.cachedTokens = cachedTokens;
+            this.detail = detail;
+        }
+    }
+
+    private static final int CAPACITY = 1024;
+
+    private static final Event[] sRing = new Event[CAPACITY];
+    private static long sNextSeq = 1;   // 受 sRing 锁保护
+    private static final AtomicLong sRequestIdGenerator = new AtomicLong();
+
+    private AiQueueEvents() {}
+
+    /**
+     * 分配一个请求ID，用于把同一个请求的多个事件关联起来
+     */
+    public static long nextRequestId() {
+        return sRequestIdGenerator.incrementAndGet();
+    }
+
+    public static void publish(Source source, Type type, long requestId) {
+        publish(source, type, requestId, 0, 0, 0, 0, null);
+    }
+
+    public static void publish(Source source, Type type, long requestId, long latencyMs, String detail) {
+        publish(source, type, requestId, 0, 0, latencyMs, 0, detail);
+    }
+
+    public static void publish(Source source, Type type, long requestId, long bytesOut, long bytesIn,
+                               long latencyMs, long tokens, String detail) {
+        publish(source, type, requestId, bytesOut, bytesIn, latencyMs, tokens, -1, -1, detail);
+    }
+
+    public static void publish(Source source, Type type, long requestId, long bytesOut, long bytesIn,
+                               long latencyMs, long tokens, long promptTokens, long cachedTokens,
+                               String detail) {
+        long now = System.currentTimeMillis();
+        synchronized (sRing) {
+            long seq = sNextSeq++;
+            sRing[(int) (seq % CAPACITY)] = new Event(seq, now, source, type, requestId,
+                    bytesOut, bytesIn, latencyMs, tokens, promptTokens, cachedTokens, detail);
+        }
+    }
+
+    /**
+     * 读取序号大于 afterSeq 的事件（按序号递增）
+     *
+     * @param afterSeq 上次读取到的最后一个序号，首次读取传 0
+     * @param out 输出列表
+     * @return 本次读取后的最后一个序号，下次读取时传入
+     */
+    public static long readSince(long afterSeq, List<Event> out) {
+        synchronized (sRing) {
+            long last = sNextSeq - 1;
+            long from = Math.max(afterSeq + 1, last - CAPACITY + 1);
+            for (long seq = Math.max(from, 1); seq <= last; seq++) {
+                Event e = sRing[(int) (seq % CAPACITY)];
+                if (e != null && e.seq == seq) {
+                    out.add(e);
+                }
+            }
+            return Math.max(afterSeq, last);
+        }
+    }
+
+    /**
+     * 按 UTF-8 估算字符串字节数（不实际编码）
+     */
+    public static long estimateBytes(CharSequence text) {
+        if (text == null) return 0;
+        long bytes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                bytes += 1;
+            } else if (c < 0x800) {
+                bytes += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                bytes += 4;
+                i++;
+            } else {
+                bytes += 3;
+            }
+        }
+        return bytes;
+    }
+}
@@ -16,7 +16,7 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import de.robv.android.xposed.XposedBridge;
 import top.galqq.config.ConfigManager;
@@ -26,11 +26,12 @@ import top.galqq.hook.MessageInterceptor;
  * AI请求限流队列管理器（完全重写）
  * 
  * 功能：
- * 1. 动态QPS限流（初始3 req/s，429时降速，成功后恢复）
+ * 1. 自适应并发限流（按服务商和模型分别计算，见 AdaptiveConcurrencyLimiter）
  * 2. 优先级队列（可见消息优先处理）
  * 3. 线程池异步处理
  * 4. 失败重试 + 指数退避
- * 5. 持久化队列（进程重启恢复）
+ * 5. 持久化队列（只追加的磁盘日志，进程重启恢复，见 AiRequestJournal）
+ * 6. 批量合并（开启后同一会话排队中的多条消息合并成一次请求）
  */
 public class AiRateLimitedQueue {
     
@@ -47,14 +48,22 @@ public class AiRateLimitedQueue {
     // 单例
     private static volatile AiRateLimitedQueue instance;
     
+    // 旧版本的持久化位置（只用于迁移）
+    private static final String LEGACY_PREF_NAME = "galqq_ai_queue";
+    private static final String LEGACY_KEY_PENDING = "pending_requests";
+    
+    // 一次批量请求最多合并的消息数
+    private static final int MAX_BATCH_SIZE = 5;
+    
+    // 启动时最多恢复的请求数和最长的未完成时间
+    private static final int MAX_RESTORED = 50;
+    private static final long RESTORE_MAX_AGE_MS = 24 * 60 * 60 * 1000L;
+    
     // 优先级队列（自动排序）
     private final PriorityBlockingQueue<PrioritizedRequest> requestQueue;
     
-    // 动态限流器
-    private final DynamicRateLimiter rateLimiter;
-    
-    // 持久化管理器
-    private final RequestPersistence persistence;
+    // 持久化日志（HIGH优先级且有msgId的请求）
+    private final AiRequestJournal journal;
     
     // 异步执行线程池
     private final ExecutorService executorService;
@@ -72,12 +81,8 @@ public class AiRateLimitedQueue {
         // 初始化优先级队列（容量100）
         this.requestQueue = new PriorityBlockingQueue<>(100);
         
-        // 初始化动态限流器（使用配置的QPS，默认3.0）
-        float initialQps = ConfigManager.getAiQps();
-        this.rateLimiter = new DynamicRateLimiter(initialQps, 0.5);
-        
-        // 初始化持久化管理器
-        this.persistence = new RequestPersistence(context);
+        // 初始化持久化日志
+        this.journal = new AiRequestJournal(new java.io.File(context.getFilesDir(), "galqq_ai_queue.journal"));
         
         // 初始化线程池（用于并发执行请求，避免阻塞队列）
         this.executorService = Executors.newCachedThreadPool();
@@ -90,7 +95,7 @@ public class AiRateLimitedQueue {
         // 启动工作线程
         startWorker();
         
-        debugLog(TAG + ": 初始化完成，初始QPS=" + initialQps);
+        debugLog(TAG + ": 初始化完成，起始并发=" + ConfigManager.getAiQps());
     }
     
     public static AiRateLimitedQueue getInstance(Context context) {
@@ -172,27 +177,80 @@ public class AiRateLimitedQueue {
         
         boolean added = requestQueue.offer(request);
         if (added) {
+            AiQueueEvents.publish(AiQueueEvents.Source.MAIN, AiQueueEvents.Type.ENQUEUED, request.eventId,
+                    AiQueueEvents.estimateBytes(msgContent), 0, 0, 0, String.valueOf(priority));
             // XposedBridge.log(TAG + ": 请求入队 [" + priority + "] 队列大小=" + requestQueue.size());
-            // 只有HIGH优先级且有msgId的任务才持久化，避免IO过于频繁
+            // 只有HIGH优先级且有msgId的任务才持久化（每个请求追加一条记录）
             if (priority == Priority.HIGH && msgId != null) {
-                persistence.saveQueueAsync(requestQueue);
+                journal.recordEnqueue(msgId, msgContent, priority.value, request.timestamp);
             }
         } else {
             debugLog(TAG + ": ⚠️ 队列已满，丢弃请求");
+            AiQueueEvents.publish(AiQueueEvents.Source.MAIN, AiQueueEvents.Type.FAILED, request.eventId, 0, "队列已满");
             callback.onFailure(new Exception("队列已满"));
         }
     }
     
     /**
-     * 恢复持久化的请求
+     * 提交对话摘要请求（低优先级，不持久化）
+     * 成功回调的列表只有一个元素，即摘要正文
+     * 
+     * @param systemPrompt 摘要提示词
+     * @param transcript 需要压缩的对话记录
+     */
+    public void submitSummaryRequest(Context context, String conversationId, String systemPrompt,
+                                     String transcript, HttpAiClient.AiCallback callback) {
+        PrioritizedRequest request = new PrioritizedRequest(
+            context, transcript, null, Priority.LOW, null,
+            null, 0, null, systemPrompt,
+            null, conversationId, callback, System.currentTimeMillis()
+        );
+        request.summaryRequest = true;
+        
+        if (requestQueue.offer(request)) {
+            AiQueueEvents.publish(AiQueueEvents.Source.MAIN, AiQueueEvents.Type.ENQUEUED, request.eventId,
+                    AiQueueEvents.estimateBytes(transcript), 0, 0, 0, "摘要");
+        } else {
+            callback.onFailure(new Exception("队列已满"));
+        }
+    }
+    
+    /**
+     * 恢复持久化的请求（在日志线程读取，不阻塞初始化）
+     * 最近入队的先恢复：按恢复顺序重新分配排队时间，同优先级内最近的消息排在前面
      */
     private void restoreRequests(Context context) {
-        List<PrioritizedRequest> restored = persistence.loadQueue(context);
-        if (!restored.isEmpty()) {
-            debugLog(TAG + ": 恢复了 " + restored.size() + " 个持久化请求");
-            for (PrioritizedRequest req : restored) {
-                requestQueue.offer(req);
+        migrateLegacyQueue(context);
+        journal.restore(MAX_RESTORED, RESTORE_MAX_AGE_MS, entries -> {
+            if (entries.isEmpty()) return;
+            debugLog(TAG + ": 恢复了 " + entries.size() + " 个持久化请求");
+            long base = System.currentTimeMillis();
+            for (int i = 0; i < entries.size(); i++) {
+                PrioritizedRequest req = PrioritizedRequest.fromJournal(context, entries.get(i), base + i);
+                if (req != null) {
+                    requestQueue.offer(req);
+                }
+            }
+        });
+    }
+    
+    /**
+     * 旧版本把未完成的请求存在 SharedPreferences 里，转存到日志后删除
+     */
+    private void migrateLegacyQueue(Context context) {
+        try {
+            SharedPreferences prefs = context.getSharedPreferences(LEGACY_PREF_NAME, Context.MODE_PRIVATE);
+            String jsonStr = prefs.getString(LEGACY_KEY_PENDING, null);
+            if (jsonStr == null) return;
+            JSONArray array = new JSONArray(jsonStr);
+            for (int i = 0; i < array.length(); i++) {
+                JSONObject json = array.getJSONObject(i);
+                journal.recordRestorable(json.optString("msgId", null), json.getString("msgContent"),
+                        json.getInt("priority"), json.getLong("timestamp"));
             }
+            prefs.edit().remove(LEGACY_KEY_PENDING).apply();
+        } catch (Exception e) {
+            XposedBridge.log(TAG + ": 迁移旧的持久化请求失败: " + e.getMessage());
         }
     }
     
@@ -208,26 +266,51 @@ public class AiRateLimitedQueue {
                     // 阻塞获取下一个请求
                     PrioritizedRequest request = requestQueue.take();
                     
-                    // 限流：等待直到可以发送
-                    rateLimiter.acquire();
+                    // 限流：占用路由首选服务商的并发名额，没有空闲名额时在这里等待
+                    // 之后的请求、上报和释放都固定用这个服务商，不再重新排序
+                    final AiEndpointRouter.Endpoint endpoint = currentEndpoint();
+                    final AdaptiveConcurrencyLimiter.Budget budget = budgetOf(endpoint);
+                    budget.acquire();
+                    
+                    // 批量：同一会话还有排队中的消息时合并成一次请求（等待名额期间积压的消息也会一起合并）
+                    final List<PrioritizedRequest> batch = collectBatch(request);
+                    if (batch.size() > 1) {
+                        executorService.submit(() -> {
+                            String reqInfo = "[批量" + batch.size() + "] " + request.conversationId;
+                            activeRequests.add(reqInfo);
+                            try {
+                                processBatch(batch, endpoint);
+                            } catch (Throwable t) {
+                                debugLog(TAG + ": 批量任务执行异常: " + t.getMessage());
+                            } finally {
+                                activeRequests.remove(reqInfo);
+                                budget.release();
+                            }
+                        });
+                        continue;
+                    }
                     
                     // 异步提交到线程池执行，不阻塞工作线程
                     executorService.submit(() -> {
                         String reqInfo = "[" + request.priority + "] " + 
                                        (request.msgContent.length() > 10 ? request.msgContent.substring(0, 10) + "..." : request.msgContent);
                         activeRequests.add(reqInfo);
+                        long waitMs = System.currentTimeMillis() - request.timestamp;
+                        PerfMetrics.recordMillis(PerfMetrics.Stage.QUEUE_WAIT, waitMs);
+                        AiQueueEvents.publish(AiQueueEvents.Source.MAIN, AiQueueEvents.Type.STARTED, request.eventId, waitMs, null);
                         try {
                             // 处理请求（带重试）
-                            processRequest(request);
+                            processRequest(request, endpoint);
                             
-                            // 处理完后更新持久化（移除已完成的）
+                            // 处理完后在日志中标记完成
                             if (request.priority == Priority.HIGH && request.msgId != null) {
-                                persistence.saveQueueAsync(requestQueue);
+                                journal.recordComplete(request.msgId);
                             }
                         } catch (Throwable t) {
                             debugLog(TAG + ": 异步任务执行异常: " + t.getMessage());
                         } finally {
                             activeRequests.remove(reqInfo);
+                            budget.release();
                         }
                     });
                     
@@ -248,8 +331,10 @@ public class AiRateLimitedQueue {
      * 支持两种重试：
      * 1. 429速率限制：最多重试3次，指数退避
      * 2. 格式错误：最多重试5次，静默重试
+     *
+     * @param endpoint 工作线程占用了并发名额的服务商（null 表示未配置服务商）
      */
-    private void processRequest(PrioritizedRequest request) {
+    private void processRequest(PrioritizedRequest request, AiEndpointRouter.Endpoint endpoint) {
         final int MAX_RATE_LIMIT_RETRIES = 3;
         final int MAX_FORMAT_ERROR_RETRIES = 5;
         final int[] BACKOFF_MS = {1000, 2000, 4000};  // 1s, 2s, 4s
@@ -257,14 +342,19 @@ public class AiRateLimitedQueue {
         int rateLimitAttempt = 0;
         int formatErrorAttempt = 0;
         Exception lastException = null;
+        final long startTime = System.currentTimeMillis();
         
         while (rateLimitAttempt <= MAX_RATE_LIMIT_RETRIES && formatErrorAttempt < MAX_FORMAT_ERROR_RETRIES) {
             try {
                 // 调用AI接口（同步）
-                final List<String> options = fetchOptionsSync(request);
+                final List<String> options = fetchOptionsSync(request, endpoint);
                 
-                // 成功：通知限流器
-                rateLimiter.onSuccess();
+                long responseBytes = 0;
+                for (String option : options) {
+                    responseBytes += AiQueueEvents.estimateBytes(option);
+                }
+                AiQueueEvents.publish(AiQueueEvents.Source.MAIN, AiQueueEvents.Type.SUCCEEDED, request.eventId,
+                        0, responseBytes, System.currentTimeMillis() - startTime, 0, null);
                 
                 // 回调成功（切换到UI线程）
                 mainHandler.post(() -> request.callback.onSuccess(options));
@@ -272,13 +362,16 @@ public class AiRateLimitedQueue {
                 return;
                 
             } catch (RateLimitException e) {
-                // 429错误：动态降速
-                rateLimiter.on429Error();
+                // 429错误：并发已由 HttpAiClient 按响应（含 Retry-After）收缩
                 lastException = e;
+                AiQueueEvents.publish(AiQueueEvents.Source.MAIN, AiQueueEvents.Type.RATE_LIMITED, request.eventId,
+                        System.currentTimeMillis() - startTime, null);
                 
                 if (rateLimitAttempt < MAX_RATE_LIMIT_RETRIES) {
-                    long delay = BACKOFF_MS[rateLimitAttempt];
+                    long delay = Math.max(BACKOFF_MS[rateLimitAttempt], budgetOf(endpoint).blockedForMs());
                     XposedBridge.log(TAG + ": ⚠️ 触发429限流，等待 " + delay + "ms 后重试");
+                    AiQueueEvents.publish(AiQueueEvents.Source.MAIN, AiQueueEvents.Type.RETRIED, request.eventId,
+                            delay, "429退避");
                     SystemClock.sleep(delay);
                     rateLimitAttempt++;
                 } else {
@@ -292,6 +385,8 @@ public class AiRateLimitedQueue {
                 
                 if (formatErrorAttempt < MAX_FORMAT_ERROR_RETRIES) {
                     XposedBridge.log(TAG + ": ⚠️ AI返回格式错误，自动重试 (" + formatErrorAttempt + "/" + MAX_FORMAT_ERROR_RETRIES + ")");
+                    AiQueueEvents.publish(AiQueueEvents.Source.MAIN, AiQueueEvents.Type.RETRIED, request.eventId,
+                            500, "格式错误");
                     // 短暂延迟后重试
                     SystemClock.sleep(500);
                 } else {
@@ -303,6 +398,8 @@ public class AiRateLimitedQueue {
             } catch (Exception e) {
                 // 其他错误：直接失败，不重试
                 XposedBridge.log(TAG + ": ❌ 请求失败: " + e.getMessage());
+                AiQueueEvents.publish(AiQueueEvents.Source.MAIN, AiQueueEvents.Type.FAILED, request.eventId,
+                        System.currentTimeMillis() - startTime, e.getMessage());
                 mainHandler.post(() -> request.callback.onFailure(e));
                 return;
             }
@@ -310,6 +407,8 @@ public class AiRateLimitedQueue {
         
         // 重试次数用尽，最终失败
         final Exception finalException = lastException;
+        AiQueueEvents.publish(AiQueueEvents.Source.MAIN, AiQueueEvents.Type.FAILED, request.eventId,
+                System.currentTimeMillis() - startTime, finalException != null ? finalException.getMessage() : null);
         final boolean isFormatError = finalException instanceof FormatErrorException;
         
         if (isFormatError) {
@@ -320,10 +419,11 @@ public class AiRateLimitedQueue {
                 // 创建重试动作
                 Runnable retryAction = () -> {
                     XposedBridge.log(TAG + ": 用户点击重新加载");
-                    // 重新提交请求（保留senderQQ和customSystemPrompt）
+                    // 重新提交请求（保留全部参数：图片和会话ID决定上下文锚点和摘要）
                     submitRequest(request.context, request.msgContent, request.msgId, request.priority,
                                  request.contextMessages, request.currentSenderName, request.currentTimestamp,
-                                 request.senderQQ, request.customSystemPrompt, request.callback);
+                                 request.senderQQ, request.customSystemPrompt, request.imageElements,
+                                 request.conversationId, request.callback);
                 };
                 mainHandler.post(() -> retryCallback.onAllRetriesFailed(retryAction));
             } else {
@@ -335,19 +435,147 @@ public class AiRateLimitedQueue {
         }
     }
     
+    /**
+     * 收集可以和 first 合并的排队请求（同一会话、同一提示词、没有图片），最多 MAX_BATCH_SIZE 条
+     * 未开启批量或没有可合并的请求时只返回 first
+     */
+    private List<PrioritizedRequest> collectBatch(PrioritizedRequest first) {
+        List<PrioritizedRequest> batch = new ArrayList<>();
+        batch.add(first);
+        if (!ConfigManager.isAiBatchEnabled() || !isBatchable(first)) {
+            return batch;
+        }
+        // 队列快照按优先级、时间排序，先合并高优先级的
+        List<PrioritizedRequest> candidates = new ArrayList<>(requestQueue);
+        java.util.Collections.sort(candidates);
+        for (PrioritizedRequest candidate : candidates) {
+            if (batch.size() >= MAX_BATCH_SIZE) break;
+            if (isBatchable(candidate)
+                    && first.conversationId.equals(candidate.conversationId)
+                    && TextUtils.equals(first.customSystemPrompt, candidate.customSystemPrompt)
+                    && requestQueue.remove(candidate)) {
+                batch.add(candidate);
+            }
+        }
+        return batch;
+    }
+    
+    private static boolean isBatchable(PrioritizedRequest request) {
+        return !request.summaryRequest && !request.batchFailed
+                && request.conversationId != null && request.msgId != null
+                && (request.imageElements == null || request.imageElements.isEmpty());
+    }
+    
+    /**
+     * 处理合并后的请求：一次请求生成全部消息的选项，再按消息拆回各自的回调
+     * 整批失败或某条没有拿到选项时，这些消息重新入队、之后单条处理（带原有的重试）：
+     * 每条各自占用并发名额，服务商暂停中时在工作线程等待，不占着这一批的名额逐条重发
+     */
+    private void processBatch(List<PrioritizedRequest> batch, AiEndpointRouter.Endpoint endpoint) {
+        final long startTime = System.currentTimeMillis();
+        List<PrioritizedRequest> ordered = new ArrayList<>(batch);
+        java.util.Collections.sort(ordered, (a, b) -> Long.compare(a.currentTimestamp, b.currentTimestamp));
+        
+        List<HttpAiClient.BatchItem> items = new ArrayList<>(ordered.size());
+        for (PrioritizedRequest request : ordered) {
+            long waitMs = startTime - request.timestamp;
+            PerfMetrics.recordMillis(PerfMetrics.Stage.QUEUE_WAIT, waitMs);
+            AiQueueEvents.publish(AiQueueEvents.Source.MAIN, AiQueueEvents.Type.STARTED, request.eventId, waitMs, "批量");
+            items.add(new HttpAiClient.BatchItem(request.msgContent, request.msgId,
+                    request.currentSenderName, request.currentTimestamp, request.senderQQ));
+        }
+        
+        List<List<String>> results = null;
+        try {
+            results = fetchBatchSync(ordered.get(ordered.size() - 1), items, endpoint);
+        } catch (Exception e) {
+            debugLog(TAG + ": 批量请求失败，重新排队逐条处理: " + e.getMessage());
+        }
+        
+        int merged = 0;
+        for (int i = 0; i < ordered.size(); i++) {
+            final PrioritizedRequest request = ordered.get(i);
+            final List<String> options = results != null ? results.get(i) : null;
+            if (options == null) {
+                // 保留原来的排队时间，重新入队后排在同优先级的新消息前面；持久化记录保持未完成
+                request.batchFailed = true;
+                AiQueueEvents.publish(AiQueueEvents.Source.MAIN, AiQueueEvents.Type.RETRIED, request.eventId,
+                        0, "批量失败，重新排队");
+                requestQueue.offer(request);
+                continue;
+            }
+            merged++;
+            if (request.priority == Priority.HIGH) {
+                journal.recordComplete(request.msgId);
+            }
+            long responseBytes = 0;
+            for (String option : options) {
+                responseBytes += AiQueueEvents.estimateBytes(option);
+            }
+            AiQueueEvents.publish(AiQueueEvents.Source.MAIN, AiQueueEvents.Type.SUCCEEDED, request.eventId,
+                    0, responseBytes, System.currentTimeMillis() - startTime, 0, "批量");
+            mainHandler.post(() -> request.callback.onSuccess(options));
+        }
+        debugLog(TAG + ": 批量处理 " + ordered.size() + " 条，合并成功 " + merged + " 条，耗时 "
+                + (System.currentTimeMillis() - startTime) + "ms");
+    }
+    
+    /**
+     * 同步调用批量接口，context 和上下文取自最新的一条消息
+     */
+    private List<List<String>> fetchBatchSync(PrioritizedRequest newest, List<HttpAiClient.BatchItem> items,
+                                              AiEndpointRouter.Endpoint endpoint) throws Exception {
+        final Object lock = new Object();
+        final AtomicReference<List<List<String>>> resultHolder = new AtomicReference<>();
+        final AtomicReference<Exception> errorHolder = new AtomicReference<>();
+        
+        synchronized (lock) {
+            HttpAiClient.fetchBatchOptions(newest.context, items, newest.contextMessages,
+                    newest.customSystemPrompt, newest.conversationId, new PinnedBatchCallback(endpoint) {
+                @Override
+                public void onSuccess(List<List<String>> results) {
+                    synchronized (lock) {
+                        resultHolder.set(results);
+                        lock.notify();
+                    }
+                }
+                
+                @Override
+                public void onFailure(Exception e) {
+                    synchronized (lock) {
+                        errorHolder.set(e);
+                        lock.notify();
+                    }
+                }
+            });
+            if (resultHolder.get() == null && errorHolder.get() == null) {
+                lock.wait(60000);
+            }
+        }
+        
+        if (errorHolder.get() != null) {
+            throw errorHolder.get();
+        }
+        if (resultHolder.get() == null) {
+            throw new Exception("请求超时");
+        }
+        return resultHolder.get();
+    }
+    
     /**
      * 同步调用AI接口（供内部使用）
      */
-    private List<String> fetchOptionsSync(PrioritizedRequest request) throws Exception {
+    private List<String> fetchOptionsSync(PrioritizedRequest request, AiEndpointRouter.Endpoint endpoint)
+            throws Exception {
         final Object lock = new Object();
-        final List<String>[] resultHolder = new List[1];
-        final Exception[] errorHolder = new Exception[1];
+        final AtomicReference<List<String>> resultHolder = new AtomicReference<>();
+        final AtomicReference<Exception> errorHolder = new AtomicReference<>();
         
-        HttpAiClient.AiCallback syncCallback = new HttpAiClient.AiCallback() {
+        HttpAiClient.AiCallback syncCallback = new PinnedCallback(endpoint) {
             @Override
             public void onSuccess(List<String> options) {
                 synchronized (lock) {
-                    resultHolder[0] = options;
+                    resultHolder.set(options);
                     lock.notify();
                 }
             }
@@ -355,13 +583,19 @@ public class AiRateLimitedQueue {
             @Override
             public void onFailure(Exception e) {
                 synchronized (lock) {
-                    errorHolder[0] = e;
+                    errorHolder.set(e);
                     lock.notify();
                 }
             }
         };
         
         synchronized (lock) {
+            if (request.summaryRequest) {
+                HttpAiClient.fetchSummary(request.context, request.customSystemPrompt, request.msgContent, syncCallback);
+                lock.wait(60000);
+                return awaitResult(resultHolder, errorHolder);
+            }
+            
             // 检查是否有图片需要处理
             boolean hasImages = request.imageElements != null && !request.imageElements.isEmpty() 
                                && ConfigManager.isImageRecognitionEnabled();
@@ -391,26 +625,35 @@ public class AiRateLimitedQueue {
             lock.wait(60000);
         }
         
-        if (errorHolder[0] != null) {
-            String errorMsg = errorHolder[0].getMessage();
+        return awaitResult(resultHolder, errorHolder);
+    }
+    
+    /**
+     * 把同步等待的结果转换为返回值或对应的异常
+     */
+    private static List<String> awaitResult(AtomicReference<List<String>> resultHolder,
+                                            AtomicReference<Exception> errorHolder) throws Exception {
+        Exception error = errorHolder.get();
+        if (error != null) {
+            String errorMsg = error.getMessage();
             if (errorMsg != null) {
                 // 检查是否是429错误
                 if (errorMsg.contains("Rate limit")) {
-                    throw new RateLimitException(errorHolder[0]);
+                    throw new RateLimitException(error);
                 }
                 // 检查是否是格式错误（可重试）
                 if (errorMsg.contains("格式") || errorMsg.contains("选项不足")) {
-                    throw new FormatErrorException(errorHolder[0]);
+                    throw new FormatErrorException(error);
                 }
             }
-            throw errorHolder[0];
+            throw error;
         }
         
-        if (resultHolder[0] == null) {
+        if (resultHolder.get() == null) {
             throw new Exception("请求超时");
         }
         
-        return resultHolder[0];
+        return resultHolder.get();
     }
     
     /**
@@ -421,10 +664,72 @@ public class AiRateLimitedQueue {
     }
     
     /**
-     * 获取当前QPS
+     * 获取路由首选服务商当前的并发上限
+     */
+    public double getConcurrencyLimit() {
+        return currentBudget().getLimit();
+    }
+    
+    /**
+     * 获取限流器状态（进行中/并发上限、延迟、暂停、最近一次429距今）
+     */
+    public String getLimiterState() {
+        return currentBudget().describe();
+    }
+    
+    /**
+     * 路由首选服务商的并发名额（未配置服务商时按设置里的服务商和模型）
+     */
+    private static AdaptiveConcurrencyLimiter.Budget currentBudget() {
+        return budgetOf(currentEndpoint());
+    }
+    
+    /**
+     * 路由首选服务商，未配置服务商时返回null
+     */
+    private static AiEndpointRouter.Endpoint currentEndpoint() {
+        List<AiEndpointRouter.Endpoint> ranked = AiEndpointRouter.rank();
+        return ranked.isEmpty() ? null : ranked.get(0);
+    }
+    
+    /**
+     * 服务商的并发名额，endpoint 为 null 时按设置里的服务商和模型
+     */
+    private static AdaptiveConcurrencyLimiter.Budget budgetOf(AiEndpointRouter.Endpoint endpoint) {
+        if (endpoint != null) {
+            return endpoint.budget();
+        }
+        return AdaptiveConcurrencyLimiter.budget(ConfigManager.getAiProvider(), ConfigManager.getAiModel(),
+                ConfigManager.getAiQps());
+    }
+    
+    /**
+     * 带着工作线程所选服务商的回调，HttpAiClient 据此使用同一个服务商
      */
-    public double getCurrentQPS() {
-        return rateLimiter.getCurrentQPS();
+    private abstract static class PinnedCallback implements HttpAiClient.AiCallback, HttpAiClient.EndpointPinned {
+        private final AiEndpointRouter.Endpoint endpoint;
+        
+        PinnedCallback(AiEndpointRouter.Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+        
+        @Override
+        public AiEndpointRouter.Endpoint pinnedEndpoint() {
+            return endpoint;
+        }
+    }
+    
+    private abstract static class PinnedBatchCallback implements HttpAiClient.BatchCallback, HttpAiClient.EndpointPinned {
+        private final AiEndpointRouter.Endpoint endpoint;
+        
+        PinnedBatchCallback(AiEndpointRouter.Endpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+        
+        @Override
+        public AiEndpointRouter.Endpoint pinnedEndpoint() {
+            return endpoint;
+        }
     }
     
     /**
@@ -455,7 +760,8 @@ public class AiRateLimitedQueue {
      */
     public enum Priority {
         HIGH(0),    // 高优先级（屏幕可见消息）
-        NORMAL(1);  // 普通优先级
+        NORMAL(1),  // 普通优先级
+        LOW(2);     // 低优先级（后台任务，如对话摘要）
         
         final int value;
         
@@ -488,6 +794,9 @@ public class AiRateLimitedQueue {
         final String conversationId; // 会话ID（用于图片描述缓存）
         final HttpAiClient.AiCallback callback;
         final long timestamp;  // 同优先级按时间排序
+        final long eventId = AiQueueEvents.nextRequestId(); // 监控事件关联ID
+        boolean summaryRequest = false; // 对话摘要请求（入队前设置）
+        boolean batchFailed = false; // 批量请求没有拿到这条的选项，重新入队后单条处理（入队前设置）
         
         PrioritizedRequest(Context context, String msgContent, String msgId, Priority priority, 
                           List<top.galqq.utils.MessageContextManager.ChatMessage> contextMessages,
@@ -539,27 +848,12 @@ public class AiRateLimitedQueue {
             return Long.compare(this.timestamp, other.timestamp);
         }
         
-        // 序列化为JSON
-        JSONObject toJson() {
+        // 从日志记录创建恢复用的请求
+        static PrioritizedRequest fromJournal(Context context, AiRequestJournal.Entry entry, long timestamp) {
             try {
-                JSONObject json = new JSONObject();
-                json.put("msgContent", msgContent);
-                json.put("msgId", msgId);
-                json.put("priority", priority.value);
-                json.put("timestamp", timestamp);
-                return json;
-            } catch (Exception e) {
-                return null;
-            }
-        }
-        
-        // 从JSON反序列化（创建恢复用的请求）
-        static PrioritizedRequest fromJson(Context context, JSONObject json) {
-            try {
-                String msgContent = json.getString("msgContent");
-                String msgId = json.optString("msgId", null);
-                int priorityVal = json.getInt("priority");
-                long timestamp = json.getLong("timestamp");
+                String msgContent = entry.msgContent;
+                String msgId = entry.msgId;
+                int priorityVal = entry.priority;
                 
                 // 创建一个特殊的Callback，只负责更新缓存
                 HttpAiClient.AiCallback restoreCallback = new HttpAiClient.AiCallback() {
@@ -587,182 +881,6 @@ public class AiRateLimitedQueue {
         }
     }
     
-    /**
-     * 动态QPS限流器
-     */
-    /**
-     * 动态QPS限流器
-     */
-    private static class DynamicRateLimiter {
-        private volatile double currentQPS;        // 当前QPS
-        private volatile double targetQPS;         // 目标QPS（配置值）
-        private final double minQPS;               // 最小QPS
-        private final AtomicInteger successCount = new AtomicInteger(0);
-        private volatile long lastAdjustTime = System.currentTimeMillis();
-        private volatile long lastTokenTime = System.currentTimeMillis();
-        
-        DynamicRateLimiter(double initialQPS, double minQPS) {
-            this.targetQPS = initialQPS;
-            this.minQPS = minQPS;
-            this.currentQPS = initialQPS;
-        }
-        
-        /**
-         * 更新目标QPS
-         */
-        void updateTargetQps(double newQps) {
-            if (Math.abs(this.targetQPS - newQps) > 0.1) {
-                XposedBridge.log(TAG + ": 更新目标QPS: " + this.targetQPS + " -> " + newQps);
-                this.targetQPS = newQps;
-                // 如果当前QPS高于新目标，立即降低
-                if (this.currentQPS > newQps) {
-                    this.currentQPS = newQps;
-                }
-            }
-        }
-        
-        /**
-         * 获取令牌（阻塞直到可用）
-         */
-        synchronized void acquire() {
-            // 每次获取令牌前，检查配置是否有更新（MMKV读取很快）
-            float configQps = ConfigManager.getAiQps();
-            updateTargetQps(configQps);
-            
-            long intervalMs = (long) (1000.0 / currentQPS);
-            long now = System.currentTimeMillis();
-            long waitTime = lastTokenTime + intervalMs - now;
-            
-            if (waitTime > 0) {
-                try {
-                    Thread.sleep(waitTime);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            }
-            
-            lastTokenTime = System.currentTimeMillis();
-        }
-        
-        /**
-         * 429错误：降速50%
-         */
-        synchronized void on429Error() {
-            double oldQPS = currentQPS;
-            currentQPS = Math.max(minQPS, currentQPS * 0.5);
-            successCount.set(0);
-            
-            XposedBridge.log(TAG + ": 🔽 触发429，QPS降速: " + 
-                           String.format("%.2f", oldQPS) + " → " + 
-                           String.format("%.2f", currentQPS) + " req/s");
-        }
-        
-        /**
-         * 成功回调：连续成功后恢复QPS
-         */
-        void onSuccess() {
-            int count = successCount.incrementAndGet();
-            long now = System.currentTimeMillis();
-            
-            // 每30秒最多恢复一次，且需要连续成功10次
-            if (now - lastAdjustTime > 30000 && count >= 10 && currentQPS < targetQPS) {
-                synchronized (this) {
-                    double oldQPS = currentQPS;
-                    // 恢复时不超过目标QPS
-                    currentQPS = Math.min(targetQPS, currentQPS * 1.2);
-                    successCount.set(0);
-                    lastAdjustTime = now;
-                    
-                    XposedBridge.log(TAG + ": 🔼 连续成功，QPS恢复: " + 
-                                   String.format("%.2f", oldQPS) + " → " + 
-                                   String.format("%.2f", currentQPS) + " req/s");
-                }
-            }
-        }
-        
-        double getCurrentQPS() {
-            return currentQPS;
-        }
-    }
-    
-    /**
-     * 持久化管理器
-     */
-    private static class RequestPersistence {
-        private static final String PREF_NAME = "galqq_ai_queue";
-        private static final String KEY_PENDING = "pending_requests";
-        private final SharedPreferences prefs;
-        private final Handler bgHandler;
-        private long lastSaveTime = 0;
-        
-        RequestPersistence(Context context) {
-            this.prefs = context.getSharedPreferences(PREF_NAME, Context.MODE_PRIVATE);
-            // 使用后台线程处理IO
-            android.os.HandlerThread thread = new android.os.HandlerThread("AiPersistence");
-            thread.start();
-            this.bgHandler = new Handler(thread.getLooper());
-        }
-        
-        // 异步保存队列（节流：最多1秒1次）
-        void saveQueueAsync(PriorityBlockingQueue<PrioritizedRequest> queue) {
-            long now = System.currentTimeMillis();
-            if (now - lastSaveTime < 1000) {
-                return; // 节流
-            }
-            lastSaveTime = now;
-            
-            bgHandler.post(() -> {
-                try {
-                    // 复制当前队列快照
-                    List<PrioritizedRequest> snapshot = new ArrayList<>(queue);
-                    JSONArray array = new JSONArray();
-                    
-                    // 只保存HIGH优先级且有msgId的任务，最多50条
-                    int count = 0;
-                    for (PrioritizedRequest req : snapshot) {
-                        if (req.priority == Priority.HIGH && req.msgId != null) {
-                            JSONObject json = req.toJson();
-                            if (json != null) {
-                                array.put(json);
-                                count++;
-                            }
-                        }
-                        if (count >= 50) break;
-                    }
-                    
-                    prefs.edit().putString(KEY_PENDING, array.toString()).apply();
-                    // XposedBridge.log(TAG + ": 已持久化 " + count + " 个请求");
-                } catch (Exception e) {
-                    XposedBridge.log(TAG + ": 持久化失败: " + e.getMessage());
-                }
-            });
-        }
-        
-        // 加载队列（同步）
-        List<PrioritizedRequest> loadQueue(Context context) {
-            List<PrioritizedRequest> result = new ArrayList<>();
-            try {
-                String jsonStr = prefs.getString(KEY_PENDING, "[]");
-                JSONArray array = new JSONArray(jsonStr);
-                
-                for (int i = 0; i < array.length(); i++) {
-                    JSONObject json = array.getJSONObject(i);
-                    PrioritizedRequest req = PrioritizedRequest.fromJson(context, json);
-                    if (req != null) {
-                        result.add(req);
-                    }
-                }
-                
-                // 加载后清空，避免重复处理
-                prefs.edit().remove(KEY_PENDING).apply();
-                
-            } catch (Exception e) {
-                XposedBridge.log(TAG + ": 加载持久化请求失败: " + e.getMessage());
-            }
-            return result;
-        }
-    }
-    
     /**
      * 速率限制异常（429错误）
      */
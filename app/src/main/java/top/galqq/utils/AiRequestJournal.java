@@ -0,0 +1,375 @@
+package top.galqq.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import de.robv.android.xposed.XposedBridge;
+import top.galqq.config.ConfigManager;
+
+/**
+ * AI请求队列的磁盘日志（替代原来整份重写的 SharedPreferences JSON）
+ *
+ * 只追加的二进制文件，两种记录：
+ * - 入队：[byte 类型=1][long 入队时间][byte 优先级][msgId][消息内容]
+ * - 完成：[byte 类型=2][msgId]
+ * 记录格式和 MessageContextJournal 相同：[int 长度][int CRC32][内容]，字符串为 [int 字节数（-1 表示 null）][UTF-8]。
+ *
+ * 每个请求只追加一条记录，写线程把同一时间积累的记录一次写入并 fsync（组提交），
+ * 进程被杀时最多丢失正在写的那一批；写入失败时这批记录留在内存里，下次写入时排在最前面重写。
+ * 读取时遇到写到一半的记录就停止，下次追加前截掉。
+ * 记录数远多于未完成的请求时重写文件，只保留未完成的入队记录。
+ */
+public final class AiRequestJournal {
+
+    private static final String TAG = "GalQQ.QueueJournal";
+
+    private static void debugLog(String message) {
+        try {
+            if (ConfigManager.isVerboseLogEnabled()) {
+                XposedBridge.log(TAG + ": " + message);
+            }
+        } catch (Throwable ignored) {}
+    }
+
+    private static final byte TYPE_ENQUEUE = 1;
+    private static final byte TYPE_COMPLETE = 2;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    // 记录数超过这个值且超过未完成请求的 COMPACT_RATIO 倍时压缩
+    private static final int COMPACT_MIN_RECORDS = 256;
+    private static final int COMPACT_RATIO = 4;
+
+    /**
+     * 一个未完成的请求
+     */
+    public static final class Entry {
+        public final String msgId;
+        public final String msgContent;
+        public final int priority;
+        public final long timestamp;
+
+        public Entry(String msgId, String msgContent, int priority, long timestamp) {
+            this.msgId = msgId;
+            this.msgContent = msgContent;
+            this.priority = priority;
+            this.timestamp = timestamp;
+        }
+    }
+
+    public interface RestoreCallback {
+        /**
+         * @param entries 需要恢复的请求，最近入队的在前
+         */
+        void onRestored(List<Entry> entries);
+    }
+
+    private final File file;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "GalQQ-QueueJournal");
+        t.setDaemon(true);
+        return t;
+    });
+    // 待写入的记录（已编码）
+    private final ConcurrentLinkedQueue<byte[]> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    // 本进程记录过入队的 msgId：这些请求已经在内存队列里，恢复时跳过（恢复完成后清空，不再记录）
+    private final Set<String> enqueuedHere = ConcurrentHashMap.newKeySet();
+    private volatile boolean restored = false;
+
+    // 以下只在写线程访问
+    private final Map<String, Entry> live = new LinkedHashMap<>();
+    // 已经从 pending 取出、还没成功写入的记录
+    private final List<byte[]> unwritten = new ArrayList<>();
+    private int records = 0;
+    private long validLength = 0;
+    private boolean loaded = false;
+
+    public AiRequestJournal(File file) {
+        this.file = file;
+    }
+
+    /**
+     * 记录一个入队的请求（异步）
+     */
+    public void recordEnqueue(String msgId, String msgContent, int priority, long timestamp) {
+        if (msgId == null) return;
+        if (!restored) enqueuedHere.add(msgId);
+        recordRestorable(msgId, msgContent, priority, timestamp);
+    }
+
+    /**
+     * 写入一条入队记录，但不算本进程入队的请求，启动恢复时照常恢复（迁移旧版本的持久化数据用）
+     */
+    public void recordRestorable(String msgId, String msgContent, int priority, long timestamp) {
+        if (msgId == null) return;
+        try {
+            append(encodeEnqueue(new Entry(msgId, msgContent, priority, timestamp)));
+        } catch (IOException e) {
+            debugLog("编码失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 记录一个请求已完成（成功或最终失败，异步）
+     */
+    public void recordComplete(String msgId) {
+        if (msgId == null) return;
+        try {
+            append(encodeComplete(msgId));
+        } catch (IOException e) {
+            debugLog("编码失败: " + e.getMessage());
+        }
+    }
+
+    /**
+     * 读取未完成的请求，在写线程回调（启动时调用一次）
+     * 本进程已经入队过的请求不返回（恢复前入队、已经写入日志的请求不会重复进入队列）；
+     * 超过 maxAgeMs 或排在 maxEntries 之后的请求不再恢复，直接记为完成
+     */
+    public void restore(int maxEntries, long maxAgeMs, RestoreCallback callback) {
+        writer.execute(() -> {
+            List<Entry> result = new ArrayList<>();
+            try {
+                ensureLoaded();
+                List<Entry> entries = new ArrayList<>(live.values());
+                Collections.sort(entries, (a, b) -> Long.compare(b.timestamp, a.timestamp));
+                long cutoff = System.currentTimeMillis() - maxAgeMs;
+                int dropped = 0;
+                for (Entry entry : entries) {
+                    if (enqueuedHere.contains(entry.msgId)) continue;
+                    if (result.size() < maxEntries && entry.timestamp >= cutoff) {
+                        result.add(entry);
+                    } else {
+                        pending.add(encodeComplete(entry.msgId));
+                        dropped++;
+                    }
+                }
+                if (dropped > 0) {
+                    debugLog("丢弃 " + dropped + " 个过期请求");
+                    flush();
+                }
+            } catch (Throwable t) {
+                debugLog("恢复失败: " + t.getMessage());
+            }
+            restored = true;
+            enqueuedHere.clear();
+            callback.onRestored(result);
+        });
+    }
+
+    private void append(byte[] record) {
+        pending.add(record);
+        if (flushScheduled.compareAndSet(false, true)) {
+            writer.execute(this::flush);
+        }
+    }
+
+    // ========== 写线程 ==========
+
+    private void flush() {
+        flushScheduled.set(false);
+        // 上次写入失败的记录排在这批最前面
+        byte[] polled;
+        while ((polled = pending.poll()) != null) {
+            unwritten.add(polled);
+        }
+        if (unwritten.isEmpty()) return;
+        try {
+            ensureLoaded();
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                FileChannel channel = raf.getChannel();
+                // 截掉上次写到一半的记录
+                if (channel.size() != validLength) {
+                    channel.truncate(validLength);
+                }
+                ByteArrayOutputStream batch = new ByteArrayOutputStream();
+                for (byte[] record : unwritten) {
+                    batch.write(record);
+                }
+                ByteBuffer buf = ByteBuffer.wrap(batch.toByteArray());
+                while (buf.hasRemaining()) {
+                    channel.write(buf, validLength + buf.position());
+                }
+                // 一批记录只 fsync 一次
+                channel.force(false);
+                validLength += batch.size();
+            }
+            // 写入成功后才更新未完成的请求集合
+            for (byte[] record : unwritten) {
+                apply(ByteBuffer.wrap(record, HEADER_SIZE, record.length - HEADER_SIZE));
+                records++;
+            }
+            unwritten.clear();
+            if (records > COMPACT_MIN_RECORDS && records > live.size() * COMPACT_RATIO) {
+                compact();
+            }
+        } catch (Throwable t) {
+            // 这批记录留在 unwritten 里，下次写入时重写；validLength 没有前移，写了一半的内容会先被截掉
+            debugLog("写入失败（" + unwritten.size() + " 条待重写）: " + t.getMessage());
+        }
+    }
+
+    private void ensureLoaded() throws IOException {
+        if (loaded) return;
+        live.clear();
+        records = 0;
+        validLength = 0;
+        if (file.exists()) {
+            validLength = readRecords();
+        }
+        loaded = true;
+    }
+
+    /**
+     * 重写文件，只保留未完成的入队记录
+     */
+    private void compact() throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        long length = 0;
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            for (Entry entry : live.values()) {
+                byte[] record = encodeEnqueue(entry);
+                out.write(record);
+                length += record.length;
+            }
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("rename failed");
+        }
+        debugLog("压缩: " + records + " -> " + live.size());
+        records = live.size();
+        validLength = length;
+    }
+
+    /**
+     * 顺序读取完整记录并更新未完成的请求
+     *
+     * @return 最后一条完整记录结束的位置
+     */
+    private long readRecords() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size == 0) return 0;
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32 crc = new CRC32();
+            byte[] payload = new byte[256];
+            while (buf.remaining() >= HEADER_SIZE) {
+                int start = buf.position();
+                int length = buf.getInt();
+                int checksum = buf.getInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE || length > buf.remaining()) {
+                    buf.position(start);
+                    break;
+                }
+                if (payload.length < length) payload = new byte[length];
+                buf.get(payload, 0, length);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    buf.position(start);
+                    break;
+                }
+                apply(ByteBuffer.wrap(payload, 0, length));
+                records++;
+            }
+            return buf.position();
+        }
+    }
+
+    /**
+     * 把一条记录应用到未完成的请求集合
+     */
+    private void apply(ByteBuffer buf) {
+        try {
+            byte type = buf.get();
+            if (type == TYPE_ENQUEUE) {
+                long timestamp = buf.getLong();
+                int priority = buf.get();
+                String msgId = readString(buf);
+                String msgContent = readString(buf);
+                if (msgId != null && msgContent != null) {
+                    live.put(msgId, new Entry(msgId, msgContent, priority, timestamp));
+                }
+            } else if (type == TYPE_COMPLETE) {
+                String msgId = readString(buf);
+                if (msgId != null) live.remove(msgId);
+            }
+        } catch (RuntimeException ignored) {
+            // 未知或损坏的记录
+        }
+    }
+
+    // ========== 编解码 ==========
+
+    private static byte[] encodeEnqueue(Entry entry) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeByte(TYPE_ENQUEUE);
+        out.writeLong(entry.timestamp);
+        out.writeByte(entry.priority);
+        writeString(out, entry.msgId);
+        writeString(out, entry.msgContent);
+        out.flush();
+        return frame(body.toByteArray());
+    }
+
+    private static byte[] encodeComplete(String msgId) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(32);
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeByte(TYPE_COMPLETE);
+        writeString(out, msgId);
+        out.flush();
+        return frame(body.toByteArray());
+    }
+
+    private static byte[] frame(byte[] payload) {
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+        return record.array();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) return null;
+        String value = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return value;
+    }
+}
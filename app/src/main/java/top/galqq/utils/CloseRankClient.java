@@ -6,7 +6,10 @@ import android.os.Looper;
 
 import de.robv.android.xposed.XposedBridge;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.TimeUnit;
@@ -181,19 +184,25 @@ public class CloseRankClient {
             public void onResponse(Call call, Response response) throws IOException {
                 try {
                     if (!response.isSuccessful()) {
+                        if (response.code() == 401 || response.code() == 403) {
+                            // 凭据可能已失效，下次重新解析
+                            CookieHelper.invalidateCredential();
+                        }
                         throw new IOException("HTTP 错误: " + response.code());
                     }
                     
-                    String html = response.body().string();
-                    
-                    // 【调试模式】保存响应
-                    if (mDebugMode) {
-                        saveDebugResponse(context, 0, html, request);
+                    // 解析双向数据（流式，一次读取同时得到两个列表）
+                    RankHtmlParser.Result parsed = parseResponse(context, 0, response, request);
+                    if (!parsed.foundWhoICareList) {
+                        debugLog(TAG + ": 未找到 我在意谁 列表 (data-type=\"1\")");
                     }
-                    
-                    // 解析双向数据
-                    Map<String, Integer> whoICare = parseHtmlResponseByType(html, TYPE_WHO_I_CARE);
-                    Map<String, Integer> whoCaresMe = parseHtmlResponseByType(html, TYPE_WHO_CARES_ME);
+                    if (!parsed.foundWhoCaresMeList) {
+                        debugLog(TAG + ": 未找到 谁在意我 列表 (data-type=\"2\")");
+                    }
+                    debugLog(TAG + ": 解析结果: 我在意谁 " + parsed.whoICare.size()
+                            + " 条, 谁在意我 " + parsed.whoCaresMe.size() + " 条, 读取 " + parsed.bytesRead + " 字节");
+                    Map<String, Integer> whoICare = parsed.whoICare.toMap();
+                    Map<String, Integer> whoCaresMe = parsed.whoCaresMe.toMap();
                     
                     if (callback != null) {
                         mMainHandler.post(() -> callback.onSuccess(whoICare, whoCaresMe));
@@ -257,21 +266,16 @@ public class CloseRankClient {
                     
                     if (!response.isSuccessful()) {
                         debugLog(TAG + ": HTTP 错误: " + response.code());
+                        if (response.code() == 401 || response.code() == 403) {
+                            CookieHelper.invalidateCredential();
+                        }
                         throw new IOException("HTTP 错误: " + response.code());
                     }
                     
-                    String html = response.body().string();
-                    debugLog(TAG + ": 响应长度: " + html.length() + " 字符");
+                    RankHtmlParser.Result parsed = parseResponse(context, type, response, request);
+                    debugLog(TAG + ": 响应长度: " + parsed.bytesRead + " 字节");
                     
-                    String preview = html.length() > 500 ? html.substring(0, 500) + "..." : html;
-                    debugLog(TAG + ": 响应预览: " + preview);
-                    
-                    // 【调试模式】保存响应到下载目录
-                    if (mDebugMode) {
-                        saveDebugResponse(context, type, html, request);
-                    }
-                    
-                    Map<String, Integer> result = parseHtmlResponse(html);
+                    Map<String, Integer> result = parsed.all.toMap();
                     debugLog(TAG + ": 解析结果: 共 " + result.size() + " 条数据");
                     
                     if (!result.isEmpty()) {
@@ -362,6 +366,26 @@ public class CloseRankClient {
         }
     }
 
+    /**
+     * 流式解析响应体；调试模式下需要保存原文，先读成字符串再解析
+     */
+    private RankHtmlParser.Result parseResponse(Context context, int type, Response response,
+                                                Request request) throws IOException {
+        if (mDebugMode) {
+            String html = response.body().string();
+            String preview = html.length() > 500 ? html.substring(0, 500) + "..." : html;
+            debugLog(TAG + ": 响应预览: " + preview);
+            saveDebugResponse(context, type, html, request);
+            return RankHtmlParser.parse(new ByteArrayInputStream(html.getBytes(StandardCharsets.UTF_8)));
+        }
+        InputStream in = response.body().byteStream();
+        try {
+            return RankHtmlParser.parse(in);
+        } finally {
+            in.close();
+        }
+    }
+
     /**
      * 保存调试数据到下载目录
      */
@@ -418,6 +442,9 @@ public class CloseRankClient {
         }
     }
 
+    /**
+     * 正则解析（旧实现，保留用于调试对比）
+     */
     public static Map<String, Integer> parseHtmlResponse(String html) {
         Map<String, Integer> result = new HashMap<>();
         
@@ -442,7 +469,7 @@ public class CloseRankClient {
             }
             
             if (result.isEmpty()) {
-                XposedBridge.log(TAG + ": 主正则未匹配，尝试备用正则");
+                debugLog(TAG + ": 主正则未匹配，尝试备用正则");
                 matcher = PATTERN_UIN_DEGREE.matcher(html);
                 while (matcher.find()) {
                     String uin = matcher.group(1);
@@ -487,7 +514,7 @@ public class CloseRankClient {
             Matcher listMatcher = listPattern.matcher(html);
             if (listMatcher.find()) {
                 String listContent = listMatcher.group(1);
-                XposedBridge.log(TAG + ": 找到 " + typeName + " 列表，长度: " + listContent.length());
+                debugLog(TAG + ": 找到 " + typeName + " 列表，长度: " + listContent.length());
                 
                 // 从列表内容中提取 UIN 和 degree
                 Matcher itemMatcher = PATTERN_LIST_ITEM.matcher(listContent);
@@ -506,7 +533,7 @@ public class CloseRankClient {
                 
                 // 如果主正则没匹配到，尝试备用正则
                 if (result.isEmpty()) {
-                    XposedBridge.log(TAG + ": " + typeName + " 主正则未匹配，尝试备用正则");
+                    debugLog(TAG + ": " + typeName + " 主正则未匹配，尝试备用正则");
                     itemMatcher = PATTERN_UIN_DEGREE.matcher(listContent);
                     while (itemMatcher.find()) {
                         String uin = itemMatcher.group(1);
@@ -522,14 +549,14 @@ public class CloseRankClient {
                     }
                 }
             } else {
-                XposedBridge.log(TAG + ": 未找到 " + typeName + " 列表 (data-type=\"" + type + "\")");
+                debugLog(TAG + ": 未找到 " + typeName + " 列表 (data-type=\"" + type + "\")");
             }
             
         } catch (Exception e) {
             XposedBridge.log(TAG + ": 解析 HTML 失败: " + e.getMessage());
         }
         
-        XposedBridge.log(TAG + ": 类型 " + type + " 解析结果: " + result.size() + " 条");
+        debugLog(TAG + ": 类型 " + type + " 解析结果: " + result.size() + " 条");
         return result;
     }
 }
\ No newline at end of file
@@ -0,0 +1,196 @@
+package top.galqq.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 上下文打包器
+ *
+ * 在构建请求JSON之前按token预算裁剪历史上下文，优先级从高到低：
+ * 1. 当前消息（始终保留）
+ * 2. 对话摘要（见 ConversationSummaryManager，总在第一条）
+ * 3. 当前消息引用的那条消息
+ * 4. 最近的对话（从新到旧连续填充，起点由 ContextWindowAnchor 锚定以保持请求前缀稳定）
+ * 5. 更早的对话：放不下的部分折叠成一行省略说明
+ */
+public final class ContextPacker {
+
+    // 当前消息中的引用格式，见 MessageInterceptor：原消息 (回复 @昵称: "被引用内容")
+    private static final Pattern REPLY_PATTERN = Pattern.compile("\\(回复 @([^:]*): \"(.*)\"\\)\\s*$", Pattern.DOTALL);
+
+    // "[好感度:NN]昵称[我][QQ号] [HH:mm:ss]: " 这类格式前缀的大致开销
+    private static final int LINE_PREFIX_TOKENS = 10;
+
+    // 省略说明最多列出的发言者数量
+    private static final int MAX_NOTE_SPEAKERS = 5;
+    // 为省略说明预留的token
+    private static final int NOTE_RESERVE_TOKENS = 40;
+
+    private ContextPacker() {}
+
+    /**
+     * 打包结果
+     */
+    public static final class Result {
+        public final List<MessageContextManager.ChatMessage> messages; // 保留的消息（按时间顺序）
+        public final int droppedCount;      // 被省略的消息数
+        public final String omittedNote;    // 省略说明，没有省略时为null
+        public final int estimatedTokens;   // 估算的输入token总数
+
+        Result(List<MessageContextManager.ChatMessage> messages, int droppedCount,
+               String omittedNote, int estimatedTokens) {
+            this.messages = messages;
+            this.droppedCount = droppedCount;
+            this.omittedNote = omittedNote;
+            this.estimatedTokens = estimatedTokens;
+        }
+    }
+
+    /**
+     * 按预算裁剪上下文
+     *
+     * @param history 历史消息（按时间顺序，可为null）
+     * @param systemPrompt 系统提示词
+     * @param currentMessage 当前消息内容
+     * @param currentImageCount 当前消息直接发送的图片数
+     * @param countContextImages 上下文图片是否会随请求发送（按图片计token）
+     * @param budget token预算，<=0 表示不限制
+     * @param provider AI服务商（影响中文token估算）
+     * @param conversationId 会话ID（用于锚定窗口起点，可为null）
+     */
+    public static Result pack(List<MessageContextManager.ChatMessage> history, String systemPrompt,
+                              String currentMessage, int currentImageCount, boolean countContextImages,
+                              int budget, String provider, String conversationId) {
+        int fixed = TokenEstimator.estimateMessage(systemPrompt, provider)
+                + TokenEstimator.estimateMessage(currentMessage, provider) + LINE_PREFIX_TOKENS
+                + currentImageCount * TokenEstimator.IMAGE_LOW_DETAIL_TOKENS;
+
+        if (history == null || history.isEmpty()) {
+            return new Result(new ArrayList<>(), 0, null, fixed);
+        }
+
+        int[] costs = new int[history.size()];
+        int total = fixed;
+        for (int i = 0; i < history.size(); i++) {
+            costs[i] = costOf(history.get(i), countContextImages, provider);
+            total += costs[i];
+        }
+        if (budget <= 0 || total <= budget) {
+            return new Result(new ArrayList<>(history), 0, null, total);
+        }
+
+        boolean[] keep = new boolean[history.size()];
+        int used = fixed + NOTE_RESERVE_TOKENS;
+
+        // 对话摘要
+        if (history.get(0).isSummary && used + costs[0] <= budget) {
+            keep[0] = true;
+            used += costs[0];
+        }
+
+        // 被引用的消息
+        int replyIndex = findRepliedMessage(history, currentMessage);
+        if (replyIndex >= 0 && used + costs[replyIndex] <= budget) {
+            keep[replyIndex] = true;
+            used += costs[replyIndex];
+        }
+
+        // 最近的对话，从新到旧连续填充，放不下就停止（保持最近窗口连续）
+        int earliest = history.size();
+        int fill = used;
+        for (int i = history.size() - 1; i >= 0; i--) {
+            if (keep[i]) {
+                earliest = i;
+                continue;
+            }
+            if (history.get(i).isSummary || fill + costs[i] > budget) break;
+            fill += costs[i];
+            earliest = i;
+        }
+        int start = ContextWindowAnchor.resolveStart(conversationId, history, earliest);
+        for (int i = start; i < history.size(); i++) {
+            if (keep[i] || history.get(i).isSummary) continue;
+            keep[i] = true;
+            used += costs[i];
+        }
+
+        List<MessageContextManager.ChatMessage> kept = new ArrayList<>();
+        List<MessageContextManager.ChatMessage> dropped = new ArrayList<>();
+        for (int i = 0; i < history.size(); i++) {
+            if (keep[i]) {
+                kept.add(history.get(i));
+            } else if (!history.get(i).isSummary) {
+                dropped.add(history.get(i));
+            }
+        }
+
+        String note = null;
+        used -= NOTE_RESERVE_TOKENS;
+        if (!dropped.isEmpty()) {
+            note = buildOmittedNote(dropped);
+            used += TokenEstimator.estimateMessage(note, provider);
+        }
+        return new Result(kept, dropped.size(), note, used);
+    }
+
+    private static int costOf(MessageContextManager.ChatMessage msg, boolean countImages, String provider) {
+        int cost = TokenEstimator.estimateMessage(msg.content, provider)
+                + TokenEstimator.estimate(msg.senderName, provider)
+                + LINE_PREFIX_TOKENS;
+        if (countImages && msg.hasImages) {
+            cost += msg.imageCount * TokenEstimator.IMAGE_LOW_DETAIL_TOKENS;
+        }
+        return cost;
+    }
+
+    /**
+     * 在历史中查找当前消息引用的那条消息（取最近一条匹配的）
+     */
+    static int findRepliedMessage(List<MessageContextManager.ChatMessage> history, String currentMessage) {
+        if (currentMessage == null || currentMessage.indexOf("(回复 @") < 0) {
+            return -1;
+        }
+        Matcher matcher = REPLY_PATTERN.matcher(currentMessage);
+        if (!matcher.find()) {
+            return -1;
+        }
+        String quoted = matcher.group(2).trim();
+        if (quoted.isEmpty()) {
+            return -1;
+        }
+        // 引用内容可能被截断，只比较开头一段
+        String probe = quoted.length() > 20 ? quoted.substring(0, 20) : quoted;
+        for (int i = history.size() - 1; i >= 0; i--) {
+            if (history.get(i).isSummary) continue;
+            String content = history.get(i).content;
+            if (content != null && content.contains(probe)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static String buildOmittedNote(List<MessageContextManager.ChatMessage> dropped) {
+        Set<String> speakers = new LinkedHashSet<>();
+        List<MessageContextManager.ChatMessage> reversed = new ArrayList<>(dropped);
+        Collections.reverse(reversed);
+        for (MessageContextManager.ChatMessage msg : reversed) {
+            if (msg.senderName != null && !msg.senderName.isEmpty()) {
+                speakers.add(msg.isSelf ? msg.senderName + "[我]" : msg.senderName);
+            }
+            if (speakers.size() >= MAX_NOTE_SPEAKERS) break;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("[更早的 ").append(dropped.size()).append(" 条消息因长度限制已省略");
+        if (!speakers.isEmpty()) {
+            sb.append("，期间发言者: ").append(String.join("、", speakers));
+        }
+        sb.append("]");
+        return sb.toString();
+    }
+}
@@ -0,0 +1,102 @@
+package top.galqq.utils;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 上下文窗口锚点
+ *
+ * 服务商的前缀缓存（DeepSeek、通义、OpenAI 等）要求请求开头的字节完全一致才能命中。
+ * 如果每来一条新消息就把窗口往后滑一条，上下文的第一条消息每次都不同，前缀永远命中不了。
+ *
+ * 这里为每个会话记住窗口起点（第一条消息的时间戳）：只要起点还在允许的范围内就保持不动，
+ * 新消息只追加在末尾；超出范围时一次性往后跳一段（约为窗口的1/3），
+ * 之后又能连续命中若干次。代价是窗口长度在 2/3 到满额之间波动。
+ */
+public final class ContextWindowAnchor {
+
+    // 窗口超限时一次跳过的比例
+    private static final int STEP_DIVISOR = 3;
+    // 最多记录的会话数
+    private static final int MAX_CONVERSATIONS = 100;
+
+    private static final Map<String, Long> anchors =
+        new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > MAX_CONVERSATIONS;
+            }
+        };
+
+    private ContextWindowAnchor() {}
+
+    /**
+     * 计算稳定的窗口起点
+     *
+     * @param conversationId 会话ID（为null时不做锚定）
+     * @param history 按时间顺序的消息（摘要消息不参与锚定）
+     * @param earliest 允许的最早起点下标（再往前就超出条数或token限制）
+     * @return 实际使用的起点下标，>= earliest
+     */
+    public static int resolveStart(String conversationId,
+                                   List<MessageContextManager.ChatMessage> history, int earliest) {
+        int size = history.size();
+        earliest = Math.max(0, earliest);
+        if (conversationId == null || earliest >= size) {
+            return earliest;
+        }
+
+        synchronized (anchors) {
+            Long anchor = anchors.get(conversationId);
+            if (anchor != null) {
+                for (int i = earliest; i < size; i++) {
+                    MessageContextManager.ChatMessage msg = history.get(i);
+                    if (!msg.isSummary && msg.timestamp == anchor) {
+                        // 起点仍在允许范围内，保持不动
+                        return i;
+                    }
+                }
+            }
+
+            // 锚点已滑出范围（或首次请求）：往后跳一段，给后续新消息留出追加空间
+            int start = earliest;
+            if (anchor != null) {
+                start = Math.min(size - 1, earliest + (size - earliest) / STEP_DIVISOR);
+            }
+            while (start < size - 1 && history.get(start).isSummary) {
+                start++;
+            }
+            anchors.put(conversationId, history.get(start).timestamp);
+            return start;
+        }
+    }
+
+    /**
+     * 按条数限制裁剪上下文，起点尽量保持稳定
+     *
+     * @param messages 按时间顺序的消息
+     * @param maxCount 最多保留的条数
+     */
+    public static List<MessageContextManager.ChatMessage> trimToCount(
+            String conversationId, List<MessageContextManager.ChatMessage> messages, int maxCount) {
+        if (messages == null || messages.isEmpty()) {
+            return messages;
+        }
+        int start = resolveStart(conversationId, messages, messages.size() - maxCount);
+        return start > 0 ? messages.subList(start, messages.size()) : messages;
+    }
+
+    public static void clearConversation(String conversationId) {
+        if (conversationId == null) return;
+        synchronized (anchors) {
+            anchors.remove(conversationId);
+        }
+    }
+
+    public static void clearAll() {
+        synchronized (anchors) {
+            anchors.clear();
+        }
+    }
+}
@@ -0,0 +1,298 @@
+package top.galqq.utils;
+
+import android.content.Context;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import de.robv.android.xposed.XposedBridge;
+import top.galqq.config.ConfigManager;
+
+/**
+ * 滚动对话摘要
+ *
+ * 会话历史较长时，把较早的消息折叠成一段摘要，请求只发送「摘要 + 最近几条原文」：
+ * - 摘要通过 AiRateLimitedQueue 以 LOW 优先级异步生成，不阻塞当前请求
+ * - 摘要是增量的：新消息进来后，滑出最近窗口的消息先以原文形式发送，
+ *   累计到 FOLD_BATCH 条再和旧摘要合并成新摘要
+ * - 如果加载到比摘要覆盖范围更早、且摘要里没有的消息（向上翻历史），摘要作废并重新生成；
+ *   日志恢复或内核刷新重新加入的、摘要里已经有的消息不会让摘要作废
+ * 摘要还没生成出来之前，保持原来的行为（直接发送最近N条原文）。
+ */
+public class ConversationSummaryManager {
+
+    private static final String TAG = "GalQQ.Summary";
+
+    // 始终以原文发送的最近消息数
+    private static final int KEEP_RECENT = 8;
+    // 历史超过这个数量才开始折叠
+    private static final int SUMMARY_TRIGGER = KEEP_RECENT + 6;
+    // 未折叠的消息累计到这个数量时刷新摘要
+    private static final int FOLD_BATCH = 6;
+    // 摘要生成超时（超时后允许重新提交）
+    private static final long GENERATE_TIMEOUT_MS = 120_000;
+    // 最多缓存的会话数
+    private static final int MAX_CONVERSATIONS = 100;
+    // 每个会话最多记住的已折叠消息ID数
+    private static final int MAX_COVERED_IDS = 1000;
+
+    private static final String SUMMARY_PROMPT =
+        "你是聊天记录整理助手。请把下面的聊天记录压缩成一段不超过200字的中文摘要，" +
+        "保留人物之间的关系、正在讨论的话题、提到的重要事实和情绪走向，不要编造内容。" +
+        "如果提供了【之前的摘要】，请把它和新的聊天记录合并成一段新的摘要。" +
+        "只输出摘要正文，不要输出标题、列表符号或其他说明。";
+
+    private static void debugLog(String message) {
+        try {
+            if (ConfigManager.isVerboseLogEnabled()) {
+                XposedBridge.log(TAG + ": " + message);
+            }
+        } catch (Throwable ignored) {}
+    }
+
+    /**
+     * 单个会话的摘要状态
+     */
+    private static class SummaryState {
+        String summary;             // 当前摘要，null 表示还没有
+        long coveredUntil;          // 摘要覆盖到的最后一条消息时间戳
+        int coveredCount;           // 摘要累计覆盖的消息数
+        long generatingSince;       // 正在生成时的提交时间，0 表示空闲
+        long pendingUntil;          // 正在生成的摘要将覆盖到的时间戳
+        int epoch;                  // 摘要作废时递增，用于丢弃过期的生成结果
+        final Set<String> coveredIds = new LinkedHashSet<>();  // 摘要已覆盖的消息ID
+        final Set<String> pendingIds = new LinkedHashSet<>();  // 正在生成的摘要将覆盖的消息ID
+    }
+
+    private static final Map<String, SummaryState> states =
+        new LinkedHashMap<String, SummaryState>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, SummaryState> eldest) {
+                return size() > MAX_CONVERSATIONS;
+            }
+        };
+
+    /**
+     * 用摘要替换较早的上下文
+     *
+     * @param context Android上下文（提交摘要请求用）
+     * @param conversationId 会话ID
+     * @param recentContext 按原逻辑取出的最近N条上下文（已去掉当前消息）
+     * @return 需要发送的上下文；有摘要时第一条是摘要消息
+     */
+    public static List<MessageContextManager.ChatMessage> applySummary(
+            Context context, String conversationId,
+            List<MessageContextManager.ChatMessage> recentContext) {
+        if (!ConfigManager.isContextSummaryEnabled() || conversationId == null
+                || recentContext == null || recentContext.isEmpty()) {
+            return recentContext;
+        }
+
+        try {
+            // 取出完整历史，截止到 recentContext 的最后一条（排除当前消息及之后的）
+            long lastTimestamp = recentContext.get(recentContext.size() - 1).timestamp;
+            List<MessageContextManager.ChatMessage> history = new ArrayList<>();
+            for (MessageContextManager.ChatMessage msg
+                    : MessageContextManager.getContext(conversationId, Integer.MAX_VALUE)) {
+                if (msg.timestamp <= lastTimestamp) {
+                    history.add(msg);
+                }
+            }
+            if (history.size() < SUMMARY_TRIGGER) {
+                return recentContext;
+            }
+
+            int recentCount = Math.min(KEEP_RECENT, recentContext.size());
+            int splitIndex = history.size() - recentCount;
+            List<MessageContextManager.ChatMessage> older = history.subList(0, splitIndex);
+            List<MessageContextManager.ChatMessage> recent = history.subList(splitIndex, history.size());
+
+            String summary;
+            long coveredUntil;
+            boolean generating;
+            synchronized (states) {
+                SummaryState state = states.get(conversationId);
+                if (state == null) {
+                    state = new SummaryState();
+                    states.put(conversationId, state);
+                }
+                summary = state.summary;
+                coveredUntil = state.coveredUntil;
+                generating = state.generatingSince > 0
+                        && System.currentTimeMillis() - state.generatingSince < GENERATE_TIMEOUT_MS;
+            }
+
+            // 摘要之后、最近窗口之前的消息（尚未折叠）
+            List<MessageContextManager.ChatMessage> unfolded = new ArrayList<>();
+            for (MessageContextManager.ChatMessage msg : older) {
+                if (summary == null || msg.timestamp > coveredUntil) {
+                    unfolded.add(msg);
+                }
+            }
+
+            if (!generating && (summary == null || unfolded.size() >= FOLD_BATCH)) {
+                scheduleFold(context, conversationId, summary, unfolded);
+            }
+
+            if (summary == null) {
+                return recentContext;
+            }
+
+            // 摘要 + 未折叠的原文（不超过原本的条数上限）+ 最近窗口
+            int rawBudget = Math.max(0, recentContext.size() - recent.size());
+            List<MessageContextManager.ChatMessage> result = new ArrayList<>();
+            result.add(MessageContextManager.ChatMessage.summary(summary, coveredUntil));
+            int from = Math.max(0, unfolded.size() - rawBudget);
+            result.addAll(unfolded.subList(from, unfolded.size()));
+            result.addAll(recent);
+            debugLog("会话 " + conversationId + " 使用摘要，原文 " + (result.size() - 1) + " 条，已折叠 "
+                    + older.size() + " 条中的 " + (older.size() - unfolded.size()) + " 条");
+            return result;
+        } catch (Throwable t) {
+            debugLog("应用摘要失败: " + t.getMessage());
+            return recentContext;
+        }
+    }
+
+    /**
+     * 新消息加入上下文时调用
+     * 如果这条消息比摘要覆盖的范围还早、且不是摘要里已有的消息（乱序加载的历史），摘要作废
+     *
+     * @param msgId 消息ID，为 null 时无法判断是否已被摘要覆盖，按时间戳处理
+     */
+    public static void onMessageAdded(String conversationId, String msgId, long timestamp) {
+        if (conversationId == null) return;
+        synchronized (states) {
+            SummaryState state = states.get(conversationId);
+            if (state == null) return;
+            boolean beforeSummary = state.summary != null && timestamp <= state.coveredUntil
+                    && (msgId == null || !state.coveredIds.contains(msgId));
+            boolean beforePending = state.generatingSince > 0 && timestamp <= state.pendingUntil
+                    && (msgId == null || !state.pendingIds.contains(msgId));
+            if (beforeSummary || beforePending) {
+                state.summary = null;
+                state.coveredUntil = 0;
+                state.coveredCount = 0;
+                state.coveredIds.clear();
+                state.epoch++;
+                debugLog("会话 " + conversationId + " 收到更早的历史消息，摘要作废");
+            }
+        }
+    }
+
+    /**
+     * 清除指定会话的摘要
+     */
+    public static void clearConversation(String conversationId) {
+        if (conversationId == null) return;
+        synchronized (states) {
+            states.remove(conversationId);
+        }
+    }
+
+    /**
+     * 清除所有摘要
+     */
+    public static void clearAll() {
+        synchronized (states) {
+            states.clear();
+        }
+    }
+
+    /**
+     * 提交摘要任务：把旧摘要和新折叠的消息合并成新摘要
+     */
+    private static void scheduleFold(Context context, String conversationId, String previousSummary,
+                                     List<MessageContextManager.ChatMessage> toFold) {
+        if (context == null || toFold.isEmpty()) return;
+
+        final long foldUntil = toFold.get(toFold.size() - 1).timestamp;
+        final int foldCount = toFold.size();
+        String transcript = buildTranscript(previousSummary, toFold);
+
+        final int epoch;
+        synchronized (states) {
+            SummaryState state = states.get(conversationId);
+            if (state == null) return;
+            state.generatingSince = System.currentTimeMillis();
+            state.pendingUntil = foldUntil;
+            state.pendingIds.clear();
+            for (MessageContextManager.ChatMessage msg : toFold) {
+                if (msg.msgId != null) {
+                    state.pendingIds.add(msg.msgId);
+                }
+            }
+            epoch = state.epoch;
+        }
+        debugLog("提交摘要任务: " + conversationId + "，折叠 " + foldCount + " 条");
+
+        AiRateLimitedQueue.getInstance(context).submitSummaryRequest(context, conversationId,
+            SUMMARY_PROMPT, transcript, new HttpAiClient.AiCallback() {
+                @Override
+                public void onSuccess(List<String> result) {
+                    synchronized (states) {
+                        SummaryState state = states.get(conversationId);
+                        if (state == null) return;
+                        state.generatingSince = 0;
+                        // 生成期间摘要被作废，丢弃本次结果
+                        if (state.epoch != epoch) return;
+                        state.summary = result.get(0);
+                        state.coveredUntil = foldUntil;
+                        state.coveredCount += foldCount;
+                        state.coveredIds.addAll(state.pendingIds);
+                        trimCoveredIds(state.coveredIds);
+                    }
+                    debugLog("摘要已更新: " + conversationId + "，累计覆盖 " + foldCount + " 条新消息");
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    synchronized (states) {
+                        SummaryState state = states.get(conversationId);
+                        if (state != null) {
+                            state.generatingSince = 0;
+                        }
+                    }
+                    debugLog("摘要生成失败: " + e.getMessage());
+                }
+            });
+    }
+
+    /**
+     * 只保留最近折叠的 MAX_COVERED_IDS 个消息ID（LinkedHashSet 按加入顺序，先丢最早的）
+     */
+    private static void trimCoveredIds(Set<String> ids) {
+        Iterator<String> it = ids.iterator();
+        while (ids.size() > MAX_COVERED_IDS && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    private static String buildTranscript(String previousSummary,
+                                          List<MessageContextManager.ChatMessage> messages) {
+        SimpleDateFormat timeFormat = new SimpleDateFormat("MM-dd HH:mm", Locale.getDefault());
+        StringBuilder sb = new StringBuilder();
+        if (previousSummary != null && !previousSummary.isEmpty()) {
+            sb.append("【之前的摘要】\n").append(previousSummary).append("\n\n");
+        }
+        sb.append("【聊天记录】\n");
+        for (MessageContextManager.ChatMessage msg : messages) {
+            sb.append('[').append(timeFormat.format(new Date(msg.timestamp))).append("] ")
+              .append(msg.senderName);
+            if (msg.isSelf) {
+                sb.append("[我]");
+            }
+            sb.append(": ").append(msg.content).append('\n');
+        }
+        return sb.toString();
+    }
+}
@@ -21,6 +21,9 @@ import top.galqq.hook.CookieHookManager;
  * 1. 内存缓存（通过Hook获取）
  * 2. SQLite数据库
  * 3. WebView CookieManager
+ *
+ * 解析结果合并为一个带有效期的 {@link Credential} 缓存；Cookie 数据库路径按账号记住，
+ * 数据库文件未变化时不会重新打开。
  */
 public class CookieHelper {
 
@@ -66,12 +69,140 @@ public class CookieHelper {
     // 调试开关：禁用SQLite兜底方案
     private static final boolean DISABLE_SQLITE_FALLBACK = false;
     
+    // 凭据缓存有效期（成功 / 失败）
+    private static final long CREDENTIAL_TTL_MS = 5 * 60 * 1000;
+    private static final long CREDENTIAL_FAILED_TTL_MS = 30 * 1000;
+    // 找不到 Cookie 数据库后，多久内不再重新搜索
+    private static final long DB_SEARCH_RETRY_MS = 10 * 60 * 1000;
+    // 持久化的数据库路径（后接账号）
+    private static final String KEY_DB_PATH_PREFIX = "cookie_db_path_";
+
+    /**
+     * 合并后的凭据：内存Hook / SQLite / WebView 任一来源得到的 Cookie 字符串及其解析结果
+     * 在有效期内且 Hook 缓存没有更新时直接复用，不再触发 TicketManager 或读取数据库
+     */
+    public static final class Credential {
+        public final String cookies;
+        public final CookieSource source;
+        public final long createdAt;
+        public final long expiresAt;
+        // 生成时 CookieHookManager 中的值，Hook 拿到新值后凭据自动失效
+        // （不用更新时间比较：getCurrentAccountUin 每次调用都会刷新时间）
+        private final String hookSkey;
+        private final String hookPSkey;
+        private final String hookUin;
+        private final Map<String, String> values = new HashMap<>();
+
+        Credential(String cookies, CookieSource source, long ttlMs) {
+            this.cookies = cookies != null ? cookies : "";
+            this.source = source;
+            this.createdAt = System.currentTimeMillis();
+            this.expiresAt = createdAt + ttlMs;
+            this.hookSkey = CookieHookManager.getCachedSkey();
+            this.hookPSkey = CookieHookManager.getCachedPSkey();
+            this.hookUin = CookieHookManager.getCachedUin();
+            for (String pair : this.cookies.split(";")) {
+                String[] kv = pair.trim().split("=", 2);
+                if (kv.length == 2 && !values.containsKey(kv[0].trim())) {
+                    values.put(kv[0].trim(), kv[1].trim());
+                }
+            }
+        }
+
+        public String get(String name) {
+            String value = values.get(name);
+            return value != null && !value.isEmpty() ? value : null;
+        }
+
+        /**
+         * 是否包含 skey / p_skey / uin
+         */
+        public boolean isComplete() {
+            return get("skey") != null && get("p_skey") != null
+                && (get("uin") != null || get("p_uin") != null);
+        }
+
+        boolean isFresh() {
+            return System.currentTimeMillis() < expiresAt
+                && equals(hookSkey, CookieHookManager.getCachedSkey())
+                && equals(hookPSkey, CookieHookManager.getCachedPSkey())
+                && equals(hookUin, CookieHookManager.getCachedUin());
+        }
+
+        private static boolean equals(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    private static volatile Credential sCredential;
+    private static final Object sCredentialLock = new Object();
+
+    /**
+     * SQLite 读取快照：数据库文件（含 -wal）的修改时间和大小不变时直接复用上次结果
+     */
+    private static final class SqliteSnapshot {
+        final String path;
+        final long signature;
+        final String cookies;
+
+        SqliteSnapshot(String path, long signature, String cookies) {
+            this.path = path;
+            this.signature = signature;
+            this.cookies = cookies;
+        }
+    }
+
+    private static volatile SqliteSnapshot sSqliteSnapshot;
+
+    // 账号 -> Cookie 数据库
+    private static final Map<String, File> sDbPathCache = new HashMap<>();
+    // 账号 -> 下次允许重新搜索的时间
+    private static final Map<String, Long> sDbMissUntil = new HashMap<>();
+
     /**
      * 获取所有需要的 Cookie 字符串
      * @param context 上下文
      * @return Cookie 字符串，格式如 "uin=xxx; skey=xxx; p_uin=xxx; p_skey=xxx"
      */
     public static String getCookies(Context context) {
+        return getCredential(context).cookies;
+    }
+
+    /**
+     * 获取合并后的凭据（有效期内直接返回缓存）
+     */
+    public static Credential getCredential(Context context) {
+        Credential credential = sCredential;
+        if (credential != null && credential.isFresh()) {
+            sLastSource = credential.source;
+            return credential;
+        }
+        synchronized (sCredentialLock) {
+            credential = sCredential;
+            if (credential != null && credential.isFresh()) {
+                sLastSource = credential.source;
+                return credential;
+            }
+            String cookies = resolveCookies(context);
+            boolean ok = cookies != null && !cookies.isEmpty() && sLastSource != CookieSource.FAILED;
+            credential = new Credential(cookies, sLastSource, ok ? CREDENTIAL_TTL_MS : CREDENTIAL_FAILED_TTL_MS);
+            sCredential = credential;
+            return credential;
+        }
+    }
+
+    /**
+     * 丢弃缓存的凭据，下次获取时重新解析（例如请求返回未登录时）
+     */
+    public static void invalidateCredential() {
+        sCredential = null;
+        sSqliteSnapshot = null;
+    }
+
+    /**
+     * 依次尝试各个来源解析 Cookie
+     */
+    private static String resolveCookies(Context context) {
         // 打印当前内存缓存状态（调试用）
         debugLog(TAG + ": ========== Cookie获取开始 ==========");
         debugLog(TAG + ": [DEBUG] 内存缓存状态:");
@@ -560,6 +691,31 @@ public class CookieHelper {
             return null;
         }
         
+        // 文件没有变化时复用上次读取的结果
+        String path = dbFile.getAbsolutePath();
+        long signature = fileSignature(dbFile);
+        SqliteSnapshot snapshot = sSqliteSnapshot;
+        if (snapshot != null && snapshot.path.equals(path) && snapshot.signature == signature) {
+            debugLog(TAG + ": Cookie 数据库未变化，复用上次结果");
+            return snapshot.cookies;
+        }
+        String cookies = readCookiesFromSqlite(dbFile);
+        sSqliteSnapshot = new SqliteSnapshot(path, signature, cookies);
+        return cookies;
+    }
+    
+    /**
+     * 数据库文件及其 -wal 文件的修改时间和大小
+     */
+    private static long fileSignature(File dbFile) {
+        File wal = new File(dbFile.getPath() + "-wal");
+        long sig = dbFile.lastModified() * 31 + dbFile.length();
+        sig = sig * 31 + wal.lastModified();
+        sig = sig * 31 + wal.length();
+        return sig;
+    }
+    
+    private static String readCookiesFromSqlite(File dbFile) {
         debugLog(TAG + ": 尝试读取 Cookie 数据库: " + dbFile.getAbsolutePath());
         
         SQLiteDatabase db = null;
@@ -679,6 +835,57 @@ public class CookieHelper {
      * @return 数据库文件，如果未找到返回 null
      */
     private static File findCookieDatabase(Context context) {
+        String account = CookieHookManager.getCachedUin();
+        if (account == null || account.isEmpty()) {
+            account = "default";
+        }
+        long now = System.currentTimeMillis();
+        synchronized (sDbPathCache) {
+            File cached = sDbPathCache.get(account);
+            if (cached != null && cached.isFile()) {
+                return cached;
+            }
+            Long missUntil = sDbMissUntil.get(account);
+            if (missUntil != null && now < missUntil) {
+                return null;
+            }
+        }
+        
+        // 上次进程记录的路径仍然存在就直接用，避免重新搜索
+        File found = null;
+        try {
+            String saved = top.galqq.config.ConfigManager.getString(KEY_DB_PATH_PREFIX + account, null);
+            if (saved != null && new File(saved).isFile()) {
+                found = new File(saved);
+            }
+        } catch (Throwable ignored) {
+            // ConfigManager 未初始化时忽略
+        }
+        if (found == null) {
+            found = locateCookieDatabase(context);
+            if (found != null) {
+                try {
+                    top.galqq.config.ConfigManager.putString(KEY_DB_PATH_PREFIX + account, found.getAbsolutePath());
+                } catch (Throwable ignored) {
+                }
+            }
+        }
+        
+        synchronized (sDbPathCache) {
+            if (found != null) {
+                sDbPathCache.put(account, found);
+                sDbMissUntil.remove(account);
+            } else {
+                sDbMissUntil.put(account, now + DB_SEARCH_RETRY_MS);
+            }
+        }
+        return found;
+    }
+    
+    /**
+     * 按已知路径和目录搜索定位 Cookie 数据库（较慢，结果由 findCookieDatabase 缓存）
+     */
+    private static File locateCookieDatabase(Context context) {
         String dataDir = context.getApplicationInfo().dataDir;
         debugLog(TAG + ": 应用数据目录: " + dataDir);
         
@@ -853,6 +1060,15 @@ public class CookieHelper {
                 }
             }
             
+            // 有效期内的合并凭据
+            Credential credential = sCredential;
+            if (credential != null && credential.isFresh()) {
+                String value = credential.get(name);
+                if (value != null) {
+                    return value;
+                }
+            }
+            
             // 尝试通过 QQ 的 CookieManager 获取
             ClassLoader classLoader = context.getClassLoader();
             
@@ -961,9 +1177,10 @@ public class CookieHelper {
     public static boolean isCookiesAvailable(Context context) {
         debugLog(TAG + ": ========== Cookie 可用性检查 ==========");
         
-        String cookies = getCookies(context);
+        Credential credential = getCredential(context);
+        String cookies = credential.cookies;
         
-        if (cookies == null || cookies.isEmpty()) {
+        if (cookies.isEmpty()) {
             debugLog(TAG + ": Cookie 字符串为空");
             debugLog(TAG + ": =======================================");
             return false;
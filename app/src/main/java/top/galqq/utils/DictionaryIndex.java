@@ -0,0 +1,362 @@
+package top.galqq.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 紧凑存储 + 倒排索引的词库
+ *
+ * 存储：所有行首尾相接放在一个 char[] 里，lineStart[i] ~ lineStart[i+1] 是第 i 行，
+ * 不为每一行创建 String 对象，10万行的词库也只有两个大数组。
+ *
+ * 索引：每行按相邻两字（只取字母/数字，英文转小写）切出二元组作为关键词，
+ * 用 CSR 格式存储（termStart[t] ~ termStart[t+1] 是关键词 t 在 postings 中的行号区间）。
+ * 出现在太多行里的关键词（如"哈哈"）区分度太低，不进入倒排表。
+ *
+ * 检索：当前消息的关键词按 idf 累加得分，得分最高的行优先；得分相同时随机，
+ * 一个关键词都没有命中时退化为随机抽取。
+ */
+public final class DictionaryIndex {
+
+    // 关键词出现在超过这个比例的行中时不建索引
+    private static final float MAX_DF_RATIO = 0.2f;
+    // 行数很少时不做上面的剔除
+    private static final int MIN_DF_CAP = 50;
+
+    private final char[] chars;
+    private final int[] lineStart;
+    private final int lineCount;
+
+    private final IntIntMap termIds;
+    private final int[] termStart;
+    private final int[] postings;
+    private final float[] idf;
+
+    // 检索用的临时数组，受 this 锁保护
+    private final float[] scratchScores;
+    private final int[] scratchTouched;
+
+    public static final class Hit {
+        public final String text;
+        /** 命中的关键词权重占查询总权重的比例，0~1 */
+        public final float score;
+
+        Hit(String text, float score) {
+            this.text = text;
+            this.score = score;
+        }
+    }
+
+    private DictionaryIndex(char[] chars, int[] lineStart, int lineCount) {
+        this.chars = chars;
+        this.lineStart = lineStart;
+        this.lineCount = lineCount;
+
+        // 第一遍：给关键词编号并统计每个关键词出现的行数
+        termIds = new IntIntMap(Math.max(16, lineCount * 4));
+        int[] df = new int[64];
+        int[] terms = new int[64];
+        for (int line = 0; line < lineCount; line++) {
+            terms = lineTerms(line, terms);
+            int n = terms[terms.length - 1];
+            for (int i = 0; i < n; i++) {
+                int id = termIds.get(terms[i], -1);
+                if (id < 0) {
+                    id = termIds.size();
+                    termIds.put(terms[i], id);
+                    if (id >= df.length) df = Arrays.copyOf(df, df.length * 2);
+                }
+                df[id]++;
+            }
+        }
+
+        // 第二遍：按关键词填充行号
+        int termCount = termIds.size();
+        int dfCap = Math.max(MIN_DF_CAP, (int) (lineCount * MAX_DF_RATIO));
+        termStart = new int[termCount + 1];
+        idf = new float[termCount];
+        for (int t = 0; t < termCount; t++) {
+            idf[t] = (float) Math.log(1.0 + (double) lineCount / df[t]);
+            termStart[t + 1] = termStart[t] + (df[t] <= dfCap ? df[t] : 0);
+        }
+        postings = new int[termStart[termCount]];
+        int[] fill = Arrays.copyOf(termStart, termCount);
+        for (int line = 0; line < lineCount; line++) {
+            terms = lineTerms(line, terms);
+            int n = terms[terms.length - 1];
+            for (int i = 0; i < n; i++) {
+                int t = termIds.get(terms[i], -1);
+                if (fill[t] < termStart[t + 1]) {
+                    postings[fill[t]++] = line;
+                }
+            }
+        }
+
+        scratchScores = new float[lineCount];
+        scratchTouched = new int[lineCount];
+    }
+
+    /**
+     * 从文本流构建：每行去掉首尾空白，跳过空行
+     */
+    public static DictionaryIndex build(Reader reader) throws IOException {
+        char[] buf = new char[64 * 1024];
+        int length = 0;
+        int read;
+        while ((read = reader.read(buf, length, buf.length - length)) != -1) {
+            length += read;
+            if (length == buf.length) {
+                buf = Arrays.copyOf(buf, buf.length * 2);
+            }
+        }
+
+        // 原地压缩：把去掉空白的行依次挪到缓冲区前部
+        int[] starts = new int[1024];
+        int lineCount = 0;
+        int write = 0;
+        int pos = 0;
+        while (pos < length) {
+            int end = pos;
+            while (end < length && buf[end] != '\n') end++;
+            int s = pos;
+            int e = end;
+            while (s < e && isBlank(buf[s])) s++;
+            while (e > s && isBlank(buf[e - 1])) e--;
+            if (e > s) {
+                if (lineCount + 1 >= starts.length) starts = Arrays.copyOf(starts, starts.length * 2);
+                starts[lineCount++] = write;
+                System.arraycopy(buf, s, buf, write, e - s);
+                write += e - s;
+            }
+            pos = end + 1;
+        }
+        starts[lineCount] = write;
+        return new DictionaryIndex(Arrays.copyOf(buf, write), Arrays.copyOf(starts, lineCount + 1), lineCount);
+    }
+
+    public int size() {
+        return lineCount;
+    }
+
+    public boolean isEmpty() {
+        return lineCount == 0;
+    }
+
+    public String line(int index) {
+        return new String(chars, lineStart[index], lineStart[index + 1] - lineStart[index]);
+    }
+
+    /**
+     * 检索与消息最相关的行
+     *
+     * @return 按得分从高到低，最多 limit 条；只包含至少命中一个关键词的行
+     */
+    public List<Hit> search(String message, int limit, Random random) {
+        if (lineCount == 0 || limit <= 0 || message == null) {
+            return Collections.emptyList();
+        }
+        int[] queryTerms = textTerms(message, 0, message.length(), new int[16]);
+        int n = queryTerms[queryTerms.length - 1];
+        if (n == 0) {
+            return Collections.emptyList();
+        }
+
+        int[] topLines = new int[limit];
+        float[] topScores = new float[limit];
+        float[] topTies = new float[limit];
+        int topCount = 0;
+
+        synchronized (this) {
+            float totalWeight = 0;
+            int touched = 0;
+            for (int i = 0; i < n; i++) {
+                int t = termIds.get(queryTerms[i], -1);
+                if (t < 0) continue;
+                float w = idf[t];
+                totalWeight += w;
+                for (int p = termStart[t]; p < termStart[t + 1]; p++) {
+                    int line = postings[p];
+                    if (scratchScores[line] == 0) {
+                        scratchTouched[touched++] = line;
+                    }
+                    scratchScores[line] += w;
+                }
+            }
+
+            // 选出前 limit 个：得分高的优先，得分相同时比较随机数
+            for (int i = 0; i < touched; i++) {
+                int line = scratchTouched[i];
+                float score = scratchScores[line] / totalWeight;
+                scratchScores[line] = 0;
+                float tie = random.nextFloat();
+                int pos = topCount;
+                while (pos > 0 && (score > topScores[pos - 1]
+                        || (score == topScores[pos - 1] && tie > topTies[pos - 1]))) {
+                    pos--;
+                }
+                if (pos >= limit) continue;
+                int move = Math.min(topCount, limit - 1) - pos;
+                System.arraycopy(topLines, pos, topLines, pos + 1, move);
+                System.arraycopy(topScores, pos, topScores, pos + 1, move);
+                System.arraycopy(topTies, pos, topTies, pos + 1, move);
+                topLines[pos] = line;
+                topScores[pos] = score;
+                topTies[pos] = tie;
+                if (topCount < limit) topCount++;
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(topCount);
+        for (int i = 0; i < topCount; i++) {
+            hits.add(new Hit(line(topLines[i]), topScores[i]));
+        }
+        return hits;
+    }
+
+    /**
+     * 随机抽取不重复的行（行数不足时重复抽取补齐）
+     *
+     * @param exclude 已经选中的行，不再抽取（可为null）
+     */
+    public List<String> randomLines(int count, Random random, List<String> exclude) {
+        List<String> result = new ArrayList<>(count);
+        if (lineCount == 0 || count <= 0) return result;
+
+        int[] picked = new int[count];
+        int pickedCount = 0;
+        int attempts = 0;
+        while (result.size() < count && attempts++ < count * 8) {
+            int index = random.nextInt(lineCount);
+            boolean dup = false;
+            for (int i = 0; i < pickedCount; i++) {
+                if (picked[i] == index) {
+                    dup = true;
+                    break;
+                }
+            }
+            if (dup && lineCount > count) continue;
+            String text = line(index);
+            if (exclude != null && exclude.contains(text) && lineCount > count) continue;
+            picked[pickedCount++] = index;
+            result.add(text);
+        }
+        return result;
+    }
+
+    // ========== 关键词 ==========
+
+    private int[] lineTerms(int line, int[] out) {
+        return textTerms(chars, lineStart[line], lineStart[line + 1], out);
+    }
+
+    private static int[] textTerms(String text, int start, int end, int[] out) {
+        return textTerms(text.toCharArray(), start, end, out);
+    }
+
+    /**
+     * 提取 [start, end) 中去重后的二元组，结果写入 out，数量存放在 out 的最后一格
+     * （容量不够时返回扩容后的新数组）
+     */
+    private static int[] textTerms(char[] text, int start, int end, int[] out) {
+        int n = 0;
+        char prev = 0;
+        for (int i = start; i < end; i++) {
+            char c = text[i];
+            if (!Character.isLetterOrDigit(c)) {
+                prev = 0;
+                continue;
+            }
+            c = Character.toLowerCase(c);
+            if (prev != 0) {
+                if (n + 1 >= out.length) out = Arrays.copyOf(out, out.length * 2);
+                out[n++] = (prev << 16) | c;
+            }
+            prev = c;
+        }
+        // 行很短，排序去重比哈希集合省事
+        Arrays.sort(out, 0, n);
+        int unique = 0;
+        for (int i = 0; i < n; i++) {
+            if (unique == 0 || out[unique - 1] != out[i]) {
+                out[unique++] = out[i];
+            }
+        }
+        out[out.length - 1] = unique;
+        return out;
+    }
+
+    private static boolean isBlank(char c) {
+        return c == ' ' || c == '\t' || c == '\r' || c == '\u3000' || c == '\uFEFF';
+    }
+
+    /**
+     * int -> int 开放寻址哈希表（只增不删）
+     */
+    private static final class IntIntMap {
+        private int[] keys;
+        private int[] values;
+        private boolean[] used;
+        private int size;
+
+        IntIntMap(int expectedSize) {
+            int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+            keys = new int[capacity];
+            values = new int[capacity];
+            used = new boolean[capacity];
+        }
+
+        int size() {
+            return size;
+        }
+
+        int get(int key, int defaultValue) {
+            int mask = keys.length - 1;
+            int idx = mix(key) & mask;
+            while (used[idx]) {
+                if (keys[idx] == key) return values[idx];
+                idx = (idx + 1) & mask;
+            }
+            return defaultValue;
+        }
+
+        void put(int key, int value) {
+            if ((size + 1) * 4 > keys.length * 3) {
+                rehash(keys.length << 1);
+            }
+            int mask = keys.length - 1;
+            int idx = mix(key) & mask;
+            while (used[idx] && keys[idx] != key) {
+                idx = (idx + 1) & mask;
+            }
+            if (!used[idx]) {
+                used[idx] = true;
+                keys[idx] = key;
+                size++;
+            }
+            values[idx] = value;
+        }
+
+        private void rehash(int capacity) {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            boolean[] oldUsed = used;
+            keys = new int[capacity];
+            values = new int[capacity];
+            used = new boolean[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldUsed[i]) put(oldKeys[i], oldValues[i]);
+            }
+        }
+
+        private static int mix(int key) {
+            int h = key * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -1,78 +1,228 @@
 package top.galqq.utils;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
+import java.io.FileInputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.security.SecureRandom;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import de.robv.android.xposed.XposedBridge;
 import top.galqq.config.ConfigManager;
 
+/**
+ * 本地词库
+ *
+ * 词库在后台线程加载并建立索引（{@link DictionaryIndex}），调用方不会被文件读取阻塞：
+ * - 词库来源（自定义文件的路径/大小/修改时间，或内置 assets）没变时不重复加载
+ * - 选项优先取和当前消息关键词最相关的行，关键词没有命中时才随机抽取
+ */
 public class DictionaryManager {
 
-    private static final List<String> sCache = new ArrayList<>();
+    private static final String TAG = "GalQQ.Dictionary";
+
+    private static void debugLog(String message) {
+        try {
+            if (ConfigManager.isVerboseLogEnabled()) {
+                XposedBridge.log(TAG + ": " + message);
+            }
+        } catch (Throwable ignored) {}
+    }
+
+    private static final String ASSET_NAME = "gal_dict.txt";
+    // 检查自定义词库文件是否变化的最小间隔
+    private static final long SOURCE_CHECK_INTERVAL_MS = 5000;
+
     private static final SecureRandom sRandom = new SecureRandom();
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final ExecutorService sLoader = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "GalQQ-Dictionary");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 当前词库及其来源标识
+    private static volatile DictionaryIndex sIndex;
+    private static volatile String sSource;
+    // 以下受 DictionaryManager.class 锁保护
+    private static long sLastSourceCheck = 0;
+    private static boolean sLoading = false;
+    private static final List<Runnable> sWaiters = new ArrayList<>();
 
+    public interface OptionsCallback {
+        void onOptions(List<String> options);
+    }
+
+    /**
+     * 确保词库已加载（异步，立即返回）；自定义词库文件变化后会重新加载
+     */
     public static void loadDictionary(Context context) {
-        sCache.clear();
-        String customPath = ConfigManager.getDictPath();
-        
-        // Try loading from custom path
-        if (!TextUtils.isEmpty(customPath)) {
-            File file = new File(customPath);
-            if (file.exists() && file.canRead()) {
-                try (BufferedReader br = new BufferedReader(new FileReader(file))) {
-                    String line;
-                    while ((line = br.readLine()) != null) {
-                        if (!line.trim().isEmpty()) {
-                            sCache.add(line.trim());
-                        }
-                    }
-                } catch (Exception e) {
-                    e.printStackTrace();
-                }
-            }
+        ensureLoaded(context, null);
+    }
+
+    /**
+     * 为消息挑选选项：优先关键词相关的行，不足时随机补齐
+     * 词库已加载时在当前线程直接回调；否则加载完成后在主线程回调
+     */
+    public static void pickOptions(Context context, String message, int count, OptionsCallback callback) {
+        boolean ready = ensureLoaded(context, () -> sMainHandler.post(
+                () -> callback.onOptions(pickOptions(message, count))));
+        if (ready) {
+            callback.onOptions(pickOptions(message, count));
         }
+    }
 
-        // Fallback to assets if cache is empty
-        if (sCache.isEmpty()) {
-            try (BufferedReader br = new BufferedReader(new InputStreamReader(context.getAssets().open("gal_dict.txt")))) {
-                String line;
-                while ((line = br.readLine()) != null) {
-                    if (!line.trim().isEmpty()) {
-                        sCache.add(line.trim());
-                    }
-                }
-            } catch (Exception e) {
-                e.printStackTrace();
-            }
+    /**
+     * 在已加载的词库中挑选选项（未加载时返回空列表）
+     */
+    public static List<String> pickOptions(String message, int count) {
+        DictionaryIndex index = sIndex;
+        if (index == null || index.isEmpty() || count <= 0) {
+            return new ArrayList<>();
         }
+        List<String> result = new ArrayList<>(count);
+        for (DictionaryIndex.Hit hit : index.search(message, count, sRandom)) {
+            result.add(hit.text);
+        }
+        if (result.size() < count) {
+            result.addAll(index.randomLines(count - result.size(), sRandom, result));
+        }
+        return result;
+    }
+
+    /**
+     * 在已加载的词库中检索相关行（未加载时返回空列表）
+     */
+    public static List<DictionaryIndex.Hit> search(String message, int limit) {
+        DictionaryIndex index = sIndex;
+        if (index == null) return Collections.emptyList();
+        return index.search(message, limit, sRandom);
+    }
+
+    /**
+     * 等待词库加载完成（只能在后台线程调用）
+     * @return 词库是否可用
+     */
+    public static boolean awaitLoaded(Context context, long timeoutMs) {
+        java.util.concurrent.CountDownLatch latch = new java.util.concurrent.CountDownLatch(1);
+        if (ensureLoaded(context, latch::countDown)) {
+            return true;
+        }
+        try {
+            latch.await(timeoutMs, java.util.concurrent.TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return sIndex != null;
+    }
+
+    /**
+     * 当前词库（未加载时为null）
+     */
+    public static DictionaryIndex getIndex() {
+        return sIndex;
     }
 
     public static List<String> pickRandomLines(int count) {
-        List<String> result = new ArrayList<>();
-        if (sCache.isEmpty()) return result;
-
-        if (sCache.size() <= count) {
-            result.addAll(sCache);
-            // Fill remaining if needed by repeating
-            while (result.size() < count) {
-                result.add(sCache.get(sRandom.nextInt(sCache.size())));
+        DictionaryIndex index = sIndex;
+        if (index == null) return new ArrayList<>();
+        return index.randomLines(count, sRandom, null);
+    }
+
+    /**
+     * @param onReady 需要加载时，加载完成后执行（可为null）
+     * @return 当前词库是否已经可用（为true时 onReady 不会被执行）
+     */
+    private static boolean ensureLoaded(Context context, Runnable onReady) {
+        final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        synchronized (DictionaryManager.class) {
+            long now = System.currentTimeMillis();
+            boolean loaded = sIndex != null;
+            if (!sLoading && (!loaded || now - sLastSourceCheck >= SOURCE_CHECK_INTERVAL_MS)) {
+                sLastSourceCheck = now;
+                sLoading = true;
+                sLoader.execute(() -> reloadIfChanged(appContext));
+            }
+            if (loaded) {
+                return true;
             }
-            return result;
+            if (onReady != null) {
+                sWaiters.add(onReady);
+            }
+            return false;
         }
+    }
+
+    /**
+     * 在加载线程上执行：来源没变时什么都不做
+     */
+    private static void reloadIfChanged(Context context) {
+        try {
+            String customPath = ConfigManager.getDictPath();
+            String source = null;
+            File file = null;
+            if (!TextUtils.isEmpty(customPath)) {
+                file = new File(customPath);
+                if (file.exists() && file.canRead()) {
+                    source = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+                } else {
+                    file = null;
+                }
+            }
+            if (source == null) {
+                source = "asset:" + ASSET_NAME;
+            }
+            if (source.equals(sSource) && sIndex != null) {
+                return;
+            }
 
-        List<Integer> indices = new ArrayList<>();
-        while (result.size() < count) {
-            int index = sRandom.nextInt(sCache.size());
-            if (!indices.contains(index)) {
-                indices.add(index);
-                result.add(sCache.get(index));
+            long start = System.currentTimeMillis();
+            DictionaryIndex index = null;
+            if (file != null) {
+                index = read(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8));
+            }
+            // 自定义词库为空或读取失败时使用内置词库
+            if (index == null || index.isEmpty()) {
+                source = "asset:" + ASSET_NAME;
+                if (source.equals(sSource) && sIndex != null) {
+                    return;
+                }
+                index = read(new InputStreamReader(context.getAssets().open(ASSET_NAME), StandardCharsets.UTF_8));
+            }
+            if (index != null) {
+                sIndex = index;
+                sSource = source;
+                debugLog("词库已加载: " + index.size() + " 行，耗时 " + (System.currentTimeMillis() - start) + "ms");
+            }
+        } catch (Throwable t) {
+            debugLog("加载词库失败: " + t.getMessage());
+        } finally {
+            List<Runnable> waiters;
+            synchronized (DictionaryManager.class) {
+                sLoading = false;
+                waiters = new ArrayList<>(sWaiters);
+                sWaiters.clear();
+            }
+            for (Runnable waiter : waiters) {
+                waiter.run();
             }
         }
-        return result;
+    }
+
+    private static DictionaryIndex read(Reader reader) {
+        try (Reader r = reader) {
+            return DictionaryIndex.build(r);
+        } catch (Throwable t) {
+            debugLog("读取词库失败: " + t.getMessage());
+            return null;
+        }
     }
 }
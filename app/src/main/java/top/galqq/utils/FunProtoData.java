@@ -71,15 +71,21 @@ public class FunProtoData {
                     putValue(fieldNumber, in.readInt64());
                     break;
                 case 1:
-                    putValue(fieldNumber, in.readRawVarint64());
+                    // fixed64，和 ProtoView 的结构检查保持一致
+                    putValue(fieldNumber, in.readFixed64());
                     break;
                 case 2:
                     byte[] subBytes = in.readByteArray();
-                    try {
-                        FunProtoData sub_data = new FunProtoData();
-                        sub_data.fromBytes(subBytes);
-                        putValue(fieldNumber, sub_data);
-                    } catch (Exception e) {
+                    // 先做一次结构检查，明显不是消息的直接按字符串处理，省掉异常开销
+                    if (ProtoView.of(subBytes).isWellFormed()) {
+                        try {
+                            FunProtoData sub_data = new FunProtoData();
+                            sub_data.fromBytes(subBytes);
+                            putValue(fieldNumber, sub_data);
+                        } catch (Exception e) {
+                            putValue(fieldNumber, new String(subBytes));
+                        }
+                    } else {
                         putValue(fieldNumber, new String(subBytes));
                     }
                     break;
@@ -3,14 +3,17 @@ package top.galqq.utils;
 import android.content.Context;
 import android.os.Handler;
 import android.os.Looper;
-import android.text.TextUtils;
 import android.util.Log;
 import android.widget.Toast;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import okhttp3.Authenticator;
 import okhttp3.Call;
@@ -24,6 +27,7 @@ import okhttp3.Response;
 import okhttp3.Route;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.net.InetSocketAddress;
@@ -66,6 +70,7 @@ public class HttpAiClient {
         // 不使用代理的客户端
         if (client == null) {
             client = new OkHttpClient.Builder()
+                    .dispatcher(AdaptiveConcurrencyLimiter.newDispatcher())
                     .connectTimeout(timeout, TimeUnit.SECONDS)
                     .readTimeout(timeout * 2, TimeUnit.SECONDS)  // 读取超时设为2倍，给AI足够的响应时间
                     .writeTimeout(timeout, TimeUnit.SECONDS)
@@ -104,6 +109,7 @@ public class HttpAiClient {
         // 代理模式下连接超时增加5秒余量
         OkHttpClient.Builder builder = new OkHttpClient.Builder()
                 .proxy(proxy)
+                .dispatcher(AdaptiveConcurrencyLimiter.newDispatcher())
                 .connectTimeout(timeout + 5, TimeUnit.SECONDS)  // 代理可能需要更长时间
                 .readTimeout(timeout * 2 + 10, TimeUnit.SECONDS)
                 .writeTimeout(timeout + 5, TimeUnit.SECONDS);
@@ -330,6 +336,18 @@ public class HttpAiClient {
         void onAllRetriesFailed(Runnable retryAction);
     }
 
+    /**
+     * 已经选定服务商的回调
+     * AiRateLimitedQueue 占用某个服务商的并发名额后，通过回调把这个服务商带进来，
+     * 保证占用名额、发送请求、上报响应和释放名额用的是同一个服务商（图片处理等异步路径会原样传递回调）
+     */
+    public interface EndpointPinned {
+        /**
+         * @return 指定的服务商，null 表示按路由选择
+         */
+        AiEndpointRouter.Endpoint pinnedEndpoint();
+    }
+
     /**
      * 获取AI生成的回复选项（无上下文和元数据，向后兼容）
      */
@@ -1040,44 +1058,35 @@ public class HttpAiClient {
                                     String conversationId,
                                     String senderUin,
                                     AiCallback callback, boolean suppressToast) {
-        String apiUrl = normalizeApiUrl(ConfigManager.getApiUrl());
-        String apiKey = ConfigManager.getApiKey();
-        // 使用自定义提示词或默认提示词
-        String sysPrompt = (customPrompt != null && !customPrompt.isEmpty()) 
-                ? customPrompt : ConfigManager.getSysPrompt();
-        String model = ConfigManager.getAiModel();
-        String provider = ConfigManager.getAiProvider();
-        float temperature = ConfigManager.getAiTemperature();
-        int maxTokens = ConfigManager.getAiMaxTokens();
+        // 按最近的延迟和失败率选择服务商（只配置了主服务商时就是主服务商），队列已指定时用指定的
+        List<AiEndpointRouter.Endpoint> ranked = AiEndpointRouter.rank();
+        final AiEndpointRouter.Endpoint endpoint = selectEndpoint(ranked, callback);
 
         // 验证配置
-        if (TextUtils.isEmpty(apiUrl) || TextUtils.isEmpty(apiKey)) {
+        if (endpoint == null) {
             String error = "API配置不完整";
-            logError(context, provider, model, apiUrl, error);
+            logError(context, ConfigManager.getAiProvider(), ConfigManager.getAiModel(),
+                    normalizeApiUrl(ConfigManager.getApiUrl()), error);
             showToast(context, "AI服务未配置 😢");
             callback.onFailure(new IllegalArgumentException(error));
             return;
         }
 
+        final AiEndpointRouter.Endpoint hedgeEndpoint = ConfigManager.isAiHedgeEnabled()
+                ? selectHedgeEndpoint(ranked, endpoint) : null;
+        String apiUrl = endpoint.url;
+        String apiKey = endpoint.apiKey;
+        // 使用自定义提示词或默认提示词
+        String sysPrompt = (customPrompt != null && !customPrompt.isEmpty()) 
+                ? customPrompt : ConfigManager.getSysPrompt();
+        String model = endpoint.model;
+        String provider = endpoint.provider;
+        float temperature = ConfigManager.getAiTemperature();
+        int maxTokens = ConfigManager.getAiMaxTokens();
+
         try {
             // 构建请求体
-            JSONObject jsonBody = new JSONObject();
-            jsonBody.put("model", model);
-            
-            // 可选参数：只在合理范围内添加
-            if (temperature > 0 && temperature <= 2.0) {
-                jsonBody.put("temperature", temperature);
-            }
-            if (maxTokens > 0 && maxTokens <= 4096) {
-                jsonBody.put("max_tokens", maxTokens);
-            }
-            
-            // 添加 reasoning_effort 参数（如果启用）
-            if (ConfigManager.isReasoningEffortEnabled()) {
-                String reasoningEffort = ConfigManager.getAiReasoningEffort();
-                jsonBody.put("reasoning_effort", reasoningEffort);
-                Log.d(TAG, "启用思考模式: reasoning_effort=" + reasoningEffort);
-            }
+            JSONObject jsonBody = newChatBody(model, temperature, maxTokens, true);
 
             JSONArray messages = new JSONArray();
             
@@ -1087,256 +1096,42 @@ public class HttpAiClient {
             sysMsg.put("content", sysPrompt);
             messages.put(sysMsg);
 
-            // 添加历史上下文（如果有）
-            if (contextMessages != null && !contextMessages.isEmpty()) {
-                // 创建时间格式化器
-                java.text.SimpleDateFormat timeFormat = new java.text.SimpleDateFormat("HH:mm:ss", java.util.Locale.getDefault());
-                
-                // 检查是否启用上下文图片识别（不再要求必须启用外挂AI）
-                boolean contextImageEnabled = ConfigManager.isContextImageRecognitionEnabled() 
-                                            && ConfigManager.isImageRecognitionEnabled()
-                                            && conversationId != null;
-                
-                for (top.galqq.utils.MessageContextManager.ChatMessage msg : contextMessages) {
-                    JSONObject ctxMsg = new JSONObject();
-                    // 对方的消息作为"user"，自己的消息作为"assistant"
-                    ctxMsg.put("role", msg.isSelf ? "assistant" : "user");
-                    
-                    // 格式化时间戳
-                    String timeStr = timeFormat.format(new java.util.Date(msg.timestamp));
-                    
-                    // 获取消息内容
-                    String msgContent = msg.content;
-                    
-                    // 【修复】如果图片识别关闭，过滤掉消息内容中的图片信息
-                    if (!ConfigManager.isImageRecognitionEnabled() && msgContent != null) {
-                        // 移除 [图片: URL (宽x高)] 格式的内容
-                        msgContent = msgContent.replaceAll("\\[图片:[^\\]]*\\]", "").trim();
-                        // 移除 [图片内容:\n  图1: ...\n  图2: ...] 格式的内容
-                        msgContent = msgContent.replaceAll("\\[图片内容:[^\\]]*\\]", "").trim();
-                    }
-                    
-                    // 如果启用上下文图片识别，尝试获取缓存的图片描述或base64
-                    // 扩展条件：检查 hasImages 或消息内容中包含图片URL
-                    boolean hasImageContent = msg.hasImages && msg.imageCount > 0;
-                    boolean hasImageUrl = msgContent != null && msgContent.contains("[图片:") && msgContent.contains("multimedia.nt.qq.com.cn");
-                    
-                    if (contextImageEnabled && (hasImageContent || hasImageUrl)) {
-                        java.util.List<String> base64Images = new java.util.ArrayList<>();
-                        java.util.List<String> textDescriptions = new java.util.ArrayList<>();
-                        boolean hasBase64Images = false;
-                        
-                        // 方式1：从 hasImages 标记的消息获取缓存
-                        if (hasImageContent && msg.msgId != null) {
-                            java.util.List<String> cachedDescriptions = ImageDescriptionCache.getAll(conversationId, msg.msgId, msg.imageCount);
-                            for (String cached : cachedDescriptions) {
-                                if (cached != null && cached.startsWith("BASE64:")) {
-                                    hasBase64Images = true;
-                                    base64Images.add(cached.substring(7)); // 去掉 "BASE64:" 前缀
-                                } else if (cached != null) {
-                                    textDescriptions.add(cached);
-                                }
-                            }
-                        }
-                        
-                        // 方式2：从消息内容中提取的图片URL获取缓存
-                        if (!hasBase64Images && hasImageUrl) {
-                            java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(
-                                "\\[图片:\\s*(https?://[^\\s\\]]+)");
-                            java.util.regex.Matcher matcher = pattern.matcher(msg.content);
-                            
-                            int imageIndex = 0;
-                            while (matcher.find()) {
-                                String imageUrl = matcher.group(1);
-                                if (imageUrl.contains(" (")) {
-                                    imageUrl = imageUrl.substring(0, imageUrl.indexOf(" ("));
-                                }
-                                
-                                String cacheKey = msg.msgId != null ? msg.msgId : ("url_" + imageUrl.hashCode());
-                                String cached = ImageDescriptionCache.get(conversationId, cacheKey, imageIndex);
-                                
-                                if (cached != null && cached.startsWith("BASE64:")) {
-                                    hasBase64Images = true;
-                                    base64Images.add(cached.substring(7));
-                                } else if (cached != null) {
-                                    textDescriptions.add(cached);
-                                }
-                                
-                                imageIndex++;
-                            }
-                        }
-                        
-                        if (hasBase64Images) {
-                            // 有base64图片，需要构建带图片的content数组
-                            JSONArray contentArray = new JSONArray();
-                            
-                            // 构建文本内容（使用新格式）
-                            StringBuilder textContentBuilder = new StringBuilder();
-                            
-                            // 添加好感度（如果启用且有senderUin）
-                            if (ConfigManager.isAffinityEnabled() && ConfigManager.isAiIncludeAffinity() 
-                                && msg.senderUin != null && !msg.senderUin.isEmpty() && !msg.isSelf) {
-                                try {
-                                    AffinityManager affinityManager = AffinityManager.getInstance(context);
-                                    int affinity = affinityManager.getAffinity(msg.senderUin);
-                                    if (affinity >= 0) {
-                                        textContentBuilder.append("[好感度:").append(affinity).append("]");
-                                    }
-                                } catch (Throwable t) {
-                                    // 忽略好感度获取失败
-                                }
-                            }
-                            
-                            // 添加发送人名称
-                            String displayName = (msg.senderName != null && !msg.senderName.isEmpty()) 
-                                ? msg.senderName : "昵称获取失败";
-                            textContentBuilder.append(displayName);
-                            
-                            // 添加[我]标记
-                            if (msg.isSelf) {
-                                textContentBuilder.append("[我]");
-                            }
-                            
-                            // 添加QQ号
-                            if (msg.senderUin != null && !msg.senderUin.isEmpty()) {
-                                textContentBuilder.append("[").append(msg.senderUin).append("]");
-                            }
-                            
-                            // 添加时间和内容
-                            textContentBuilder.append(" [").append(timeStr).append("]: ").append(msgContent);
-                            
-                            if (!textDescriptions.isEmpty()) {
-                                textContentBuilder.append("\n[图片描述: ").append(String.join(", ", textDescriptions)).append("]");
-                            }
-                            
-                            JSONObject textObj = new JSONObject();
-                            textObj.put("type", "text");
-                            textObj.put("text", textContentBuilder.toString());
-                            contentArray.put(textObj);
-                            
-                            // 添加图片
-                            for (String base64 : base64Images) {
-                                JSONObject imageContent = new JSONObject();
-                                imageContent.put("type", "image_url");
-                                JSONObject imageUrlObj = new JSONObject();
-                                imageUrlObj.put("url", base64); // base64已经带有data:image前缀
-                                imageUrlObj.put("detail", "low");
-                                imageContent.put("image_url", imageUrlObj);
-                                contentArray.put(imageContent);
-                            }
-                            
-                            ctxMsg.put("content", contentArray);
-                            messages.put(ctxMsg);
-                            continue; // 跳过下面的普通处理
-                        } else if (!textDescriptions.isEmpty()) {
-                            // 只有文字描述（外挂AI识别的结果）
-                            msgContent = msg.getContentWithImageDescriptions(conversationId);
-                        }
-                    }
-                    
-                    // 格式化为 "[好感度]发送人[我][qq号][时间]: 消息内容"
-                    StringBuilder formattedContent = new StringBuilder();
-                    
-                    // 添加好感度（如果启用且有senderUin）
-                    if (ConfigManager.isAffinityEnabled() && ConfigManager.isAiIncludeAffinity() 
-                        && msg.senderUin != null && !msg.senderUin.isEmpty() && !msg.isSelf) {
-                        try {
-                            AffinityManager affinityManager = AffinityManager.getInstance(context);
-                            int affinity = affinityManager.getAffinity(msg.senderUin);
-                            if (affinity >= 0) {
-                                formattedContent.append("[好感度:").append(affinity).append("]");
-                            }
-                        } catch (Throwable t) {
-                            // 忽略好感度获取失败
-                        }
-                    }
-                    
-                    // 添加发送人名称（如果获取失败显示"昵称获取失败"）
-                    String displayName = (msg.senderName != null && !msg.senderName.isEmpty()) 
-                        ? msg.senderName : "昵称获取失败";
-                    formattedContent.append(displayName);
-                    
-                    // 添加[我]标记（如果是自己发送的）
-                    if (msg.isSelf) {
-                        formattedContent.append("[我]");
-                    }
-                    
-                    // 添加QQ号（如果有）
-                    if (msg.senderUin != null && !msg.senderUin.isEmpty()) {
-                        formattedContent.append("[").append(msg.senderUin).append("]");
-                    }
-                    
-                    // 添加时间和内容
-                    formattedContent.append(" [").append(timeStr).append("]: ").append(msgContent);
-                    
-                    ctxMsg.put("content", formattedContent.toString());
-                    messages.put(ctxMsg);
-                }
-                Log.i(TAG, "Added " + contextMessages.size() + " context messages");
+            // 按token预算裁剪历史上下文（当前消息 > 被引用消息 > 最近对话 > 更早对话）
+            int tokenBudget = ConfigManager.getContextTokenBudget();
+            ContextPacker.Result packed = ContextPacker.pack(contextMessages, sysPrompt, userMessage,
+                    imageBase64List != null ? imageBase64List.size() : 0,
+                    ConfigManager.isContextImageRecognitionEnabled() && ConfigManager.isImageRecognitionEnabled()
+                            && conversationId != null,
+                    tokenBudget, provider, conversationId);
+            contextMessages = packed.messages;
+
+            // 对话摘要紧跟系统提示词（覆盖的是最早的一段对话，放在省略说明和原文之前）
+            if (!contextMessages.isEmpty() && contextMessages.get(0).isSummary) {
+                JSONObject summaryMsg = new JSONObject();
+                summaryMsg.put("role", "user");
+                summaryMsg.put("content", "[之前的对话摘要]\n" + contextMessages.get(0).content);
+                messages.put(summaryMsg);
+                contextMessages = contextMessages.subList(1, contextMessages.size());
+            }
+
+            if (packed.omittedNote != null) {
+                Log.i(TAG, "上下文超出token预算(" + tokenBudget + ")，省略 " + packed.droppedCount
+                        + " 条，估算 " + packed.estimatedTokens + " tokens");
+                JSONObject noteMsg = new JSONObject();
+                noteMsg.put("role", "user");
+                noteMsg.put("content", packed.omittedNote);
+                messages.put(noteMsg);
             }
 
+            // 添加历史上下文（如果有）
+            appendContextMessages(messages, contextMessages, conversationId);
+
             // 当前用户消息（添加特殊标注）
             JSONObject userMsg = new JSONObject();
             userMsg.put("role", "user");
             
-            // 【修复】如果图片识别关闭，过滤掉当前消息中的图片信息
-            String filteredUserMessage = userMessage;
-            if (!ConfigManager.isImageRecognitionEnabled() && filteredUserMessage != null) {
-                // 移除 [图片: URL (宽x高)] 格式的内容
-                filteredUserMessage = filteredUserMessage.replaceAll("\\[图片:[^\\]]*\\]", "").trim();
-                // 移除 [图片内容:\n  图1: ...\n  图2: ...] 格式的内容
-                filteredUserMessage = filteredUserMessage.replaceAll("\\[图片内容:[^\\]]*\\]", "").trim();
-            }
-            
-            // 格式化当前消息：添加[当前需添加选项信息]标签
-            // 新格式：[好感度]昵称[我][qq号][时间]：信息
-            String formattedCurrentMsg;
-            if (currentTimestamp > 0) {
-                // 创建时间格式化器
-                java.text.SimpleDateFormat timeFormat = new java.text.SimpleDateFormat("HH:mm:ss", java.util.Locale.getDefault());
-                String currentTimeStr = timeFormat.format(new java.util.Date(currentTimestamp));
-                
-                // 构建昵称部分（如果获取失败显示"昵称获取失败"）
-                String displayName = (currentSenderName != null && !currentSenderName.isEmpty()) 
-                    ? currentSenderName : "昵称获取失败";
-                
-                // 构建好感度部分（如果启用且有senderUin）
-                String affinityPart = "";
-                boolean affinityEnabled = ConfigManager.isAffinityEnabled();
-                boolean aiIncludeAffinity = ConfigManager.isAiIncludeAffinity();
-                if (ConfigManager.isVerboseLogEnabled()) {
-                    Log.d(TAG, "好感度配置检查: affinityEnabled=" + affinityEnabled + ", aiIncludeAffinity=" + aiIncludeAffinity + ", senderUin=" + senderUin);
-                }
-                
-                if (affinityEnabled && aiIncludeAffinity && senderUin != null) {
-                    try {
-                        AffinityManager affinityManager = AffinityManager.getInstance(context);
-                        int affinity = affinityManager.getAffinity(senderUin);
-                        if (ConfigManager.isVerboseLogEnabled()) {
-                            Log.d(TAG, "获取到好感度: " + affinity + " for " + senderUin);
-                        }
-                        if (affinity >= 0) {
-                            affinityPart = "[好感度:" + affinity + "]";
-                            if (ConfigManager.isVerboseLogEnabled()) {
-                                Log.d(TAG, "好感度部分: " + affinityPart);
-                            }
-                        }
-                    } catch (Throwable t) {
-                        Log.w(TAG, "获取好感度失败: " + t.getMessage(), t);
-                    }
-                }
-                
-                // 构建QQ号部分
-                String qqPart = (senderUin != null && !senderUin.isEmpty()) ? "[" + senderUin + "]" : "";
-                
-                // 格式：[当前需添加选项信息] [好感度]昵称[qq号][时间]: 内容
-                formattedCurrentMsg = "[当前需添加选项信息] " + affinityPart + displayName + qqPart + " [" + currentTimeStr + "]: " + filteredUserMessage;
-            } else {
-                // 降级：如果没有时间戳，仅添加标签和昵称
-                String displayName = (currentSenderName != null && !currentSenderName.isEmpty()) 
-                    ? currentSenderName : "昵称获取失败";
-                formattedCurrentMsg = "[当前需添加选项信息] " + displayName + ": " + filteredUserMessage;
-            }
+            String formattedCurrentMsg = formatCurrentMessage(context, "[当前需添加选项信息]", userMessage,
+                    currentSenderName, currentTimestamp, senderUin);
             
             // 检查是否有图片需要发送（OpenAI Vision格式）
             if (imageBase64List != null && !imageBase64List.isEmpty()) {
@@ -1373,21 +1168,20 @@ public class HttpAiClient {
                 userMsg.put("content", formattedCurrentMsg);
             }
             
+            // 上下文中其他人的好感度（会随刷新变化，放在末尾不影响前面的缓存前缀）
+            String affinitySummary = buildAffinitySummary(context, contextMessages, senderUin);
+            if (affinitySummary != null) {
+                JSONObject affinityMsg = new JSONObject();
+                affinityMsg.put("role", "user");
+                affinityMsg.put("content", affinitySummary);
+                messages.put(affinityMsg);
+            }
+            
             messages.put(userMsg);
 
             jsonBody.put("messages", messages);
 
-            RequestBody body = RequestBody.create(
-                    jsonBody.toString(),
-                    MediaType.get("application/json; charset=utf-8")
-            );
-
-            Request request = new Request.Builder()
-                    .url(apiUrl)
-                    .addHeader("Authorization", "Bearer " + apiKey)
-                    .addHeader("Content-Type", "application/json")
-                    .post(body)
-                    .build();
+            Request request = buildChatRequest(apiUrl, apiKey, jsonBody);
 
             // 记录完整的请求信息到日志（仅在启用详细日志时）
             if (ConfigManager.isVerboseLogEnabled()) {
@@ -1400,1065 +1194,905 @@ public class HttpAiClient {
                 Log.d(TAG, "发送AI请求: " + provider + " / " + model);
             }
 
-            getClient().newCall(request).enqueue(new Callback() {
-                @Override
-                public void onFailure(Call call, IOException e) {
-                    String error = e.getMessage();
-                    Log.e(TAG, "AI请求失败: " + error, e);
-                    logError(context, provider, model, apiUrl, error);
+            final OptionsRace race = new OptionsRace();
+            // 首选请求的并发名额由队列占用（见 AiRateLimitedQueue），这里不再占用
+            sendOptionsRequest(context, endpoint, request, request.body().contentLength(), userMessage, race, callback,
+                    suppressToast, false);
+
+            // 对冲请求：首选服务商超过它最近的 p90 还没返回（或提前失败）时，向次优服务商发送同样的请求
+            if (hedgeEndpoint != null) {
+                jsonBody.put("model", hedgeEndpoint.model);
+                final Request hedgeRequest = buildChatRequest(hedgeEndpoint.url, hedgeEndpoint.apiKey, jsonBody);
+                final long hedgeBytes = hedgeRequest.body().contentLength();
+                final long hedgeDelay = AiEndpointRouter.hedgeDelayMs(endpoint);
+                race.armHedge(() -> {
+                    // 对冲请求可以放弃：备用服务商没有空闲名额时不发
+                    if (!hedgeEndpoint.budget().tryAcquire()) {
+                        Log.d(TAG, "备用服务商没有空闲并发，跳过对冲: " + hedgeEndpoint.label());
+                        return;
+                    }
+                    Log.d(TAG, "发送对冲请求: " + hedgeEndpoint.label() + "（首选 " + endpoint.label() + "）");
+                    sendOptionsRequest(context, hedgeEndpoint, hedgeRequest, hedgeBytes, userMessage,
+                            race, callback, suppressToast, true);
+                }, hedgeDelay);
+            }
+
+        } catch (Exception e) {
+            Log.e(TAG, "请求构建失败", e);
+            logError(context, provider, model, apiUrl, "请求构建失败: " + e.getMessage());
+            if (!suppressToast) {
+                showToast(context, "AI请求失败 😢");
+            }
+            callback.onFailure(e);
+        }
+    }
+
+    /**
+     * 把历史上下文逐条加入 messages（选项请求和批量选项请求共用）
+     * 格式："发送人[我][qq号] [时间]: 消息内容"，开启上下文图片识别时附带缓存的图片
+     */
+    private static void appendContextMessages(JSONArray messages,
+                                              List<top.galqq.utils.MessageContextManager.ChatMessage> contextMessages,
+                                              String conversationId) throws org.json.JSONException {
+        if (contextMessages != null && !contextMessages.isEmpty()) {
+            // 创建时间格式化器
+            java.text.SimpleDateFormat timeFormat = new java.text.SimpleDateFormat("HH:mm:ss", java.util.Locale.getDefault());
+            
+            // 检查是否启用上下文图片识别（不再要求必须启用外挂AI）
+            boolean contextImageEnabled = ConfigManager.isContextImageRecognitionEnabled() 
+                                        && ConfigManager.isImageRecognitionEnabled()
+                                        && conversationId != null;
+            
+            for (top.galqq.utils.MessageContextManager.ChatMessage msg : contextMessages) {
+                JSONObject ctxMsg = new JSONObject();
+                // 对方的消息作为"user"，自己的消息作为"assistant"
+                ctxMsg.put("role", msg.isSelf ? "assistant" : "user");
+                
+                // 格式化时间戳
+                String timeStr = timeFormat.format(new java.util.Date(msg.timestamp));
+                
+                // 获取消息内容
+                String msgContent = msg.content;
+                
+                // 【修复】如果图片识别关闭，过滤掉消息内容中的图片信息
+                if (!ConfigManager.isImageRecognitionEnabled() && msgContent != null) {
+                    // 移除 [图片: URL (宽x高)] 格式的内容
+                    msgContent = msgContent.replaceAll("\\[图片:[^\\]]*\\]", "").trim();
+                    // 移除 [图片内容:\n  图1: ...\n  图2: ...] 格式的内容
+                    msgContent = msgContent.replaceAll("\\[图片内容:[^\\]]*\\]", "").trim();
+                }
+                
+                // 如果启用上下文图片识别，尝试获取缓存的图片描述或base64
+                // 扩展条件：检查 hasImages 或消息内容中包含图片URL
+                boolean hasImageContent = msg.hasImages && msg.imageCount > 0;
+                boolean hasImageUrl = msgContent != null && msgContent.contains("[图片:") && msgContent.contains("multimedia.nt.qq.com.cn");
+                
+                if (contextImageEnabled && (hasImageContent || hasImageUrl)) {
+                    java.util.List<String> base64Images = new java.util.ArrayList<>();
+                    java.util.List<String> textDescriptions = new java.util.ArrayList<>();
+                    boolean hasBase64Images = false;
+                    
+                    // 方式1：从 hasImages 标记的消息获取缓存
+                    if (hasImageContent && msg.msgId != null) {
+                        java.util.List<String> cachedDescriptions = ImageDescriptionCache.getAll(conversationId, msg.msgId, msg.imageCount);
+                        for (String cached : cachedDescriptions) {
+                            if (cached != null && cached.startsWith("BASE64:")) {
+                                hasBase64Images = true;
+                                base64Images.add(cached.substring(7)); // 去掉 "BASE64:" 前缀
+                            } else if (cached != null) {
+                                textDescriptions.add(cached);
+                            }
+                        }
+                    }
+                    
+                    // 方式2：从消息内容中提取的图片URL获取缓存
+                    if (!hasBase64Images && hasImageUrl) {
+                        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(
+                            "\\[图片:\\s*(https?://[^\\s\\]]+)");
+                        java.util.regex.Matcher matcher = pattern.matcher(msg.content);
+                        
+                        int imageIndex = 0;
+                        while (matcher.find()) {
+                            String imageUrl = matcher.group(1);
+                            if (imageUrl.contains(" (")) {
+                                imageUrl = imageUrl.substring(0, imageUrl.indexOf(" ("));
+                            }
+                            
+                            String cacheKey = msg.msgId != null ? msg.msgId : ("url_" + imageUrl.hashCode());
+                            String cached = ImageDescriptionCache.get(conversationId, cacheKey, imageIndex);
+                            
+                            if (cached != null && cached.startsWith("BASE64:")) {
+                                hasBase64Images = true;
+                                base64Images.add(cached.substring(7));
+                            } else if (cached != null) {
+                                textDescriptions.add(cached);
+                            }
+                            
+                            imageIndex++;
+                        }
+                    }
+                    
+                    if (hasBase64Images) {
+                        // 有base64图片，需要构建带图片的content数组
+                        JSONArray contentArray = new JSONArray();
+                        
+                        // 构建文本内容（使用新格式）
+                        // 好感度会随刷新变化，不放在历史消息里（见当前消息前的好感度汇总）
+                        StringBuilder textContentBuilder = new StringBuilder();
+                        
+                        // 添加发送人名称
+                        String displayName = (msg.senderName != null && !msg.senderName.isEmpty()) 
+                            ? msg.senderName : "昵称获取失败";
+                        textContentBuilder.append(displayName);
+                        
+                        // 添加[我]标记
+                        if (msg.isSelf) {
+                            textContentBuilder.append("[我]");
+                        }
+                        
+                        // 添加QQ号
+                        if (msg.senderUin != null && !msg.senderUin.isEmpty()) {
+                            textContentBuilder.append("[").append(msg.senderUin).append("]");
+                        }
+                        
+                        // 添加时间和内容
+                        textContentBuilder.append(" [").append(timeStr).append("]: ").append(msgContent);
+                        
+                        if (!textDescriptions.isEmpty()) {
+                            textContentBuilder.append("\n[图片描述: ").append(String.join(", ", textDescriptions)).append("]");
+                        }
+                        
+                        JSONObject textObj = new JSONObject();
+                        textObj.put("type", "text");
+                        textObj.put("text", textContentBuilder.toString());
+                        contentArray.put(textObj);
+                        
+                        // 添加图片
+                        for (String base64 : base64Images) {
+                            JSONObject imageContent = new JSONObject();
+                            imageContent.put("type", "image_url");
+                            JSONObject imageUrlObj = new JSONObject();
+                            imageUrlObj.put("url", base64); // base64已经带有data:image前缀
+                            imageUrlObj.put("detail", "low");
+                            imageContent.put("image_url", imageUrlObj);
+                            contentArray.put(imageContent);
+                        }
+                        
+                        ctxMsg.put("content", contentArray);
+                        messages.put(ctxMsg);
+                        continue; // 跳过下面的普通处理
+                    } else if (!textDescriptions.isEmpty()) {
+                        // 只有文字描述（外挂AI识别的结果）
+                        msgContent = msg.getContentWithImageDescriptions(conversationId);
+                    }
+                }
+                
+                // 格式化为 "发送人[我][qq号][时间]: 消息内容"
+                // 历史消息的内容和格式只取决于消息本身，连续请求之间字节一致，便于服务商前缀缓存命中；
+                // 好感度会随刷新变化，统一放到当前消息前面（见 buildAffinitySummary）
+                StringBuilder formattedContent = new StringBuilder();
+                
+                // 添加发送人名称（如果获取失败显示"昵称获取失败"）
+                String displayName = (msg.senderName != null && !msg.senderName.isEmpty()) 
+                    ? msg.senderName : "昵称获取失败";
+                formattedContent.append(displayName);
+                
+                // 添加[我]标记（如果是自己发送的）
+                if (msg.isSelf) {
+                    formattedContent.append("[我]");
+                }
+                
+                // 添加QQ号（如果有）
+                if (msg.senderUin != null && !msg.senderUin.isEmpty()) {
+                    formattedContent.append("[").append(msg.senderUin).append("]");
+                }
+                
+                // 添加时间和内容
+                formattedContent.append(" [").append(timeStr).append("]: ").append(msgContent);
+                
+                ctxMsg.put("content", formattedContent.toString());
+                messages.put(ctxMsg);
+            }
+            Log.i(TAG, "Added " + contextMessages.size() + " context messages");
+        }
+    }
+
+    /**
+     * 格式化需要生成选项的消息
+     * 格式："标签 [好感度]昵称[qq号] [时间]: 内容"，没有时间戳时为"标签 昵称: 内容"
+     *
+     * @param tag 消息前的标签，如"[当前需添加选项信息]"
+     */
+    private static String formatCurrentMessage(Context context, String tag, String userMessage,
+                                               String currentSenderName, long currentTimestamp, String senderUin) {
+        // 【修复】如果图片识别关闭，过滤掉当前消息中的图片信息
+        String filteredUserMessage = userMessage;
+        if (!ConfigManager.isImageRecognitionEnabled() && filteredUserMessage != null) {
+            // 移除 [图片: URL (宽x高)] 格式的内容
+            filteredUserMessage = filteredUserMessage.replaceAll("\\[图片:[^\\]]*\\]", "").trim();
+            // 移除 [图片内容:\n  图1: ...\n  图2: ...] 格式的内容
+            filteredUserMessage = filteredUserMessage.replaceAll("\\[图片内容:[^\\]]*\\]", "").trim();
+        }
+        
+        // 格式化当前消息：添加[当前需添加选项信息]标签
+        // 新格式：[好感度]昵称[我][qq号][时间]：信息
+        String formattedCurrentMsg;
+        if (currentTimestamp > 0) {
+            // 创建时间格式化器
+            java.text.SimpleDateFormat timeFormat = new java.text.SimpleDateFormat("HH:mm:ss", java.util.Locale.getDefault());
+            String currentTimeStr = timeFormat.format(new java.util.Date(currentTimestamp));
+            
+            // 构建昵称部分（如果获取失败显示"昵称获取失败"）
+            String displayName = (currentSenderName != null && !currentSenderName.isEmpty()) 
+                ? currentSenderName : "昵称获取失败";
+            
+            // 构建好感度部分（如果启用且有senderUin）
+            String affinityPart = "";
+            boolean affinityEnabled = ConfigManager.isAffinityEnabled();
+            boolean aiIncludeAffinity = ConfigManager.isAiIncludeAffinity();
+            if (ConfigManager.isVerboseLogEnabled()) {
+                Log.d(TAG, "好感度配置检查: affinityEnabled=" + affinityEnabled + ", aiIncludeAffinity=" + aiIncludeAffinity + ", senderUin=" + senderUin);
+            }
+            
+            if (affinityEnabled && aiIncludeAffinity && senderUin != null) {
+                try {
+                    AffinityManager affinityManager = AffinityManager.getInstance(context);
+                    int affinity = affinityManager.getAffinity(senderUin);
+                    if (ConfigManager.isVerboseLogEnabled()) {
+                        Log.d(TAG, "获取到好感度: " + affinity + " for " + senderUin);
+                    }
+                    if (affinity >= 0) {
+                        affinityPart = "[好感度:" + affinity + "]";
+                        if (ConfigManager.isVerboseLogEnabled()) {
+                            Log.d(TAG, "好感度部分: " + affinityPart);
+                        }
+                    }
+                } catch (Throwable t) {
+                    Log.w(TAG, "获取好感度失败: " + t.getMessage(), t);
+                }
+            }
+            
+            // 构建QQ号部分
+            String qqPart = (senderUin != null && !senderUin.isEmpty()) ? "[" + senderUin + "]" : "";
+            
+            // 格式：[当前需添加选项信息] [好感度]昵称[qq号][时间]: 内容
+            formattedCurrentMsg = tag + " " + affinityPart + displayName + qqPart + " [" + currentTimeStr + "]: " + filteredUserMessage;
+        } else {
+            // 降级：如果没有时间戳，仅添加标签和昵称
+            String displayName = (currentSenderName != null && !currentSenderName.isEmpty()) 
+                ? currentSenderName : "昵称获取失败";
+            formattedCurrentMsg = tag + " " + displayName + ": " + filteredUserMessage;
+        }
+        return formattedCurrentMsg;
+    }
+
+    /**
+     * 向一个服务商发送选项请求，结果经 race 汇总：先成功的生效，全部失败时才回调失败
+     * 每次的耗时和成败都记入 AiEndpointRouter，用于之后的服务商选择；响应状态和限流响应头反馈给该服务商的并发名额
+     *
+     * @param ownsPermit 是否已为这次请求占用了并发名额（对冲请求），是的话请求结束时归还
+     */
+    private static void sendOptionsRequest(Context context, AiEndpointRouter.Endpoint endpoint, Request request,
+                                           long requestBytes, String userMessage, OptionsRace race,
+                                           AiCallback callback, boolean suppressToast, boolean ownsPermit) {
+        final String provider = endpoint.provider;
+        final String model = endpoint.model;
+        final String apiUrl = endpoint.url;
+        final long httpStart = PerfMetrics.start();
+        final long requestStartMs = System.currentTimeMillis();
+        Call call = getClient().newCall(request);
+        race.started(call);
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(Call call, IOException e) {
+                if (ownsPermit) endpoint.budget().release();
+                // 另一份请求已经成功，这份被取消
+                if (call.isCanceled() && race.isSettled()) {
+                    // 首选请求输给了对冲请求：把已等待的时间作为延迟下界计入统计，避免 p90 只剩没被对冲的快请求
+                    // （对冲请求发出得晚，它被取消时的等待时间太短，不计入）
+                    if (!ownsPermit) {
+                        AiEndpointRouter.recordCensored(endpoint, System.currentTimeMillis() - requestStartMs);
+                    }
+                    return;
+                }
+                PerfMetrics.recordError(PerfMetrics.Stage.AI_HTTP, httpStart);
+                AiEndpointRouter.recordFailure(endpoint);
+                String error = e.getMessage();
+                Log.e(TAG, "AI请求失败: " + error, e);
+                logError(context, provider, model, apiUrl, error);
+                if (race.fail()) {
                     if (!suppressToast) {
                         showToast(context, "网络连接失败 😢");
                     }
                     callback.onFailure(e);
                 }
+            }
 
-                @Override
-                public void onResponse(Call call, Response response) throws IOException {
-                    String responseBody = null;
-                    try {
-                        if (!response.isSuccessful()) {
-                            int code = response.code();
-                            String error = "HTTP " + code + ": " + response.message();
-                            responseBody = response.body() != null ? response.body().string() : "";
-                            
-                            // 特殊处理429速率限制错误（静默处理，不显示Toast）
-                            if (code == 429) {
-                                Log.w(TAG, "速率限制: " + error);
-                                logError(context, provider, model, apiUrl, "Rate Limit (429)\n" + responseBody);
-                                // 不调用showToast，静默失败
+            @Override
+            public void onResponse(Call call, Response response) throws IOException {
+                endpoint.budget().onResponse(response.code(), response.headers(),
+                        System.currentTimeMillis() - requestStartMs);
+                String responseBody = null;
+                try {
+                    if (!response.isSuccessful()) {
+                        PerfMetrics.recordError(PerfMetrics.Stage.AI_HTTP, httpStart);
+                        AiEndpointRouter.recordFailure(endpoint);
+                        int code = response.code();
+                        String error = "HTTP " + code + ": " + response.message();
+                        responseBody = response.body() != null ? response.body().string() : "";
+                        
+                        // 特殊处理429速率限制错误（静默处理，不显示Toast）
+                        if (code == 429) {
+                            Log.w(TAG, "速率限制: " + error);
+                            logError(context, provider, model, apiUrl, "Rate Limit (429)\n" + responseBody);
+                            // 不调用showToast，静默失败
+                            if (race.fail()) {
                                 callback.onFailure(new IOException("Rate limit reached"));
-                                return;
                             }
-                            
-                            // 其他错误正常处理
-                            logError(context, provider, model, apiUrl, error + "\n" + responseBody);
+                            return;
+                        }
+                        
+                        // 其他错误正常处理
+                        logError(context, provider, model, apiUrl, error + "\n" + responseBody);
+                        if (race.fail()) {
                             if (!suppressToast) {
                                 showToast(context, "AI服务暂时不可用 😢");
                             }
                             callback.onFailure(new IOException(error));
-                            return;
                         }
+                        return;
+                    }
 
-                        responseBody = response.body().string();
-                        Log.d(TAG, "AI响应: " + responseBody.substring(0, Math.min(200, responseBody.length())));
+                    responseBody = response.body().string();
+                    PerfMetrics.record(PerfMetrics.Stage.AI_HTTP, httpStart);
+                    publishResponseEvent(requestBytes, responseBody, requestStartMs);
+                    Log.d(TAG, "AI响应: " + responseBody.substring(0, Math.min(200, responseBody.length())));
 
-                        // 解析JSON格式的响应
-                        List<String> options = parseJsonResponse(responseBody);
+                    // 解析JSON格式的响应
+                    List<String> options = OptionResponseParser.parse(responseBody);
+                    
+                    if (options == null || options.size() < 3) {
+                        AiEndpointRouter.recordFailure(endpoint);
+                        // 改进的错误日志记录
+                        int actualCount = options != null ? options.size() : 0;
+                        String error;
+                        if (options == null) {
+                            error = "AI返回格式无法识别，请检查系统提示词配置";
+                        } else {
+                            error = "AI返回选项不足: 期望3个，实际" + actualCount + "个";
+                        }
                         
-                        if (options == null || options.size() < 3) {
-                            // 改进的错误日志记录
-                            int actualCount = options != null ? options.size() : 0;
-                            String error;
-                            if (options == null) {
-                                error = "AI返回格式无法识别，请检查系统提示词配置";
-                            } else {
-                                error = "AI返回选项不足: 期望3个，实际" + actualCount + "个";
-                            }
-                            
-                            // 重试时不记录详细日志，避免日志过多
+                        // 重试时不记录详细日志，避免日志过多
+                        if (!suppressToast) {
+                            String fullLog = error + "\n" +
+                                "=== 原始响应内容 ===\n" + responseBody + "\n" +
+                                "=== 响应内容结束 ===\n" +
+                                "提示: 如果AI返回格式不正确，请检查系统提示词是否要求返回JSON格式";
+                            logError(context, provider, model, apiUrl, fullLog);
+                        }
+                        if (race.fail()) {
                             if (!suppressToast) {
-                                String fullLog = error + "\n" +
-                                    "=== 原始响应内容 ===\n" + responseBody + "\n" +
-                                    "=== 响应内容结束 ===\n" +
-                                    "提示: 如果AI返回格式不正确，请检查系统提示词是否要求返回JSON格式";
-                                logError(context, provider, model, apiUrl, fullLog);
                                 showToast(context, "AI返回格式错误 😢");
                             }
                             callback.onFailure(new Exception(error));
-                            return;
                         }
+                        return;
+                    }
+
+                    AiEndpointRouter.recordSuccess(endpoint, System.currentTimeMillis() - requestStartMs);
+                    if (!race.win(call)) {
+                        // 另一份请求先返回了，这份只用于更新服务商统计
+                        return;
+                    }
 
-                        // 成功 - 如果启用了详细日志，记录完整响应
-                        String fullResponse = ConfigManager.isVerboseLogEnabled() ? responseBody : null;
-                        AiLogManager.logAiSuccess(context, provider, model, userMessage, options.size(), fullResponse);
-                        callback.onSuccess(options);
+                    // 成功 - 如果启用了详细日志，记录完整响应
+                    String fullResponse = ConfigManager.isVerboseLogEnabled() ? responseBody : null;
+                    AiLogManager.logAiSuccess(context, provider, model, userMessage, options.size(), fullResponse);
+                    callback.onSuccess(options);
 
-                    } catch (Exception e) {
-                        Log.e(TAG, "解析失败", e);
-                        String error = "解析错误: " + e.getMessage();
+                } catch (Exception e) {
+                    Log.e(TAG, "解析失败", e);
+                    String error = "解析错误: " + e.getMessage();
+                    if (!suppressToast) {
+                        logError(context, provider, model, apiUrl, error + "\n响应: " + responseBody);
+                    }
+                    if (race.fail()) {
                         if (!suppressToast) {
-                            logError(context, provider, model, apiUrl, error + "\n响应: " + responseBody);
                             showToast(context, "AI返回格式错误 😢");
                         }
                         callback.onFailure(e);
-                    } finally {
-                        response.close();
                     }
+                } finally {
+                    response.close();
+                    if (ownsPermit) endpoint.budget().release();
                 }
-            });
-
-        } catch (Exception e) {
-            Log.e(TAG, "请求构建失败", e);
-            logError(context, provider, model, apiUrl, "请求构建失败: " + e.getMessage());
-            if (!suppressToast) {
-                showToast(context, "AI请求失败 😢");
             }
-            callback.onFailure(e);
-        }
+        });
     }
 
     /**
-     * 解析JSON格式的AI响应（重构版）
-     * 支持多种格式的智能解析，按优先级依次尝试：
-     * 1. 直接JSON格式（响应本身就是options JSON）
-     * 2. OpenAI标准格式（choices[0].message.content）
-     * 3. 从content中提取：Markdown代码块、混合文本JSON、列表、纯文本
-     * 4. 处理多个JSON对象拼接的情况（流式响应或重试响应）
+     * 一次选项请求的首选调用和对冲调用
+     * - 先成功的一份生效，其余的取消
+     * - 某一份失败时，如果对冲请求还没发出就立即发出；最后一份也失败时才回调失败
      */
-    private static List<String> parseJsonResponse(String responseBody) {
-        // 边界情况处理
-        if (responseBody == null || responseBody.trim().isEmpty()) {
-            Log.w(TAG, "响应为空");
-            return null;
+    private static final class OptionsRace {
+        private final AtomicBoolean settled = new AtomicBoolean(false);
+        private final AtomicInteger outstanding = new AtomicInteger(0);
+        private final List<Call> calls = new CopyOnWriteArrayList<>();
+        private final AtomicReference<Runnable> pendingHedge = new AtomicReference<>();
+        private final Runnable hedgeTimer = this::fireHedge;
+
+        void started(Call call) {
+            outstanding.incrementAndGet();
+            calls.add(call);
+            // 对冲请求与成功结果几乎同时发生时，晚发出的那份直接取消
+            if (settled.get()) call.cancel();
         }
-        
-        List<String> result = null;
-        
-        // 预处理：处理多个JSON对象拼接的情况
-        // 例如: {...}{...} 或 {...}\n{...}
-        String cleanedResponse = preprocessMultipleJsonObjects(responseBody);
-        
-        try {
-            JSONObject jsonResponse = new JSONObject(cleanedResponse);
-            
-            // 策略1: 直接包含options等字段
-            result = parseOptionsJson(cleanedResponse);
-            if (result != null && result.size() >= 3) {
-                Log.d(TAG, "解析成功: 直接JSON格式");
-                return result;
-            }
-            
-            // 策略2: OpenAI标准格式
-            result = parseOpenAiFormat(jsonResponse);
-            if (result != null && result.size() >= 3) {
-                return result;
+
+        boolean isSettled() {
+            return settled.get();
+        }
+
+        /**
+         * 登记对冲请求
+         * @param delayMs 等待多久后发出，小于 0 时只在首选失败时发出
+         */
+        void armHedge(Runnable hedge, long delayMs) {
+            pendingHedge.set(hedge);
+            if (delayMs >= 0) {
+                mainHandler.postDelayed(hedgeTimer, delayMs);
             }
-            
-        } catch (Exception e) {
-            // 响应本身不是有效JSON，尝试其他策略
-            Log.d(TAG, "响应不是标准JSON，尝试其他解析策略: " + e.getMessage());
         }
-        
-        // 策略3: 尝试从原始响应中提取有效的JSON对象
-        result = tryExtractValidJsonFromResponse(responseBody);
-        if (result != null && result.size() >= 3) {
-            return result;
-        }
-        
-        // 【重要】不要在整个响应体上执行纯文本解析！
-        // 这会导致JSON字段名被当作选项
-        // 只有当响应明显不是JSON格式时才尝试纯文本解析
-        if (!responseBody.trim().startsWith("{") && !responseBody.trim().startsWith("[")) {
-            // 策略4: 作为纯文本解析（仅当响应不是JSON格式时）
-            result = parseContentWithStrategies(responseBody);
-            if (result != null && result.size() >= 3) {
-                return result;
+
+        private void fireHedge() {
+            Runnable hedge = pendingHedge.getAndSet(null);
+            if (hedge != null && !settled.get()) {
+                hedge.run();
             }
         }
-        
-        Log.w(TAG, "所有解析策略均失败，请检查系统提示词配置");
-        return null;
-    }
-    
-    /**
-     * 预处理多个JSON对象拼接的响应
-     * 处理情况：{...}{...} 或 {...}\n{...}
-     * 只保留第一个有效的JSON对象
-     */
-    private static String preprocessMultipleJsonObjects(String responseBody) {
-        if (responseBody == null || responseBody.isEmpty()) {
-            return responseBody;
-        }
-        
-        String trimmed = responseBody.trim();
-        
-        // 检查是否以 { 开头
-        if (!trimmed.startsWith("{")) {
-            return responseBody;
-        }
-        
-        // 找到第一个完整的JSON对象
-        int depth = 0;
-        int endIndex = -1;
-        boolean inString = false;
-        boolean escape = false;
-        
-        for (int i = 0; i < trimmed.length(); i++) {
-            char c = trimmed.charAt(i);
-            
-            if (escape) {
-                escape = false;
-                continue;
-            }
-            
-            if (c == '\\' && inString) {
-                escape = true;
-                continue;
-            }
-            
-            if (c == '"' && !escape) {
-                inString = !inString;
-                continue;
-            }
-            
-            if (!inString) {
-                if (c == '{') {
-                    depth++;
-                } else if (c == '}') {
-                    depth--;
-                    if (depth == 0) {
-                        endIndex = i;
-                        break;
-                    }
-                }
+
+        /**
+         * 一份请求成功
+         * @return 这份结果是否生效
+         */
+        boolean win(Call winner) {
+            if (!settled.compareAndSet(false, true)) return false;
+            pendingHedge.set(null);
+            mainHandler.removeCallbacks(hedgeTimer);
+            for (Call call : calls) {
+                if (call != winner) call.cancel();
             }
+            return true;
         }
-        
-        if (endIndex > 0 && endIndex < trimmed.length() - 1) {
-            // 检查后面是否还有内容（可能是另一个JSON对象）
-            String remaining = trimmed.substring(endIndex + 1).trim();
-            if (remaining.startsWith("{")) {
-                Log.d(TAG, "检测到多个JSON对象拼接，只使用第一个");
-                return trimmed.substring(0, endIndex + 1);
-            }
+
+        /**
+         * 一份请求失败
+         * @return 是否需要回调失败（所有请求都已失败）
+         */
+        boolean fail() {
+            if (settled.get()) return false;
+            mainHandler.removeCallbacks(hedgeTimer);
+            // 先发出对冲请求再减计数，保证计数不会提前归零
+            fireHedge();
+            return outstanding.decrementAndGet() == 0 && settled.compareAndSet(false, true);
         }
-        
-        return responseBody;
     }
-    
+
     /**
-     * 解析OpenAI标准格式响应
-     * 处理choices数组，提取有效的content
+     * 批量选项请求中的一条消息
      */
-    private static List<String> parseOpenAiFormat(JSONObject jsonResponse) {
-        try {
-            if (!jsonResponse.has("choices")) {
-                Log.d(TAG, "parseOpenAiFormat: 没有choices字段");
-                return null;
-            }
-            
-            JSONArray choices = jsonResponse.getJSONArray("choices");
-            if (choices.length() == 0) {
-                Log.d(TAG, "parseOpenAiFormat: choices数组为空");
-                return null;
-            }
-            
-            Log.d(TAG, "parseOpenAiFormat: 找到 " + choices.length() + " 个choices");
-            
-            // 遍历所有choices，找到有有效content的那个
-            for (int i = 0; i < choices.length(); i++) {
-                JSONObject choice = choices.getJSONObject(i);
-                
-                // 检查finish_reason，跳过被截断的响应
-                String finishReason = choice.optString("finish_reason", "");
-                Log.d(TAG, "parseOpenAiFormat: choice[" + i + "] finish_reason=" + finishReason);
-                
-                if ("length".equals(finishReason)) {
-                    Log.d(TAG, "跳过被截断的choice (finish_reason=length)");
-                    continue;
-                }
-                
-                // 获取message对象
-                if (!choice.has("message")) {
-                    Log.d(TAG, "parseOpenAiFormat: choice[" + i + "] 没有message字段");
-                    continue;
-                }
-                
-                JSONObject message = choice.getJSONObject("message");
-                
-                // 获取content - 尝试多种方式
-                String content = message.optString("content", "");
-                
-                // 如果content为空，尝试其他可能的字段
-                if (content.isEmpty()) {
-                    content = message.optString("text", "");
-                }
-                
-                if (content.isEmpty()) {
-                    Log.d(TAG, "choice[" + i + "] content为空，跳过");
-                    continue;
-                }
-                
-                Log.d(TAG, "parseOpenAiFormat: choice[" + i + "] content长度=" + content.length());
-                Log.d(TAG, "parseOpenAiFormat: content前100字符=" + content.substring(0, Math.min(100, content.length())));
-                
-                // 从content中尝试多种解析策略
-                List<String> result = parseContentWithStrategies(content);
-                if (result != null && result.size() >= 3) {
-                    Log.d(TAG, "解析成功: OpenAI格式 choice[" + i + "], 选项数=" + result.size());
-                    return result;
-                } else {
-                    Log.d(TAG, "parseOpenAiFormat: choice[" + i + "] parseContentWithStrategies返回null或不足3个");
-                }
-            }
-            
-            return null;
-        } catch (Exception e) {
-            Log.e(TAG, "parseOpenAiFormat失败: " + e.getMessage(), e);
-            return null;
+    public static final class BatchItem {
+        public final String userMessage;
+        public final String msgId;
+        public final String currentSenderName;
+        public final long currentTimestamp;
+        public final String senderUin;
+
+        public BatchItem(String userMessage, String msgId, String currentSenderName,
+                         long currentTimestamp, String senderUin) {
+            this.userMessage = userMessage;
+            this.msgId = msgId;
+            this.currentSenderName = currentSenderName;
+            this.currentTimestamp = currentTimestamp;
+            this.senderUin = senderUin;
         }
     }
-    
+
     /**
-     * 尝试从原始响应中提取有效的JSON对象并解析
-     * 处理多个JSON对象拼接的情况
+     * 批量选项请求的回调
      */
-    private static List<String> tryExtractValidJsonFromResponse(String responseBody) {
-        if (responseBody == null || responseBody.isEmpty()) {
-            return null;
-        }
-        
-        // 尝试找到所有可能的JSON对象
-        List<String> jsonObjects = extractAllJsonObjects(responseBody);
-        
-        for (String jsonStr : jsonObjects) {
-            try {
-                JSONObject json = new JSONObject(jsonStr);
-                
-                // 尝试作为OpenAI格式解析
-                List<String> result = parseOpenAiFormat(json);
-                if (result != null && result.size() >= 3) {
-                    Log.d(TAG, "从拼接响应中提取成功");
-                    return result;
-                }
-                
-                // 尝试直接解析options
-                result = parseOptionsJson(jsonStr);
-                if (result != null && result.size() >= 3) {
-                    return result;
-                }
-            } catch (Exception e) {
-                // 继续尝试下一个
-            }
-        }
-        
-        return null;
+    public interface BatchCallback {
+        /**
+         * @param results 与请求中的消息一一对应，某条没有解析出足够的选项时为null
+         */
+        void onSuccess(List<List<String>> results);
+        void onFailure(Exception e);
     }
-    
+
     /**
-     * 从响应中提取所有JSON对象
+     * 为同一会话中的多条消息一次生成选项（供 AiRateLimitedQueue 合并排队中的请求）
+     * 上下文只发送一次，各条消息依次标注为"[当前需添加选项信息#序号]"，要求AI按
+     * {"batch":[{"id":"1","options":[...]}, ...]} 返回，再按序号拆回各条消息。
+     * 不对冲，不显示Toast；某条缺失时由调用方单独重新请求。
+     *
+     * @param items 需要生成选项的消息（按时间从早到晚）
+     * @param contextMessages 最新一条消息的上下文（可为null，其中与 items 重复的消息会被去掉）
+     * @param customPrompt 自定义提示词（为null时使用默认）
      */
-    private static List<String> extractAllJsonObjects(String responseBody) {
-        List<String> result = new ArrayList<>();
-        
-        int index = 0;
-        while (index < responseBody.length()) {
-            int start = responseBody.indexOf('{', index);
-            if (start == -1) {
-                break;
-            }
-            
-            // 找到匹配的闭合大括号
-            int depth = 0;
-            int end = -1;
-            boolean inString = false;
-            boolean escape = false;
-            
-            for (int i = start; i < responseBody.length(); i++) {
-                char c = responseBody.charAt(i);
-                
-                if (escape) {
-                    escape = false;
-                    continue;
-                }
-                
-                if (c == '\\' && inString) {
-                    escape = true;
-                    continue;
-                }
-                
-                if (c == '"' && !escape) {
-                    inString = !inString;
-                    continue;
-                }
-                
-                if (!inString) {
-                    if (c == '{') {
-                        depth++;
-                    } else if (c == '}') {
-                        depth--;
-                        if (depth == 0) {
-                            end = i;
-                            break;
-                        }
+    public static void fetchBatchOptions(Context context, List<BatchItem> items,
+                                         List<top.galqq.utils.MessageContextManager.ChatMessage> contextMessages,
+                                         String customPrompt, String conversationId, BatchCallback callback) {
+        final AiEndpointRouter.Endpoint endpoint = selectEndpoint(AiEndpointRouter.rank(), callback);
+        if (endpoint == null) {
+            callback.onFailure(new IllegalArgumentException("API配置不完整"));
+            return;
+        }
+        final String apiUrl = endpoint.url;
+        final String model = endpoint.model;
+        final String provider = endpoint.provider;
+        final int count = items.size();
+        String sysPrompt = (customPrompt != null && !customPrompt.isEmpty())
+                ? customPrompt : ConfigManager.getSysPrompt();
+        float temperature = ConfigManager.getAiTemperature();
+        int maxTokens = ConfigManager.getAiMaxTokens();
+
+        try {
+            // 输出是 count 条消息的选项
+            int batchMaxTokens = maxTokens > 0 && maxTokens <= 4096 ? Math.min(4096, maxTokens * count) : 0;
+            JSONObject jsonBody = newChatBody(model, temperature, batchMaxTokens, true);
+
+            JSONArray messages = new JSONArray();
+            // 系统提示词和单条请求保持一致，便于服务商前缀缓存命中
+            JSONObject sysMsg = new JSONObject();
+            sysMsg.put("role", "system");
+            sysMsg.put("content", sysPrompt);
+            messages.put(sysMsg);
+
+            // 批量中的消息作为"当前消息"发送，不再出现在历史上下文里
+            java.util.Set<String> batchIds = new java.util.HashSet<>();
+            StringBuilder allMessages = new StringBuilder();
+            for (BatchItem item : items) {
+                if (item.msgId != null) batchIds.add(item.msgId);
+                allMessages.append(item.userMessage).append('\n');
+            }
+            List<top.galqq.utils.MessageContextManager.ChatMessage> history = new ArrayList<>();
+            if (contextMessages != null) {
+                for (top.galqq.utils.MessageContextManager.ChatMessage msg : contextMessages) {
+                    if (msg.msgId == null || !batchIds.contains(msg.msgId)) {
+                        history.add(msg);
                     }
                 }
             }
-            
-            if (end > start) {
-                result.add(responseBody.substring(start, end + 1));
-                index = end + 1;
-            } else {
-                index = start + 1;
-            }
-        }
-        
-        return result;
-    }
 
-    /**
-     * 使用多种策略解析content内容
-     * @param content AI返回的content字符串
-     * @return 解析出的选项列表
-     */
-    private static List<String> parseContentWithStrategies(String content) {
-        if (content == null || content.trim().isEmpty()) {
-            Log.d(TAG, "parseContentWithStrategies: content为空");
-            return null;
-        }
-        
-        Log.d(TAG, "parseContentWithStrategies: 开始解析，content长度=" + content.length());
-        
-        List<String> result = null;
-        
-        // 策略A: 直接作为JSON解析（支持多种字段名）
-        result = parseOptionsJson(content);
-        if (result != null && result.size() >= 3) {
-            Log.d(TAG, "解析成功: content直接JSON, 选项数=" + result.size());
-            return result;
-        }
-        
-        // 策略B: 从Markdown代码块中提取JSON
-        String markdownJson = extractJsonFromMarkdown(content);
-        if (markdownJson != null) {
-            Log.d(TAG, "parseContentWithStrategies: 找到Markdown代码块，长度=" + markdownJson.length());
-            result = parseOptionsJson(markdownJson);
-            if (result != null && result.size() >= 3) {
-                Log.d(TAG, "解析成功: Markdown代码块, 选项数=" + result.size());
-                return result;
-            }
-            // 尝试从不完整的JSON中提取选项
-            result = extractOptionsFromIncompleteJson(markdownJson);
-            if (result != null && result.size() >= 3) {
-                Log.d(TAG, "解析成功: 不完整Markdown JSON, 选项数=" + result.size());
-                return result;
-            }
-        }
-        
-        // 策略C: 从混合文本中提取JSON
-        String textJson = extractJsonFromText(content);
-        if (textJson != null) {
-            result = parseOptionsJson(textJson);
-            if (result != null && result.size() >= 3) {
-                Log.d(TAG, "解析成功: 混合文本JSON");
-                return result;
-            }
-            // 尝试从不完整的JSON中提取选项
-            result = extractOptionsFromIncompleteJson(textJson);
-            if (result != null && result.size() >= 3) {
-                Log.d(TAG, "解析成功: 不完整混合文本JSON");
-                return result;
-            }
-        }
-        
-        // 策略D: 尝试从整个content中提取不完整JSON的选项
-        result = extractOptionsFromIncompleteJson(content);
-        if (result != null && result.size() >= 3) {
-            Log.d(TAG, "解析成功: 不完整JSON提取");
-            return result;
-        }
-        
-        // 策略E: 从任意代码块中提取（更宽松的匹配）
-        result = extractFromAnyCodeBlock(content);
-        if (result != null && result.size() >= 3) {
-            Log.d(TAG, "解析成功: 任意代码块提取");
-            return result;
-        }
-        
-        // 策略G: 旧格式（|||分隔）
-        result = parseLegacyFormat(content);
-        if (result != null && result.size() >= 3) {
-            Log.d(TAG, "解析成功: |||分隔格式");
-            return result;
-        }
-        
-        // 策略H: 编号/项目符号列表
-        result = parseNumberedList(content);
-        if (result != null && result.size() >= 3) {
-            Log.d(TAG, "解析成功: 编号列表格式");
-            return result;
-        }
-        
-        // 策略I: 纯文本行（最后的备选方案）
-        result = parsePlainLines(content);
-        if (result != null && result.size() >= 3) {
-            Log.d(TAG, "解析成功: 纯文本行格式");
-            return result;
-        }
-        
-        return null;
-    }
+            int tokenBudget = ConfigManager.getContextTokenBudget();
+            ContextPacker.Result packed = ContextPacker.pack(history, sysPrompt, allMessages.toString(), 0,
+                    ConfigManager.isContextImageRecognitionEnabled() && ConfigManager.isImageRecognitionEnabled()
+                            && conversationId != null,
+                    tokenBudget, provider, conversationId);
+            history = packed.messages;
+            if (!history.isEmpty() && history.get(0).isSummary) {
+                JSONObject summaryMsg = new JSONObject();
+                summaryMsg.put("role", "user");
+                summaryMsg.put("content", "[之前的对话摘要]\n" + history.get(0).content);
+                messages.put(summaryMsg);
+                history = history.subList(1, history.size());
+            }
+            if (packed.omittedNote != null) {
+                JSONObject noteMsg = new JSONObject();
+                noteMsg.put("role", "user");
+                noteMsg.put("content", packed.omittedNote);
+                messages.put(noteMsg);
+            }
+            appendContextMessages(messages, history, conversationId);
 
-    /**
-     * 将JSONArray转换为List<String>
-     */
-    private static List<String> jsonArrayToList(JSONArray array) throws Exception {
-        List<String> result = new ArrayList<>();
-        for (int i = 0; i < array.length(); i++) {
-            String option = cleanOptionText(array.getString(i));
-            if (!option.isEmpty()) {
-                result.add(option);
+            String affinitySummary = buildAffinitySummary(context, history, null);
+            if (affinitySummary != null) {
+                JSONObject affinityMsg = new JSONObject();
+                affinityMsg.put("role", "user");
+                affinityMsg.put("content", affinitySummary);
+                messages.put(affinityMsg);
             }
-        }
-        return result;
-    }
-    
-    /**
-     * 清理选项文本
-     * 去除首尾空白、首尾引号等
-     */
-    private static String cleanOptionText(String text) {
-        if (text == null) {
-            return "";
-        }
-        
-        String cleaned = text.trim();
-        
-        // 去除首尾的双引号
-        if (cleaned.length() >= 2 && cleaned.startsWith("\"") && cleaned.endsWith("\"")) {
-            cleaned = cleaned.substring(1, cleaned.length() - 1).trim();
-        }
-        
-        // 去除首尾的单引号
-        if (cleaned.length() >= 2 && cleaned.startsWith("'") && cleaned.endsWith("'")) {
-            cleaned = cleaned.substring(1, cleaned.length() - 1).trim();
-        }
-        
-        // 去除首尾的中文引号
-        if (cleaned.length() >= 2) {
-             if ((cleaned.startsWith("“") && cleaned.endsWith("”"))){
-                 cleaned = cleaned.substring(1, cleaned.length() - 1).trim();
-             }
-         }
-        
-        return cleaned;
-    }
 
-    /**
-     * 解析旧格式（|||分隔）
-     */
-    private static List<String> parseLegacyFormat(String content) {
-        String[] parts = content.split("\\|\\|\\|");
-        List<String> result = new ArrayList<>();
-        for (String part : parts) {
-            String cleaned = cleanOptionText(part);
-            if (!cleaned.isEmpty()) {
-                result.add(cleaned);
+            for (int i = 0; i < count; i++) {
+                BatchItem item = items.get(i);
+                JSONObject userMsg = new JSONObject();
+                userMsg.put("role", "user");
+                userMsg.put("content", formatCurrentMessage(context, "[当前需添加选项信息#" + (i + 1) + "]",
+                        item.userMessage, item.currentSenderName, item.currentTimestamp, item.senderUin));
+                messages.put(userMsg);
             }
-        }
-        return result.size() >= 3 ? result : null;
-    }
 
-    // ==================== 新增解析辅助方法 ====================
+            JSONObject batchMsg = new JSONObject();
+            batchMsg.put("role", "user");
+            batchMsg.put("content", "[批量] 以上共有 " + count + " 条标注为[当前需添加选项信息#序号]的消息，"
+                    + "请按单条消息的要求分别为每一条生成选项，只输出一个JSON对象，格式："
+                    + "{\"batch\":[{\"id\":\"1\",\"options\":[\"选项1\",\"选项2\",\"选项3\"]}]}，"
+                    + "id 为消息的序号，每条消息一项，不要输出其他内容");
+            messages.put(batchMsg);
+            jsonBody.put("messages", messages);
 
-    /**
-     * 从markdown代码块中提取JSON
-     * 支持格式：```json ... ``` 或 ``` ... ```
-     * @param content 包含markdown代码块的内容
-     * @return 提取的JSON字符串，如果没有找到则返回null
-     */
-    private static String extractJsonFromMarkdown(String content) {
-        if (content == null || content.isEmpty()) {
-            return null;
-        }
-        
-        // 方法1：使用正则表达式匹配 ```json ... ``` 或 ``` ... ``` 格式
-        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(
-            "```(?:json)?\\s*\\n?([\\s\\S]*?)\\n?```",
-            java.util.regex.Pattern.CASE_INSENSITIVE
-        );
-        java.util.regex.Matcher matcher = pattern.matcher(content);
-        
-        if (matcher.find()) {
-            String extracted = matcher.group(1);
-            if (extracted != null && !extracted.trim().isEmpty()) {
-                Log.d(TAG, "extractJsonFromMarkdown: 正则匹配成功，长度=" + extracted.length());
-                return extracted.trim();
-            }
-        }
-        
-        // 方法2：手动查找 ```json 和 ``` 之间的内容（更健壮）
-        String lowerContent = content.toLowerCase();
-        int startIndex = lowerContent.indexOf("```json");
-        if (startIndex == -1) {
-            startIndex = lowerContent.indexOf("```");
-        }
-        
-        if (startIndex != -1) {
-            // 找到开始标记后的换行符
-            int contentStart = content.indexOf('\n', startIndex);
-            if (contentStart == -1) {
-                contentStart = startIndex + 7; // "```json" 的长度
+            Request request = buildChatRequest(apiUrl, endpoint.apiKey, jsonBody);
+
+            if (ConfigManager.isVerboseLogEnabled()) {
+                String requestLog = buildRequestLog(provider, model, apiUrl, endpoint.apiKey,
+                        truncateBase64InJson(jsonBody.toString(), 200));
+                Log.d(TAG, "发送批量AI请求(" + count + "条):\n" + requestLog);
+                AiLogManager.addLog(context, "批量AI请求(" + count + "条)\n" + requestLog);
             } else {
-                contentStart++; // 跳过换行符
+                Log.d(TAG, "发送批量AI请求(" + count + "条): " + provider + " / " + model);
             }
-            
-            // 找到结束的 ```
-            int endIndex = content.indexOf("```", contentStart);
-            if (endIndex != -1 && endIndex > contentStart) {
-                String extracted = content.substring(contentStart, endIndex).trim();
-                if (!extracted.isEmpty()) {
-                    Log.d(TAG, "extractJsonFromMarkdown: 手动提取成功，长度=" + extracted.length());
-                    return extracted;
-                }
-            }
-        }
-        
-        Log.d(TAG, "extractJsonFromMarkdown: 未找到Markdown代码块");
-        return null;
-    }
 
-    /**
-     * 从任意代码块中提取内容并尝试解析
-     * 更宽松的匹配方式，处理各种格式的代码块
-     * @param content 包含代码块的内容
-     * @return 解析出的选项列表
-     */
-    private static List<String> extractFromAnyCodeBlock(String content) {
-        if (content == null || content.isEmpty()) {
-            return null;
-        }
-        
-        // 查找所有 ``` 包围的代码块
-        int searchStart = 0;
-        while (searchStart < content.length()) {
-            // 找到开始的 ```
-            int blockStart = content.indexOf("```", searchStart);
-            if (blockStart == -1) {
-                break;
-            }
-            
-            // 跳过 ``` 后面可能的语言标识（如 json, javascript 等）
-            int contentStart = blockStart + 3;
-            // 找到换行符或直接开始内容
-            int newlinePos = content.indexOf('\n', contentStart);
-            if (newlinePos != -1 && newlinePos < contentStart + 20) {
-                // 检查 ``` 和换行之间是否只有语言标识
-                String langTag = content.substring(contentStart, newlinePos).trim();
-                if (langTag.isEmpty() || langTag.matches("^[a-zA-Z]+$")) {
-                    contentStart = newlinePos + 1;
-                }
-            }
-            
-            // 找到结束的 ```
-            int blockEnd = content.indexOf("```", contentStart);
-            if (blockEnd == -1) {
-                break;
-            }
-            
-            // 提取代码块内容
-            String blockContent = content.substring(contentStart, blockEnd).trim();
-            Log.d(TAG, "extractFromAnyCodeBlock: 找到代码块，长度=" + blockContent.length());
-            
-            if (!blockContent.isEmpty()) {
-                // 尝试多种解析方式
-                
-                // 1. 直接作为JSON解析
-                List<String> result = parseOptionsJson(blockContent);
-                if (result != null && result.size() >= 3) {
-                    Log.d(TAG, "extractFromAnyCodeBlock: JSON解析成功");
-                    return result;
-                }
-                
-                // 2. 从不完整JSON中提取
-                result = extractOptionsFromIncompleteJson(blockContent);
-                if (result != null && result.size() >= 3) {
-                    Log.d(TAG, "extractFromAnyCodeBlock: 不完整JSON提取成功");
-                    return result;
-                }
-                
-                // 3. 作为编号列表解析
-                result = parseNumberedList(blockContent);
-                if (result != null && result.size() >= 3) {
-                    Log.d(TAG, "extractFromAnyCodeBlock: 编号列表解析成功");
-                    return result;
+            final long httpStart = PerfMetrics.start();
+            final long requestStartMs = System.currentTimeMillis();
+            final long requestBytes = request.body().contentLength();
+            getClient().newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    PerfMetrics.recordError(PerfMetrics.Stage.AI_HTTP, httpStart);
+                    AiEndpointRouter.recordFailure(endpoint);
+                    Log.w(TAG, "批量AI请求失败: " + e.getMessage());
+                    logError(context, provider, model, apiUrl, "批量请求失败: " + e.getMessage());
+                    callback.onFailure(e);
                 }
-                
-                // 4. 作为纯文本行解析
-                result = parsePlainLines(blockContent);
-                if (result != null && result.size() >= 3) {
-                    Log.d(TAG, "extractFromAnyCodeBlock: 纯文本行解析成功");
-                    return result;
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    // 批量请求生成多条消息的选项，耗时比单条长得多：只上报状态码和限流响应头，
+                    // 不把耗时计入限流器的延迟基线和路由的延迟统计（否则会误判服务商变慢）
+                    endpoint.budget().onResponse(response.code(), response.headers(), 0);
+                    try {
+                        String responseBody = response.body() != null ? response.body().string() : "";
+                        if (!response.isSuccessful()) {
+                            PerfMetrics.recordError(PerfMetrics.Stage.AI_HTTP, httpStart);
+                            AiEndpointRouter.recordFailure(endpoint);
+                            if (response.code() == 429) {
+                                callback.onFailure(new IOException("Rate limit reached"));
+                            } else {
+                                logError(context, provider, model, apiUrl,
+                                        "批量请求失败 HTTP " + response.code() + "\n" + responseBody);
+                                callback.onFailure(new IOException("HTTP " + response.code()));
+                            }
+                            return;
+                        }
+
+                        PerfMetrics.record(PerfMetrics.Stage.AI_HTTP, httpStart);
+                        publishResponseEvent(requestBytes, responseBody, requestStartMs);
+                        List<List<String>> results = parseBatchResponse(responseBody, count);
+                        if (results == null) {
+                            AiEndpointRouter.recordFailure(endpoint);
+                            logError(context, provider, model, apiUrl, "批量响应格式无法识别\n" + responseBody);
+                            callback.onFailure(new Exception("AI返回格式错误"));
+                            return;
+                        }
+                        AiEndpointRouter.recordSuccess(endpoint, 0);
+                        callback.onSuccess(results);
+                    } catch (Exception e) {
+                        callback.onFailure(e);
+                    } finally {
+                        response.close();
+                    }
                 }
-            }
-            
-            // 继续查找下一个代码块
-            searchStart = blockEnd + 3;
+            });
+        } catch (Exception e) {
+            Log.e(TAG, "批量请求构建失败", e);
+            callback.onFailure(e);
         }
-        
-        return null;
     }
 
     /**
-     * 从混合文本中提取JSON对象
-     * 查找第一个 { 和最后一个匹配的 } 之间的内容
-     * @param content 可能包含JSON的混合文本
-     * @return 提取的JSON字符串，如果没有找到则返回null
+     * 解析批量选项响应
+     * 接受 {"batch":[{"id":"1","options":[...]}]}，也接受直接返回的数组；没有 id 时按顺序对应
+     *
+     * @return 与请求的消息一一对应的选项（选项不足3个的为null），整体无法解析时返回null
      */
-    private static String extractJsonFromText(String content) {
-        if (content == null || content.isEmpty()) {
-            return null;
-        }
-        
-        int firstBrace = content.indexOf('{');
-        if (firstBrace == -1) {
-            return null;
-        }
-        
-        // 找到匹配的闭合大括号（处理嵌套）
-        int depth = 0;
-        int lastBrace = -1;
-        for (int i = firstBrace; i < content.length(); i++) {
-            char c = content.charAt(i);
-            if (c == '{') {
-                depth++;
-            } else if (c == '}') {
-                depth--;
-                if (depth == 0) {
-                    lastBrace = i;
-                    break;
+    private static List<List<String>> parseBatchResponse(String responseBody, int count) {
+        try {
+            String content = new JSONObject(responseBody)
+                    .getJSONArray("choices").getJSONObject(0)
+                    .getJSONObject("message").optString("content", "").trim();
+            String json = OptionResponseParser.extractJsonFromMarkdown(content);
+            if (json == null) json = content;
+            JSONArray batch;
+            if (json.startsWith("[")) {
+                batch = new JSONArray(json);
+            } else {
+                int start = json.indexOf('{');
+                int end = json.lastIndexOf('}');
+                if (start < 0 || end <= start) return null;
+                batch = new JSONObject(json.substring(start, end + 1)).optJSONArray("batch");
+            }
+            if (batch == null) return null;
+
+            List<List<String>> results = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                results.add(null);
+            }
+            for (int i = 0; i < batch.length(); i++) {
+                JSONObject entry = batch.optJSONObject(i);
+                if (entry == null) continue;
+                int index = i;
+                String id = entry.optString("id", "").replaceAll("[^0-9]", "");
+                if (!id.isEmpty()) {
+                    index = Integer.parseInt(id) - 1;
+                }
+                JSONArray options = entry.optJSONArray("options");
+                if (index < 0 || index >= count || options == null) continue;
+                List<String> list = OptionResponseParser.jsonArrayToList(options);
+                if (list.size() >= 3) {
+                    results.set(index, list);
                 }
             }
-        }
-        
-        if (lastBrace == -1) {
+            return results;
+        } catch (Exception e) {
+            Log.w(TAG, "解析批量响应失败: " + e.getMessage());
             return null;
         }
-        
-        return content.substring(firstBrace, lastBrace + 1);
     }
 
     /**
-     * 解析options JSON对象
-     * 支持多种字段名：options, replies, answers, responses
-     * 注意：不处理OpenAI格式的choices（那是包含message对象的数组）
-     * @param jsonStr JSON字符串
-     * @return 选项列表，如果解析失败返回null
+     * 生成对话摘要（供 ConversationSummaryManager 通过队列以低优先级调用）
+     * 成功时回调的列表只有一个元素，即摘要正文；不显示Toast
+     *
+     * @param systemPrompt 摘要提示词
+     * @param transcript 需要压缩的对话记录（可包含旧摘要）
      */
-    private static List<String> parseOptionsJson(String jsonStr) {
-        if (jsonStr == null || jsonStr.isEmpty()) {
-            return null;
+    public static void fetchSummary(Context context, String systemPrompt, String transcript, AiCallback callback) {
+        // 摘要不影响交互延迟，不对冲，也不计入服务商统计
+        final AiEndpointRouter.Endpoint endpoint = selectEndpoint(AiEndpointRouter.rank(), callback);
+        if (endpoint == null) {
+            callback.onFailure(new IllegalArgumentException("API配置不完整"));
+            return;
         }
-        
+        String apiUrl = endpoint.url;
+        String apiKey = endpoint.apiKey;
+        String model = endpoint.model;
+        String provider = endpoint.provider;
+
         try {
-            JSONObject json = new JSONObject(jsonStr);
-            
-            // 尝试多种字段名（不包括OpenAI格式的choices）
-            String[] fieldNames = {"options", "replies", "answers", "responses"};
-            for (String fieldName : fieldNames) {
-                if (json.has(fieldName)) {
-                    Object value = json.get(fieldName);
-                    if (value instanceof JSONArray) {
-                        JSONArray array = (JSONArray) value;
-                        // 检查数组元素是否是字符串（而不是对象）
-                        if (array.length() > 0) {
-                            Object firstElement = array.get(0);
-                            if (firstElement instanceof String) {
-                                return jsonArrayToList(array);
+            JSONObject jsonBody = newChatBody(model, 0.3, 400, false);
+
+            JSONArray messages = new JSONArray();
+            JSONObject sysMsg = new JSONObject();
+            sysMsg.put("role", "system");
+            sysMsg.put("content", systemPrompt);
+            messages.put(sysMsg);
+            JSONObject userMsg = new JSONObject();
+            userMsg.put("role", "user");
+            userMsg.put("content", transcript);
+            messages.put(userMsg);
+            jsonBody.put("messages", messages);
+
+            Request request = buildChatRequest(apiUrl, apiKey, jsonBody);
+
+            Log.d(TAG, "发送摘要请求: " + provider + " / " + model);
+            final long requestStartMs = System.currentTimeMillis();
+            final long requestBytes = request.body().contentLength();
+            getClient().newCall(request).enqueue(new Callback() {
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    Log.w(TAG, "摘要请求失败: " + e.getMessage());
+                    callback.onFailure(e);
+                }
+
+                @Override
+                public void onResponse(Call call, Response response) throws IOException {
+                    // 摘要的耗时和选项请求差别很大，只反馈限流信息，不作为延迟样本
+                    endpoint.budget().onResponse(response.code(), response.headers(), 0);
+                    try {
+                        String responseBody = response.body() != null ? response.body().string() : "";
+                        if (!response.isSuccessful()) {
+                            if (response.code() == 429) {
+                                callback.onFailure(new IOException("Rate limit reached"));
+                            } else {
+                                logError(context, provider, model, apiUrl, "摘要请求失败 HTTP " + response.code() + "\n" + responseBody);
+                                callback.onFailure(new IOException("HTTP " + response.code()));
                             }
+                            return;
                         }
-                    }
-                }
-            }
-            
-            // 特殊处理：如果有choices字段，检查是否是简单字符串数组（而不是OpenAI格式）
-            if (json.has("choices")) {
-                Object choicesValue = json.get("choices");
-                if (choicesValue instanceof JSONArray) {
-                    JSONArray choices = (JSONArray) choicesValue;
-                    if (choices.length() > 0) {
-                        Object firstElement = choices.get(0);
-                        // 只有当第一个元素是字符串时才处理（排除OpenAI格式的对象数组）
-                        if (firstElement instanceof String) {
-                            return jsonArrayToList(choices);
+
+                        publishResponseEvent(requestBytes, responseBody, requestStartMs);
+
+                        String summary = new JSONObject(responseBody)
+                                .getJSONArray("choices").getJSONObject(0)
+                                .getJSONObject("message").optString("content", "").trim();
+                        if (summary.isEmpty()) {
+                            callback.onFailure(new Exception("摘要为空"));
+                            return;
                         }
+                        List<String> result = new ArrayList<>(1);
+                        result.add(summary);
+                        callback.onSuccess(result);
+                    } catch (Exception e) {
+                        callback.onFailure(e);
+                    } finally {
+                        response.close();
                     }
                 }
-            }
-            
-            return null;
+            });
         } catch (Exception e) {
-            Log.d(TAG, "parseOptionsJson失败: " + e.getMessage());
-            return null;
+            Log.e(TAG, "摘要请求构建失败", e);
+            callback.onFailure(e);
         }
     }
 
     /**
-     * 解析编号/项目符号列表
-     * 支持格式：1. xxx, 1、xxx, 1) xxx, - xxx, * xxx, • xxx
-     * @param content 列表文本
-     * @return 选项列表，如果解析失败返回null
+     * 汇总上下文中其他人的好感度，格式："[上下文中其他人的好感度] 昵称[QQ号]:好感度、..."
+     * 
+     * @param currentSenderUin 当前消息发送者（好感度已在当前消息中）
+     * @return 未启用好感度或没有可用数据时返回null
      */
-    private static List<String> parseNumberedList(String content) {
-        if (content == null || content.isEmpty()) {
+    private static String buildAffinitySummary(Context context,
+                                               List<top.galqq.utils.MessageContextManager.ChatMessage> contextMessages,
+                                               String currentSenderUin) {
+        if (contextMessages == null || contextMessages.isEmpty()
+                || !ConfigManager.isAffinityEnabled() || !ConfigManager.isAiIncludeAffinity()) {
             return null;
         }
-        
-        List<String> result = new ArrayList<>();
-        String[] lines = content.split("\\n");
-        
-        // 匹配编号或项目符号的正则
-        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(
-            "^\\s*(?:\\d+[.、)\\]]|[-*•])\\s*(.+)$"
-        );
-        
-        for (String line : lines) {
-            java.util.regex.Matcher matcher = pattern.matcher(line);
-            if (matcher.find()) {
-                String item = matcher.group(1);
-                if (item != null) {
-                    String cleaned = cleanOptionText(item);
-                    if (!cleaned.isEmpty()) {
-                        result.add(cleaned);
-                    }
-                }
+        java.util.Map<String, String> senders = new java.util.LinkedHashMap<>();
+        for (top.galqq.utils.MessageContextManager.ChatMessage msg : contextMessages) {
+            if (msg.isSelf || msg.isSummary || msg.senderUin == null || msg.senderUin.isEmpty()
+                    || msg.senderUin.equals(currentSenderUin)) {
+                continue;
             }
+            senders.put(msg.senderUin, msg.senderName);
         }
-        
-        return result.size() >= 3 ? result : null;
-    }
-
-    /**
-     * 解析纯文本行
-     * 将非空行作为选项，但过滤掉JSON/代码格式的行
-     * @param content 文本内容
-     * @return 选项列表，如果行数不足返回null
-     */
-    private static List<String> parsePlainLines(String content) {
-        if (content == null || content.isEmpty()) {
+        if (senders.isEmpty()) {
             return null;
         }
         
-        List<String> result = new ArrayList<>();
-        String[] lines = content.split("\\n");
-        
-        for (String line : lines) {
-            String trimmed = line.trim();
-            if (!trimmed.isEmpty() && isValidOptionLine(trimmed)) {
-                String cleaned = cleanOptionText(trimmed);
-                if (!cleaned.isEmpty()) {
-                    result.add(cleaned);
-                }
-            }
-        }
-        
-        return result.size() >= 3 ? result : null;
+        StringBuilder sb = new StringBuilder();
+        try {
+            AffinityManager affinityManager = AffinityManager.getInstance(context);
+            for (java.util.Map.Entry<String, String> entry : senders.entrySet()) {
+                int affinity = affinityManager.getAffinity(entry.getKey());
+                if (affinity < 0) continue;
+                sb.append(sb.length() == 0 ? "[上下文中其他人的好感度] " : "、")
+                  .append(entry.getValue() != null ? entry.getValue() : "昵称获取失败")
+                  .append('[').append(entry.getKey()).append("]:").append(affinity);
+            }
+        } catch (Throwable t) {
+            // 忽略好感度获取失败
+        }
+        return sb.length() > 0 ? sb.toString() : null;
     }
 
     /**
-     * 从不完整的JSON中提取选项
-     * 用于处理AI返回被截断的JSON情况
-     * @param content 可能不完整的JSON内容
-     * @return 提取的选项列表
+     * 发布HTTP响应事件（收发字节数、耗时、token用量）
+     * token用量取自响应中的 usage（OpenAI兼容格式），没有时按字节数粗略估算。
+     * 命中服务商前缀缓存的输入token有两种写法：
+     * - usage.prompt_tokens_details.cached_tokens（OpenAI、通义、Kimi等）
+     * - usage.prompt_cache_hit_tokens（DeepSeek）
      */
-    private static List<String> extractOptionsFromIncompleteJson(String content) {
-        if (content == null || content.isEmpty()) {
-            return null;
-        }
-        
-        List<String> result = new ArrayList<>();
-        
-        // 使用正则匹配JSON数组中的字符串元素
-        // 只匹配数组元素格式：  "内容"  或  "内容",  （前面不能是冒号，避免匹配字段值）
-        java.util.regex.Pattern pattern = java.util.regex.Pattern.compile(
-            "(?<!:)\\s*\"([^\"]{5,})\"\\s*[,\\]]?",  // 至少5个字符，避免匹配短字段名
-            java.util.regex.Pattern.MULTILINE
-        );
-        java.util.regex.Matcher matcher = pattern.matcher(content);
-        
-        // 需要过滤的字段名和API元数据
-        java.util.Set<String> skipValues = new java.util.HashSet<>();
-        // JSON字段名
-        skipValues.add("options");
-        skipValues.add("choices");
-        skipValues.add("replies");
-        skipValues.add("answers");
-        skipValues.add("responses");
-        skipValues.add("message");
-        skipValues.add("content");
-        skipValues.add("role");
-        skipValues.add("finish_reason");
-        skipValues.add("index");
-        skipValues.add("created");
-        skipValues.add("model");
-        skipValues.add("object");
-        skipValues.add("usage");
-        skipValues.add("completion_tokens");
-        skipValues.add("prompt_tokens");
-        skipValues.add("total_tokens");
-        // API响应值
-        skipValues.add("stop");
-        skipValues.add("length");
-        skipValues.add("assistant");
-        skipValues.add("user");
-        skipValues.add("system");
-        skipValues.add("chat.completion");
-        
-        while (matcher.find()) {
-            String value = matcher.group(1);
-            if (value != null && !value.isEmpty()) {
-                String lowerValue = value.toLowerCase().trim();
-                
-                // 跳过已知的字段名和元数据
-                if (skipValues.contains(lowerValue)) {
-                    continue;
-                }
-                
-                // 跳过太短的内容（可能是JSON语法）
-                if (value.length() < 5) {
-                    continue;
-                }
-                
-                // 跳过看起来像ID的字符串
-                if (value.matches("^[A-Za-z0-9_-]{15,50}$")) {
-                    continue;
-                }
-                
-                // 跳过模型名称
-                if (lowerValue.startsWith("gpt-") || lowerValue.startsWith("gemini-") ||
-                    lowerValue.startsWith("claude-") || lowerValue.startsWith("deepseek-") ||
-                    lowerValue.startsWith("qwen-") || lowerValue.startsWith("glm-")) {
-                    continue;
-                }
-                
-                // 跳过纯数字
-                if (value.matches("^\\d+$")) {
-                    continue;
-                }
-                
-                // 跳过纯英文单词（可能是字段名）
-                if (value.matches("^[a-zA-Z_]+$")) {
-                    continue;
-                }
-                
-                // 清理并添加
-                String cleaned = cleanOptionText(value);
-                if (!cleaned.isEmpty()) {
-                    result.add(cleaned);
+    private static void publishResponseEvent(long requestBytes, String responseBody, long requestStartMs) {
+        long totalTokens = -1;
+        long promptTokens = -1;
+        long cachedTokens = -1;
+        if (responseBody != null && responseBody.trim().startsWith("{")) {
+            try {
+                JSONObject usage = new JSONObject(responseBody).optJSONObject("usage");
+                if (usage != null) {
+                    promptTokens = usage.optLong("prompt_tokens", -1);
+                    totalTokens = usage.optLong("total_tokens", -1);
+                    if (totalTokens < 0) {
+                        totalTokens = Math.max(0, promptTokens) + usage.optLong("completion_tokens", 0);
+                    }
+                    JSONObject details = usage.optJSONObject("prompt_tokens_details");
+                    if (details != null && details.has("cached_tokens")) {
+                        cachedTokens = details.optLong("cached_tokens", -1);
+                    } else if (usage.has("prompt_cache_hit_tokens")) {
+                        cachedTokens = usage.optLong("prompt_cache_hit_tokens", -1);
+                    }
                 }
+            } catch (Exception e) {
+                // 不是JSON或没有usage，按估算处理
             }
         }
-        
-        return result.size() >= 3 ? result : null;
-    }
-
-    /**
-     * 判断一行是否是有效的选项内容
-     * 过滤掉JSON/代码格式的行和API响应元数据
-     * @param line 要检查的行
-     * @return 如果是有效选项返回true
-     */
-    private static boolean isValidOptionLine(String line) {
-        if (line == null || line.isEmpty()) {
-            return false;
-        }
-        
-        // 过滤markdown代码块标记
-        if (line.startsWith("```")) {
-            return false;
-        }
-        
-        // 过滤纯JSON语法字符的行
-        String stripped = line.replaceAll("[\\s\\[\\]{}:,\"]", "");
-        if (stripped.isEmpty()) {
-            return false;
-        }
-        
-        // 过滤JSON字段名行（如 "options": [ 或 "choices": [）
-        if (line.matches("^\"?\\w+\"?\\s*:\\s*\\[?\\s*$")) {
-            return false;
-        }
-        
-        // 过滤只有单个大括号或方括号的行
-        if (line.equals("{") || line.equals("}") || line.equals("[") || line.equals("]") ||
-            line.equals("{,") || line.equals("},") || line.equals("[,") || line.equals("],")) {
-            return false;
-        }
-        
-        // 【重要】过滤所有常见的JSON字段名和API响应元数据
-        String lowerLine = line.toLowerCase().trim();
-        
-        // 过滤常见的JSON字段名（这些是图片中显示的问题字段）
-        java.util.Set<String> invalidValues = new java.util.HashSet<>();
-        // API响应字段名
-        invalidValues.add("finish_reason");
-        invalidValues.add("length");
-        invalidValues.add("index");
-        invalidValues.add("message");
-        invalidValues.add("role");
-        invalidValues.add("assistant");
-        invalidValues.add("created");
-        invalidValues.add("id");
-        invalidValues.add("model");
-        invalidValues.add("object");
-        invalidValues.add("chat.completion");
-        invalidValues.add("usage");
-        invalidValues.add("completion_tokens");
-        invalidValues.add("prompt_tokens");
-        invalidValues.add("total_tokens");
-        // finish_reason 值
-        invalidValues.add("stop");
-        invalidValues.add("content_filter");
-        invalidValues.add("tool_calls");
-        invalidValues.add("function_call");
-        // role 值
-        invalidValues.add("user");
-        invalidValues.add("system");
-        invalidValues.add("function");
-        invalidValues.add("tool");
-        // 其他常见字段
-        invalidValues.add("content");
-        invalidValues.add("choices");
-        invalidValues.add("options");
-        invalidValues.add("text");
-        invalidValues.add("data");
-        invalidValues.add("error");
-        invalidValues.add("status");
-        invalidValues.add("code");
-        invalidValues.add("type");
-        invalidValues.add("name");
-        invalidValues.add("value");
-        
-        if (invalidValues.contains(lowerLine)) {
-            return false;
-        }
-        
-        // 过滤看起来像ID的字符串（通常是随机字符串，如 _Zguae_rBpTSqfkPjrrksAQ）
-        // 特征：只包含字母数字和下划线/横线，长度在10-60之间
-        if (line.matches("^[A-Za-z0-9_-]{10,60}$")) {
-            return false;
-        }
-        
-        // 过滤模型名称（常见格式）
-        if (lowerLine.startsWith("gpt-") || lowerLine.startsWith("gemini-") ||
-            lowerLine.startsWith("claude-") || lowerLine.startsWith("deepseek-") ||
-            lowerLine.startsWith("qwen-") || lowerLine.startsWith("glm-") ||
-            lowerLine.startsWith("moonshot-") || lowerLine.startsWith("kimi-") ||
-            lowerLine.startsWith("llama-") || lowerLine.startsWith("mistral-")) {
-            return false;
-        }
-        
-        // 过滤纯数字（可能是token计数、时间戳等）
-        if (line.matches("^\\d+$")) {
-            return false;
-        }
-        
-        // 过滤JSON键值对格式（如 "key": value 或 "key": "value"）
-        if (line.matches("^\"?\\w+\"?\\s*:\\s*.+$")) {
-            return false;
-        }
-        
-        // 过滤纯英文单词（可能是字段名，至少要有中文或特殊字符才是有效选项）
-        if (line.matches("^[a-zA-Z_]+$")) {
-            return false;
-        }
-        
-        // 过滤下划线连接的英文单词（如 completion_tokens）
-        if (line.matches("^[a-zA-Z]+(_[a-zA-Z]+)+$")) {
-            return false;
-        }
-        
-        return true;
+        long bytesIn = AiQueueEvents.estimateBytes(responseBody);
+        AiQueueEvents.publish(AiQueueEvents.Source.MAIN, AiQueueEvents.Type.RESPONSE, 0,
+                requestBytes, bytesIn, System.currentTimeMillis() - requestStartMs,
+                totalTokens >= 0 ? totalTokens : (requestBytes + bytesIn) / 3,
+                promptTokens, cachedTokens,
+                totalTokens >= 0 ? null : "估算");
     }
 
     /**
@@ -2527,6 +2161,68 @@ public class HttpAiClient {
         return result.toString();
     }
 
+    /**
+     * 选择本次请求的服务商：回调指定了服务商（{@link EndpointPinned}）时用它，否则用路由首选
+     * @return 没有可用服务商时返回null
+     */
+    private static AiEndpointRouter.Endpoint selectEndpoint(List<AiEndpointRouter.Endpoint> ranked, Object callback) {
+        if (callback instanceof EndpointPinned) {
+            AiEndpointRouter.Endpoint pinned = ((EndpointPinned) callback).pinnedEndpoint();
+            if (pinned != null) return pinned;
+        }
+        return ranked.isEmpty() ? null : ranked.get(0);
+    }
+
+    /**
+     * 对冲请求的服务商：排序中第一个和主请求不同的服务商，没有时返回null
+     */
+    private static AiEndpointRouter.Endpoint selectHedgeEndpoint(List<AiEndpointRouter.Endpoint> ranked,
+                                                                 AiEndpointRouter.Endpoint endpoint) {
+        for (AiEndpointRouter.Endpoint candidate : ranked) {
+            if (!candidate.id().equals(endpoint.id())) return candidate;
+        }
+        return null;
+    }
+
+    /**
+     * 构建 chat/completions 请求体的公共字段（不含 messages）
+     * 温度和最大token只在合理范围内添加，超出范围的交给服务端默认值
+     * @param withReasoning 是否按配置附带 reasoning_effort
+     */
+    private static JSONObject newChatBody(String model, double temperature, int maxTokens,
+                                          boolean withReasoning) throws JSONException {
+        JSONObject jsonBody = new JSONObject();
+        jsonBody.put("model", model);
+        if (temperature > 0 && temperature <= 2.0) {
+            jsonBody.put("temperature", temperature);
+        }
+        if (maxTokens > 0 && maxTokens <= 4096) {
+            jsonBody.put("max_tokens", maxTokens);
+        }
+        if (withReasoning && ConfigManager.isReasoningEffortEnabled()) {
+            String reasoningEffort = ConfigManager.getAiReasoningEffort();
+            jsonBody.put("reasoning_effort", reasoningEffort);
+            Log.d(TAG, "启用思考模式: reasoning_effort=" + reasoningEffort);
+        }
+        return jsonBody;
+    }
+
+    /**
+     * 构建发往 chat/completions 接口的 POST 请求（JSON 请求体 + Bearer 鉴权）
+     */
+    private static Request buildChatRequest(String url, String apiKey, JSONObject jsonBody) {
+        RequestBody body = RequestBody.create(
+                jsonBody.toString(),
+                MediaType.get("application/json; charset=utf-8")
+        );
+        return new Request.Builder()
+                .url(url)
+                .addHeader("Authorization", "Bearer " + apiKey)
+                .addHeader("Content-Type", "application/json")
+                .post(body)
+                .build();
+    }
+
     /**
      * 构建请求日志（用于调试）
      */
@@ -2568,7 +2264,7 @@ public class HttpAiClient {
      * @param apiUrl 原始API URL
      * @return 规范化后的API URL
      */
-    private static String normalizeApiUrl(String apiUrl) {
+    static String normalizeApiUrl(String apiUrl) {
         if (apiUrl == null || apiUrl.trim().isEmpty()) {
             return apiUrl;
         }
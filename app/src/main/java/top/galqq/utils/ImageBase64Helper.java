@@ -305,6 +305,17 @@ public class ImageBase64Helper {
      * @return Base64编码字符串(带data:image前缀)，失败返回null
      */
     public static String fromImageElement(ImageExtractor.ImageElement imageElement) {
+        long perfStart = PerfMetrics.start();
+        String base64 = fromImageElementInternal(imageElement);
+        if (base64 != null) {
+            PerfMetrics.record(PerfMetrics.Stage.IMAGE_PREP, perfStart);
+        } else {
+            PerfMetrics.recordError(PerfMetrics.Stage.IMAGE_PREP, perfStart);
+        }
+        return base64;
+    }
+    
+    private static String fromImageElementInternal(ImageExtractor.ImageElement imageElement) {
         if (imageElement == null) {
             debugLog("imageElement为null");
             return null;
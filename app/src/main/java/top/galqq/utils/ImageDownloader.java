@@ -3,7 +3,6 @@ package top.galqq.utils;
 import android.content.Context;
 import android.util.Base64;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -24,9 +23,9 @@ import top.galqq.hook.RkeyHook;
  * - 私聊图片: https://multimedia.nt.qq.com.cn + originUrl + rkey_private (appid=1406)
  * - 群聊图片: https://multimedia.nt.qq.com.cn + originUrl + rkey_group (其他appid)
  * 
- * rkey获取方式：
+ * rkey获取方式（由 RkeyStore 统一管理，下载时不会同步等待rkey）：
  * 1. 优先从QQ内部获取（通过hook OidbSvcTrpcTcp.0x9067_202）
- * 2. 兜底从 llob.linyuchen.net/rkey 获取
+ * 2. 兜底从 llob.linyuchen.net/rkey 等API在后台获取
  */
 public class ImageDownloader {
     
@@ -35,21 +34,9 @@ public class ImageDownloader {
     // QQ图片服务器基础URL
     private static final String BASE_URL = "https://multimedia.nt.qq.com.cn";
     
-    // 兜底rkey API（多个备用服务器）
-    private static final String[] RKEY_API_URLS = {
-        "https://llob.linyuchen.net/rkey",
-        "http://ss.xingzhige.com/music_card/rkey",
-        "https://secret-service.bietiaop.com/rkeys"
-    };
-    
     // 旧版图片服务器URL（不需要rkey）
     private static final String LEGACY_BASE_URL = "https://gchat.qpic.cn";
     
-    // 缓存的rkey（来自API兜底，Hook获取的rkey直接从RkeyHook.rkey_group/rkey_private读取）
-    private static volatile String cachedGroupRkey = null;
-    private static volatile String cachedPrivateRkey = null;
-    private static volatile long rkeyExpireTime = 0;
-    
     // 下载超时设置
     private static final int CONNECT_TIMEOUT = 10000; // 10秒
     private static final int READ_TIMEOUT = 30000; // 30秒
@@ -121,14 +108,9 @@ public class ImageDownloader {
         // ========== 优先级2: 尝试网络下载 ==========
         debugLog("[优先级2] 尝试网络下载...");
         
-        // 【打印 RkeyHook 状态】
-        debugLog("RkeyHook 状态:");
-        debugLog("  rkey_group: " + (top.galqq.hook.RkeyHook.rkey_group != null ? 
-            top.galqq.hook.RkeyHook.rkey_group.substring(0, Math.min(50, top.galqq.hook.RkeyHook.rkey_group.length())) + "..." : "null"));
-        debugLog("  rkey_private: " + (top.galqq.hook.RkeyHook.rkey_private != null ? 
-            top.galqq.hook.RkeyHook.rkey_private.substring(0, Math.min(50, top.galqq.hook.RkeyHook.rkey_private.length())) + "..." : "null"));
-        debugLog("  hasValidRkey: " + top.galqq.hook.RkeyHook.hasValidRkey());
-        debugLog("  stats: " + top.galqq.hook.RkeyHook.getStats());
+        // 【打印 rkey 状态】
+        debugLog("rkey 状态: " + RkeyStore.getStatus());
+        debugLog("  stats: " + RkeyHook.getStats());
         
         String originUrl = imageElement.imageUrl;
         String md5 = imageElement.md5;
@@ -252,9 +234,13 @@ public class ImageDownloader {
                 // QAuxiliary 的 rkey 已经包含 &rkey= 前缀，直接拼接
                 url += rkey;
                 debugLog("  最终URL（带rkey）: " + url.substring(0, Math.min(150, url.length())) + "...");
+            } else if (md5 != null && !md5.isEmpty()) {
+                // 没有可用rkey时新版URL必然失败，改用MD5构建旧版URL（不需要rkey）
+                url = LEGACY_BASE_URL + "/gchatpic_new/0/0-0-" + md5.toUpperCase() + "/0";
+                debugLog("  ⚠ 暂无可用rkey（后台刷新中），改用MD5旧版URL: " + url);
             } else {
-                debugLog("  ⚠ 获取rkey失败，URL不带rkey（可能无法访问）");
-                debugLog("  最终URL（无rkey）: " + url.substring(0, Math.min(150, url.length())) + "...");
+                debugLog("  ⚠ 暂无可用rkey（后台刷新中），跳过网络下载");
+                return null;
             }
             return url;
         }
@@ -276,57 +262,17 @@ public class ImageDownloader {
     }
     
     /**
-     * 获取rkey
-     * 完全按照 QAuxiliary 的方式：优先使用 RkeyHook 的静态变量，如果没有则使用 API 兜底
+     * 获取rkey（不阻塞）
+     * 从 RkeyStore 读取：快到期时由 RkeyStore 在后台刷新，没有可用rkey时返回null
      * 
      * @param isGroup 是否是群聊图片
      * @return rkey字符串
      */
     private static String getRkey(boolean isGroup) {
-        debugLog("    [getRkey] 开始获取rkey, isGroup=" + isGroup);
-        
-        // 优先使用 RkeyHook 获取的 rkey（和 QAuxiliary 一样直接访问静态变量）
-        debugLog("    [getRkey] 检查RkeyHook静态变量...");
-        debugLog("    [getRkey]   RkeyHook.rkey_group = " + (RkeyHook.rkey_group != null ? 
-            "'" + RkeyHook.rkey_group.substring(0, Math.min(50, RkeyHook.rkey_group.length())) + "...'" : "null"));
-        debugLog("    [getRkey]   RkeyHook.rkey_private = " + (RkeyHook.rkey_private != null ? 
-            "'" + RkeyHook.rkey_private.substring(0, Math.min(50, RkeyHook.rkey_private.length())) + "...'" : "null"));
-        
-        String hookedRkey = isGroup ? RkeyHook.rkey_group : RkeyHook.rkey_private;
-        if (hookedRkey != null && !hookedRkey.isEmpty()) {
-            debugLog("    [getRkey] ✓ 使用RkeyHook获取的rkey: " + (isGroup ? "group" : "private"));
-            return hookedRkey;
-        }
-        debugLog("    [getRkey] RkeyHook中没有有效的rkey");
-        
-        // 检查 API 缓存是否有效
-        debugLog("    [getRkey] 检查API缓存...");
-        debugLog("    [getRkey]   当前时间: " + System.currentTimeMillis());
-        debugLog("    [getRkey]   缓存过期时间: " + rkeyExpireTime);
-        debugLog("    [getRkey]   缓存是否有效: " + (System.currentTimeMillis() < rkeyExpireTime));
-        debugLog("    [getRkey]   cachedGroupRkey = " + (cachedGroupRkey != null ? 
-            "'" + cachedGroupRkey.substring(0, Math.min(50, cachedGroupRkey.length())) + "...'" : "null"));
-        debugLog("    [getRkey]   cachedPrivateRkey = " + (cachedPrivateRkey != null ? 
-            "'" + cachedPrivateRkey.substring(0, Math.min(50, cachedPrivateRkey.length())) + "...'" : "null"));
-        
-        if (System.currentTimeMillis() < rkeyExpireTime) {
-            String cached = isGroup ? cachedGroupRkey : cachedPrivateRkey;
-            if (cached != null && !cached.isEmpty()) {
-                debugLog("    [getRkey] ✓ 使用API缓存的rkey: " + (isGroup ? "group" : "private"));
-                return cached;
-            }
-        }
-        debugLog("    [getRkey] API缓存无效或为空");
-        
-        // 从兜底API获取rkey
-        debugLog("    [getRkey] 尝试从兜底API获取rkey...");
-        fetchRkeyFromApi();
-        
-        String result = isGroup ? cachedGroupRkey : cachedPrivateRkey;
-        debugLog("    [getRkey] API获取结果: " + (result != null ? 
-            "'" + result.substring(0, Math.min(50, result.length())) + "...'" : "null"));
-        
-        return result;
+        String rkey = RkeyStore.get(isGroup);
+        debugLog("    [getRkey] " + (isGroup ? "group" : "private") + ": "
+                + (rkey != null ? "'" + rkey.substring(0, Math.min(50, rkey.length())) + "...'" : "无可用rkey"));
+        return rkey;
     }
     
     /**
@@ -336,149 +282,6 @@ public class ImageDownloader {
     public static boolean hasHookedRkey() {
         return RkeyHook.hasValidRkey();
     }
-    
-    /**
-     * 从兜底API获取rkey（尝试多个服务器）
-     */
-    private static synchronized void fetchRkeyFromApi() {
-        // 再次检查缓存（双重检查锁定）
-        if (System.currentTimeMillis() < rkeyExpireTime) {
-            if (cachedGroupRkey != null && cachedPrivateRkey != null) {
-                return;
-            }
-        }
-        
-        // 尝试多个服务器
-        for (String apiUrl : RKEY_API_URLS) {
-            if (tryFetchRkeyFromUrl(apiUrl)) {
-                debugLog("成功从 " + apiUrl + " 获取rkey");
-                return;
-            }
-        }
-        
-        debugLog("所有rkey API都失败了");
-    }
-    
-    /**
-     * 尝试从指定URL获取rkey
-     */
-    private static boolean tryFetchRkeyFromUrl(String apiUrl) {
-        HttpURLConnection conn = null;
-        try {
-            debugLog("请求rkey API: " + apiUrl);
-            
-            URL url = new URL(apiUrl);
-            conn = (HttpURLConnection) url.openConnection();
-            conn.setRequestMethod("GET");
-            conn.setConnectTimeout(5000);
-            conn.setReadTimeout(5000);
-            conn.setRequestProperty("User-Agent", "GalQQ/1.0");
-            
-            int responseCode = conn.getResponseCode();
-            debugLog("rkey API响应码: " + responseCode);
-            
-            if (responseCode == HttpURLConnection.HTTP_OK) {
-                InputStream is = conn.getInputStream();
-                ByteArrayOutputStream baos = new ByteArrayOutputStream();
-                byte[] buffer = new byte[1024];
-                int len;
-                while ((len = is.read(buffer)) != -1) {
-                    baos.write(buffer, 0, len);
-                }
-                is.close();
-                
-                String response = baos.toString("UTF-8");
-                debugLog("rkey API响应: " + response);
-                
-                // 解析JSON响应
-                return parseRkeyResponse(response);
-            } else {
-                debugLog("rkey API请求失败: " + responseCode);
-                return false;
-            }
-            
-        } catch (Exception e) {
-            debugLog("获取rkey异常: " + e.getMessage());
-            return false;
-        } finally {
-            if (conn != null) {
-                conn.disconnect();
-            }
-        }
-    }
-    
-    /**
-     * 解析rkey API响应
-     * 响应格式1: {"private_rkey":"&rkey=xxx","group_rkey":"&rkey=xxx","expired_time":1764784979}
-     * 响应格式2 (NapCatQQ): {"group_rkey":"xxx","private_rkey":"xxx","expired_time":xxx}
-     * 注意：NapCatQQ 的 rkey 需要去掉前6个字符（"&rkey="前缀）
-     * @return true 如果解析成功
-     */
-    private static boolean parseRkeyResponse(String response) {
-        try {
-            org.json.JSONObject json = new org.json.JSONObject(response);
-            
-            // 支持 OneBot 风格的响应（有 data 字段）
-            if (json.has("data") && json.get("data") instanceof org.json.JSONObject) {
-                json = json.getJSONObject("data");
-            }
-            
-            String privateRkey = null;
-            String groupRkey = null;
-            
-            // 获取private_rkey
-            if (json.has("private_rkey")) {
-                privateRkey = json.getString("private_rkey");
-            }
-            
-            // 获取group_rkey
-            if (json.has("group_rkey")) {
-                groupRkey = json.getString("group_rkey");
-            }
-            
-            // 检查是否获取到了 rkey
-            if (privateRkey == null && groupRkey == null) {
-                debugLog("响应中没有找到 rkey");
-                return false;
-            }
-            
-            // 处理 rkey 格式（确保以 &rkey= 开头）
-            if (privateRkey != null) {
-                if (!privateRkey.startsWith("&rkey=")) {
-                    // NapCatQQ 格式，需要添加前缀
-                    privateRkey = "&rkey=" + privateRkey;
-                }
-                cachedPrivateRkey = privateRkey;
-                debugLog("获取到private_rkey: " + cachedPrivateRkey.substring(0, Math.min(50, cachedPrivateRkey.length())) + "...");
-            }
-            
-            if (groupRkey != null) {
-                if (!groupRkey.startsWith("&rkey=")) {
-                    // NapCatQQ 格式，需要添加前缀
-                    groupRkey = "&rkey=" + groupRkey;
-                }
-                cachedGroupRkey = groupRkey;
-                debugLog("获取到group_rkey: " + cachedGroupRkey.substring(0, Math.min(50, cachedGroupRkey.length())) + "...");
-            }
-            
-            // 获取过期时间
-            if (json.has("expired_time")) {
-                long expiredTime = json.getLong("expired_time");
-                // 转换为毫秒，并提前5分钟过期以确保安全
-                rkeyExpireTime = expiredTime * 1000 - TimeUnit.MINUTES.toMillis(5);
-                debugLog("rkey过期时间: " + expiredTime);
-            } else {
-                // 默认缓存1小时
-                rkeyExpireTime = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
-            }
-            
-            return cachedPrivateRkey != null || cachedGroupRkey != null;
-            
-        } catch (Exception e) {
-            debugLog("解析rkey响应失败: " + e.getMessage());
-            return false;
-        }
-    }
 
     /**
      * 下载图片到临时文件
@@ -625,10 +428,7 @@ public class ImageDownloader {
      */
     public static void setRkey(String groupRkey, String privateRkey) {
         debugLog("手动设置rkey - group: " + groupRkey + ", private: " + privateRkey);
-        cachedGroupRkey = groupRkey;
-        cachedPrivateRkey = privateRkey;
-        // 设置1小时过期
-        rkeyExpireTime = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+        RkeyStore.set(groupRkey, privateRkey);
     }
     
     /**
@@ -636,9 +436,7 @@ public class ImageDownloader {
      */
     public static void clearRkeyCache() {
         debugLog("清除rkey缓存");
-        cachedGroupRkey = null;
-        cachedPrivateRkey = null;
-        rkeyExpireTime = 0;
+        RkeyStore.clear();
     }
     
     /**
@@ -646,9 +444,7 @@ public class ImageDownloader {
      * @return true如果rkey有效
      */
     public static boolean isRkeyValid() {
-        return System.currentTimeMillis() < rkeyExpireTime 
-            && cachedGroupRkey != null 
-            && cachedPrivateRkey != null;
+        return RkeyStore.hasValidRkey();
     }
     
     /**
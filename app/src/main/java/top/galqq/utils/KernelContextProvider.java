@@ -0,0 +1,317 @@
+package top.galqq.utils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import de.robv.android.xposed.XposedBridge;
+import de.robv.android.xposed.XposedHelpers;
+import top.galqq.bridge.qqnt.MsgServiceHelper;
+import top.galqq.config.ConfigManager;
+import top.galqq.hook.MessageInterceptor;
+
+/**
+ * 从QQ消息服务拉取会话上下文
+ *
+ * 组装AI请求前，通过 IKernelMsgService.getMsgsIncludeSelf 一次取回当前消息之前的最近N条消息，
+ * 转成 ChatMessage 放进 MessageContextManager（按 msgId 去重，也会写入磁盘日志），
+ * 上下文不再依赖用户把消息滑到屏幕上。
+ *
+ * - 同一会话在 {@link #FRESH_MS} 内只拉取一次，并发的请求共用同一次拉取
+ * - 内存里已有足够的上下文时不等待，拉取和请求并行（结果供后续请求使用）；
+ *   不够时最多等待 {@link #WAIT_MS}，超时就用已有的上下文继续（结果晚到时仍会合并）
+ * - 和消息气泡绑定一样按黑白名单过滤发送者
+ * - 当前QQ版本没有对应接口时不再尝试，退回原来的"只用显示过的消息"
+ */
+public final class KernelContextProvider {
+
+    private static final String TAG = "GalQQ.KernelContext";
+
+    private static void debugLog(String message) {
+        try {
+            if (ConfigManager.isVerboseLogEnabled()) {
+                XposedBridge.log(TAG + ": " + message);
+            }
+        } catch (Throwable ignored) {}
+    }
+
+    // 拉取结果的有效期
+    private static final long FRESH_MS = 60_000;
+    // 组装请求时最多等待拉取结果的时间（只在已有上下文不够时等待）
+    private static final long WAIT_MS = 400;
+    // 超过这个时间还没有回调，视为丢失，允许重新拉取
+    private static final long IN_FLIGHT_TIMEOUT_MS = 10_000;
+
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "GalQQ-KernelContext");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // 以下受 KernelContextProvider.class 锁保护
+    private static final Map<String, Long> sFetchedAt = new HashMap<>();
+    private static final Map<String, Long> sInFlightSince = new HashMap<>();
+    private static final Map<String, List<Runnable>> sWaiters = new HashMap<>();
+
+    private static volatile Object sKernelMsgService;
+    private static volatile Method sGetMsgsMethod;
+    private static volatile boolean sUnsupported = false;
+
+    private KernelContextProvider() {}
+
+    /**
+     * 确保会话的上下文是新的，然后在主线程执行 then
+     * 不需要拉取（未开启、接口不可用、结果未过期）或内存里的上下文已经够用时在当前线程立即执行，
+     * 后者仍会在后台拉取
+     *
+     * @param msgRecord 当前消息的 MsgRecord（作为拉取的锚点）
+     * @param count 需要的消息条数
+     */
+    public static void refresh(Context context, Object msgRecord, String conversationId, int count, Runnable then) {
+        if (sUnsupported || msgRecord == null || conversationId == null
+                || !ConfigManager.isContextFromKernelEnabled()) {
+            then.run();
+            return;
+        }
+
+        final AtomicBoolean done = new AtomicBoolean(false);
+        final Runnable once = () -> {
+            if (done.compareAndSet(false, true)) then.run();
+        };
+        // 当前消息也在上下文里，所以要求的条数包含它
+        boolean enough = MessageContextManager.getCachedMessageCount(conversationId) >= count;
+        boolean fresh;
+        boolean start = false;
+        synchronized (KernelContextProvider.class) {
+            long now = System.currentTimeMillis();
+            Long fetchedAt = sFetchedAt.get(conversationId);
+            fresh = fetchedAt != null && now - fetchedAt < FRESH_MS;
+            if (!fresh) {
+                if (!enough) {
+                    List<Runnable> waiters = sWaiters.get(conversationId);
+                    if (waiters == null) {
+                        waiters = new ArrayList<>();
+                        sWaiters.put(conversationId, waiters);
+                    }
+                    waiters.add(once);
+                }
+                Long since = sInFlightSince.get(conversationId);
+                start = since == null || now - since > IN_FLIGHT_TIMEOUT_MS;
+                if (start) {
+                    sInFlightSince.put(conversationId, now);
+                }
+            }
+        }
+        if (fresh || enough) {
+            then.run();
+        } else {
+            sMainHandler.postDelayed(once, WAIT_MS);
+        }
+        if (start) {
+            final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+            sExecutor.execute(() -> fetch(appContext, msgRecord, conversationId, count));
+        }
+    }
+
+    private static void fetch(Context context, Object msgRecord, String conversationId, int count) {
+        long start = System.currentTimeMillis();
+        try {
+            Method getMsgs = resolveGetMsgs(context);
+            if (getMsgs == null) {
+                complete(conversationId, null, context, start);
+                return;
+            }
+            Class<?>[] paramTypes = getMsgs.getParameterTypes();
+            int chatType = XposedHelpers.getIntField(msgRecord, "chatType");
+            String peerUid = (String) XposedHelpers.getObjectField(msgRecord, "peerUid");
+            String guildId = "";
+            try {
+                Object guild = XposedHelpers.getObjectField(msgRecord, "guildId");
+                if (guild != null) guildId = String.valueOf(guild);
+            } catch (Throwable ignored) {}
+            long anchorMsgId = XposedHelpers.getLongField(msgRecord, "msgId");
+
+            Object contact = XposedHelpers.newInstance(paramTypes[0], chatType, peerUid, guildId);
+            Class<?> callbackType = paramTypes[4];
+            Object callback = Proxy.newProxyInstance(callbackType.getClassLoader(), new Class<?>[]{callbackType},
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "toString":
+                                return TAG + "$Callback";
+                        }
+                        // onResult(int result, String errMsg, ArrayList<MsgRecord> msgList)
+                        List<?> records = null;
+                        if (args != null && args.length >= 3 && args[0] instanceof Integer && (Integer) args[0] == 0
+                                && args[2] instanceof List) {
+                            records = (List<?>) args[2];
+                        } else if (args != null && args.length >= 2) {
+                            debugLog("拉取失败 " + conversationId + ": " + args[0] + " " + args[1]);
+                        }
+                        complete(conversationId, records, context, start);
+                        return null;
+                    });
+            // queryOrder=false：取锚点及其之前的消息
+            getMsgs.invoke(sKernelMsgService, contact, anchorMsgId, count, false, callback);
+        } catch (Throwable t) {
+            debugLog("拉取异常 " + conversationId + ": " + t.getMessage());
+            complete(conversationId, null, context, start);
+        }
+    }
+
+    /**
+     * 查找 getMsgsIncludeSelf / getMsgs(Contact, long, int, boolean, IMsgOperateCallback)
+     */
+    private static Method resolveGetMsgs(Context context) throws ReflectiveOperationException {
+        if (sGetMsgsMethod != null) return sGetMsgsMethod;
+        Object appRuntime = AppRuntimeHelper.getAppRuntime(context);
+        if (appRuntime == null) return null;
+        Object service = MsgServiceHelper.getKernelMsgServiceRaw(appRuntime, context);
+        if (service == null) return null;
+
+        Method found = null;
+        for (String name : new String[]{"getMsgsIncludeSelf", "getMsgs"}) {
+            for (Method m : service.getClass().getMethods()) {
+                Class<?>[] p = m.getParameterTypes();
+                if (m.getName().equals(name) && p.length == 5 && p[1] == long.class && p[2] == int.class
+                        && p[3] == boolean.class && p[4].isInterface()) {
+                    found = m;
+                    break;
+                }
+            }
+            if (found != null) break;
+        }
+        if (found == null) {
+            sUnsupported = true;
+            debugLog("当前QQ版本没有可用的历史消息接口，退回使用已显示的消息");
+            return null;
+        }
+        sKernelMsgService = service;
+        sGetMsgsMethod = found;
+        debugLog("使用 " + found.getName() + " 拉取上下文");
+        return found;
+    }
+
+    private static void complete(String conversationId, List<?> records, Context context, long start) {
+        int usable = 0;
+        if (records != null) {
+            long selfUin = 0;
+            try {
+                selfUin = AppRuntimeHelper.getLongAccountUin(context);
+            } catch (Throwable ignored) {}
+            for (Object record : records) {
+                try {
+                    if (addRecord(record, conversationId, selfUin)) usable++;
+                } catch (Throwable t) {
+                    debugLog("转换消息失败: " + t.getMessage());
+                }
+            }
+        }
+
+        List<Runnable> waiters;
+        synchronized (KernelContextProvider.class) {
+            sInFlightSince.remove(conversationId);
+            sFetchedAt.put(conversationId, System.currentTimeMillis());
+            waiters = sWaiters.remove(conversationId);
+        }
+        debugLog("拉取 " + conversationId + " 完成: " + (records != null ? records.size() : 0) + " 条，可用 " + usable
+                + " 条，耗时 " + (System.currentTimeMillis() - start) + "ms");
+        if (waiters != null) {
+            for (Runnable waiter : waiters) {
+                sMainHandler.post(waiter);
+            }
+        }
+    }
+
+    /**
+     * 把一条 MsgRecord 转成上下文消息，规则和消息气泡绑定时一致
+     *
+     * @return 是否加入了上下文
+     */
+    private static boolean addRecord(Object record, String conversationId, long selfUin) {
+        String senderUin = String.valueOf(XposedHelpers.getObjectField(record, "senderUin"));
+        // 黑白名单过滤（和 MessageInterceptor 绑定消息时一致，被过滤的发送者不进入上下文）
+        String filterMode = ConfigManager.getFilterMode();
+        if ("blacklist".equals(filterMode)) {
+            if (ConfigManager.isInBlacklist(senderUin)) return false;
+        } else if ("whitelist".equals(filterMode)) {
+            if (!ConfigManager.isInWhitelist(senderUin)) return false;
+        }
+
+        int msgType = XposedHelpers.getIntField(record, "msgType");
+        // 5 = 灰条（撤回等），3 = 文件，7 = 视频
+        if (msgType == 5 || msgType == 3 || msgType == 7) return false;
+        try {
+            // 转发聊天记录的容器
+            if (msgType == 11 && XposedHelpers.getIntField(record, "subMsgType") == 7) return false;
+        } catch (Throwable ignored) {}
+
+        boolean isSelf = XposedHelpers.getIntField(record, "sendType") == 1
+                || (selfUin > 0 && senderUin.equals(String.valueOf(selfUin)));
+        String msgId = String.valueOf(XposedHelpers.getObjectField(record, "msgId"));
+        long msgTime = Long.parseLong(String.valueOf(XposedHelpers.getObjectField(record, "msgTime"))) * 1000L;
+
+        String content = MessageInterceptor.getMessageContentNT(record);
+        List<ImageExtractor.ImageElement> images = null;
+        List<ImageExtractor.EmojiElement> emojis = null;
+        if (ConfigManager.isImageRecognitionEnabled()) {
+            images = ImageExtractor.extractImages(record);
+        }
+        if (ConfigManager.isEmojiRecognitionEnabled()) {
+            emojis = ImageExtractor.extractEmojis(record);
+        }
+        boolean hasImages = images != null && !images.isEmpty();
+        boolean hasEmojis = emojis != null && !emojis.isEmpty();
+        if (hasImages || hasEmojis) {
+            List<String> imageDescriptions = null;
+            if (hasImages) {
+                if (ConfigManager.isVisionAiEnabled()) {
+                    imageDescriptions = ImageContextManager.createPlaceholderDescriptions(images);
+                } else {
+                    imageDescriptions = new ArrayList<>();
+                    for (ImageExtractor.ImageElement image : images) {
+                        imageDescriptions.add(image.getDescriptionForAi());
+                    }
+                }
+            }
+            content = ImageContextManager.mergeImageContext(content, imageDescriptions,
+                    hasEmojis ? ImageContextManager.createEmojiDescriptions(emojis) : null);
+        }
+        if (content == null || content.isEmpty()) return false;
+        content = MessageInterceptor.appendReplyInfo(record, content);
+
+        String senderName = null;
+        Object remark = XposedHelpers.getObjectField(record, "sendRemarkName");
+        if (remark != null && !String.valueOf(remark).trim().isEmpty()) {
+            senderName = String.valueOf(remark);
+        } else {
+            Object nick = XposedHelpers.getObjectField(record, "sendNickName");
+            if (nick != null && !String.valueOf(nick).trim().isEmpty()) {
+                senderName = String.valueOf(nick);
+            }
+        }
+        if (senderName == null) senderName = senderUin;
+        if (isSelf) senderName = senderName + "[我]";
+
+        MessageContextManager.addMessage(conversationId, senderName, senderUin, content, isSelf, msgId, msgTime,
+                hasImages ? images.size() : 0);
+        if (hasImages) {
+            ImageDescriptionCache.putImageElements(conversationId, msgId, images);
+        }
+        return true;
+    }
+}
@@ -0,0 +1,453 @@
+package top.galqq.utils;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import de.robv.android.xposed.XposedBridge;
+import top.galqq.config.ConfigManager;
+
+/**
+ * 本地选项引擎（不访问网络）
+ *
+ * 在两类语料上做检索排序：
+ * - 自己的历史回复：记录"对方的消息 -> 我的回复"，新消息和某条旧消息越像，当时的回复排得越靠前
+ * - 本地词库：词库行本身和当前消息的相似度
+ *
+ * 历史回复按字的一元/二元组切分（中文不需要分词），TF-IDF 加权后用倒排索引算余弦相似度，
+ * 当前消息权重最高，最近几条上下文以较低权重加入查询；索引在有新回复后的下一次查询时重建。
+ * 词库部分直接使用 {@link DictionaryManager} 的关键词索引。候选不足3条时用随机词库行补齐。
+ */
+public final class LocalOptionEngine implements OptionEngine {
+
+    private static final String TAG = "GalQQ.LocalOption";
+
+    private static void debugLog(String message) {
+        try {
+            if (ConfigManager.isVerboseLogEnabled()) {
+                XposedBridge.log(TAG + ": " + message);
+            }
+        } catch (Throwable ignored) {}
+    }
+
+    private static final int OPTION_COUNT = 3;
+    // 最多保存的历史回复条数
+    private static final int MAX_REPLIES = 2000;
+    // 对方消息和我的回复之间的最大间隔，超过视为不是回复
+    private static final long MAX_REPLY_GAP_MS = 10 * 60 * 1000L;
+    // 上下文参与查询的条数和权重
+    private static final int CONTEXT_QUERY_MESSAGES = 2;
+    private static final float CONTEXT_QUERY_WEIGHT = 0.3f;
+    // 两类语料的得分权重：历史回复更贴近自己的说话习惯
+    private static final float REPLY_WEIGHT = 1.0f;
+    private static final float DICT_WEIGHT = 0.5f;
+    // 随机扰动，让"刷新"能换一批
+    private static final float JITTER = 0.02f;
+    private static final String REPLY_FILE = "galqq_local_replies.tsv";
+    // 词库还没加载时最多等待的时间
+    private static final long DICT_WAIT_MS = 2000;
+
+    private static final LocalOptionEngine INSTANCE = new LocalOptionEngine();
+
+    public static LocalOptionEngine getInstance() {
+        return INSTANCE;
+    }
+
+    private final ExecutorService executor = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "GalQQ-LocalOption");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Random random = new Random();
+
+    // 历史回复（trigger -> reply），按写入顺序，受 this 锁保护
+    private final LinkedHashMap<String, ReplyPair> replies = new LinkedHashMap<>();
+    private File replyFile;
+    private boolean repliesLoaded = false;
+    private int replyVersion = 0;
+    private int appendedSinceCompact = 0;
+
+    private volatile Index index;
+
+    private LocalOptionEngine() {}
+
+    @Override
+    public String getName() {
+        return "local";
+    }
+
+    @Override
+    public void generate(Request request, HttpAiClient.AiCallbackWithRetry callback) {
+        final Context appContext = request.context.getApplicationContext();
+        executor.execute(() -> {
+            long start = System.nanoTime();
+            long perfStart = PerfMetrics.start();
+            List<String> options;
+            try {
+                options = rank(appContext, request);
+            } catch (Throwable t) {
+                debugLog("生成失败: " + t);
+                PerfMetrics.recordError(PerfMetrics.Stage.LOCAL_OPTIONS, perfStart);
+                mainHandler.post(() -> callback.onFailure(new Exception("本地选项生成失败", t)));
+                return;
+            }
+            PerfMetrics.record(PerfMetrics.Stage.LOCAL_OPTIONS, perfStart);
+            long elapsedNs = System.nanoTime() - start;
+            debugLog("生成 " + options.size() + " 个选项，耗时 " + (elapsedNs / 1000) + "us");
+            if (options.isEmpty()) {
+                mainHandler.post(() -> callback.onFailure(new Exception("本地词库为空")));
+            } else {
+                mainHandler.post(() -> callback.onSuccess(options));
+            }
+        });
+    }
+
+    /**
+     * 记录一条自己的回复（由 MessageContextManager 在收到自己发送的消息时调用）
+     *
+     * @param trigger 我回复的那条对方消息
+     * @param reply 我的回复
+     * @param gapMs 两条消息的时间间隔
+     */
+    public void learnReply(String trigger, String reply, long gapMs) {
+        if (!OptionEngines.isLocalEngineInUse()) return;
+        if (trigger == null || reply == null || gapMs < 0 || gapMs > MAX_REPLY_GAP_MS) return;
+        final String t = normalizeLine(trigger);
+        final String r = normalizeLine(reply);
+        if (t.isEmpty() || r.isEmpty() || t.equals(r)) return;
+        final Context appContext = HostInfo.getApplication();
+        if (appContext == null) return;
+        executor.execute(() -> {
+            try {
+                addReply(appContext, t, r);
+            } catch (Throwable e) {
+                debugLog("记录回复失败: " + e.getMessage());
+            }
+        });
+    }
+
+    // ========== 排序 ==========
+
+    private List<String> rank(Context context, Request request) {
+        Index idx = ensureIndex(context);
+        DictionaryManager.awaitLoaded(context, DICT_WAIT_MS);
+
+        Map<Integer, Float> query = new HashMap<>();
+        addFeatures(query, request.msgContent, 1.0f);
+        if (request.contextMessages != null) {
+            int added = 0;
+            for (int i = request.contextMessages.size() - 1; i >= 0 && added < CONTEXT_QUERY_MESSAGES; i--) {
+                MessageContextManager.ChatMessage msg = request.contextMessages.get(i);
+                if (msg.isSelf || msg.isSummary) continue;
+                addFeatures(query, msg.content, CONTEXT_QUERY_WEIGHT);
+                added++;
+            }
+        }
+
+        // 候选：历史回复（余弦相似度）+ 词库（命中关键词的权重比例），各自乘以来源权重
+        List<Candidate> candidates = new ArrayList<>();
+        float[] scores = idx.score(query);
+        for (int i = 0; i < scores.length; i++) {
+            if (scores[i] > 0) {
+                candidates.add(new Candidate(idx.payloads[i], scores[i] * REPLY_WEIGHT + random.nextFloat() * JITTER));
+            }
+        }
+        for (DictionaryIndex.Hit hit : DictionaryManager.search(request.msgContent, OPTION_COUNT * 2)) {
+            candidates.add(new Candidate(hit.text, hit.score * DICT_WEIGHT + random.nextFloat() * JITTER));
+        }
+        Collections.sort(candidates, (a, b) -> Float.compare(b.score, a.score));
+
+        String current = normalizeLine(request.msgContent);
+        Set<String> picked = new HashSet<>();
+        List<String> result = new ArrayList<>(OPTION_COUNT);
+        for (Candidate candidate : candidates) {
+            if (result.size() >= OPTION_COUNT) break;
+            if (candidate.text.equals(current) || !picked.add(candidate.text)) continue;
+            result.add(candidate.text);
+        }
+
+        // 不足时用随机词库行补齐
+        if (result.size() < OPTION_COUNT) {
+            DictionaryIndex dict = DictionaryManager.getIndex();
+            if (dict != null) {
+                for (String option : dict.randomLines(OPTION_COUNT - result.size(), random, result)) {
+                    if (picked.add(option)) {
+                        result.add(option);
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    private static final class Candidate {
+        final String text;
+        final float score;
+
+        Candidate(String text, float score) {
+            this.text = text;
+            this.score = score;
+        }
+    }
+
+    private Index ensureIndex(Context context) {
+        int version;
+        List<ReplyPair> replySnapshot;
+        synchronized (this) {
+            loadRepliesLocked(context);
+            version = replyVersion;
+            Index current = index;
+            if (current != null && current.replyVersion == version) {
+                return current;
+            }
+            replySnapshot = new ArrayList<>(replies.values());
+        }
+        long start = System.nanoTime();
+        Index built = Index.build(replySnapshot, version);
+        index = built;
+        debugLog("重建索引：回复 " + replySnapshot.size() + " 条，耗时 "
+                + ((System.nanoTime() - start) / 1_000_000L) + "ms");
+        return built;
+    }
+
+    // ========== 特征 ==========
+
+    /**
+     * 字的一元组 + 相邻两字的二元组，只保留字母和数字，英文转小写
+     */
+    static void addFeatures(Map<Integer, Float> features, String text, float weight) {
+        if (text == null) return;
+        char prev = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (!Character.isLetterOrDigit(c)) {
+                prev = 0;
+                continue;
+            }
+            c = Character.toLowerCase(c);
+            add(features, c, weight);
+            if (prev != 0) {
+                // prev 非0，二元组的键一定大于任何一元组
+                add(features, (prev << 16) | c, weight);
+            }
+            prev = c;
+        }
+    }
+
+    private static void add(Map<Integer, Float> features, int key, float weight) {
+        Float old = features.get(key);
+        features.put(key, old == null ? weight : old + weight);
+    }
+
+    private static String normalizeLine(String text) {
+        if (text == null) return "";
+        return text.replace('\t', ' ').replace('\r', ' ').replace('\n', ' ').trim();
+    }
+
+    // ========== 历史回复存储 ==========
+
+    private static final class ReplyPair {
+        final String trigger;
+        final String reply;
+
+        ReplyPair(String trigger, String reply) {
+            this.trigger = trigger;
+            this.reply = reply;
+        }
+    }
+
+    private void loadRepliesLocked(Context context) {
+        if (repliesLoaded) return;
+        repliesLoaded = true;
+        replyFile = new File(context.getFilesDir(), REPLY_FILE);
+        if (!replyFile.exists()) return;
+        int lines = 0;
+        try (BufferedReader br = new BufferedReader(new InputStreamReader(
+                new FileInputStream(replyFile), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = br.readLine()) != null) {
+                lines++;
+                int tab = line.indexOf('\t');
+                if (tab <= 0 || tab == line.length() - 1) continue;
+                putReplyLocked(line.substring(0, tab), line.substring(tab + 1));
+            }
+        } catch (Throwable t) {
+            debugLog("读取历史回复失败: " + t.getMessage());
+        }
+        replyVersion++;
+
+        // 文件里的行数超过上限（之前的进程追加后没来得及重写）时立即重写，避免文件跨重启无限增长；
+        // 否则把已经失效的行数计入追加计数，和本次追加的一起触发重写
+        if (lines > MAX_REPLIES) {
+            debugLog("历史回复文件有 " + lines + " 行，重写为 " + replies.size() + " 行");
+            rewriteReplyFileLocked();
+        } else {
+            appendedSinceCompact = lines - replies.size();
+        }
+    }
+
+    private synchronized void addReply(Context context, String trigger, String reply) {
+        loadRepliesLocked(context);
+        String key = trigger + '\t' + reply;
+        if (replies.containsKey(key)) return;
+        putReplyLocked(trigger, reply);
+        replyVersion++;
+
+        // 追加写入；累计追加过多时整体重写一次，去掉已淘汰的旧记录
+        if (++appendedSinceCompact > MAX_REPLIES / 2) {
+            appendedSinceCompact = 0;
+            rewriteReplyFileLocked();
+        } else {
+            try (Writer w = new OutputStreamWriter(new FileOutputStream(replyFile, true), StandardCharsets.UTF_8)) {
+                w.write(key);
+                w.write('\n');
+            } catch (Throwable t) {
+                debugLog("写入历史回复失败: " + t.getMessage());
+            }
+        }
+    }
+
+    private void putReplyLocked(String trigger, String reply) {
+        replies.put(trigger + '\t' + reply, new ReplyPair(trigger, reply));
+        while (replies.size() > MAX_REPLIES) {
+            replies.remove(replies.keySet().iterator().next());
+        }
+    }
+
+    private void rewriteReplyFileLocked() {
+        File tmp = new File(replyFile.getPath() + ".tmp");
+        try (Writer w = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            for (String key : replies.keySet()) {
+                w.write(key);
+                w.write('\n');
+            }
+        } catch (Throwable t) {
+            debugLog("重写历史回复失败: " + t.getMessage());
+            tmp.delete();
+            return;
+        }
+        if (!tmp.renameTo(replyFile)) {
+            tmp.delete();
+        }
+    }
+
+    // ========== 倒排索引 ==========
+
+    private static final class Posting {
+        int[] docs = new int[4];
+        float[] weights = new float[4];
+        int size;
+
+        void add(int doc, float weight) {
+            if (size == docs.length) {
+                docs = java.util.Arrays.copyOf(docs, size * 2);
+                weights = java.util.Arrays.copyOf(weights, size * 2);
+            }
+            docs[size] = doc;
+            weights[size] = weight;
+            size++;
+        }
+    }
+
+    private static final class Index {
+        final int replyVersion;
+        final String[] payloads;
+        final float[] norms;
+        final Map<Integer, Posting> postings = new HashMap<>();
+        final Map<Integer, Float> idf = new HashMap<>();
+
+        private Index(int replyVersion, int size) {
+            this.replyVersion = replyVersion;
+            this.payloads = new String[size];
+            this.norms = new float[size];
+        }
+
+        static Index build(List<ReplyPair> replies, int replyVersion) {
+            int size = replies.size();
+            Index idx = new Index(replyVersion, size);
+
+            // 每条回复按当时对方的消息检索
+            List<Map<Integer, Float>> docs = new ArrayList<>(size);
+            for (ReplyPair pair : replies) {
+                Map<Integer, Float> tf = new HashMap<>();
+                addFeatures(tf, pair.trigger, 1.0f);
+                idx.payloads[docs.size()] = pair.reply;
+                docs.add(tf);
+            }
+
+            Map<Integer, Integer> df = new HashMap<>();
+            for (Map<Integer, Float> tf : docs) {
+                for (Integer term : tf.keySet()) {
+                    Integer n = df.get(term);
+                    df.put(term, n == null ? 1 : n + 1);
+                }
+            }
+            for (Map.Entry<Integer, Integer> e : df.entrySet()) {
+                idx.idf.put(e.getKey(), (float) Math.log(1.0 + (double) size / e.getValue()));
+            }
+
+            for (int doc = 0; doc < size; doc++) {
+                double norm = 0;
+                for (Map.Entry<Integer, Float> e : docs.get(doc).entrySet()) {
+                    float w = e.getValue() * idx.idf.get(e.getKey());
+                    norm += (double) w * w;
+                    Posting p = idx.postings.get(e.getKey());
+                    if (p == null) {
+                        p = new Posting();
+                        idx.postings.put(e.getKey(), p);
+                    }
+                    p.add(doc, w);
+                }
+                idx.norms[doc] = (float) Math.sqrt(norm);
+            }
+            return idx;
+        }
+
+        /**
+         * 查询向量和每个文档的余弦相似度，没有公共特征的文档为0
+         */
+        float[] score(Map<Integer, Float> query) {
+            float[] scores = new float[payloads.length];
+            double queryNorm = 0;
+            for (Map.Entry<Integer, Float> e : query.entrySet()) {
+                Float termIdf = idf.get(e.getKey());
+                if (termIdf == null) continue;
+                float qw = e.getValue() * termIdf;
+                queryNorm += (double) qw * qw;
+                Posting p = postings.get(e.getKey());
+                for (int i = 0; i < p.size; i++) {
+                    scores[p.docs[i]] += qw * p.weights[i];
+                }
+            }
+            if (queryNorm == 0) return scores;
+            float qn = (float) Math.sqrt(queryNorm);
+            for (int i = 0; i < scores.length; i++) {
+                if (scores[i] > 0 && norms[i] > 0) {
+                    scores[i] /= qn * norms[i];
+                }
+            }
+            return scores;
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package top.galqq.utils;
+
+import android.content.Context;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import de.robv.android.xposed.XposedBridge;
+import top.galqq.config.ConfigManager;
+
+/**
+ * 会话上下文的磁盘日志
+ *
+ * 每个会话一个只追加的二进制文件（files/galqq_context/&lt;会话&gt;.log），
+ * MessageContextManager 收到新消息时异步写入，进程重启后第一次访问某个会话时从这里恢复，
+ * 冷启动后不用重新滑过历史消息也能带上下文。
+ *
+ * 记录格式：[int 长度][int CRC32][内容]，内容为
+ * [byte 版本][byte 标志][long 时间戳][int 图片数][发送人][发送人QQ][正文][msgId]，
+ * 字符串为 [int 字节数（-1 表示 null）][UTF-8]。读取时用内存映射，
+ * 遇到长度或校验不对的记录（写到一半被杀进程）就停止，下次追加前截掉。
+ *
+ * 记录数超过会话上限的两倍时重写文件，只保留最近的消息；
+ * 会话文件总数超过上限时删除最久未写入的会话。
+ */
+public final class MessageContextJournal {
+
+    private static final String TAG = "GalQQ.ContextJournal";
+
+    private static void debugLog(String message) {
+        try {
+            if (ConfigManager.isVerboseLogEnabled()) {
+                XposedBridge.log(TAG + ": " + message);
+            }
+        } catch (Throwable ignored) {}
+    }
+
+    private static final String DIR_NAME = "galqq_context";
+    private static final String SUFFIX = ".log";
+    private static final byte RECORD_VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    // 单条记录的上限，超过视为损坏
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+    // 磁盘上最多保留的会话数
+    private static final int MAX_JOURNALS = 300;
+
+    private static final MessageContextJournal INSTANCE = new MessageContextJournal();
+
+    public static MessageContextJournal getInstance() {
+        return INSTANCE;
+    }
+
+    private static final class Pending {
+        final String conversationId;
+        final MessageContextManager.ChatMessage message;
+
+        Pending(String conversationId, MessageContextManager.ChatMessage message) {
+            this.conversationId = conversationId;
+            this.message = message;
+        }
+    }
+
+    /**
+     * 写线程上已知的文件状态
+     */
+    private static final class FileState {
+        int records;
+        long validLength;
+    }
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "GalQQ-ContextJournal");
+        t.setDaemon(true);
+        return t;
+    });
+    private final ConcurrentLinkedQueue<Pending> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+    // 以下只在写线程访问
+    private final Map<String, FileState> states = new HashMap<>();
+
+    private volatile File dir;
+
+    private MessageContextJournal() {}
+
+    /**
+     * 追加一条消息（异步）
+     */
+    public void append(String conversationId, MessageContextManager.ChatMessage message) {
+        if (conversationId == null || message == null || message.isSummary) return;
+        if (resolveDir() == null) return;
+        pending.add(new Pending(conversationId, message));
+        if (flushScheduled.compareAndSet(false, true)) {
+            writer.execute(this::flush);
+        }
+    }
+
+    /**
+     * 读取会话最近的消息（在调用线程同步读取，文件很小）
+     *
+     * @param maxMessages 最多返回的条数
+     * @return 按时间排序、按 msgId 去重后的消息，没有记录时返回空列表
+     */
+    public List<MessageContextManager.ChatMessage> load(String conversationId, int maxMessages) {
+        File d = resolveDir();
+        if (d == null || conversationId == null) return Collections.emptyList();
+        List<MessageContextManager.ChatMessage> messages = new ArrayList<>();
+        File file = fileFor(d, conversationId);
+        if (file.exists()) {
+            try {
+                readRecords(file, messages);
+            } catch (Throwable t) {
+                debugLog("读取失败 " + conversationId + ": " + t.getMessage());
+            }
+        }
+        // 还没落盘的消息也要算上
+        for (Pending p : pending) {
+            if (p.conversationId.equals(conversationId)) {
+                messages.add(p.message);
+            }
+        }
+        return latest(messages, maxMessages);
+    }
+
+    /**
+     * 在写线程上读取会话最近的消息，读完后回调（不阻塞调用线程，用于消息绑定线程）
+     * 排在已提交的写入之后执行，回调在写线程上运行
+     *
+     * @param callback 接收 {@link #load} 的结果，出错时收到空列表
+     */
+    public void loadAsync(String conversationId, int maxMessages,
+                          Consumer<List<MessageContextManager.ChatMessage>> callback) {
+        if (conversationId == null || resolveDir() == null) {
+            callback.accept(Collections.emptyList());
+            return;
+        }
+        try {
+            writer.execute(() -> {
+                List<MessageContextManager.ChatMessage> messages;
+                try {
+                    messages = load(conversationId, maxMessages);
+                } catch (Throwable t) {
+                    debugLog("异步读取失败 " + conversationId + ": " + t.getMessage());
+                    messages = Collections.emptyList();
+                }
+                callback.accept(messages);
+            });
+        } catch (RejectedExecutionException e) {
+            callback.accept(Collections.emptyList());
+        }
+    }
+
+    /**
+     * 删除会话的日志（异步）
+     */
+    public void delete(String conversationId) {
+        if (conversationId == null || resolveDir() == null) return;
+        writer.execute(() -> {
+            states.remove(conversationId);
+            File file = fileFor(dir, conversationId);
+            if (file.exists() && !file.delete()) {
+                debugLog("删除失败: " + file.getName());
+            }
+        });
+    }
+
+    /**
+     * 删除全部日志（异步）
+     */
+    public void deleteAll() {
+        if (resolveDir() == null) return;
+        writer.execute(() -> {
+            pending.clear();
+            states.clear();
+            File[] files = dir.listFiles();
+            if (files == null) return;
+            for (File file : files) {
+                file.delete();
+            }
+        });
+    }
+
+    /**
+     * 会话数超过上限时删除最久未写入的会话（异步）
+     */
+    public void evictStale() {
+        if (resolveDir() == null) return;
+        writer.execute(this::evictStaleOnWriter);
+    }
+
+    // ========== 写线程 ==========
+
+    private void flush() {
+        flushScheduled.set(false);
+        Map<String, List<MessageContextManager.ChatMessage>> batch = new LinkedHashMap<>();
+        Pending p;
+        while ((p = pending.poll()) != null) {
+            List<MessageContextManager.ChatMessage> list = batch.get(p.conversationId);
+            if (list == null) {
+                list = new ArrayList<>();
+                batch.put(p.conversationId, list);
+            }
+            list.add(p.message);
+        }
+        boolean created = false;
+        for (Map.Entry<String, List<MessageContextManager.ChatMessage>> e : batch.entrySet()) {
+            try {
+                created |= appendOnWriter(e.getKey(), e.getValue());
+            } catch (Throwable t) {
+                states.remove(e.getKey());
+                debugLog("写入失败 " + e.getKey() + ": " + t.getMessage());
+            }
+        }
+        if (created) {
+            evictStaleOnWriter();
+        }
+    }
+
+    /**
+     * @return 是否新建了文件
+     */
+    private boolean appendOnWriter(String conversationId, List<MessageContextManager.ChatMessage> messages) throws IOException {
+        File file = fileFor(dir, conversationId);
+        boolean created = !file.exists();
+        FileState state = states.get(conversationId);
+        if (state == null) {
+            state = new FileState();
+            if (!created) {
+                List<MessageContextManager.ChatMessage> existing = new ArrayList<>();
+                state.validLength = readRecords(file, existing);
+                state.records = existing.size();
+            }
+            states.put(conversationId, state);
+        }
+        // 截掉上次写到一半的记录
+        if (!created && file.length() != state.validLength) {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(state.validLength);
+            }
+        }
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file, true))) {
+            for (MessageContextManager.ChatMessage message : messages) {
+                byte[] record = encode(message);
+                out.write(record);
+                state.validLength += record.length;
+                state.records++;
+            }
+        }
+
+        if (state.records > MessageContextManager.MAX_MESSAGES_PER_CONVERSATION * 2) {
+            compact(conversationId, file, state);
+        }
+        return created;
+    }
+
+    /**
+     * 重写文件，只保留最近的消息
+     */
+    private void compact(String conversationId, File file, FileState state) throws IOException {
+        List<MessageContextManager.ChatMessage> all = new ArrayList<>();
+        readRecords(file, all);
+        List<MessageContextManager.ChatMessage> kept = latest(all, MessageContextManager.MAX_MESSAGES_PER_CONVERSATION);
+        File tmp = new File(file.getPath() + ".tmp");
+        long length = 0;
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tmp))) {
+            for (MessageContextManager.ChatMessage message : kept) {
+                byte[] record = encode(message);
+                out.write(record);
+                length += record.length;
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("rename failed");
+        }
+        state.records = kept.size();
+        state.validLength = length;
+        debugLog("压缩 " + conversationId + ": " + all.size() + " -> " + kept.size());
+    }
+
+    private void evictStaleOnWriter() {
+        File[] files = dir.listFiles((d, name) -> name.endsWith(SUFFIX));
+        if (files == null || files.length <= MAX_JOURNALS) return;
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(modified[a], modified[b]));
+        int remove = files.length - MAX_JOURNALS;
+        for (int i = 0; i < remove; i++) {
+            File file = files[order[i]];
+            String name = file.getName();
+            states.remove(conversationIdOf(name.substring(0, name.length() - SUFFIX.length())));
+            file.delete();
+        }
+        debugLog("淘汰 " + remove + " 个旧会话");
+    }
+
+    // ========== 编解码 ==========
+
+    private static byte[] encode(MessageContextManager.ChatMessage message) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(body);
+        out.writeByte(RECORD_VERSION);
+        out.writeByte(message.isSelf ? 1 : 0);
+        out.writeLong(message.timestamp);
+        out.writeInt(message.imageCount);
+        writeString(out, message.senderName);
+        writeString(out, message.senderUin);
+        writeString(out, message.content);
+        writeString(out, message.msgId);
+        out.flush();
+        byte[] payload = body.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length);
+        record.putInt((int) crc.getValue());
+        record.put(payload);
+        return record.array();
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * 顺序读取文件中的完整记录
+     *
+     * @param out 解出的消息
+     * @return 最后一条完整记录结束的位置
+     */
+    private static long readRecords(File file, List<MessageContextManager.ChatMessage> out) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            long size = channel.size();
+            if (size == 0) return 0;
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            CRC32 crc = new CRC32();
+            byte[] payload = new byte[256];
+            while (buf.remaining() >= HEADER_SIZE) {
+                int start = buf.position();
+                int length = buf.getInt();
+                int checksum = buf.getInt();
+                if (length <= 0 || length > MAX_RECORD_SIZE || length > buf.remaining()) {
+                    buf.position(start);
+                    break;
+                }
+                if (payload.length < length) payload = new byte[length];
+                buf.get(payload, 0, length);
+                crc.reset();
+                crc.update(payload, 0, length);
+                if ((int) crc.getValue() != checksum) {
+                    buf.position(start);
+                    break;
+                }
+                MessageContextManager.ChatMessage message = decode(ByteBuffer.wrap(payload, 0, length));
+                if (message != null) out.add(message);
+            }
+            return buf.position();
+        }
+    }
+
+    private static MessageContextManager.ChatMessage decode(ByteBuffer buf) {
+        try {
+            if (buf.get() != RECORD_VERSION) return null;
+            boolean isSelf = (buf.get() & 1) != 0;
+            long timestamp = buf.getLong();
+            int imageCount = buf.getInt();
+            String senderName = readString(buf);
+            String senderUin = readString(buf);
+            String content = readString(buf);
+            String msgId = readString(buf);
+            if (content == null) return null;
+            return new MessageContextManager.ChatMessage(senderName, senderUin, content, isSelf,
+                    timestamp, msgId, imageCount);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static String readString(ByteBuffer buf) {
+        int length = buf.getInt();
+        if (length < 0) return null;
+        String value = new String(buf.array(), buf.arrayOffset() + buf.position(), length, StandardCharsets.UTF_8);
+        buf.position(buf.position() + length);
+        return value;
+    }
+
+    // ========== 工具 ==========
+
+    /**
+     * 按 msgId 去重（后写入的为准），按时间排序后取最近 maxMessages 条
+     */
+    private static List<MessageContextManager.ChatMessage> latest(List<MessageContextManager.ChatMessage> messages, int maxMessages) {
+        if (messages.isEmpty()) return messages;
+        Map<String, MessageContextManager.ChatMessage> byId = new LinkedHashMap<>();
+        List<MessageContextManager.ChatMessage> result = new ArrayList<>(messages.size());
+        for (MessageContextManager.ChatMessage message : messages) {
+            if (message.msgId == null) {
+                result.add(message);
+            } else {
+                byId.put(message.msgId, message);
+            }
+        }
+        result.addAll(byId.values());
+        Collections.sort(result, (a, b) -> Long.compare(a.timestamp, b.timestamp));
+        if (result.size() > maxMessages) {
+            return new ArrayList<>(result.subList(result.size() - maxMessages, result.size()));
+        }
+        return result;
+    }
+
+    private File resolveDir() {
+        File d = dir;
+        if (d != null) return d;
+        Context context = HostInfo.getApplication();
+        if (context == null) return null;
+        synchronized (this) {
+            if (dir == null) {
+                File created = new File(context.getFilesDir(), DIR_NAME);
+                if (!created.isDirectory() && !created.mkdirs()) {
+                    return null;
+                }
+                dir = created;
+            }
+            return dir;
+        }
+    }
+
+    private static File fileFor(File dir, String conversationId) {
+        return new File(dir, fileNameOf(conversationId) + SUFFIX);
+    }
+
+    /**
+     * 会话ID一般是QQ号或群号，直接作为文件名；含其他字符时转成十六进制（以 - 开头区分）
+     */
+    private static String fileNameOf(String conversationId) {
+        if (conversationId.matches("[0-9A-Za-z_]{1,64}")) {
+            return conversationId;
+        }
+        StringBuilder sb = new StringBuilder("-");
+        for (byte b : conversationId.getBytes(StandardCharsets.UTF_8)) {
+            sb.append(String.format("%02x", b & 0xff));
+        }
+        return sb.toString();
+    }
+
+    private static String conversationIdOf(String fileName) {
+        if (!fileName.startsWith("-")) {
+            return fileName;
+        }
+        byte[] bytes = new byte[(fileName.length() - 1) / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(fileName.substring(1 + i * 2, 3 + i * 2), 16);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
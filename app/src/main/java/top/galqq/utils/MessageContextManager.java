@@ -5,6 +5,8 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import de.robv.android.xposed.XposedBridge;
 
@@ -15,6 +17,8 @@ import de.robv.android.xposed.XposedBridge;
  * 1. 缓存每个会话的历史消息
  * 2. 为AI调用提供上下文
  * 3. 自动管理内存，避免泄漏
+ * 4. 新消息异步写入磁盘日志（{@link MessageContextJournal}），重启后首次访问会话时从磁盘恢复
+ *    （消息绑定线程上在后台恢复，读取上下文时最多等待 RESTORE_WAIT_MS）
  */
 public class MessageContextManager {
     
@@ -29,11 +33,14 @@ public class MessageContextManager {
     }
     
     // 每个会话最多缓存的消息数
-    private static final int MAX_MESSAGES_PER_CONVERSATION = 50;
+    static final int MAX_MESSAGES_PER_CONVERSATION = 50;
     
     // 最大会话数（超过则清理最旧的）
     private static final int MAX_CONVERSATIONS = 100;
     
+    // 读取上下文时等待后台恢复的最长时间（毫秒）
+    private static final long RESTORE_WAIT_MS = 300;
+    
     // conversationId -> messages
     private static final Map<String, ConversationContext> contextMap = new ConcurrentHashMap<>();
     
@@ -49,6 +56,7 @@ public class MessageContextManager {
         public final String msgId;         // 消息ID（用于去重和图片缓存）
         public final int imageCount;       // 图片数量（用于上下文图片识别）
         public final boolean hasImages;    // 是否包含图片
+        public final boolean isSummary;    // 是否是对话摘要（由 ConversationSummaryManager 生成，不是真实消息）
         
         public ChatMessage(String senderName, String content, boolean isSelf, long timestamp, String msgId) {
             this(senderName, null, content, isSelf, timestamp, msgId, 0);
@@ -67,6 +75,28 @@ public class MessageContextManager {
             this.msgId = msgId;
             this.imageCount = imageCount;
             this.hasImages = imageCount > 0;
+            this.isSummary = false;
+        }
+        
+        private ChatMessage(String summary, long coveredUntil) {
+            this.senderName = "对话摘要";
+            this.senderUin = null;
+            this.content = summary;
+            this.isSelf = false;
+            this.timestamp = coveredUntil;
+            this.msgId = null;
+            this.imageCount = 0;
+            this.hasImages = false;
+            this.isSummary = true;
+        }
+        
+        /**
+         * 创建一条摘要消息
+         * @param summary 摘要正文
+         * @param coveredUntil 摘要覆盖到的最后一条消息时间戳
+         */
+        public static ChatMessage summary(String summary, long coveredUntil) {
+            return new ChatMessage(summary, coveredUntil);
         }
         
         @Override
@@ -114,6 +144,8 @@ public class MessageContextManager {
     private static class ConversationContext {
         final LinkedList<ChatMessage> messages = new LinkedList<>();
         long lastAccessTime = System.currentTimeMillis();
+        // 磁盘恢复完成后归零
+        final CountDownLatch restoreDone = new CountDownLatch(1);
         
         synchronized void addMessage(ChatMessage message) {
             messages.add(message);
@@ -133,6 +165,62 @@ public class MessageContextManager {
             lastAccessTime = System.currentTimeMillis();
         }
         
+        /**
+         * 合并从磁盘恢复的消息（后台恢复期间可能已经加入了新消息，按 msgId 去重后重新排序）
+         */
+        synchronized void addRestored(List<ChatMessage> restored) {
+            if (!restored.isEmpty()) {
+                java.util.Set<String> knownIds = new java.util.HashSet<>();
+                for (ChatMessage msg : messages) {
+                    if (msg.msgId != null) knownIds.add(msg.msgId);
+                }
+                List<ChatMessage> merged = new ArrayList<>(restored.size() + messages.size());
+                for (ChatMessage msg : restored) {
+                    if (messages.contains(msg) || (msg.msgId != null && knownIds.contains(msg.msgId))) {
+                        continue;
+                    }
+                    merged.add(msg);
+                }
+                merged.addAll(messages);
+                java.util.Collections.sort(merged, new java.util.Comparator<ChatMessage>() {
+                    @Override
+                    public int compare(ChatMessage m1, ChatMessage m2) {
+                        return Long.compare(m1.timestamp, m2.timestamp);
+                    }
+                });
+                messages.clear();
+                messages.addAll(merged);
+                while (messages.size() > MAX_MESSAGES_PER_CONVERSATION) {
+                    messages.removeFirst();
+                }
+            }
+            restoreDone.countDown();
+        }
+        
+        /**
+         * 等待磁盘恢复完成，超时后按现有消息继续
+         */
+        void awaitRestored() {
+            try {
+                restoreDone.await(RESTORE_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        
+        /**
+         * 自己发送的消息之前最近的一条对方消息（即这条消息回复的对象），没有则返回null
+         */
+        synchronized ChatMessage findReplyTarget(ChatMessage self) {
+            int index = messages.indexOf(self);
+            for (int i = index - 1; i >= 0; i--) {
+                ChatMessage msg = messages.get(i);
+                if (msg.isSummary) continue;
+                return msg.isSelf ? null : msg;
+            }
+            return null;
+        }
+        
         synchronized List<ChatMessage> getRecentMessages(int count) {
             lastAccessTime = System.currentTimeMillis();
             
@@ -211,17 +299,7 @@ public class MessageContextManager {
         }
         
         try {
-            ConversationContext context = contextMap.get(conversationId);
-            if (context == null) {
-                // 检查是否需要清理旧会话
-                if (contextMap.size() >= MAX_CONVERSATIONS) {
-                    cleanup();
-                }
-                
-                context = new ConversationContext();
-                contextMap.put(conversationId, context);
-                debugLog(TAG + ": Created new conversation context: " + conversationId);
-            }
+            ConversationContext context = getOrRestore(conversationId, true);
             
             // 去重：如果msgId不为null，检查是否已存在
             if (msgId != null) {
@@ -249,6 +327,16 @@ public class MessageContextManager {
             );
             
             context.addMessage(message);
+            MessageContextJournal.getInstance().append(conversationId, message);
+            ConversationSummaryManager.onMessageAdded(conversationId, msgId, timestamp);
+            
+            // 自己的回复交给本地选项引擎学习（未使用本地引擎时直接忽略）
+            if (isSelf && OptionEngines.isLocalEngineInUse()) {
+                ChatMessage target = context.findReplyTarget(message);
+                if (target != null) {
+                    LocalOptionEngine.getInstance().learnReply(target.content, content, timestamp - target.timestamp);
+                }
+            }
             
             //XposedBridge.log(TAG + ": ✅ 成功添加消息 [" + conversationId + "] " 
             //    + senderName + ": " + content.substring(0, Math.min(30, content.length())) 
@@ -262,6 +350,7 @@ public class MessageContextManager {
     
     /**
      * 获取上下文消息
+     * 会话尚未从磁盘日志恢复时会等待恢复完成，不要在主线程调用
      * 
      * @param conversationId 会话ID
      * @param count 需要的消息数量
@@ -273,10 +362,11 @@ public class MessageContextManager {
         }
         
         try {
-            ConversationContext context = contextMap.get(conversationId);
+            ConversationContext context = getOrRestore(conversationId, false);
             if (context == null) {
                 return new ArrayList<>();
             }
+            context.awaitRestored();
             
             List<ChatMessage> messages = context.getRecentMessages(count);
             debugLog(TAG + ": Retrieved " + messages.size() + " context messages for " + conversationId);
@@ -288,9 +378,58 @@ public class MessageContextManager {
         }
     }
     
+    /**
+     * 取内存中的会话，不在内存中时从磁盘日志恢复
+     * 
+     * @param create true：消息绑定线程调用，立即新建会话，磁盘日志在后台合并进来；
+     *               false：读取上下文时调用，同步恢复，磁盘上也没有记录时返回null
+     */
+    private static ConversationContext getOrRestore(String conversationId, boolean create) {
+        ConversationContext context = contextMap.get(conversationId);
+        if (context != null) {
+            return context;
+        }
+        
+        if (create) {
+            if (contextMap.size() >= MAX_CONVERSATIONS) {
+                cleanup();
+            }
+            final ConversationContext created = new ConversationContext();
+            ConversationContext existing = contextMap.putIfAbsent(conversationId, created);
+            if (existing != null) {
+                return existing;
+            }
+            MessageContextJournal.getInstance().loadAsync(conversationId, MAX_MESSAGES_PER_CONVERSATION, restored -> {
+                created.addRestored(restored);
+                debugLog(TAG + ": Created conversation context: " + conversationId + "，从磁盘恢复 " + restored.size() + " 条");
+            });
+            return created;
+        }
+        
+        List<ChatMessage> restored = MessageContextJournal.getInstance().load(conversationId, MAX_MESSAGES_PER_CONVERSATION);
+        if (restored.isEmpty()) {
+            return null;
+        }
+        
+        // 检查是否需要清理旧会话
+        if (contextMap.size() >= MAX_CONVERSATIONS) {
+            cleanup();
+        }
+        
+        context = new ConversationContext();
+        context.addRestored(restored);
+        ConversationContext existing = contextMap.putIfAbsent(conversationId, context);
+        if (existing != null) {
+            return existing;
+        }
+        debugLog(TAG + ": Created conversation context: " + conversationId + "，从磁盘恢复 " + restored.size() + " 条");
+        return context;
+    }
+    
     /**
      * 清理过期的会话上下文
-     * 删除最久未访问的会话，直到数量降到合理范围
+     * 从内存中移除最久未访问的会话（磁盘日志保留，再次访问时恢复），
+     * 同时让磁盘日志淘汰超出上限的旧会话
      */
     public static void cleanup() {
         try {
@@ -313,6 +452,7 @@ public class MessageContextManager {
                 contextMap.remove(oldestKey);
                 debugLog(TAG + ": Cleaned up old conversation: " + oldestKey);
             }
+            MessageContextJournal.getInstance().evictStale();
             
         } catch (Exception e) {
             debugLog(TAG + ": Error during cleanup: " + e.getMessage());
@@ -327,6 +467,9 @@ public class MessageContextManager {
     public static void clearConversation(String conversationId) {
         if (conversationId != null) {
             contextMap.remove(conversationId);
+            MessageContextJournal.getInstance().delete(conversationId);
+            ConversationSummaryManager.clearConversation(conversationId);
+            ContextWindowAnchor.clearConversation(conversationId);
             debugLog(TAG + ": Cleared conversation: " + conversationId);
         }
     }
@@ -336,6 +479,9 @@ public class MessageContextManager {
      */
     public static void clearAll() {
         contextMap.clear();
+        MessageContextJournal.getInstance().deleteAll();
+        ConversationSummaryManager.clearAll();
+        ContextWindowAnchor.clearAll();
         debugLog(TAG + ": Cleared all conversations");
     }
     
@@ -345,4 +491,16 @@ public class MessageContextManager {
     public static int getConversationCount() {
         return contextMap.size();
     }
+    
+    /**
+     * 获取会话在内存中已缓存的消息数（不读磁盘，会话不在内存中时返回0）
+     */
+    public static int getCachedMessageCount(String conversationId) {
+        if (conversationId == null) return 0;
+        ConversationContext context = contextMap.get(conversationId);
+        if (context == null) return 0;
+        synchronized (context) {
+            return context.messages.size();
+        }
+    }
 }
@@ -1,12 +1,12 @@
 package top.galqq.utils;
 
 import android.content.Context;
-import de.robv.android.xposed.XC_MethodHook;
 import de.robv.android.xposed.XposedBridge;
 import de.robv.android.xposed.XposedHelpers;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.Arrays;
+import top.galqq.hook.HookRegistry;
 
 /**
  * 消息发送追踪 - 深入分析消息对象
@@ -76,9 +76,9 @@ public class MessageSendTracker {
             );
             
             // Hook 构造函数，在对象创建时就保存实例
-            XposedBridge.hookAllConstructors(vmDelegateClass, new XC_MethodHook() {
+            HookRegistry.hookAllConstructors("send_tracker.vm_delegate_init", vmDelegateClass, new HookRegistry.Callback() {
                 @Override
-                protected void afterHookedMethod(MethodHookParam param) throws Throwable {
+                protected void after(MethodHookParam param) throws Throwable {
                     //debugLog(TAG + ": AIOSendMsgVMDelegate构造函数被调用，保存实例");
                     SendMessageHelper.setAIOSendMsgVMDelegate(param.thisObject);
                 }
@@ -99,9 +99,9 @@ public class MessageSendTracker {
             }
             
             if (sendMethod != null) {
-                XposedBridge.hookMethod(sendMethod, new XC_MethodHook() {
+                HookRegistry.hookMethod("send_tracker.vm_delegate_send", sendMethod, new HookRegistry.Callback() {
                     @Override
-                    protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                    protected void before(MethodHookParam param) throws Throwable {
                         // 保存AIOSendMsgVMDelegate实例供SendMessageHelper使用
                         SendMessageHelper.setAIOSendMsgVMDelegate(param.thisObject);
                     }
@@ -136,9 +136,9 @@ public class MessageSendTracker {
                 }
                 
                 try {
-                    XposedBridge.hookMethod(method, new XC_MethodHook() {
+                    HookRegistry.hookMethod("send_tracker.vm_delegate_msg", method, new HookRegistry.Callback() {
                         @Override
-                        protected void beforeHookedMethod(MethodHookParam param) throws Throwable {
+                        protected void before(MethodHookParam param) throws Throwable {
                             debugLog(TAG + ": ═══════════════════════════════════");
                             debugLog(TAG + ": [AIOSendMsgVMDelegate." + methodName + "] (" + param.args.length + "参数)");
                             debugLog(TAG + ": 参数类型: " + Arrays.toString(paramTypes));
@@ -0,0 +1,61 @@
+package top.galqq.utils;
+
+import android.content.Context;
+
+import java.util.List;
+
+/**
+ * 回复选项生成引擎
+ *
+ * 选项条只依赖这个接口，不关心选项来自远程AI还是本地检索：
+ * - {@link RemoteOptionEngine}：OpenAI 兼容接口，经过 {@link AiRateLimitedQueue} 限流
+ * - {@link LocalOptionEngine}：本地词库 + 自己历史回复的检索排序，不访问网络
+ * 具体使用哪个由 {@link OptionEngines#select} 按配置和网络状态决定。
+ * 回调统一在主线程执行。
+ */
+public interface OptionEngine {
+
+    /**
+     * 引擎名称（日志/统计用）
+     */
+    String getName();
+
+    /**
+     * 生成选项
+     */
+    void generate(Request request, HttpAiClient.AiCallbackWithRetry callback);
+
+    /**
+     * 一次选项生成请求（字段与 AiRateLimitedQueue.submitRequest 的参数一一对应）
+     */
+    final class Request {
+        public final Context context;
+        public final String msgContent;
+        public final String msgId;
+        public final AiRateLimitedQueue.Priority priority;
+        public final List<MessageContextManager.ChatMessage> contextMessages;
+        public final String senderName;
+        public final long timestamp;
+        public final String senderQQ;
+        public final String customPrompt;
+        public final List<ImageExtractor.ImageElement> imageElements;
+        public final String conversationId;
+
+        public Request(Context context, String msgContent, String msgId, AiRateLimitedQueue.Priority priority,
+                       List<MessageContextManager.ChatMessage> contextMessages,
+                       String senderName, long timestamp, String senderQQ, String customPrompt,
+                       List<ImageExtractor.ImageElement> imageElements, String conversationId) {
+            this.context = context;
+            this.msgContent = msgContent;
+            this.msgId = msgId;
+            this.priority = priority;
+            this.contextMessages = contextMessages;
+            this.senderName = senderName;
+            this.timestamp = timestamp;
+            this.senderQQ = senderQQ;
+            this.customPrompt = customPrompt;
+            this.imageElements = imageElements;
+            this.conversationId = conversationId;
+        }
+    }
+}
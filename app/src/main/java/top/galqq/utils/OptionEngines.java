@@ -0,0 +1,127 @@
+package top.galqq.utils;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+
+import java.util.List;
+
+import de.robv.android.xposed.XposedBridge;
+import top.galqq.config.ConfigManager;
+
+/**
+ * 按"选项引擎"设置选择 {@link OptionEngine}
+ *
+ * - remote：只用远程AI（原来的行为）
+ * - local：只用本地检索，不访问网络
+ * - auto：没有可用网络时直接用本地；有网络时先请求远程，远程最终失败再用本地结果顶上
+ */
+public final class OptionEngines {
+
+    private static final String TAG = "GalQQ.OptionEngines";
+
+    private static void debugLog(String message) {
+        try {
+            if (ConfigManager.isVerboseLogEnabled()) {
+                XposedBridge.log(TAG + ": " + message);
+            }
+        } catch (Throwable ignored) {}
+    }
+
+    private OptionEngines() {}
+
+    /**
+     * 当前配置下应使用的引擎
+     */
+    public static OptionEngine select(Context context) {
+        String mode = ConfigManager.getOptionEngine();
+        if (ConfigManager.OPTION_ENGINE_LOCAL.equals(mode)) {
+            return LocalOptionEngine.getInstance();
+        }
+        if (ConfigManager.OPTION_ENGINE_AUTO.equals(mode)) {
+            if (!isNetworkAvailable(context)) {
+                debugLog("无可用网络，使用本地引擎");
+                return LocalOptionEngine.getInstance();
+            }
+            return AUTO;
+        }
+        return RemoteOptionEngine.getInstance();
+    }
+
+    /**
+     * 本地引擎是否可能被用到（决定是否记录自己的历史回复）
+     */
+    public static boolean isLocalEngineInUse() {
+        try {
+            return ConfigManager.isAiEnabled()
+                    && !ConfigManager.OPTION_ENGINE_REMOTE.equals(ConfigManager.getOptionEngine());
+        } catch (Throwable t) {
+            return false;
+        }
+    }
+
+    private static boolean isNetworkAvailable(Context context) {
+        try {
+            ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+            if (cm == null) return true;
+            Network network = cm.getActiveNetwork();
+            if (network == null) return false;
+            NetworkCapabilities caps = cm.getNetworkCapabilities(network);
+            return caps == null || caps.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+        } catch (Throwable t) {
+            // 查询失败时按有网络处理，保持原来的行为
+            return true;
+        }
+    }
+
+    /**
+     * 远程优先、本地兜底
+     */
+    private static final OptionEngine AUTO = new OptionEngine() {
+        @Override
+        public String getName() {
+            return "auto";
+        }
+
+        @Override
+        public void generate(Request request, HttpAiClient.AiCallbackWithRetry callback) {
+            RemoteOptionEngine.getInstance().generate(request, new HttpAiClient.AiCallbackWithRetry() {
+                @Override
+                public void onSuccess(List<String> options) {
+                    callback.onSuccess(options);
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    fallback(e, () -> callback.onFailure(e));
+                }
+
+                @Override
+                public void onAllRetriesFailed(Runnable retryAction) {
+                    fallback(null, () -> callback.onAllRetriesFailed(retryAction));
+                }
+
+                private void fallback(Exception cause, Runnable otherwise) {
+                    debugLog("远程请求失败，改用本地引擎" + (cause != null ? ": " + cause.getMessage() : ""));
+                    LocalOptionEngine.getInstance().generate(request, new HttpAiClient.AiCallbackWithRetry() {
+                        @Override
+                        public void onSuccess(List<String> options) {
+                            callback.onSuccess(options);
+                        }
+
+                        @Override
+                        public void onFailure(Exception e) {
+                            otherwise.run();
+                        }
+
+                        @Override
+                        public void onAllRetriesFailed(Runnable retryAction) {
+                            otherwise.run();
+                        }
+                    });
+                }
+            });
+        }
+    };
+}
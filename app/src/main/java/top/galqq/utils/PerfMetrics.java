@@ -0,0 +1,307 @@
+package top.galqq.utils;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+import top.galqq.config.ConfigManager;
+
+/**
+ * 热路径性能指标
+ *
+ * 按阶段统计耗时（消息绑定、队列等待、AI请求、图片准备、图片识别），
+ * 每个阶段一个无锁的对数-线性分桶直方图，用于计算 p50/p95/p99。
+ *
+ * 用法：
+ * <pre>
+ * long start = PerfMetrics.start();
+ * ... 被测代码 ...
+ * PerfMetrics.record(PerfMetrics.Stage.AI_HTTP, start);
+ * </pre>
+ * 未开启性能统计时 start() 返回 0，record() 直接返回，几乎没有开销。
+ */
+public final class PerfMetrics {
+
+    /**
+     * 统计阶段
+     */
+    public enum Stage {
+        BIND("消息绑定"),
+        QUEUE_WAIT("队列等待"),
+        AI_HTTP("AI请求"),
+        IMAGE_PREP("图片准备"),
+        VISION("图片识别"),
+        LOCAL_OPTIONS("本地选项"),
+        STARTUP_MAIN("启动(主线程)"),
+        STARTUP_BACKGROUND("启动(后台)");
+
+        public final String displayName;
+
+        Stage(String displayName) {
+            this.displayName = displayName;
+        }
+    }
+
+    private static final StageStats[] STATS;
+
+    static {
+        Stage[] stages = Stage.values();
+        STATS = new StageStats[stages.length];
+        for (int i = 0; i < stages.length; i++) {
+            STATS[i] = new StageStats();
+        }
+    }
+
+    private PerfMetrics() {}
+
+    /**
+     * 是否启用性能统计
+     */
+    public static boolean isEnabled() {
+        return ConfigManager.isPerfMetricsEnabled();
+    }
+
+    /**
+     * 开始计时
+     * @return 起始时间（纳秒），未启用时返回 0
+     */
+    public static long start() {
+        return isEnabled() ? System.nanoTime() : 0L;
+    }
+
+    /**
+     * 记录一次成功的耗时
+     * @param startNs start() 的返回值，为 0 时忽略
+     */
+    public static void record(Stage stage, long startNs) {
+        if (startNs == 0L) return;
+        STATS[stage.ordinal()].record(System.nanoTime() - startNs);
+    }
+
+    /**
+     * 记录一次失败（只计数，不计入耗时分布）
+     */
+    public static void recordError(Stage stage, long startNs) {
+        if (startNs == 0L) return;
+        STATS[stage.ordinal()].errors.increment();
+    }
+
+    /**
+     * 直接记录一段已知的耗时（毫秒），用于跨线程的阶段（如队列等待）
+     */
+    public static void recordMillis(Stage stage, long millis) {
+        if (millis < 0 || !isEnabled()) return;
+        STATS[stage.ordinal()].record(TimeUnit.MILLISECONDS.toNanos(millis));
+    }
+
+    /**
+     * 获取某个阶段的快照
+     */
+    public static Snapshot snapshot(Stage stage) {
+        return STATS[stage.ordinal()].snapshot(stage);
+    }
+
+    /**
+     * 清空所有统计
+     */
+    public static void reset() {
+        for (StageStats stats : STATS) {
+            stats.reset();
+        }
+    }
+
+    /**
+     * 格式化为监控界面显示的文本
+     */
+    public static String formatSummary() {
+        StringBuilder sb = new StringBuilder();
+        for (Stage stage : Stage.values()) {
+            Snapshot s = snapshot(stage);
+            sb.append(stage.displayName).append(": ");
+            if (s.count == 0) {
+                sb.append("暂无数据");
+            } else {
+                sb.append("p50=").append(formatMs(s.p50Us))
+                  .append(" p95=").append(formatMs(s.p95Us))
+                  .append(" p99=").append(formatMs(s.p99Us))
+                  .append(" max=").append(formatMs(s.maxUs))
+                  .append(" (n=").append(s.count);
+                if (s.errors > 0) {
+                    sb.append(", 失败=").append(s.errors);
+                }
+                sb.append(")");
+            }
+            sb.append("\n");
+        }
+        if (!isEnabled()) {
+            sb.append("\n性能统计未开启，可在设置中开启");
+        }
+        return sb.toString().trim();
+    }
+
+    /**
+     * 导出全部阶段的快照（JSON）
+     */
+    public static JSONObject exportSnapshot() {
+        JSONObject root = new JSONObject();
+        try {
+            root.put("time", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.getDefault()).format(new Date()));
+            root.put("enabled", isEnabled());
+            JSONArray stages = new JSONArray();
+            for (Stage stage : Stage.values()) {
+                stages.put(snapshot(stage).toJson());
+            }
+            root.put("stages", stages);
+        } catch (Exception ignored) {}
+        return root;
+    }
+
+    private static String formatMs(long micros) {
+        if (micros < 10_000) {
+            return String.format(Locale.US, "%.1fms", micros / 1000.0);
+        }
+        return (micros / 1000) + "ms";
+    }
+
+    // ========== 内部类 ==========
+
+    /**
+     * 单个阶段的统计快照（耗时单位：微秒）
+     */
+    public static class Snapshot {
+        public final Stage stage;
+        public final long count;
+        public final long errors;
+        public final long meanUs;
+        public final long maxUs;
+        public final long p50Us;
+        public final long p95Us;
+        public final long p99Us;
+
+        Snapshot(Stage stage, long count, long errors, long meanUs, long maxUs,
+                 long p50Us, long p95Us, long p99Us) {
+            this.stage = stage;
+            this.count = count;
+            this.errors = errors;
+            this.meanUs = meanUs;
+            this.maxUs = maxUs;
+            this.p50Us = p50Us;
+            this.p95Us = p95Us;
+            this.p99Us = p99Us;
+        }
+
+        public JSONObject toJson() {
+            JSONObject json = new JSONObject();
+            try {
+                json.put("stage", stage.name());
+                json.put("name", stage.displayName);
+                json.put("count", count);
+                json.put("errors", errors);
+                json.put("mean_us", meanUs);
+                json.put("max_us", maxUs);
+                json.put("p50_us", p50Us);
+                json.put("p95_us", p95Us);
+                json.put("p99_us", p99Us);
+            } catch (Exception ignored) {}
+            return json;
+        }
+    }
+
+    /**
+     * 单阶段统计
+     *
+     * 直方图按微秒计：小于 16us 每 1us 一个桶，之后每个 2 的幂区间再均分 16 个子桶，
+     * 相对误差约 6%，覆盖到约 2^40us，足够覆盖任何网络请求。
+     */
+    private static class StageStats {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+        private static final int MAX_MAGNITUDE = 40;
+        private static final int BUCKET_COUNT = (MAX_MAGNITUDE - SUB_BUCKET_BITS + 2) * SUB_BUCKET_COUNT;
+
+        final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        final LongAdder count = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LongAdder totalUs = new LongAdder();
+        final AtomicLong maxUs = new AtomicLong();
+
+        void record(long nanos) {
+            long micros = Math.max(0L, nanos / 1000L);
+            buckets.incrementAndGet(bucketIndex(micros));
+            count.increment();
+            totalUs.add(micros);
+            long prev;
+            while (micros > (prev = maxUs.get())) {
+                if (maxUs.compareAndSet(prev, micros)) break;
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                buckets.set(i, 0L);
+            }
+            count.reset();
+            errors.reset();
+            totalUs.reset();
+            maxUs.set(0L);
+        }
+
+        Snapshot snapshot(Stage stage) {
+            long[] copy = new long[BUCKET_COUNT];
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                copy[i] = buckets.get(i);
+                total += copy[i];
+            }
+            long max = maxUs.get();
+            long mean = total > 0 ? totalUs.sum() / total : 0;
+            return new Snapshot(stage, total, errors.sum(), mean, max,
+                    percentile(copy, total, 0.50, max),
+                    percentile(copy, total, 0.95, max),
+                    percentile(copy, total, 0.99, max));
+        }
+
+        private static long percentile(long[] counts, long total, double p, long max) {
+            if (total == 0) return 0;
+            long rank = (long) Math.ceil(p * total);
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        static int bucketIndex(long micros) {
+            if (micros < SUB_BUCKET_COUNT) {
+                return (int) micros;
+            }
+            int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+            if (magnitude > MAX_MAGNITUDE) {
+                return BUCKET_COUNT - 1;
+            }
+            int shift = magnitude - SUB_BUCKET_BITS;
+            int sub = (int) ((micros >>> shift) & (SUB_BUCKET_COUNT - 1));
+            return (shift + 1) * SUB_BUCKET_COUNT + sub;
+        }
+
+        static long bucketUpperBound(int index) {
+            if (index < SUB_BUCKET_COUNT) {
+                return index;
+            }
+            int shift = index / SUB_BUCKET_COUNT - 1;
+            int sub = index % SUB_BUCKET_COUNT;
+            long lower = ((long) (SUB_BUCKET_COUNT + sub)) << shift;
+            return lower + (1L << shift) - 1;
+        }
+    }
+}
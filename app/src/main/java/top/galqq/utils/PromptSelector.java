@@ -2,7 +2,9 @@ package top.galqq.utils;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import de.robv.android.xposed.XposedBridge;
 import top.galqq.config.ConfigManager;
@@ -16,6 +18,18 @@ public class PromptSelector {
     
     private static final String TAG = "GalQQ.PromptSelector";
     
+    // 选择结果缓存：同一会话重复打开选项栏时不再逐条计算黑白名单
+    private static final int DECISION_CACHE_SIZE = 256;
+    private static final Map<String, List<PromptItem>> sDecisionCache =
+            new LinkedHashMap<String, List<PromptItem>>(64, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, List<PromptItem>> eldest) {
+                    return size() > DECISION_CACHE_SIZE;
+                }
+            };
+    // 缓存对应的提示词列表版本，列表变化后整体清空
+    private static int sDecisionCacheVersion = -1;
+    
     private static void debugLog(String message) {
         try {
             if (top.galqq.config.ConfigManager.isVerboseLogEnabled()) {
@@ -140,4 +154,36 @@ public class PromptSelector {
         // 返回第一个可用的提示词（顺序决定优先级）
         return selected.get(0);
     }
+    
+    /**
+     * 使用已解析的提示词列表选择提示词，结果按 (列表版本, 发送者, 群号, AI开关) 缓存
+     * 
+     * @param senderQQ 发送者QQ号
+     * @param groupId 群号（私聊时为null或对方QQ号）
+     * @param aiEnabled AI是否启用
+     * @return 选中的提示词，如果全部被屏蔽则返回null
+     */
+    public static PromptItem getSelectedPrompt(String senderQQ, String groupId, boolean aiEnabled) {
+        List<PromptItem> prompts = ConfigManager.getCompiledPrompts();
+        int version = ConfigManager.getPromptListVersion();
+        String key = (aiEnabled ? '1' : '0') + "|" + senderQQ + "|" + groupId;
+        
+        List<PromptItem> selected;
+        synchronized (sDecisionCache) {
+            if (sDecisionCacheVersion != version) {
+                sDecisionCache.clear();
+                sDecisionCacheVersion = version;
+            }
+            selected = sDecisionCache.get(key);
+        }
+        if (selected == null) {
+            selected = selectPrompts(prompts, senderQQ, groupId, aiEnabled);
+            synchronized (sDecisionCache) {
+                if (sDecisionCacheVersion == version) {
+                    sDecisionCache.put(key, selected);
+                }
+            }
+        }
+        return selected.isEmpty() ? null : selected.get(0);
+    }
 }
@@ -0,0 +1,271 @@
+package top.galqq.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Protobuf 只读视图
+ *
+ * 直接在原始字节数组上按需读取字段，不拷贝、不预先解析整棵树：
+ * 子消息也是同一个数组上的 [offset, limit) 区间，只有被访问到的路径才会被扫描。
+ * 数据格式不对时返回默认值 / null / 空列表，不抛异常。
+ *
+ * 用法：
+ * <pre>
+ *   ProtoView root = ProtoView.of(bytes);
+ *   for (ProtoView item : root.all(4, 4, 1)) {
+ *       String rkey = item.string(1);
+ *       long ttl = item.varint(2, 0);
+ *   }
+ * </pre>
+ * 需要完整结构（调试输出）时仍然用 {@link FunProtoData}。
+ */
+public final class ProtoView {
+
+    public static final int WIRE_VARINT = 0;
+    public static final int WIRE_FIXED64 = 1;
+    public static final int WIRE_LENGTH_DELIMITED = 2;
+    public static final int WIRE_FIXED32 = 5;
+
+    private final byte[] buf;
+    private final int offset;
+    private final int limit;
+
+    private ProtoView(byte[] buf, int offset, int limit) {
+        this.buf = buf;
+        this.offset = offset;
+        this.limit = limit;
+    }
+
+    public static ProtoView of(byte[] buf) {
+        return new ProtoView(buf, 0, buf != null ? buf.length : 0);
+    }
+
+    public static ProtoView of(byte[] buf, int offset, int length) {
+        if (buf == null || offset < 0 || length < 0 || offset + length > buf.length) {
+            return new ProtoView(buf, 0, 0);
+        }
+        return new ProtoView(buf, offset, offset + length);
+    }
+
+    /**
+     * 视图长度（字节）
+     */
+    public int length() {
+        return limit - offset;
+    }
+
+    // ========== 单个字段 ==========
+
+    /**
+     * 第一个匹配的子消息，不存在时返回 null
+     */
+    public ProtoView message(int field) {
+        Cursor c = new Cursor();
+        while (c.next()) {
+            if (c.field == field && c.wireType == WIRE_LENGTH_DELIMITED) {
+                return new ProtoView(buf, c.valueStart, c.valueEnd);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 所有匹配的子消息（repeated 字段）
+     */
+    public List<ProtoView> messages(int field) {
+        List<ProtoView> result = null;
+        Cursor c = new Cursor();
+        while (c.next()) {
+            if (c.field == field && c.wireType == WIRE_LENGTH_DELIMITED) {
+                if (result == null) result = new ArrayList<>();
+                result.add(new ProtoView(buf, c.valueStart, c.valueEnd));
+            }
+        }
+        return result != null ? result : Collections.<ProtoView>emptyList();
+    }
+
+    /**
+     * 第一个匹配的 varint / fixed 字段，不存在时返回默认值
+     */
+    public long varint(int field, long defaultValue) {
+        Cursor c = new Cursor();
+        while (c.next()) {
+            if (c.field != field) continue;
+            switch (c.wireType) {
+                case WIRE_VARINT:
+                case WIRE_FIXED64:
+                case WIRE_FIXED32:
+                    return c.numericValue;
+                default:
+                    break;
+            }
+        }
+        return defaultValue;
+    }
+
+    /**
+     * 第一个匹配的字符串字段（UTF-8），不存在时返回 null
+     */
+    public String string(int field) {
+        Cursor c = new Cursor();
+        while (c.next()) {
+            if (c.field == field && c.wireType == WIRE_LENGTH_DELIMITED) {
+                return new String(buf, c.valueStart, c.valueEnd - c.valueStart, StandardCharsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 第一个匹配的 bytes 字段（会拷贝），不存在时返回 null
+     */
+    public byte[] bytes(int field) {
+        Cursor c = new Cursor();
+        while (c.next()) {
+            if (c.field == field && c.wireType == WIRE_LENGTH_DELIMITED) {
+                byte[] out = new byte[c.valueEnd - c.valueStart];
+                System.arraycopy(buf, c.valueStart, out, 0, out.length);
+                return out;
+            }
+        }
+        return null;
+    }
+
+    public boolean has(int field) {
+        Cursor c = new Cursor();
+        while (c.next()) {
+            if (c.field == field) return true;
+        }
+        return false;
+    }
+
+    // ========== 路径查询 ==========
+
+    /**
+     * 按路径逐层取第一个子消息，例如 at(4, 4) 对应 body.data
+     * @return 任意一层不存在时返回 null
+     */
+    public ProtoView at(int... path) {
+        ProtoView view = this;
+        for (int field : path) {
+            view = view.message(field);
+            if (view == null) return null;
+        }
+        return view;
+    }
+
+    /**
+     * 前面的路径取第一个子消息，最后一层取全部（repeated），例如 all(4, 4, 1) 对应 body.data.rkeyList[]
+     */
+    public List<ProtoView> all(int... path) {
+        if (path.length == 0) {
+            return Collections.singletonList(this);
+        }
+        ProtoView parent = this;
+        for (int i = 0; i < path.length - 1; i++) {
+            parent = parent.message(path[i]);
+            if (parent == null) return Collections.emptyList();
+        }
+        return parent.messages(path[path.length - 1]);
+    }
+
+    /**
+     * 整个视图是否能按 protobuf 格式完整扫描（字段号合法、长度不越界）
+     * 可用来判断一个 bytes 字段是子消息还是普通字符串
+     */
+    public boolean isWellFormed() {
+        Cursor c = new Cursor();
+        while (c.next()) {
+            // 只是扫描
+        }
+        return c.pos == limit && !c.malformed;
+    }
+
+    // ========== 扫描 ==========
+
+    /**
+     * 字段游标：每次 next() 读取一个字段的标签和值的位置
+     */
+    private final class Cursor {
+        int pos = offset;
+        int field;
+        int wireType;
+        long numericValue;
+        int valueStart;
+        int valueEnd;
+        boolean malformed;
+
+        boolean next() {
+            if (pos >= limit || malformed) {
+                return false;
+            }
+            long tag = readVarint();
+            if (malformed) return false;
+            field = (int) (tag >>> 3);
+            wireType = (int) (tag & 7);
+            if (field <= 0) {
+                malformed = true;
+                return false;
+            }
+            switch (wireType) {
+                case WIRE_VARINT:
+                    numericValue = readVarint();
+                    break;
+                case WIRE_FIXED64:
+                    numericValue = readFixed(8);
+                    break;
+                case WIRE_FIXED32:
+                    numericValue = readFixed(4);
+                    break;
+                case WIRE_LENGTH_DELIMITED: {
+                    long len = readVarint();
+                    if (malformed || len < 0 || len > limit - pos) {
+                        malformed = true;
+                        return false;
+                    }
+                    valueStart = pos;
+                    valueEnd = pos + (int) len;
+                    pos = valueEnd;
+                    break;
+                }
+                default:
+                    // group(3/4) 等已废弃的类型不支持
+                    malformed = true;
+                    return false;
+            }
+            return !malformed;
+        }
+
+        private long readVarint() {
+            long result = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= limit) {
+                    malformed = true;
+                    return 0;
+                }
+                byte b = buf[pos++];
+                result |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return result;
+                }
+            }
+            malformed = true;
+            return 0;
+        }
+
+        private long readFixed(int size) {
+            if (limit - pos < size) {
+                malformed = true;
+                return 0;
+            }
+            long result = 0;
+            for (int i = 0; i < size; i++) {
+                result |= (long) (buf[pos++] & 0xFF) << (8 * i);
+            }
+            return result;
+        }
+    }
+}
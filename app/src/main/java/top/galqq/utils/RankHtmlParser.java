@@ -0,0 +1,384 @@
+package top.galqq.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 亲密度排行页面的流式解析器
+ *
+ * 直接从响应的字节流中逐个读取标签，不把整个 HTML 读成字符串，也不使用正则：
+ * - 进入 &lt;ul class="rank-list ..." data-type="1|2"&gt; 时记录当前列表类型，对应的 &lt;/ul&gt; 结束
+ * - 任意标签上的 data-uin="..." 作为待配对的 uin
+ * - 随后的 &lt;span class="degree"&gt;NN&lt;/span&gt; 与之配对，写入对应列表
+ *
+ * 内存占用只有固定大小的读缓冲和标签缓冲，与页面大小无关；结果存入 {@link UinDegreeMap}。
+ */
+public final class RankHtmlParser {
+
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    // 标签属性最多保留的字节数，超出部分丢弃（data-uin / class / data-type 都在前面）
+    private static final int TAG_BUFFER_SIZE = 1024;
+    private static final int TAG_NAME_MAX = 16;
+
+    private static final byte[] ATTR_DATA_UIN = ascii("data-uin");
+    private static final byte[] ATTR_DATA_TYPE = ascii("data-type");
+    private static final byte[] ATTR_CLASS = ascii("class");
+    private static final byte[] CLASS_RANK_LIST = ascii("rank-list");
+    private static final byte[] CLASS_DEGREE = ascii("degree");
+    private static final byte[] END_COMMENT = ascii("-->");
+    private static final byte[] END_SCRIPT = ascii("</script");
+    private static final byte[] END_STYLE = ascii("</style");
+
+    /**
+     * 解析结果
+     */
+    public static final class Result {
+        /** data-type="1" 列表：我在意谁 */
+        public final UinDegreeMap whoICare = new UinDegreeMap();
+        /** data-type="2" 列表：谁在意我 */
+        public final UinDegreeMap whoCaresMe = new UinDegreeMap();
+        /** 页面中所有配对成功的条目（不区分列表） */
+        public final UinDegreeMap all = new UinDegreeMap();
+        /** 读取的字节数 */
+        public long bytesRead;
+        public boolean foundWhoICareList;
+        public boolean foundWhoCaresMeList;
+    }
+
+    private final InputStream in;
+    private final byte[] buf = new byte[READ_BUFFER_SIZE];
+    private int pos;
+    private int limit;
+    private long consumed;
+
+    private final byte[] tag = new byte[TAG_BUFFER_SIZE];
+    private int tagLength;
+    private final byte[] tagName = new byte[TAG_NAME_MAX];
+    private int tagNameLength;
+
+    private final Result result = new Result();
+    private long pendingUin = -1;
+    private int listType = 0;
+    private int ulDepth = 0;
+    private int listDepth = 0;
+
+    private RankHtmlParser(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * 解析整个流（不会关闭流）
+     */
+    public static Result parse(InputStream in) throws IOException {
+        RankHtmlParser parser = new RankHtmlParser(in);
+        parser.run();
+        parser.result.bytesRead = parser.consumed;
+        return parser.result;
+    }
+
+    // ========== 主循环 ==========
+
+    private void run() throws IOException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c != '<') continue;
+            c = read();
+            if (c == -1) break;
+            if (c == '!') {
+                if (read() == '-' && read() == '-') {
+                    skipUntil(END_COMMENT);
+                } else {
+                    skipTag();
+                }
+            } else if (c == '/') {
+                readTagName(read());
+                skipTag();
+                if (tagNameIs("ul")) {
+                    onUlClosed();
+                }
+            } else if (isLetter(c)) {
+                readTagName(c);
+                boolean selfClosing = readAttributes();
+                onTagOpened(selfClosing);
+            } else {
+                unread();
+            }
+        }
+    }
+
+    private void onTagOpened(boolean selfClosing) throws IOException {
+        if (tagNameIs("script")) {
+            if (!selfClosing) skipUntil(END_SCRIPT);
+            return;
+        }
+        if (tagNameIs("style")) {
+            if (!selfClosing) skipUntil(END_STYLE);
+            return;
+        }
+
+        if (tagNameIs("ul") && !selfClosing) {
+            ulDepth++;
+            if (listType == 0 && attrHasClass(CLASS_RANK_LIST, true)) {
+                long type = attrNumber(ATTR_DATA_TYPE);
+                if (type == 1 || type == 2) {
+                    listType = (int) type;
+                    listDepth = ulDepth;
+                    if (type == 1) result.foundWhoICareList = true;
+                    else result.foundWhoCaresMeList = true;
+                }
+            }
+        }
+
+        long uin = attrNumber(ATTR_DATA_UIN);
+        if (uin > 0) {
+            pendingUin = uin;
+        }
+
+        if (tagNameIs("span") && !selfClosing && attrHasClass(CLASS_DEGREE, false)) {
+            int degree = readNumberText();
+            if (degree >= 0 && pendingUin > 0) {
+                result.all.put(pendingUin, degree);
+                if (listType == 1) {
+                    result.whoICare.put(pendingUin, degree);
+                } else if (listType == 2) {
+                    result.whoCaresMe.put(pendingUin, degree);
+                }
+                pendingUin = -1;
+            }
+        }
+    }
+
+    private void onUlClosed() {
+        if (ulDepth > 0) ulDepth--;
+        if (listType != 0 && ulDepth < listDepth) {
+            listType = 0;
+            listDepth = 0;
+            pendingUin = -1;
+        }
+    }
+
+    // ========== 标签读取 ==========
+
+    private void readTagName(int c) throws IOException {
+        tagNameLength = 0;
+        while (c != -1 && (isLetter(c) || (c >= '0' && c <= '9') || c == '-')) {
+            if (tagNameLength < TAG_NAME_MAX) {
+                tagName[tagNameLength++] = (byte) toLower(c);
+            }
+            c = read();
+        }
+        if (c != -1) unread();
+    }
+
+    /**
+     * 读取到标签结束的 '>'，属性原文存入 tag 缓冲
+     * @return 是否为自闭合标签（以 "/>" 结尾）
+     */
+    private boolean readAttributes() throws IOException {
+        tagLength = 0;
+        int quote = 0;
+        int prev = 0;
+        int c;
+        while ((c = read()) != -1) {
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return prev == '/';
+            }
+            if (tagLength < TAG_BUFFER_SIZE) {
+                tag[tagLength++] = (byte) c;
+            }
+            prev = c;
+        }
+        return false;
+    }
+
+    private void skipTag() throws IOException {
+        int quote = 0;
+        int c;
+        while ((c = read()) != -1) {
+            if (quote != 0) {
+                if (c == quote) quote = 0;
+            } else if (c == '"' || c == '\'') {
+                quote = c;
+            } else if (c == '>') {
+                return;
+            }
+        }
+    }
+
+    /**
+     * 跳过内容直到指定的结束标记（不区分大小写，KMP 匹配），结束标记不以 '>' 结尾时继续跳到标签结束
+     */
+    private void skipUntil(byte[] marker) throws IOException {
+        int[] fail = new int[marker.length];
+        for (int i = 1, k = 0; i < marker.length; i++) {
+            while (k > 0 && marker[i] != marker[k]) k = fail[k - 1];
+            if (marker[i] == marker[k]) k++;
+            fail[i] = k;
+        }
+        int matched = 0;
+        int c;
+        while ((c = read()) != -1) {
+            int lc = toLower(c);
+            while (matched > 0 && lc != marker[matched]) matched = fail[matched - 1];
+            if (lc == marker[matched]) matched++;
+            if (matched == marker.length) {
+                if (marker[marker.length - 1] != '>') skipTag();
+                return;
+            }
+        }
+    }
+
+    /**
+     * 读取标签内的数字文本（允许前后空白），遇到 '<' 停止
+     * @return 数字值，没有数字时返回 -1
+     */
+    private int readNumberText() throws IOException {
+        long value = -1;
+        int c;
+        while ((c = read()) != -1 && c != '<') {
+            if (c >= '0' && c <= '9') {
+                value = (value < 0 ? 0 : value * 10) + (c - '0');
+                if (value > Integer.MAX_VALUE) value = Integer.MAX_VALUE;
+            } else if (!isSpace(c)) {
+                // 非数字内容
+                value = -1;
+                break;
+            }
+        }
+        if (c == '<') unread();
+        return (int) value;
+    }
+
+    // ========== 属性 ==========
+
+    // findAttr 找到的属性值结束位置
+    private int attrEnd;
+
+    /**
+     * 查找属性值在 tag 缓冲中的起点，返回 -1 表示不存在；值的结束位置写入 attrEnd
+     */
+    private int findAttr(byte[] name) {
+        outer:
+        for (int i = 0; i + name.length < tagLength; i++) {
+            if (i > 0 && !isSpace(tag[i - 1])) continue;
+            for (int j = 0; j < name.length; j++) {
+                if (toLower(tag[i + j]) != name[j]) continue outer;
+            }
+            int p = i + name.length;
+            while (p < tagLength && isSpace(tag[p])) p++;
+            if (p >= tagLength || tag[p] != '=') continue;
+            p++;
+            while (p < tagLength && isSpace(tag[p])) p++;
+            if (p >= tagLength) return -1;
+            byte q = tag[p];
+            int start;
+            if (q == '"' || q == '\'') {
+                start = p + 1;
+                int end = start;
+                while (end < tagLength && tag[end] != q) end++;
+                attrEnd = end;
+            } else {
+                start = p;
+                int end = start;
+                while (end < tagLength && !isSpace(tag[end]) && tag[end] != '/') end++;
+                attrEnd = end;
+            }
+            return start;
+        }
+        return -1;
+    }
+
+    private long attrNumber(byte[] name) {
+        int start = findAttr(name);
+        if (start < 0 || start >= attrEnd) return -1;
+        long value = 0;
+        for (int i = start; i < attrEnd; i++) {
+            int c = tag[i];
+            if (c < '0' || c > '9') return -1;
+            value = value * 10 + (c - '0');
+            if (value > 99999999999L) return -1;
+        }
+        return value;
+    }
+
+    /**
+     * class 属性是否包含指定的类名
+     * @param prefix true 时只要某个类名以此开头即可（如 rank-list-xxx）
+     */
+    private boolean attrHasClass(byte[] className, boolean prefix) {
+        int start = findAttr(ATTR_CLASS);
+        if (start < 0) return false;
+        int i = start;
+        while (i < attrEnd) {
+            while (i < attrEnd && isSpace(tag[i])) i++;
+            int tokenStart = i;
+            while (i < attrEnd && !isSpace(tag[i])) i++;
+            int tokenLength = i - tokenStart;
+            if (tokenLength == className.length || (prefix && tokenLength > className.length)) {
+                boolean match = true;
+                for (int j = 0; j < className.length; j++) {
+                    if (toLower(tag[tokenStart + j]) != className[j]) {
+                        match = false;
+                        break;
+                    }
+                }
+                if (match) return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean tagNameIs(String name) {
+        if (tagNameLength != name.length()) return false;
+        for (int i = 0; i < tagNameLength; i++) {
+            if (tagName[i] != name.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    // ========== 字节读取 ==========
+
+    private int read() throws IOException {
+        if (pos >= limit) {
+            limit = in.read(buf, 0, buf.length);
+            pos = 0;
+            if (limit <= 0) {
+                limit = 0;
+                return -1;
+            }
+            consumed += limit;
+        }
+        return buf[pos++] & 0xFF;
+    }
+
+    /**
+     * 退回上一个字节（只在 read() 成功之后调用，缓冲中一定还在）
+     */
+    private void unread() {
+        if (pos > 0) pos--;
+    }
+
+    private static boolean isLetter(int c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isSpace(int c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private static int toLower(int c) {
+        return (c >= 'A' && c <= 'Z') ? c + 32 : c;
+    }
+
+    private static byte[] ascii(String s) {
+        byte[] out = new byte[s.length()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = (byte) s.charAt(i);
+        }
+        return out;
+    }
+}
@@ -0,0 +1,38 @@
+package top.galqq.utils;
+
+/**
+ * 远程AI引擎：原来的请求链路（限流队列 -> HttpAiClient）
+ */
+public final class RemoteOptionEngine implements OptionEngine {
+
+    private static final RemoteOptionEngine INSTANCE = new RemoteOptionEngine();
+
+    public static RemoteOptionEngine getInstance() {
+        return INSTANCE;
+    }
+
+    private RemoteOptionEngine() {}
+
+    @Override
+    public String getName() {
+        return "remote";
+    }
+
+    @Override
+    public void generate(Request request, HttpAiClient.AiCallbackWithRetry callback) {
+        AiRateLimitedQueue.getInstance(request.context).submitRequest(
+            request.context,
+            request.msgContent,
+            request.msgId,
+            request.priority,
+            request.contextMessages,
+            request.senderName,
+            request.timestamp,
+            request.senderQQ,
+            request.customPrompt,
+            request.imageElements,
+            request.conversationId,
+            callback
+        );
+    }
+}
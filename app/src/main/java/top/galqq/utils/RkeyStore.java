@@ -0,0 +1,437 @@
+package top.galqq.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.json.JSONObject;
+
+import de.robv.android.xposed.XposedBridge;
+
+import top.galqq.config.ConfigManager;
+
+/**
+ * 图片 rkey 存储
+ *
+ * 统一管理群聊/私聊两种 rkey 的来源和有效期：
+ * - RkeyHook 拦截到的 QQ 内部响应（带 ttl 和下发时间）
+ * - 兜底 API（带 expired_time）
+ * - 上次运行保存的 rkey（启动时恢复，未过期就直接可用）
+ *
+ * {@link #get(boolean)} 从不阻塞：快到期时在后台刷新，已过期返回 null；
+ * 每次更新后按过期时间安排下一次提前刷新。
+ */
+public final class RkeyStore {
+
+    private static final String TAG = "GalQQ.RkeyStore";
+
+    // 持久化键
+    private static final String KEY_PERSISTED = "rkey_store";
+
+    // 兜底rkey API（多个备用服务器）
+    private static final String[] RKEY_API_URLS = {
+        "https://llob.linyuchen.net/rkey",
+        "http://ss.xingzhige.com/music_card/rkey",
+        "https://secret-service.bietiaop.com/rkeys"
+    };
+
+    // QQ 下发的 rkey 类型
+    public static final int TYPE_PRIVATE = 10;
+    public static final int TYPE_GROUP = 20;
+
+    // 没有有效期信息时的默认有效期
+    private static final long DEFAULT_TTL_MS = TimeUnit.HOURS.toMillis(1);
+    // 提前刷新的时间（不超过有效期的 1/5）
+    private static final long REFRESH_AHEAD_MS = TimeUnit.MINUTES.toMillis(10);
+    // 视为过期的安全余量（下载本身也要时间）
+    private static final long EXPIRY_MARGIN_MS = TimeUnit.SECONDS.toMillis(30);
+    // 刷新失败后的重试间隔
+    private static final long RETRY_DELAY_MS = TimeUnit.MINUTES.toMillis(2);
+    // 两次刷新之间的最小间隔（避免API返回的有效期很短时反复请求）
+    private static final long MIN_REFRESH_INTERVAL_MS = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * 单个 rkey（不可变）
+     */
+    private static final class Entry {
+        final String rkey;          // 带 &rkey= 前缀
+        final long expireAtMs;
+        final long refreshAtMs;     // 到这个时间开始后台刷新
+        final String source;
+
+        Entry(String rkey, long obtainedAtMs, long expireAtMs, String source) {
+            this.rkey = rkey;
+            this.expireAtMs = expireAtMs;
+            long ahead = Math.min(REFRESH_AHEAD_MS, Math.max(0, expireAtMs - obtainedAtMs) / 5);
+            this.refreshAtMs = expireAtMs - ahead;
+            this.source = source;
+        }
+
+        boolean isUsable(long now) {
+            return now < expireAtMs - EXPIRY_MARGIN_MS;
+        }
+    }
+
+    private static volatile Entry sGroup;
+    private static volatile Entry sPrivate;
+    private static volatile boolean sRestored = false;
+
+    private static final AtomicBoolean sRefreshing = new AtomicBoolean(false);
+    private static volatile long sLastRefreshTime = 0;
+    private static final ScheduledExecutorService sScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "GalQQ-Rkey");
+        t.setDaemon(true);
+        return t;
+    });
+    private static ScheduledFuture<?> sScheduledRefresh;    // 受 RkeyStore.class 锁保护
+
+    private RkeyStore() {}
+
+    private static void debugLog(String message) {
+        try {
+            if (ConfigManager.isDebugHookLogEnabled()) {
+                XposedBridge.log(TAG + ": " + message);
+            }
+        } catch (Throwable ignored) {
+        }
+    }
+
+    /**
+     * 获取 rkey（不阻塞）
+     *
+     * @param isGroup 是否是群聊图片
+     * @return 带 &rkey= 前缀的 rkey；没有或已过期时返回 null（同时触发后台刷新）
+     */
+    public static String get(boolean isGroup) {
+        restoreIfNeeded();
+        long now = System.currentTimeMillis();
+        Entry entry = isGroup ? sGroup : sPrivate;
+        if (entry == null || now >= entry.refreshAtMs) {
+            refreshAsync();
+        }
+        return entry != null && entry.isUsable(now) ? entry.rkey : null;
+    }
+
+    /**
+     * 预热：恢复保存的 rkey，没有可用的就在后台获取一次
+     */
+    public static void warmUp() {
+        restoreIfNeeded();
+        if (!hasValidRkey()) {
+            refreshAsync();
+        }
+    }
+
+    /**
+     * 是否两种 rkey 都可用
+     */
+    public static boolean hasValidRkey() {
+        restoreIfNeeded();
+        long now = System.currentTimeMillis();
+        Entry group = sGroup;
+        Entry priv = sPrivate;
+        return group != null && group.isUsable(now) && priv != null && priv.isUsable(now);
+    }
+
+    /**
+     * 记录 RkeyHook 拦截到的 rkey
+     *
+     * @param type rkey 类型（10=私聊，20=群聊）
+     * @param ttlSeconds 有效期（秒），0 表示未知
+     * @param timeSeconds 下发时间（Unix秒），0 表示未知
+     */
+    public static void onHookedRkey(int type, String rkey, long ttlSeconds, long timeSeconds) {
+        if (rkey == null || rkey.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long obtainedAt = timeSeconds > 0 ? timeSeconds * 1000 : now;
+        long expireAt = ttlSeconds > 0 ? obtainedAt + ttlSeconds * 1000 : now + DEFAULT_TTL_MS;
+        Entry entry = new Entry(normalize(rkey), obtainedAt, expireAt, "hook");
+        if (type == TYPE_PRIVATE) {
+            sPrivate = entry;
+        } else {
+            sGroup = entry;
+        }
+        debugLog("更新 " + (type == TYPE_PRIVATE ? "private" : "group") + " rkey（hook），剩余有效期 "
+                + (expireAt - now) / 1000 + " 秒");
+        onUpdated();
+    }
+
+    /**
+     * 手动设置 rkey（有效期1小时）
+     */
+    public static void set(String groupRkey, String privateRkey) {
+        long now = System.currentTimeMillis();
+        if (groupRkey != null && !groupRkey.isEmpty()) {
+            sGroup = new Entry(normalize(groupRkey), now, now + DEFAULT_TTL_MS, "manual");
+        }
+        if (privateRkey != null && !privateRkey.isEmpty()) {
+            sPrivate = new Entry(normalize(privateRkey), now, now + DEFAULT_TTL_MS, "manual");
+        }
+        onUpdated();
+    }
+
+    /**
+     * 清除所有 rkey（包括持久化的）
+     */
+    public static void clear() {
+        sGroup = null;
+        sPrivate = null;
+        synchronized (RkeyStore.class) {
+            if (sScheduledRefresh != null) {
+                sScheduledRefresh.cancel(false);
+                sScheduledRefresh = null;
+            }
+        }
+        try {
+            ConfigManager.remove(KEY_PERSISTED);
+        } catch (Throwable ignored) {
+        }
+    }
+
+    /**
+     * 状态描述（调试用）
+     */
+    public static String getStatus() {
+        restoreIfNeeded();
+        return describeAll(System.currentTimeMillis());
+    }
+
+    private static String describeAll(long now) {
+        return "group: " + describe(sGroup, now) + ", private: " + describe(sPrivate, now);
+    }
+
+    private static String describe(Entry entry, long now) {
+        if (entry == null) {
+            return "无";
+        }
+        long remaining = (entry.expireAtMs - now) / 1000;
+        return entry.source + (remaining > 0 ? "，剩余 " + remaining + " 秒" : "，已过期");
+    }
+
+    private static String normalize(String rkey) {
+        return rkey.startsWith("&rkey=") ? rkey : "&rkey=" + rkey;
+    }
+
+    // ========== 刷新 ==========
+
+    /**
+     * 后台刷新（同一时间只有一个刷新任务）
+     */
+    private static void refreshAsync() {
+        if (System.currentTimeMillis() - sLastRefreshTime < MIN_REFRESH_INTERVAL_MS) {
+            return;
+        }
+        if (!sRefreshing.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            sScheduler.execute(RkeyStore::refreshNow);
+        } catch (Throwable t) {
+            sRefreshing.set(false);
+        }
+    }
+
+    private static void refreshNow() {
+        try {
+            long now = System.currentTimeMillis();
+            Entry group = sGroup;
+            Entry priv = sPrivate;
+            if (group != null && now < group.refreshAtMs && priv != null && now < priv.refreshAtMs) {
+                return; // 期间 RkeyHook 已经拿到了新的 rkey
+            }
+            sLastRefreshTime = now;
+            for (String apiUrl : RKEY_API_URLS) {
+                if (fetchFromApi(apiUrl)) {
+                    debugLog("成功从 " + apiUrl + " 获取rkey");
+                    onUpdated();
+                    return;
+                }
+            }
+            debugLog("所有rkey API都失败了，" + RETRY_DELAY_MS / 1000 + " 秒后重试");
+            schedule(RETRY_DELAY_MS);
+        } finally {
+            sRefreshing.set(false);
+        }
+    }
+
+    /**
+     * rkey 更新后：保存并安排下一次提前刷新
+     */
+    private static void onUpdated() {
+        persist();
+        long now = System.currentTimeMillis();
+        long next = Long.MAX_VALUE;
+        Entry group = sGroup;
+        Entry priv = sPrivate;
+        if (group != null) next = Math.min(next, group.refreshAtMs);
+        if (priv != null) next = Math.min(next, priv.refreshAtMs);
+        if (next != Long.MAX_VALUE) {
+            schedule(Math.max(MIN_REFRESH_INTERVAL_MS, next - now));
+        }
+    }
+
+    private static void schedule(long delayMs) {
+        synchronized (RkeyStore.class) {
+            if (sScheduledRefresh != null) {
+                sScheduledRefresh.cancel(false);
+            }
+            sScheduledRefresh = sScheduler.schedule(RkeyStore::refreshAsync, delayMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static boolean fetchFromApi(String apiUrl) {
+        HttpURLConnection conn = null;
+        try {
+            debugLog("请求rkey API: " + apiUrl);
+            conn = (HttpURLConnection) new URL(apiUrl).openConnection();
+            conn.setRequestMethod("GET");
+            conn.setConnectTimeout(5000);
+            conn.setReadTimeout(5000);
+            conn.setRequestProperty("User-Agent", "GalQQ/1.0");
+
+            int responseCode = conn.getResponseCode();
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                debugLog("rkey API请求失败: " + responseCode);
+                return false;
+            }
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            try (InputStream is = conn.getInputStream()) {
+                byte[] buffer = new byte[1024];
+                int len;
+                while ((len = is.read(buffer)) != -1) {
+                    baos.write(buffer, 0, len);
+                }
+            }
+            return parseApiResponse(baos.toString("UTF-8"));
+        } catch (Exception e) {
+            debugLog("获取rkey异常: " + e.getMessage());
+            return false;
+        } finally {
+            if (conn != null) {
+                conn.disconnect();
+            }
+        }
+    }
+
+    /**
+     * 解析rkey API响应
+     * 响应格式1: {"private_rkey":"&rkey=xxx","group_rkey":"&rkey=xxx","expired_time":1764784979}
+     * 响应格式2 (NapCatQQ): {"group_rkey":"xxx","private_rkey":"xxx","expired_time":xxx}
+     * 也支持 OneBot 风格的 {"data": {...}}
+     */
+    private static boolean parseApiResponse(String response) {
+        try {
+            JSONObject json = new JSONObject(response);
+            if (json.optJSONObject("data") != null) {
+                json = json.getJSONObject("data");
+            }
+            String privateRkey = json.optString("private_rkey", null);
+            String groupRkey = json.optString("group_rkey", null);
+            if ((privateRkey == null || privateRkey.isEmpty()) && (groupRkey == null || groupRkey.isEmpty())) {
+                debugLog("响应中没有找到 rkey");
+                return false;
+            }
+
+            long now = System.currentTimeMillis();
+            long expiredTime = json.optLong("expired_time", 0);
+            long expireAt = expiredTime > 0 ? expiredTime * 1000 : now + DEFAULT_TTL_MS;
+            if (expireAt <= now) {
+                debugLog("API返回的rkey已过期");
+                return false;
+            }
+            if (groupRkey != null && !groupRkey.isEmpty()) {
+                sGroup = new Entry(normalize(groupRkey), now, expireAt, "api");
+            }
+            if (privateRkey != null && !privateRkey.isEmpty()) {
+                sPrivate = new Entry(normalize(privateRkey), now, expireAt, "api");
+            }
+            return true;
+        } catch (Exception e) {
+            debugLog("解析rkey响应失败: " + e.getMessage());
+            return false;
+        }
+    }
+
+    // ========== 持久化 ==========
+
+    private static void persist() {
+        try {
+            JSONObject json = new JSONObject();
+            putEntry(json, "group", sGroup);
+            putEntry(json, "private", sPrivate);
+            ConfigManager.putString(KEY_PERSISTED, json.toString());
+        } catch (Throwable t) {
+            debugLog("保存rkey失败: " + t.getMessage());
+        }
+    }
+
+    private static void putEntry(JSONObject json, String name, Entry entry) throws Exception {
+        if (entry == null) return;
+        JSONObject obj = new JSONObject();
+        obj.put("rkey", entry.rkey);
+        obj.put("expire", entry.expireAtMs);
+        obj.put("refresh", entry.refreshAtMs);
+        obj.put("source", entry.source);
+        json.put(name, obj);
+    }
+
+    /**
+     * 恢复上次保存的 rkey（只恢复一次，ConfigManager 初始化之后才能读取）
+     */
+    private static void restoreIfNeeded() {
+        if (sRestored) {
+            return;
+        }
+        synchronized (RkeyStore.class) {
+            if (sRestored) {
+                return;
+            }
+            try {
+                String saved = ConfigManager.getString(KEY_PERSISTED, null);
+                sRestored = true;
+                if (saved == null) {
+                    return;
+                }
+                JSONObject json = new JSONObject(saved);
+                long now = System.currentTimeMillis();
+                if (sGroup == null) sGroup = readEntry(json.optJSONObject("group"), now);
+                if (sPrivate == null) sPrivate = readEntry(json.optJSONObject("private"), now);
+                debugLog("恢复保存的rkey: " + describeAll(now));
+                Entry group = sGroup;
+                Entry priv = sPrivate;
+                long next = Long.MAX_VALUE;
+                if (group != null) next = Math.min(next, group.refreshAtMs);
+                if (priv != null) next = Math.min(next, priv.refreshAtMs);
+                if (next != Long.MAX_VALUE) {
+                    schedule(Math.max(MIN_REFRESH_INTERVAL_MS, next - now));
+                }
+            } catch (IllegalStateException e) {
+                // ConfigManager 尚未初始化，下次再试
+            } catch (Throwable t) {
+                sRestored = true;
+                debugLog("恢复rkey失败: " + t.getMessage());
+            }
+        }
+    }
+
+    private static Entry readEntry(JSONObject obj, long now) {
+        if (obj == null) return null;
+        String rkey = obj.optString("rkey", null);
+        long expire = obj.optLong("expire", 0);
+        if (rkey == null || rkey.isEmpty() || expire <= now) {
+            return null;
+        }
+        long refresh = obj.optLong("refresh", expire);
+        // obtainedAt 由 refresh 反推，保证恢复后的刷新时间不变
+        long ahead = expire - refresh;
+        return new Entry(rkey, expire - ahead * 5, expire, obj.optString("source", "saved") + "(已保存)");
+    }
+}
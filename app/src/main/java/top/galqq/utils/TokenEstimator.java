@@ -0,0 +1,104 @@
+package top.galqq.utils;
+
+import top.galqq.config.ConfigManager;
+
+/**
+ * Token数估算器
+ *
+ * 不依赖具体分词表，按字符类别做启发式估算：
+ * - 英文/数字按 ~4 个字符 1 个token
+ * - 中日韩字符按服务商的分词器区分：国内模型（DeepSeek、通义、GLM、Kimi等）
+ *   对中文做过优化，约 0.6 token/字；OpenAI 等约 1 token/字
+ * - emoji 等补充平面字符按 2 个token
+ * 估算偏保守（宁可高估），用于上下文裁剪而不是计费。
+ */
+public final class TokenEstimator {
+
+    // 每条消息的固定开销（role、分隔符等）
+    public static final int MESSAGE_OVERHEAD = 4;
+    // detail=low 的图片固定消耗
+    public static final int IMAGE_LOW_DETAIL_TOKENS = 85;
+
+    private TokenEstimator() {}
+
+    /**
+     * 获取当前配置的服务商下每个中日韩字符的token数
+     */
+    public static double cjkTokensPerChar(String provider) {
+        if (provider == null) {
+            return 1.0;
+        }
+        switch (provider) {
+            case ConfigManager.PROVIDER_DEEPSEEK:
+            case ConfigManager.PROVIDER_QWEN:
+            case ConfigManager.PROVIDER_DASHSCOPE:
+            case ConfigManager.PROVIDER_GLM:
+            case ConfigManager.PROVIDER_KIMI:
+            case ConfigManager.PROVIDER_DOUBAO:
+            case ConfigManager.PROVIDER_BAICHUAN:
+            case ConfigManager.PROVIDER_BAIDU:
+            case ConfigManager.PROVIDER_SPARK:
+            case ConfigManager.PROVIDER_SENSENOVA:
+            case ConfigManager.PROVIDER_SILICONFLOW:
+                return 0.6;
+            case ConfigManager.PROVIDER_GOOGLE:
+                return 0.8;
+            default:
+                return 1.0;
+        }
+    }
+
+    /**
+     * 估算一段文本的token数
+     */
+    public static int estimate(CharSequence text, String provider) {
+        if (text == null || text.length() == 0) {
+            return 0;
+        }
+        int asciiWord = 0;     // 字母数字
+        int asciiOther = 0;    // 空白、标点
+        int cjk = 0;
+        int other = 0;         // 其他BMP字符（全角标点、拉丁扩展等）
+        int supplementary = 0; // emoji 等
+
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c < 0x80) {
+                if (Character.isLetterOrDigit(c)) {
+                    asciiWord++;
+                } else if (!Character.isWhitespace(c)) {
+                    asciiOther++;
+                }
+            } else if (Character.isHighSurrogate(c)) {
+                supplementary++;
+                i++;
+            } else if (isCjk(c)) {
+                cjk++;
+            } else {
+                other++;
+            }
+        }
+
+        double tokens = asciiWord / 4.0
+                + asciiOther / 2.0
+                + cjk * cjkTokensPerChar(provider)
+                + other
+                + supplementary * 2.0;
+        return (int) Math.ceil(tokens);
+    }
+
+    /**
+     * 估算一条聊天消息的token数（含消息开销）
+     */
+    public static int estimateMessage(CharSequence content, String provider) {
+        return estimate(content, provider) + MESSAGE_OVERHEAD;
+    }
+
+    private static boolean isCjk(char c) {
+        return (c >= 0x4E00 && c <= 0x9FFF)     // CJK统一表意文字
+            || (c >= 0x3400 && c <= 0x4DBF)     // 扩展A
+            || (c >= 0x3040 && c <= 0x30FF)     // 平假名、片假名
+            || (c >= 0xAC00 && c <= 0xD7AF)     // 韩文音节
+            || (c >= 0xF900 && c <= 0xFAFF);    // 兼容表意文字
+    }
+}
@@ -0,0 +1,111 @@
+package top.galqq.utils;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * uin -> 好感度 的基本类型哈希表
+ * 开放寻址 + 线性探测，键和值分别存放在 long[] / int[] 中，避免每条数据一个 Long/Integer/Entry 对象
+ */
+public final class UinDegreeMap {
+
+    private static final long EMPTY = 0L; // QQ号不会为0，用作空槽标记
+
+    private long[] keys;
+    private int[] values;
+    private int size;
+
+    public UinDegreeMap() {
+        this(64);
+    }
+
+    public UinDegreeMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+    }
+
+    /**
+     * 写入（已存在则覆盖），uin 必须大于 0
+     */
+    public void put(long uin, int degree) {
+        if (uin <= 0) return;
+        if ((size + 1) * 4 > keys.length * 3) {
+            rehash(keys.length << 1);
+        }
+        int idx = indexOf(uin, keys);
+        if (keys[idx] == EMPTY) {
+            keys[idx] = uin;
+            size++;
+        }
+        values[idx] = degree;
+    }
+
+    /**
+     * @return 不存在时返回 defaultValue
+     */
+    public int get(long uin, int defaultValue) {
+        if (uin <= 0) return defaultValue;
+        int idx = indexOf(uin, keys);
+        return keys[idx] == EMPTY ? defaultValue : values[idx];
+    }
+
+    public boolean containsKey(long uin) {
+        return uin > 0 && keys[indexOf(uin, keys)] != EMPTY;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void clear() {
+        Arrays.fill(keys, EMPTY);
+        size = 0;
+    }
+
+    /**
+     * 转成 uin字符串 -> 好感度 的普通 Map（兼容缓存和回调接口）
+     */
+    public Map<String, Integer> toMap() {
+        Map<String, Integer> map = new HashMap<>(Math.max(16, size * 4 / 3 + 1));
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != EMPTY) {
+                map.put(Long.toString(keys[i]), values[i]);
+            }
+        }
+        return map;
+    }
+
+    private static int indexOf(long uin, long[] table) {
+        int mask = table.length - 1;
+        int idx = mix(uin) & mask;
+        while (table[idx] != EMPTY && table[idx] != uin) {
+            idx = (idx + 1) & mask;
+        }
+        return idx;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[newCapacity];
+        values = new int[newCapacity];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY) {
+                int idx = indexOf(oldKeys[i], keys);
+                keys[idx] = oldKeys[i];
+                values[idx] = oldValues[i];
+            }
+        }
+    }
+}
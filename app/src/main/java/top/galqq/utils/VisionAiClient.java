@@ -85,6 +85,7 @@ public class VisionAiClient {
         if (client == null) {
             int timeout = ConfigManager.getVisionTimeout();
             client = new OkHttpClient.Builder()
+                    .dispatcher(AdaptiveConcurrencyLimiter.newDispatcher())
                     .connectTimeout(timeout, TimeUnit.SECONDS)
                     .readTimeout(timeout * 2, TimeUnit.SECONDS)
                     .writeTimeout(timeout, TimeUnit.SECONDS)
@@ -115,6 +116,7 @@ public class VisionAiClient {
         
         OkHttpClient.Builder builder = new OkHttpClient.Builder()
                 .proxy(proxy)
+                .dispatcher(AdaptiveConcurrencyLimiter.newDispatcher())
                 .connectTimeout(timeout + 5, TimeUnit.SECONDS)
                 .readTimeout(timeout * 2 + 10, TimeUnit.SECONDS)
                 .writeTimeout(timeout + 5, TimeUnit.SECONDS);
@@ -537,6 +539,14 @@ public class VisionAiClient {
         return jsonBody;
     }
     
+    /**
+     * 外挂AI当前服务商和模型的并发名额（见 AdaptiveConcurrencyLimiter）
+     */
+    static AdaptiveConcurrencyLimiter.Budget budget() {
+        return AdaptiveConcurrencyLimiter.budget(ConfigManager.getVisionAiProvider(),
+                ConfigManager.getVisionAiModel(), ConfigManager.getVisionAiQps());
+    }
+
     /**
      * 使用Base64编码的图片获取描述（同步方法，用于内部调用）
      * @param imageBase64WithPrefix 带前缀的Base64编码
@@ -577,7 +587,9 @@ public class VisionAiClient {
                 Log.d(TAG, "发送Vision请求: " + model + "\n" + logBody);
             }
             
+            long requestStartMs = System.currentTimeMillis();
             Response response = getClient().newCall(request).execute();
+            budget().onResponse(response.code(), response.headers(), System.currentTimeMillis() - requestStartMs);
             
             try {
                 if (!response.isSuccessful()) {
@@ -10,7 +10,6 @@ import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.PriorityBlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import de.robv.android.xposed.XposedBridge;
 import top.galqq.config.ConfigManager;
@@ -19,7 +18,7 @@ import top.galqq.config.ConfigManager;
  * 外挂AI图片识别队列管理器
  * 
  * 功能：
- * 1. 使用与主AI相同的QPS限制
+ * 1. 自适应并发限流（与主AI共用同一实现，按外挂AI的服务商和模型单独计算名额）
  * 2. 支持缓存，避免重复识别
  * 3. 优先级队列（当前消息优先于上下文消息）
  * 4. 批量处理同一消息的多张图片
@@ -34,9 +33,6 @@ public class VisionAiQueue {
     // 优先级队列
     private final PriorityBlockingQueue<ImageRecognitionTask> taskQueue;
     
-    // 动态限流器（与主AI共享QPS配置）
-    private final DynamicRateLimiter rateLimiter;
-    
     // 线程池
     private final ExecutorService executorService;
     
@@ -48,14 +44,11 @@ public class VisionAiQueue {
     
     private VisionAiQueue() {
         this.taskQueue = new PriorityBlockingQueue<>(50);
-        // 使用外挂AI专用的QPS配置，而不是主AI的QPS
-        float initialQps = ConfigManager.getVisionAiQps();
-        this.rateLimiter = new DynamicRateLimiter(initialQps, 0.3); // 最小0.3 QPS
         this.executorService = Executors.newFixedThreadPool(2); // 最多2个并发识别
         this.mainHandler = new Handler(Looper.getMainLooper());
         
         startWorker();
-        debugLog("VisionAiQueue 初始化完成，外挂AI QPS=" + initialQps);
+        debugLog("VisionAiQueue 初始化完成，外挂AI起始并发=" + ConfigManager.getVisionAiQps());
     }
     
     public static VisionAiQueue getInstance() {
@@ -69,6 +62,13 @@ public class VisionAiQueue {
         return instance;
     }
     
+    /**
+     * 获取已创建的实例（不会触发初始化），未使用过时返回null
+     */
+    public static VisionAiQueue peekInstance() {
+        return instance;
+    }
+    
     /**
      * 图片识别回调
      */
@@ -109,9 +109,12 @@ public class VisionAiQueue {
         
         boolean added = taskQueue.offer(task);
         if (added) {
+            AiQueueEvents.publish(AiQueueEvents.Source.VISION, AiQueueEvents.Type.ENQUEUED, task.eventId,
+                    0, 0, 0, 0, imageElements.size() + "张");
             debugLog("图片识别任务入队: msgId=" + msgId + ", 图片数=" + imageElements.size() + ", 优先级=" + (priority ? "高" : "低"));
         } else {
             debugLog("队列已满，丢弃任务: " + msgId);
+            AiQueueEvents.publish(AiQueueEvents.Source.VISION, AiQueueEvents.Type.FAILED, task.eventId, 0, "队列已满");
             callback.onFailure(new Exception("图片识别队列已满"));
         }
     }
@@ -138,6 +141,10 @@ public class VisionAiQueue {
         }
         
         List<String> descriptions = new ArrayList<>();
+        int failedCount = 0;
+        long eventId = AiQueueEvents.nextRequestId();
+        long startTime = System.currentTimeMillis();
+        AiQueueEvents.publish(AiQueueEvents.Source.VISION, AiQueueEvents.Type.STARTED, eventId, 0, "同步");
         
         for (int i = 0; i < imageElements.size(); i++) {
             // 检查单张图片缓存
@@ -148,34 +155,51 @@ public class VisionAiQueue {
                 continue;
             }
             
-            // 限流
-            rateLimiter.acquire();
-            
             ImageExtractor.ImageElement img = imageElements.get(i);
             String base64 = ImageBase64Helper.fromImageElement(img);
             
             if (base64 != null) {
                 debugLog("正在识别图片 " + (i + 1) + "/" + imageElements.size());
-                String description = VisionAiClient.analyzeImageSync(base64);
+                long callStart = System.nanoTime();
+                String description;
+                try {
+                    description = analyzeWithLimit(base64);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    descriptions.add("[图片识别失败]");
+                    failedCount++;
+                    break;
+                }
+                recordVisionMetrics(eventId, base64, description, callStart);
                 
                 if (description != null && !description.isEmpty()) {
                     descriptions.add(description);
                     // 缓存结果
                     ImageDescriptionCache.put(conversationId, msgId, i, description);
-                    rateLimiter.onSuccess();
                     debugLog("图片 " + (i + 1) + " 识别成功: " + truncate(description, 50));
                 } else {
                     String placeholder = "[图片识别失败]";
                     descriptions.add(placeholder);
+                    failedCount++;
                     debugLog("图片 " + (i + 1) + " 识别失败");
                 }
             } else {
                 String placeholder = "[无法读取图片]";
                 descriptions.add(placeholder);
+                failedCount++;
                 debugLog("图片 " + (i + 1) + " 无法读取");
             }
         }
         
+        // 一张都没有识别出来时记为失败，部分失败时在详情里注明张数
+        long elapsed = System.currentTimeMillis() - startTime;
+        if (failedCount >= descriptions.size()) {
+            AiQueueEvents.publish(AiQueueEvents.Source.VISION, AiQueueEvents.Type.FAILED, eventId,
+                    elapsed, "全部 " + failedCount + " 张识别失败");
+        } else {
+            AiQueueEvents.publish(AiQueueEvents.Source.VISION, AiQueueEvents.Type.SUCCEEDED, eventId,
+                    elapsed, failedCount > 0 ? "失败 " + failedCount + " 张" : null);
+        }
         return descriptions;
     }
     
@@ -209,6 +233,9 @@ public class VisionAiQueue {
      * 处理单个任务
      */
     private void processTask(ImageRecognitionTask task) {
+        long startTime = System.currentTimeMillis();
+        AiQueueEvents.publish(AiQueueEvents.Source.VISION, AiQueueEvents.Type.STARTED, task.eventId,
+                startTime - task.timestamp, null);
         try {
             List<String> descriptions = new ArrayList<>();
             
@@ -220,19 +247,17 @@ public class VisionAiQueue {
                     continue;
                 }
                 
-                // 限流
-                rateLimiter.acquire();
-                
                 ImageExtractor.ImageElement img = task.imageElements.get(i);
                 String base64 = ImageBase64Helper.fromImageElement(img);
                 
                 if (base64 != null) {
-                    String description = VisionAiClient.analyzeImageSync(base64);
+                    long callStart = System.nanoTime();
+                    String description = analyzeWithLimit(base64);
+                    recordVisionMetrics(task.eventId, base64, description, callStart);
                     
                     if (description != null && !description.isEmpty()) {
                         descriptions.add(description);
                         ImageDescriptionCache.put(task.conversationId, task.msgId, i, description);
-                        rateLimiter.onSuccess();
                     } else {
                         descriptions.add("[图片识别失败]");
                     }
@@ -242,14 +267,31 @@ public class VisionAiQueue {
             }
             
             // 回调成功
+            AiQueueEvents.publish(AiQueueEvents.Source.VISION, AiQueueEvents.Type.SUCCEEDED, task.eventId,
+                    System.currentTimeMillis() - startTime, null);
             mainHandler.post(() -> task.callback.onSuccess(descriptions));
             
         } catch (Exception e) {
             debugLog("任务处理失败: " + e.getMessage());
+            AiQueueEvents.publish(AiQueueEvents.Source.VISION, AiQueueEvents.Type.FAILED, task.eventId,
+                    System.currentTimeMillis() - startTime, e.getMessage());
             mainHandler.post(() -> task.callback.onFailure(e));
         }
     }
     
+    /**
+     * 占用外挂AI的并发名额后识别一张图片（名额由响应状态和限流响应头自动调整）
+     */
+    private static String analyzeWithLimit(String base64) throws InterruptedException {
+        AdaptiveConcurrencyLimiter.Budget budget = VisionAiClient.budget();
+        budget.acquire();
+        try {
+            return VisionAiClient.analyzeImageSync(base64);
+        } finally {
+            budget.release();
+        }
+    }
+    
     /**
      * 获取队列大小
      */
@@ -258,10 +300,10 @@ public class VisionAiQueue {
     }
     
     /**
-     * 获取当前QPS
+     * 获取限流器状态（当前服务商和模型的并发名额）
      */
-    public double getCurrentQPS() {
-        return rateLimiter.getCurrentQPS();
+    public String getLimiterState() {
+        return VisionAiClient.budget().describe();
     }
     
     // ========== 内部类 ==========
@@ -277,6 +319,7 @@ public class VisionAiQueue {
         final boolean highPriority;
         final VisionCallback callback;
         final long timestamp;
+        final long eventId = AiQueueEvents.nextRequestId();
         
         ImageRecognitionTask(Context context, String conversationId, String msgId,
                             List<ImageExtractor.ImageElement> imageElements,
@@ -301,64 +344,18 @@ public class VisionAiQueue {
         }
     }
     
-    /**
-     * 动态限流器
-     */
-    private static class DynamicRateLimiter {
-        private volatile double currentQPS;
-        private volatile double targetQPS;
-        private final double minQPS;
-        private final AtomicInteger successCount = new AtomicInteger(0);
-        private volatile long lastAdjustTime = System.currentTimeMillis();
-        private volatile long lastTokenTime = System.currentTimeMillis();
-        
-        DynamicRateLimiter(double initialQPS, double minQPS) {
-            this.targetQPS = initialQPS;
-            this.minQPS = minQPS;
-            this.currentQPS = initialQPS;
-        }
-        
-        synchronized void acquire() {
-            // 更新目标QPS（使用外挂AI专用的QPS配置）
-            float configQps = ConfigManager.getVisionAiQps();
-            if (Math.abs(this.targetQPS - configQps) > 0.1) {
-                this.targetQPS = configQps;
-                if (this.currentQPS > configQps) {
-                    this.currentQPS = configQps;
-                }
-            }
-            
-            long intervalMs = (long) (1000.0 / currentQPS);
-            long now = System.currentTimeMillis();
-            long waitTime = lastTokenTime + intervalMs - now;
-            
-            if (waitTime > 0) {
-                try {
-                    Thread.sleep(waitTime);
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                }
-            }
-            
-            lastTokenTime = System.currentTimeMillis();
-        }
-        
-        void onSuccess() {
-            int count = successCount.incrementAndGet();
-            long now = System.currentTimeMillis();
-            
-            if (now - lastAdjustTime > 30000 && count >= 10 && currentQPS < targetQPS) {
-                synchronized (this) {
-                    currentQPS = Math.min(targetQPS, currentQPS * 1.2);
-                    successCount.set(0);
-                    lastAdjustTime = now;
-                }
+    private static void recordVisionMetrics(long eventId, String base64, String description, long callStart) {
+        if (PerfMetrics.isEnabled()) {
+            if (description != null && !description.isEmpty()) {
+                PerfMetrics.record(PerfMetrics.Stage.VISION, callStart);
+            } else {
+                PerfMetrics.recordError(PerfMetrics.Stage.VISION, callStart);
             }
         }
-        
-        double getCurrentQPS() {
-            return currentQPS;
-        }
+        long bytesIn = AiQueueEvents.estimateBytes(description);
+        // 图片按 base64 长度计字节，token 只按返回描述粗略估算（约每2字节1个token）
+        AiQueueEvents.publish(AiQueueEvents.Source.VISION, AiQueueEvents.Type.RESPONSE, eventId,
+                base64.length(), bytesIn, (System.nanoTime() - callStart) / 1000000L, bytesIn / 2, null);
     }
     
     private static void debugLog(String message) {
@@ -0,0 +1,403 @@
+package top.galqq.benchmark.harness;
+
+import android.content.Context;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import top.galqq.config.ConfigManager;
+import top.galqq.utils.AdaptiveConcurrencyLimiter;
+import top.galqq.utils.AiQueueEvents;
+import top.galqq.utils.AiRateLimitedQueue;
+import top.galqq.utils.HttpAiClient;
+import top.galqq.utils.ImageExtractor;
+import top.galqq.utils.MessageContextManager;
+import top.galqq.utils.PerfMetrics;
+
+/**
+ * 端到端压测：本地模拟服务 + 合成聊天负载 -> AiRateLimitedQueue -> HttpAiClient（带图片时经过 VisionAiQueue）
+ *
+ * 按负载里的到达时间开环提交（不等上一条完成），统计吞吐、排队等待和端到端延迟的分位数。
+ * 负载、429 和格式错误由种子决定；延迟和配额还受并发影响，修改调度或限流后用同样的参数重跑做统计对比。
+ *
+ * 运行：./gradlew :benchmark:aiLoadTest --args="--messages=500 --rate=20 --rate-limit=0.05"
+ * 参数见 {@link #USAGE}。
+ */
+public final class AiLoadHarness {
+
+    static final String USAGE = String.join("\n",
+            "参数（--名称=值）：",
+            "  --seed=1              负载和模拟服务的随机种子",
+            "  --messages=300        消息总数",
+            "  --conversations=20    会话数",
+            "  --rate=10             平均每秒到达的消息数",
+            "  --image-rate=0.1      带图片的消息比例（经过外挂AI识别）",
+            "  --image-kb=64         每张图片的大小",
+            "  --latency-ms=800      模拟服务延迟的中位数",
+            "  --latency-sigma=0.5   延迟对数正态分布的 sigma",
+            "  --capacity=8          模拟服务的并发容量，超出后按比例变慢",
+            "  --rate-limit=0.02     返回 429 的比例",
+            "  --retry-after=1       429 的 Retry-After（秒）",
+            "  --malformed=0.02      返回无法解析内容的比例",
+            "  --quota-requests=0    每个配额窗口允许的请求数，大于0时返回 x-ratelimit-* 响应头",
+            "  --quota-tokens=0      每个配额窗口允许的 token 数（每个请求按 640 计）",
+            "  --quota-window-ms=10000 配额窗口长度",
+            "  --qps=3               主AI起始并发",
+            "  --vision-qps=2        外挂AI起始并发",
+            "  --hedge=false         开启对冲请求",
+            "  --batch=false         开启批量合并",
+            "  --timeout-s=300       等待全部回调的最长时间");
+
+    private AiLoadHarness() {}
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> params = parseArgs(args);
+        if (params.containsKey("help")) {
+            System.out.println(USAGE);
+            return;
+        }
+        long seed = getLong(params, "seed", 1);
+        int messages = (int) getLong(params, "messages", 300);
+        int conversations = (int) getLong(params, "conversations", 20);
+        double rate = getDouble(params, "rate", 10);
+        double imageRate = getDouble(params, "image-rate", 0.1);
+        int imageKb = (int) getLong(params, "image-kb", 64);
+        long timeoutS = getLong(params, "timeout-s", 300);
+
+        MockAiServer.Options serverOptions = new MockAiServer.Options();
+        serverOptions.seed = seed;
+        serverOptions.latencyMedianMs = getDouble(params, "latency-ms", serverOptions.latencyMedianMs);
+        serverOptions.latencySigma = getDouble(params, "latency-sigma", serverOptions.latencySigma);
+        serverOptions.capacity = (int) getLong(params, "capacity", serverOptions.capacity);
+        serverOptions.rateLimitRate = getDouble(params, "rate-limit", serverOptions.rateLimitRate);
+        serverOptions.retryAfterSeconds = (int) getLong(params, "retry-after", serverOptions.retryAfterSeconds);
+        serverOptions.malformedRate = getDouble(params, "malformed", serverOptions.malformedRate);
+        serverOptions.quotaRequests = (int) getLong(params, "quota-requests", serverOptions.quotaRequests);
+        serverOptions.quotaTokens = getLong(params, "quota-tokens", serverOptions.quotaTokens);
+        serverOptions.quotaWindowMs = getLong(params, "quota-window-ms", serverOptions.quotaWindowMs);
+
+        File workDir = Files.createTempDirectory("galqq-harness").toFile();
+        Context context = new Context(workDir);
+
+        try (MockAiServer server = new MockAiServer(serverOptions)) {
+            server.start();
+            configure(context, server.baseUrl(), params);
+
+            List<ChatWorkload.Message> workload =
+                    ChatWorkload.generate(seed, messages, conversations, rate, imageRate);
+            File imageDir = new File(workDir, "images");
+            imageDir.mkdirs();
+
+            EventCollector events = new EventCollector();
+            events.start();
+
+            AiRateLimitedQueue queue = AiRateLimitedQueue.getInstance(context);
+            CountDownLatch done = new CountDownLatch(workload.size());
+            long[] latencies = new long[workload.size()];
+            AtomicInteger succeeded = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            int contextCount = ConfigManager.getContextMessageCount();
+
+            System.out.println("负载: seed=" + seed + "，" + messages + " 条消息，" + conversations
+                    + " 个会话，" + rate + " 条/秒，图片比例 " + imageRate);
+            long start = System.nanoTime();
+            for (int i = 0; i < workload.size(); i++) {
+                ChatWorkload.Message msg = workload.get(i);
+                sleepUntil(start + TimeUnit.MILLISECONDS.toNanos(msg.offsetMs));
+
+                List<MessageContextManager.ChatMessage> contextMessages =
+                        MessageContextManager.getContext(msg.conversationId, contextCount);
+                MessageContextManager.addMessage(msg.conversationId, msg.senderName, msg.senderUin, msg.content,
+                        false, msg.msgId, msg.timestamp, msg.imageCount);
+                List<ImageExtractor.ImageElement> images = msg.imageCount > 0
+                        ? writeImages(imageDir, msg, imageKb, seed) : null;
+
+                final int index = i;
+                final long submitted = System.nanoTime();
+                queue.submitRequest(context, msg.content, msg.msgId, AiRateLimitedQueue.Priority.HIGH,
+                        contextMessages, msg.senderName, msg.timestamp, msg.senderUin, null,
+                        images, msg.conversationId, new HttpAiClient.AiCallback() {
+                            @Override
+                            public void onSuccess(List<String> options) {
+                                latencies[index] = System.nanoTime() - submitted;
+                                succeeded.incrementAndGet();
+                                done.countDown();
+                            }
+
+                            @Override
+                            public void onFailure(Exception e) {
+                                latencies[index] = System.nanoTime() - submitted;
+                                failed.incrementAndGet();
+                                done.countDown();
+                            }
+                        });
+            }
+            long submitEnd = System.nanoTime();
+            boolean finished = done.await(timeoutS, TimeUnit.SECONDS);
+            long end = System.nanoTime();
+            events.stop();
+
+            Report report = new Report();
+            report.line("");
+            report.line("== 结果 ==");
+            if (!finished) {
+                report.line("超时：还有 " + done.getCount() + " 条没有回调");
+            }
+            double wallS = (end - start) / 1e9;
+            report.line(String.format(Locale.US, "完成 %d / %d（失败 %d），提交耗时 %.1fs，总耗时 %.1fs，吞吐 %.2f 条/秒",
+                    succeeded.get() + failed.get(), workload.size(), failed.get(),
+                    (submitEnd - start) / 1e9, wallS, succeeded.get() / wallS));
+            report.percentiles("端到端延迟", collect(latencies));
+            for (AiQueueEvents.Source source : AiQueueEvents.Source.values()) {
+                report.percentiles(source.displayName + " 排队等待", events.queueWait.get(source));
+                report.line("  " + source.displayName + " 事件: " + events.formatCounts(source));
+            }
+            if (events.dropped > 0) {
+                report.line("  （事件缓冲区溢出，丢失 " + events.dropped + " 个事件）");
+            }
+            report.line(String.format(Locale.US, "模拟服务: 请求 %d，429 %d，配额用尽 %d，格式错误 %d，流式 %d，最高并发 %d",
+                    server.requests.get(), server.rateLimited.get(), server.quotaExceeded.get(),
+                    server.malformed.get(), server.streamed.get(), server.peakInFlight.get()));
+            report.line("");
+            report.line("== 限流器 ==");
+            report.line(AdaptiveConcurrencyLimiter.formatSummary());
+            report.line("");
+            report.line("== 阶段耗时 ==");
+            report.line(PerfMetrics.formatSummary());
+            System.out.println(report);
+        } finally {
+            deleteRecursively(workDir);
+        }
+        // 队列的工作线程不是守护线程
+        System.exit(0);
+    }
+
+    private static void configure(Context context, String baseUrl, Map<String, String> params) {
+        ConfigManager.init(context);
+        ConfigManager.setAiEnabled(true);
+        ConfigManager.setAiProvider(ConfigManager.PROVIDER_CUSTOM);
+        ConfigManager.setApiUrl(baseUrl);
+        ConfigManager.setApiKey("sk-mock");
+        ConfigManager.setAiModel("mock-chat");
+        ConfigManager.setAiQps((float) getDouble(params, "qps", 3));
+        ConfigManager.setAiTimeout(30);
+        ConfigManager.setAiHedgeEnabled(getBoolean(params, "hedge", false));
+        ConfigManager.setAiBatchEnabled(getBoolean(params, "batch", false));
+        ConfigManager.setContextEnabled(true);
+        ConfigManager.setContextSummaryEnabled(false);
+        ConfigManager.setAffinityEnabled(false);
+        ConfigManager.setImageRecognitionEnabled(true);
+        ConfigManager.setVisionAiEnabled(true);
+        ConfigManager.setVisionAiProvider(ConfigManager.VISION_PROVIDER_CUSTOM);
+        ConfigManager.setVisionApiUrl(baseUrl);
+        ConfigManager.setVisionApiKey("sk-mock");
+        ConfigManager.setVisionAiModel("mock-vision");
+        ConfigManager.setVisionAiQps((float) getDouble(params, "vision-qps", 2));
+        ConfigManager.setPerfMetricsEnabled(true);
+        ConfigManager.setVerboseLogEnabled(false);
+    }
+
+    /**
+     * 每张图片写成一个文件，内容由种子和消息决定
+     */
+    private static List<ImageExtractor.ImageElement> writeImages(File dir, ChatWorkload.Message msg, int imageKb,
+                                                                 long seed) throws IOException {
+        List<ImageExtractor.ImageElement> images = new ArrayList<>(msg.imageCount);
+        Random random = new Random(seed ^ msg.msgId.hashCode());
+        for (int i = 0; i < msg.imageCount; i++) {
+            byte[] bytes = new byte[imageKb * 1024];
+            random.nextBytes(bytes);
+            File file = new File(dir, msg.msgId + "-" + i + ".png");
+            Files.write(file.toPath(), bytes);
+            ImageExtractor.ImageElement image = new ImageExtractor.ImageElement();
+            image.fileName = file.getName();
+            image.fileSize = bytes.length;
+            image.width = 1080;
+            image.height = 1920;
+            image.md5 = Integer.toHexString(file.getName().hashCode());
+            image.sourcePath = file.getAbsolutePath();
+            images.add(image);
+        }
+        return images;
+    }
+
+    // ========== 事件统计 ==========
+
+    /**
+     * 在后台按序号增量读取队列事件（环形缓冲区只保留最近的事件，需要及时读取）
+     */
+    private static final class EventCollector implements Runnable {
+        final Map<AiQueueEvents.Source, List<Long>> queueWait = new EnumMap<>(AiQueueEvents.Source.class);
+        final Map<AiQueueEvents.Source, Map<AiQueueEvents.Type, Integer>> counts =
+                new EnumMap<>(AiQueueEvents.Source.class);
+        long dropped = 0;
+
+        private final Thread thread = new Thread(this, "HarnessEvents");
+        private volatile boolean running = true;
+        private long lastSeq = 0;
+
+        EventCollector() {
+            for (AiQueueEvents.Source source : AiQueueEvents.Source.values()) {
+                queueWait.put(source, new ArrayList<>());
+                counts.put(source, new EnumMap<>(AiQueueEvents.Type.class));
+            }
+            thread.setDaemon(true);
+        }
+
+        void start() {
+            List<AiQueueEvents.Event> skip = new ArrayList<>();
+            lastSeq = AiQueueEvents.readSince(0, skip);
+            thread.start();
+        }
+
+        void stop() throws InterruptedException {
+            running = false;
+            thread.join();
+            drain();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                drain();
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+
+        private synchronized void drain() {
+            List<AiQueueEvents.Event> batch = new ArrayList<>();
+            long seq = AiQueueEvents.readSince(lastSeq, batch);
+            if (!batch.isEmpty() && batch.get(0).seq > lastSeq + 1) {
+                dropped += batch.get(0).seq - lastSeq - 1;
+            }
+            for (AiQueueEvents.Event event : batch) {
+                counts.get(event.source).merge(event.type, 1, Integer::sum);
+                if (event.type == AiQueueEvents.Type.STARTED) {
+                    queueWait.get(event.source).add(TimeUnit.MILLISECONDS.toNanos(event.latencyMs));
+                }
+            }
+            lastSeq = seq;
+        }
+
+        synchronized String formatCounts(AiQueueEvents.Source source) {
+            Map<AiQueueEvents.Type, Integer> map = counts.get(source);
+            if (map.isEmpty()) return "无";
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<AiQueueEvents.Type, Integer> entry : map.entrySet()) {
+                if (sb.length() > 0) sb.append("，");
+                sb.append(entry.getKey().displayName).append(" ").append(entry.getValue());
+            }
+            return sb.toString();
+        }
+    }
+
+    // ========== 输出 ==========
+
+    private static final class Report {
+        private final StringBuilder sb = new StringBuilder();
+
+        void line(String text) {
+            sb.append(text).append('\n');
+        }
+
+        void percentiles(String name, List<Long> nanos) {
+            if (nanos == null || nanos.isEmpty()) {
+                line(name + ": 无数据");
+                return;
+            }
+            List<Long> sorted = new ArrayList<>(nanos);
+            Collections.sort(sorted);
+            line(String.format(Locale.US, "%s: n=%d p50=%dms p90=%dms p99=%dms max=%dms", name, sorted.size(),
+                    ms(percentile(sorted, 0.50)), ms(percentile(sorted, 0.90)),
+                    ms(percentile(sorted, 0.99)), ms(sorted.get(sorted.size() - 1))));
+        }
+
+        @Override
+        public String toString() {
+            return sb.toString();
+        }
+
+        private static long percentile(List<Long> sorted, double p) {
+            int index = (int) Math.ceil(p * sorted.size()) - 1;
+            return sorted.get(Math.max(0, Math.min(sorted.size() - 1, index)));
+        }
+
+        private static long ms(long nanos) {
+            return TimeUnit.NANOSECONDS.toMillis(nanos);
+        }
+    }
+
+    // ========== 工具 ==========
+
+    private static List<Long> collect(long[] values) {
+        List<Long> result = new ArrayList<>(values.length);
+        for (long value : values) {
+            if (value > 0) result.add(value);
+        }
+        return result;
+    }
+
+    private static void sleepUntil(long deadlineNanos) throws InterruptedException {
+        long remaining = deadlineNanos - System.nanoTime();
+        if (remaining > 0) {
+            TimeUnit.NANOSECONDS.sleep(remaining);
+        }
+    }
+
+    private static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> params = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("无法识别的参数: " + arg + "\n" + USAGE);
+            }
+            int eq = arg.indexOf('=');
+            if (eq < 0) {
+                params.put(arg.substring(2), "true");
+            } else {
+                params.put(arg.substring(2, eq), arg.substring(eq + 1));
+            }
+        }
+        return params;
+    }
+
+    private static long getLong(Map<String, String> params, String name, long defaultValue) {
+        String value = params.get(name);
+        return value != null ? Long.parseLong(value) : defaultValue;
+    }
+
+    private static double getDouble(Map<String, String> params, String name, double defaultValue) {
+        String value = params.get(name);
+        return value != null ? Double.parseDouble(value) : defaultValue;
+    }
+
+    private static boolean getBoolean(Map<String, String> params, String name, boolean defaultValue) {
+        String value = params.get(name);
+        return value != null ? Boolean.parseBoolean(value) : defaultValue;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,102 @@
+package top.galqq.benchmark.harness;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 可重放的合成聊天负载
+ *
+ * 由种子完全决定：消息到达间隔服从指数分布（泊松到达），会话按 Zipf 分布挑选（少数会话很活跃），
+ * 一部分消息带图片。消息时间戳从固定的起点开始，与运行时的系统时间无关。
+ */
+public final class ChatWorkload {
+
+    /**
+     * 一条收到的消息
+     */
+    public static final class Message {
+        /** 相对负载开始的到达时间 */
+        public final long offsetMs;
+        public final String conversationId;
+        public final String msgId;
+        public final String senderName;
+        public final String senderUin;
+        public final String content;
+        /** 消息时间戳（固定起点 + offsetMs） */
+        public final long timestamp;
+        public final int imageCount;
+
+        Message(long offsetMs, String conversationId, String msgId, String senderName, String senderUin,
+                String content, long timestamp, int imageCount) {
+            this.offsetMs = offsetMs;
+            this.conversationId = conversationId;
+            this.msgId = msgId;
+            this.senderName = senderName;
+            this.senderUin = senderUin;
+            this.content = content;
+            this.timestamp = timestamp;
+            this.imageCount = imageCount;
+        }
+    }
+
+    // 2024-06-10 12:00:00 +08:00
+    private static final long EPOCH_MS = 1717992000000L;
+
+    private static final String[] NAMES = {"小明", "阿杰", "橘子", "老王", "Momo", "七七", "阿狸", "小鱼"};
+    private static final String[] CONTENTS = {
+            "在吗", "今天晚上吃什么", "哈哈哈哈哈哈", "我刚下班，累死了",
+            "周末要不要一起去看电影", "你看这个", "好的", "你猜猜我现在在哪",
+            "明天早上八点的会别忘了", "我又被老板骂了", "这家店好好吃", "你睡了吗",
+            "有没有人打游戏", "我今天买了个新键盘", "下雨了记得带伞", "生日快乐！",
+    };
+
+    private ChatWorkload() {}
+
+    /**
+     * @param seed 随机种子
+     * @param messages 消息总数
+     * @param conversations 会话数
+     * @param ratePerSecond 平均每秒到达的消息数
+     * @param imageRate 带图片的消息比例
+     */
+    public static List<Message> generate(long seed, int messages, int conversations,
+                                         double ratePerSecond, double imageRate) {
+        Random random = new Random(seed);
+        double[] cumulative = zipf(conversations, 1.1);
+        List<Message> result = new ArrayList<>(messages);
+        double offset = 0;
+        for (int i = 0; i < messages; i++) {
+            offset += -Math.log(1 - random.nextDouble()) * 1000.0 / ratePerSecond;
+            int conv = pick(cumulative, random.nextDouble());
+            int sender = random.nextInt(NAMES.length);
+            String content = CONTENTS[random.nextInt(CONTENTS.length)];
+            int images = random.nextDouble() < imageRate ? 1 + random.nextInt(2) : 0;
+            long offsetMs = (long) offset;
+            result.add(new Message(offsetMs, "conv" + conv, "m" + seed + "-" + i, NAMES[sender],
+                    String.valueOf(10000 + sender), content, EPOCH_MS + offsetMs, images));
+        }
+        return Collections.unmodifiableList(result);
+    }
+
+    private static double[] zipf(int n, double s) {
+        double[] cumulative = new double[n];
+        double sum = 0;
+        for (int k = 0; k < n; k++) {
+            sum += 1.0 / Math.pow(k + 1, s);
+            cumulative[k] = sum;
+        }
+        for (int k = 0; k < n; k++) {
+            cumulative[k] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static int pick(double[] cumulative, double u) {
+        for (int k = 0; k < cumulative.length; k++) {
+            if (u <= cumulative[k]) return k;
+        }
+        return cumulative.length - 1;
+    }
+}
@@ -0,0 +1,300 @@
+package top.galqq.benchmark.harness;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 本地的 OpenAI 兼容服务（/v1/chat/completions），用于离线压测
+ *
+ * 每个请求的 429 和格式错误由请求体决定：同一请求体第 n 次出现时使用同一个随机种子，
+ * 与线程调度无关，同样的负载重放得到同样的 429 和格式错误。
+ * 延迟的基础值也由这个种子决定，但会再乘上收到请求时的并发超载系数，
+ * 所以实际延迟（以及配额响应头）随调度和限流的表现变化，只能做统计意义上的对比。
+ *
+ * - 延迟：对数正态分布（中位数 + sigma），进行中的请求超过 capacity 时按超出比例变慢，模拟服务端排队
+ * - 429：按比例返回，带 Retry-After（秒）
+ * - 配额：quotaRequests / quotaTokens 大于 0 时，按模型统计每个 quotaWindowMs 窗口内的请求数和 token 数，
+ *   响应带 OpenAI 风格的 x-ratelimit-remaining-requests/-tokens 和 x-ratelimit-reset-requests/-tokens，
+ *   配额用完后直接返回 429（同样带这些响应头）
+ * - 格式错误：按比例返回无法解析的内容
+ * - 流式：请求带 "stream": true 时按 SSE 分块返回，块之间间隔 streamChunkDelayMs
+ * - 模型名包含 "vision" 时返回图片描述；消息里有 [批量] 时按 {"batch":[...]} 返回
+ */
+public final class MockAiServer implements AutoCloseable {
+
+    /**
+     * 服务端参数
+     */
+    public static final class Options {
+        public long seed = 1;
+        public double latencyMedianMs = 800;
+        public double latencySigma = 0.5;
+        public int capacity = 8;
+        public double rateLimitRate = 0.02;
+        public int retryAfterSeconds = 1;
+        public double malformedRate = 0.02;
+        public long streamChunkDelayMs = 30;
+        // 每个配额窗口允许的请求数 / token 数，0 表示不限制、不返回 x-ratelimit-* 响应头
+        public int quotaRequests = 0;
+        public long quotaTokens = 0;
+        public long quotaWindowMs = 10_000;
+    }
+
+    // 每个请求按 usage 里的 total_tokens 计入 token 配额
+    private static final int TOKENS_PER_REQUEST = 640;
+
+    private static final Pattern BATCH_TAG = Pattern.compile("\\[当前需添加选项信息#(\\d+)]");
+    private static final String[][] OPTIONS = {
+            {"好呀好呀", "哈哈哈你也太好笑了", "真的假的？"},
+            {"我刚忙完，怎么啦", "等我五分钟", "你先说说看"},
+            {"抱抱", "别想太多啦", "要不出来走走？"},
+            {"可以可以", "那就这么定了", "我再想想"},
+    };
+
+    private final Options options;
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "MockAiServer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final Map<Integer, AtomicInteger> occurrences = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final Map<String, Quota> quotas = new ConcurrentHashMap<>();
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong rateLimited = new AtomicLong();
+    final AtomicLong quotaExceeded = new AtomicLong();
+    final AtomicLong malformed = new AtomicLong();
+    final AtomicLong streamed = new AtomicLong();
+    final AtomicInteger peakInFlight = new AtomicInteger();
+
+    public MockAiServer(Options options) throws IOException {
+        this.options = options;
+        this.server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        this.server.createContext("/v1/chat/completions", this::handle);
+        this.server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public String baseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/v1/chat/completions";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        int current = inFlight.incrementAndGet();
+        peakInFlight.accumulateAndGet(current, Math::max);
+        requests.incrementAndGet();
+        try {
+            String body = readBody(exchange.getRequestBody());
+            JSONObject request = new JSONObject(body);
+            Random random = randomFor(body);
+
+            if (quotaEnabled()) {
+                Quota quota = quotas.computeIfAbsent(request.optString("model"), k -> new Quota());
+                boolean allowed = quota.take(System.currentTimeMillis(), exchange);
+                if (!allowed) {
+                    quotaExceeded.incrementAndGet();
+                    send(exchange, 429, "application/json",
+                            "{\"error\":{\"message\":\"Rate limit reached\",\"type\":\"requests\"}}");
+                    return;
+                }
+            }
+
+            Thread.sleep(latencyMs(random, current));
+
+            if (random.nextDouble() < options.rateLimitRate) {
+                rateLimited.incrementAndGet();
+                exchange.getResponseHeaders().add("Retry-After", String.valueOf(options.retryAfterSeconds));
+                send(exchange, 429, "application/json",
+                        "{\"error\":{\"message\":\"Rate limit reached\",\"type\":\"rate_limit_error\"}}");
+                return;
+            }
+
+            String content;
+            if (random.nextDouble() < options.malformedRate) {
+                malformed.incrementAndGet();
+                content = "抱歉，我没有理解你的意思";
+            } else {
+                content = completionContent(request, random);
+            }
+
+            if (request.optBoolean("stream", false)) {
+                streamed.incrementAndGet();
+                stream(exchange, request.optString("model"), content);
+            } else {
+                send(exchange, 200, "application/json", completion(request.optString("model"), content).toString());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            send(exchange, 400, "application/json", "{\"error\":{\"message\":\"bad request\"}}");
+        } finally {
+            inFlight.decrementAndGet();
+            exchange.close();
+        }
+    }
+
+    private boolean quotaEnabled() {
+        return options.quotaRequests > 0 || options.quotaTokens > 0;
+    }
+
+    /**
+     * 单个模型的配额窗口（固定窗口，窗口开始时重置）
+     */
+    private final class Quota {
+        private long windowStart;
+        private int usedRequests;
+        private long usedTokens;
+
+        /**
+         * 计入一次请求并写入 x-ratelimit-* 响应头
+         *
+         * @return 配额是否足够（不够时不计入）
+         */
+        synchronized boolean take(long now, HttpExchange exchange) {
+            if (now - windowStart >= options.quotaWindowMs) {
+                windowStart = now;
+                usedRequests = 0;
+                usedTokens = 0;
+            }
+            boolean allowed = (options.quotaRequests <= 0 || usedRequests < options.quotaRequests)
+                    && (options.quotaTokens <= 0 || usedTokens + TOKENS_PER_REQUEST <= options.quotaTokens);
+            if (allowed) {
+                usedRequests++;
+                usedTokens += TOKENS_PER_REQUEST;
+            }
+            String reset = (windowStart + options.quotaWindowMs - now) + "ms";
+            if (options.quotaRequests > 0) {
+                exchange.getResponseHeaders().add("x-ratelimit-limit-requests", String.valueOf(options.quotaRequests));
+                exchange.getResponseHeaders().add("x-ratelimit-remaining-requests",
+                        String.valueOf(Math.max(0, options.quotaRequests - usedRequests)));
+                exchange.getResponseHeaders().add("x-ratelimit-reset-requests", reset);
+            }
+            if (options.quotaTokens > 0) {
+                exchange.getResponseHeaders().add("x-ratelimit-limit-tokens", String.valueOf(options.quotaTokens));
+                exchange.getResponseHeaders().add("x-ratelimit-remaining-tokens",
+                        String.valueOf(Math.max(0, options.quotaTokens - usedTokens)));
+                exchange.getResponseHeaders().add("x-ratelimit-reset-tokens", reset);
+            }
+            return allowed;
+        }
+    }
+
+    /**
+     * 同一请求体第 n 次出现时的随机数（重试会得到不同的结果，重放时结果不变）
+     */
+    private Random randomFor(String body) {
+        int hash = body.hashCode();
+        int n = occurrences.computeIfAbsent(hash, k -> new AtomicInteger()).getAndIncrement();
+        return new Random(options.seed * 1_000_003L + hash * 31L + n);
+    }
+
+    private long latencyMs(Random random, int current) {
+        double base = options.latencyMedianMs * Math.exp(options.latencySigma * random.nextGaussian());
+        // 超过容量的部分按比例排队
+        double overload = Math.max(1.0, (double) current / Math.max(1, options.capacity));
+        return Math.max(1, Math.round(base * overload));
+    }
+
+    private static String completionContent(JSONObject request, Random random) {
+        if (request.optString("model").contains("vision")) {
+            return "一张聊天截图，画面里有一只猫和一杯奶茶";
+        }
+        String transcript = request.optJSONArray("messages") != null ? request.getJSONArray("messages").toString() : "";
+        if (transcript.contains("[批量]")) {
+            Matcher matcher = BATCH_TAG.matcher(transcript);
+            JSONArray batch = new JSONArray();
+            while (matcher.find()) {
+                batch.put(new JSONObject()
+                        .put("id", matcher.group(1))
+                        .put("options", new JSONArray(OPTIONS[random.nextInt(OPTIONS.length)])));
+            }
+            return new JSONObject().put("batch", batch).toString();
+        }
+        return new JSONObject().put("options", new JSONArray(OPTIONS[random.nextInt(OPTIONS.length)])).toString();
+    }
+
+    private static JSONObject completion(String model, String content) {
+        JSONObject message = new JSONObject().put("role", "assistant").put("content", content);
+        JSONObject choice = new JSONObject().put("index", 0).put("message", message).put("finish_reason", "stop");
+        JSONObject usage = new JSONObject()
+                .put("prompt_tokens", 600)
+                .put("completion_tokens", 40)
+                .put("total_tokens", 640);
+        return new JSONObject()
+                .put("id", "chatcmpl-mock")
+                .put("object", "chat.completion")
+                .put("created", System.currentTimeMillis() / 1000)
+                .put("model", model)
+                .put("choices", new JSONArray().put(choice))
+                .put("usage", usage);
+    }
+
+    private void stream(HttpExchange exchange, String model, String content) throws IOException, InterruptedException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            for (int i = 0; i < content.length(); i += 8) {
+                String piece = content.substring(i, Math.min(content.length(), i + 8));
+                JSONObject delta = new JSONObject().put("content", piece);
+                JSONObject chunk = new JSONObject()
+                        .put("id", "chatcmpl-mock")
+                        .put("object", "chat.completion.chunk")
+                        .put("model", model)
+                        .put("choices", new JSONArray().put(new JSONObject().put("index", 0).put("delta", delta)));
+                out.write(("data: " + chunk + "\n\n").getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                Thread.sleep(options.streamChunkDelayMs);
+            }
+            out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void send(HttpExchange exchange, int code, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(code, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static String readBody(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int n;
+        while ((n = in.read(buffer)) != -1) {
+            out.write(buffer, 0, n);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
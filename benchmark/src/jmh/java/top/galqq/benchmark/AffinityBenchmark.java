@@ -0,0 +1,36 @@
+package top.galqq.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import top.galqq.utils.AffinityManager;
+
+/**
+ * 好感度计算（显示每条消息的好感度时执行）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AffinityBenchmark {
+
+    // 0 双向奔赴，1 加权平衡，2 综合加权
+    @Param({"0", "1", "2"})
+    public int model;
+
+    private int whoCaresMe = 37;
+    private int whoICare = 81;
+
+    @Benchmark
+    public int calculate() {
+        whoCaresMe = (whoCaresMe + 7) % 101;
+        whoICare = (whoICare + 13) % 101;
+        return AffinityManager.calculateAffinityWithModel(whoCaresMe, whoICare, model);
+    }
+}
@@ -0,0 +1,69 @@
+package top.galqq.benchmark;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+import top.galqq.config.ConfigManager;
+
+/**
+ * 黑白名单过滤（每条消息显示选项前都会检查）
+ *
+ * MMKV 被内存替身换掉，测量的是名单字符串的拆分和比较。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ConfigFilterBenchmark {
+
+    @Param({"10", "200"})
+    public int listSize;
+
+    private String hit;
+    private String miss;
+
+    @Setup
+    public void setUp() {
+        ConfigManager.init(new Context());
+        StringBuilder list = new StringBuilder();
+        for (int i = 0; i < listSize; i++) {
+            if (i > 0) list.append(',');
+            list.append(1000000000L + i * 7919L);
+        }
+        ConfigManager.setBlacklist(list.toString());
+        ConfigManager.setWhitelist(list.toString());
+        ConfigManager.setGroupBlacklist(list.toString());
+        ConfigManager.setGroupFilterMode("blacklist");
+        hit = String.valueOf(1000000000L + (listSize - 1) * 7919L);
+        miss = "123456789";
+    }
+
+    @Benchmark
+    public boolean blacklistHit() {
+        return ConfigManager.isInBlacklist(hit);
+    }
+
+    @Benchmark
+    public boolean blacklistMiss() {
+        return ConfigManager.isInBlacklist(miss);
+    }
+
+    @Benchmark
+    public boolean whitelistMiss() {
+        return ConfigManager.isInWhitelist(miss);
+    }
+
+    @Benchmark
+    public boolean groupPassFilter() {
+        return ConfigManager.isGroupPassFilter(miss);
+    }
+}
@@ -0,0 +1,62 @@
+package top.galqq.benchmark;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import top.galqq.utils.FunProtoData;
+
+/**
+ * protobuf 解析（图片 rkey 等响应）
+ *
+ * 消息结构仿照 rkey 响应：外层嵌套两级，内层是若干带字符串和数字字段的条目。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FunProtoDataBenchmark {
+
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() throws Exception {
+        JSONArray items = new JSONArray();
+        for (int i = 0; i < 4; i++) {
+            JSONObject item = new JSONObject();
+            item.put("1", "&rkey=CAQSKAB6JWENi5LMtWVWVxS2RfZ" + i + "d-rL2GZwcRc7gUGbKEfP8Ao0Qn3Ll0A");
+            item.put("2", 1718000000L + i);
+            item.put("3", 86400L);
+            item.put("4", (long) (10 + i));
+            items.put(item);
+        }
+        JSONObject body = new JSONObject();
+        body.put("1", (long) 0);
+        body.put("2", "success");
+        body.put("4", items);
+        JSONObject wrapper = new JSONObject();
+        wrapper.put("4", body);
+        JSONObject root = new JSONObject();
+        root.put("1", (long) 0);
+        root.put("4", wrapper);
+
+        FunProtoData data = new FunProtoData();
+        data.fromJSON(root);
+        bytes = data.toBytes();
+    }
+
+    @Benchmark
+    public FunProtoData fromBytes() throws IOException {
+        FunProtoData data = new FunProtoData();
+        data.fromBytes(bytes);
+        return data;
+    }
+}
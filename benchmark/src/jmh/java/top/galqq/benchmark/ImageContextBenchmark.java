@@ -0,0 +1,33 @@
+package top.galqq.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import top.galqq.utils.ImageContextManager;
+
+/**
+ * 图片和表情描述合并到消息文本（带图片的消息加入上下文时执行）
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class ImageContextBenchmark {
+
+    private final List<String> images = Arrays.asList(
+            "一只橘猫趴在键盘上，旁边有一杯咖啡",
+            "聊天截图，内容是周末聚餐的时间安排");
+    private final List<String> emojis = Arrays.asList("[捂脸]", "[doge]");
+
+    @Benchmark
+    public String merge() {
+        return ImageContextManager.mergeImageContext("你看这个", images, emojis);
+    }
+}
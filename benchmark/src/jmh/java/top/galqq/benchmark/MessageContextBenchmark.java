@@ -0,0 +1,79 @@
+package top.galqq.benchmark;
+
+import android.content.Context;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import top.galqq.config.ConfigManager;
+import top.galqq.utils.MessageContextManager;
+
+/**
+ * 上下文缓存：每条收到的消息都会 addMessage，每次生成选项都会 getContext
+ *
+ * 磁盘日志在这里被替身换掉，测量的只是内存中的缓存。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageContextBenchmark {
+
+    private static final String[] CONTENTS = {
+            "在吗", "今天晚上吃什么", "哈哈哈哈哈哈", "我刚下班，累死了",
+            "周末要不要一起去看电影", "[图片]", "好的", "你猜猜我现在在哪",
+    };
+
+    @Param({"1", "50"})
+    public int conversations;
+
+    @Param({"20"})
+    public int contextSize;
+
+    private long counter;
+
+    @Setup
+    public void setUp() {
+        ConfigManager.init(new Context());
+        MessageContextManager.clearAll();
+        long now = System.currentTimeMillis();
+        for (int c = 0; c < conversations; c++) {
+            for (int i = 0; i < 50; i++) {
+                addMessage("conv" + c, i, now - (50 - i) * 1000L);
+            }
+        }
+        counter = 50;
+    }
+
+    @TearDown
+    public void tearDown() {
+        MessageContextManager.clearAll();
+    }
+
+    @Benchmark
+    public void addMessage() {
+        long i = counter++;
+        addMessage("conv" + (i % conversations), i, System.currentTimeMillis());
+    }
+
+    @Benchmark
+    public List<MessageContextManager.ChatMessage> getContext() {
+        long i = counter++;
+        return MessageContextManager.getContext("conv" + (i % conversations), contextSize);
+    }
+
+    private static void addMessage(String conversationId, long i, long timestamp) {
+        boolean self = i % 3 == 0;
+        MessageContextManager.addMessage(conversationId, self ? "我" : "对方", self ? "10001" : "10002",
+                CONTENTS[(int) (i % CONTENTS.length)], self, "msg" + i, timestamp, 0);
+    }
+}
@@ -0,0 +1,74 @@
+package top.galqq.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import top.galqq.utils.OptionResponseParser;
+
+/**
+ * AI 响应解析（每次生成选项都会执行一次）
+ *
+ * 样本在 resources/responses 下，覆盖解析器的各个分支：直接 JSON、OpenAI 格式、
+ * markdown 代码块、带推理过程、多个对象拼接、编号列表、被截断的 JSON、纯文本。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class OptionResponseParserBenchmark {
+
+    @Param({
+            "01-options-json",
+            "02-openai-plain",
+            "03-openai-markdown",
+            "04-openai-reasoning",
+            "05-concatenated",
+            "06-numbered-list",
+            "07-truncated",
+            "08-plain-text",
+    })
+    public String sample;
+
+    private String response;
+
+    @Setup
+    public void setUp() throws IOException {
+        response = readResource("/responses/" + sample + ".txt");
+        List<String> options = OptionResponseParser.parse(response);
+        if (options == null || options.size() < 3) {
+            throw new IllegalStateException("样本解析失败: " + sample);
+        }
+    }
+
+    @Benchmark
+    public List<String> parse() {
+        return OptionResponseParser.parse(response);
+    }
+
+    static String readResource(String path) throws IOException {
+        try (InputStream in = OptionResponseParserBenchmark.class.getResourceAsStream(path)) {
+            if (in == null) {
+                throw new IOException("找不到资源: " + path);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                out.write(buffer, 0, n);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package top.galqq.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import top.galqq.utils.CloseRankClient;
+import top.galqq.utils.RankHtmlParser;
+
+/**
+ * 亲密度排行页面解析：旧的正则实现与流式解析器对比
+ *
+ * 使用 resources/rank/close-rank.html（匿名化的页面，保留实际的标签、样式和脚本结构）。
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class RankHtmlBenchmark {
+
+    private String html;
+    private byte[] bytes;
+
+    @Setup
+    public void setUp() throws IOException {
+        html = OptionResponseParserBenchmark.readResource("/rank/close-rank.html");
+        bytes = html.getBytes(StandardCharsets.UTF_8);
+        // 两种解析方式的结果必须一致，否则对比没有意义
+        Map<String, Integer> expected = CloseRankClient.parseHtmlResponse(html);
+        Map<String, Integer> actual = RankHtmlParser.parse(new ByteArrayInputStream(bytes)).all.toMap();
+        if (expected.isEmpty() || !expected.equals(actual)) {
+            throw new IllegalStateException("样本解析结果不一致: 正则 " + expected.size() + " 条，流式 " + actual.size() + " 条");
+        }
+    }
+
+    @Benchmark
+    public Map<String, Integer> regex() {
+        return CloseRankClient.parseHtmlResponse(html);
+    }
+
+    @Benchmark
+    public RankHtmlParser.Result streaming() throws IOException {
+        return RankHtmlParser.parse(new ByteArrayInputStream(bytes));
+    }
+}
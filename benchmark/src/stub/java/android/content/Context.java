@@ -0,0 +1,53 @@
+package android.content;
+
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for android.content.Context used by the benchmark module
+ * Only the members the benchmarked classes touch; files live under java.io.tmpdir unless a directory is given
+ */
+public class Context {
+    public static final int MODE_PRIVATE = 0;
+
+    private final File filesDir;
+    private final Map<String, SharedPreferences> prefs = new HashMap<>();
+
+    public Context() {
+        this(new File(System.getProperty("java.io.tmpdir"), "galqq-benchmark"));
+    }
+
+    public Context(File filesDir) {
+        this.filesDir = filesDir;
+    }
+
+    public Context getApplicationContext() {
+        return this;
+    }
+
+    public File getFilesDir() {
+        filesDir.mkdirs();
+        return filesDir;
+    }
+
+    public ApplicationInfo getApplicationInfo() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public PackageManager getPackageManager() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public synchronized SharedPreferences getSharedPreferences(String name, int mode) {
+        SharedPreferences sp = prefs.get(name);
+        if (sp == null) {
+            sp = new SharedPreferences();
+            prefs.put(name, sp);
+        }
+        return sp;
+    }
+}
@@ -0,0 +1,43 @@
+package android.content;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JVM stand-in for android.content.SharedPreferences used by the benchmark module
+ * In-memory string values only; a class rather than an interface to keep it short
+ */
+public class SharedPreferences {
+    private final Map<String, String> values = new ConcurrentHashMap<>();
+
+    public String getString(String key, String defValue) {
+        String value = values.get(key);
+        return value != null ? value : defValue;
+    }
+
+    public Editor edit() {
+        return new Editor();
+    }
+
+    public class Editor {
+        public Editor putString(String key, String value) {
+            if (value == null) {
+                values.remove(key);
+            } else {
+                values.put(key, value);
+            }
+            return this;
+        }
+
+        public Editor remove(String key) {
+            values.remove(key);
+            return this;
+        }
+
+        public void apply() {}
+
+        public boolean commit() {
+            return true;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package android.content.pm;
+
+import android.graphics.drawable.Drawable;
+
+/**
+ * Stub class for android.content.pm.ApplicationInfo
+ * Compile-time placeholder only, the benchmarks never reach code that draws
+ */
+public class ApplicationInfo {
+    public Drawable loadIcon(PackageManager pm) {
+        throw new RuntimeException("Stub!");
+    }
+}
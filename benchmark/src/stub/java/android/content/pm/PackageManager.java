@@ -0,0 +1,8 @@
+package android.content.pm;
+
+/**
+ * Stub class for android.content.pm.PackageManager
+ * Compile-time placeholder only, the benchmarks never reach code that draws
+ */
+public class PackageManager {
+}
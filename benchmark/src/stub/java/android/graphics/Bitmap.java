@@ -0,0 +1,26 @@
+package android.graphics;
+
+import java.io.OutputStream;
+
+/**
+ * Stub class for android.graphics.Bitmap
+ * Compile-time placeholder only, the benchmarks never reach code that draws
+ */
+public class Bitmap {
+    public enum Config {
+        ARGB_8888
+    }
+
+    public enum CompressFormat {
+        PNG,
+        JPEG
+    }
+
+    public static Bitmap createBitmap(int width, int height, Config config) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public boolean compress(CompressFormat format, int quality, OutputStream stream) {
+        throw new RuntimeException("Stub!");
+    }
+}
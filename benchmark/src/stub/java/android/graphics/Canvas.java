@@ -0,0 +1,19 @@
+package android.graphics;
+
+/**
+ * Stub class for android.graphics.Canvas
+ * Compile-time placeholder only, the benchmarks never reach code that draws
+ */
+public class Canvas {
+    public Canvas(Bitmap bitmap) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public int getWidth() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public int getHeight() {
+        throw new RuntimeException("Stub!");
+    }
+}
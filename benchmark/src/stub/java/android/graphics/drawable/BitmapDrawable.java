@@ -0,0 +1,19 @@
+package android.graphics.drawable;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+
+/**
+ * Stub class for android.graphics.drawable.BitmapDrawable
+ * Compile-time placeholder only, the benchmarks never reach code that draws
+ */
+public class BitmapDrawable extends Drawable {
+    public Bitmap getBitmap() {
+        throw new RuntimeException("Stub!");
+    }
+
+    @Override
+    public void draw(Canvas canvas) {
+        throw new RuntimeException("Stub!");
+    }
+}
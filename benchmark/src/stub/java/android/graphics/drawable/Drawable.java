@@ -0,0 +1,23 @@
+package android.graphics.drawable;
+
+import android.graphics.Canvas;
+
+/**
+ * Stub class for android.graphics.drawable.Drawable
+ * Compile-time placeholder only, the benchmarks never reach code that draws
+ */
+public abstract class Drawable {
+    public int getIntrinsicWidth() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public int getIntrinsicHeight() {
+        throw new RuntimeException("Stub!");
+    }
+
+    public void setBounds(int left, int top, int right, int bottom) {
+        throw new RuntimeException("Stub!");
+    }
+
+    public abstract void draw(Canvas canvas);
+}
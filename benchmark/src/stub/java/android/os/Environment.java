@@ -0,0 +1,14 @@
+package android.os;
+
+import java.io.File;
+
+/**
+ * JVM stand-in for android.os.Environment used by the benchmark module
+ */
+public class Environment {
+    public static final String DIRECTORY_DOWNLOADS = "Download";
+
+    public static File getExternalStoragePublicDirectory(String type) {
+        return new File(System.getProperty("java.io.tmpdir"), type);
+    }
+}
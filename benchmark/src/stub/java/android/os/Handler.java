@@ -0,0 +1,60 @@
+package android.os;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JVM stand-in for android.os.Handler used by the benchmark module
+ * Posts to the looper's thread; removeCallbacks cancels callbacks that have not run yet
+ */
+public class Handler {
+    private final Looper looper;
+    private final Map<Runnable, List<ScheduledFuture<?>>> pending = new IdentityHashMap<>();
+
+    public Handler() {
+        this(Looper.getMainLooper());
+    }
+
+    public Handler(Looper looper) {
+        this.looper = looper;
+    }
+
+    public final boolean post(Runnable r) {
+        return postDelayed(r, 0);
+    }
+
+    public final boolean postDelayed(Runnable r, long delayMillis) {
+        synchronized (pending) {
+            List<ScheduledFuture<?>> futures = pending.get(r);
+            if (futures == null) {
+                futures = new ArrayList<>(1);
+                pending.put(r, futures);
+            }
+            final List<ScheduledFuture<?>> owner = futures;
+            final ScheduledFuture<?>[] self = new ScheduledFuture<?>[1];
+            self[0] = looper.executor.schedule(() -> {
+                synchronized (pending) {
+                    owner.remove(self[0]);
+                    if (owner.isEmpty()) pending.remove(r, owner);
+                }
+                r.run();
+            }, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+            futures.add(self[0]);
+        }
+        return true;
+    }
+
+    public final void removeCallbacks(Runnable r) {
+        synchronized (pending) {
+            List<ScheduledFuture<?>> futures = pending.remove(r);
+            if (futures == null) return;
+            for (ScheduledFuture<?> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package android.os;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+
+/**
+ * JVM stand-in for android.os.Looper used by the benchmark module
+ * The main looper is a single daemon thread, so posted callbacks run in order and off the caller's thread
+ */
+public final class Looper {
+    private static final Looper MAIN = new Looper("main");
+
+    final ScheduledThreadPoolExecutor executor;
+
+    private Looper(String name) {
+        executor = new ScheduledThreadPoolExecutor(1, r -> {
+            Thread t = new Thread(r, name);
+            t.setDaemon(true);
+            return t;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+    }
+
+    public static Looper getMainLooper() {
+        return MAIN;
+    }
+}
@@ -0,0 +1,24 @@
+package android.os;
+
+/**
+ * JVM stand-in for android.os.SystemClock used by the benchmark module
+ */
+public final class SystemClock {
+    private SystemClock() {}
+
+    public static void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static long uptimeMillis() {
+        return System.nanoTime() / 1_000_000;
+    }
+
+    public static long elapsedRealtime() {
+        return System.nanoTime() / 1_000_000;
+    }
+}
@@ -0,0 +1,16 @@
+package android.text;
+
+/**
+ * JVM stand-in for android.text.TextUtils used by the benchmark module
+ */
+public class TextUtils {
+    public static boolean isEmpty(CharSequence str) {
+        return str == null || str.length() == 0;
+    }
+
+    public static boolean equals(CharSequence a, CharSequence b) {
+        if (a == b) return true;
+        if (a == null || b == null || a.length() != b.length()) return false;
+        return a.toString().contentEquals(b);
+    }
+}
@@ -0,0 +1,51 @@
+package android.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * JVM stand-in for android.util.LruCache used by the benchmark module
+ * Counts entries (sizeOf is always 1), which is how the benchmarked caches use it
+ */
+public class LruCache<K, V> {
+    private final int maxSize;
+    private final LinkedHashMap<K, V> map;
+
+    public LruCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.map = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    public final synchronized V get(K key) {
+        return map.get(key);
+    }
+
+    public final synchronized V put(K key, V value) {
+        V previous = map.put(key, value);
+        while (map.size() > maxSize) {
+            K eldest = map.keySet().iterator().next();
+            map.remove(eldest);
+        }
+        return previous;
+    }
+
+    public final synchronized V remove(K key) {
+        return map.remove(key);
+    }
+
+    public final synchronized void evictAll() {
+        map.clear();
+    }
+
+    public final synchronized int size() {
+        return map.size();
+    }
+
+    public final synchronized int maxSize() {
+        return maxSize;
+    }
+
+    public final synchronized Map<K, V> snapshot() {
+        return new LinkedHashMap<>(map);
+    }
+}
@@ -0,0 +1,109 @@
+package com.tencent.mmkv;
+
+import android.content.Context;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * JVM stand-in for MMKV used by the benchmark module
+ * An in-memory map with the typed accessors ConfigManager uses; nothing is persisted
+ */
+public class MMKV {
+    public static final int SINGLE_PROCESS_MODE = 1;
+    public static final int MULTI_PROCESS_MODE = 2;
+
+    private static final Map<String, MMKV> INSTANCES = new ConcurrentHashMap<>();
+    private static String sRootDir;
+
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+
+    public static String initialize(Context context, String rootDir) {
+        sRootDir = rootDir;
+        return rootDir;
+    }
+
+    public static String getRootDir() {
+        return sRootDir;
+    }
+
+    public static MMKV mmkvWithID(String mmapID, int mode) {
+        return INSTANCES.computeIfAbsent(mmapID, id -> new MMKV());
+    }
+
+    public void checkContentChangedByOuterProcess() {}
+
+    public boolean contains(String key) {
+        return values.containsKey(key);
+    }
+
+    public String[] allKeys() {
+        return values.keySet().toArray(new String[0]);
+    }
+
+    public void remove(String key) {
+        values.remove(key);
+    }
+
+    public void removeValueForKey(String key) {
+        values.remove(key);
+    }
+
+    public void clearAll() {
+        values.clear();
+    }
+
+    public boolean encode(String key, boolean value) {
+        values.put(key, value);
+        return true;
+    }
+
+    public boolean encode(String key, int value) {
+        values.put(key, value);
+        return true;
+    }
+
+    public boolean encode(String key, long value) {
+        values.put(key, value);
+        return true;
+    }
+
+    public boolean encode(String key, float value) {
+        values.put(key, value);
+        return true;
+    }
+
+    public boolean encode(String key, String value) {
+        if (value == null) {
+            values.remove(key);
+        } else {
+            values.put(key, value);
+        }
+        return true;
+    }
+
+    public boolean decodeBool(String key, boolean defaultValue) {
+        Object value = values.get(key);
+        return value instanceof Boolean ? (Boolean) value : defaultValue;
+    }
+
+    public int decodeInt(String key, int defaultValue) {
+        Object value = values.get(key);
+        return value instanceof Integer ? (Integer) value : defaultValue;
+    }
+
+    public long decodeLong(String key, long defaultValue) {
+        Object value = values.get(key);
+        return value instanceof Long ? (Long) value : defaultValue;
+    }
+
+    public float decodeFloat(String key, float defaultValue) {
+        Object value = values.get(key);
+        return value instanceof Float ? (Float) value : defaultValue;
+    }
+
+    public String decodeString(String key, String defaultValue) {
+        Object value = values.get(key);
+        return value instanceof String ? (String) value : defaultValue;
+    }
+}
@@ -0,0 +1,11 @@
+package top.galqq.hook;
+
+/**
+ * Benchmark stand-in for top.galqq.hook.CookieHookManager
+ * Signature-only placeholder, the benchmarks never reach the cookie hooks
+ */
+public class CookieHookManager {
+    public static String getCookieSource() {
+        return "benchmark";
+    }
+}
@@ -0,0 +1,11 @@
+package top.galqq.hook;
+
+import java.util.List;
+
+/**
+ * Benchmark stand-in for top.galqq.hook.MessageInterceptor
+ * Signature-only placeholder, restored queue requests have nowhere to display their options
+ */
+public class MessageInterceptor {
+    public static void cacheOptions(String msgId, List<String> options) {}
+}
@@ -0,0 +1,11 @@
+package top.galqq.utils;
+
+/**
+ * Benchmark stand-in for top.galqq.utils.AffinityRefreshScheduler
+ * The real class registers Android broadcast receivers, which is out of scope here
+ */
+public final class AffinityRefreshScheduler {
+    private AffinityRefreshScheduler() {}
+
+    public static void onRefreshedExternally() {}
+}
@@ -0,0 +1,15 @@
+package top.galqq.utils;
+
+/**
+ * Benchmark stand-in for top.galqq.utils.ConversationSummaryManager
+ * The real class schedules summaries through the AI queue, which is out of scope here
+ */
+public final class ConversationSummaryManager {
+    private ConversationSummaryManager() {}
+
+    public static void onMessageAdded(String conversationId, String msgId, long timestamp) {}
+
+    public static void clearConversation(String conversationId) {}
+
+    public static void clearAll() {}
+}
@@ -0,0 +1,30 @@
+package top.galqq.utils;
+
+import android.content.Context;
+
+/**
+ * Benchmark stand-in for top.galqq.utils.CookieHelper
+ * Signature-only placeholder, the benchmarks never issue rank requests
+ */
+public class CookieHelper {
+    public enum CookieSource {
+        MEMORY,
+        SQLITE,
+        WEBVIEW,
+        FAILED
+    }
+
+    public static String getCookies(Context context) {
+        return null;
+    }
+
+    public static void invalidateCredential() {}
+
+    public static CookieSource getLastCookieSource() {
+        return CookieSource.FAILED;
+    }
+
+    public static boolean isCookiesAvailable(Context context) {
+        return false;
+    }
+}
@@ -0,0 +1,24 @@
+package top.galqq.utils;
+
+import java.io.File;
+import java.nio.file.Files;
+
+/**
+ * Benchmark stand-in for top.galqq.utils.ImageBase64Helper
+ * Encodes the file at sourcePath as-is, without the Bitmap decoding and recompression of the real helper
+ */
+public class ImageBase64Helper {
+    public static final String PREFIX_PNG = "data:image/png;base64,";
+
+    public static String fromImageElement(ImageExtractor.ImageElement imageElement) {
+        if (imageElement == null || imageElement.sourcePath == null) {
+            return null;
+        }
+        try {
+            byte[] bytes = Files.readAllBytes(new File(imageElement.sourcePath).toPath());
+            return PREFIX_PNG + java.util.Base64.getEncoder().encodeToString(bytes);
+        } catch (Exception e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package top.galqq.utils;
+
+import android.content.Context;
+
+/**
+ * Benchmark stand-in for top.galqq.utils.ImageDownloader
+ * Signature-only placeholder, the workload carries local image files and never downloads
+ */
+public class ImageDownloader {
+    public static String downloadAndConvertToBase64ByUrl(String imageUrl, Context context) {
+        return null;
+    }
+
+    public static String getMimeTypeFromUrl(String url) {
+        return "image/png";
+    }
+}
@@ -0,0 +1,34 @@
+package top.galqq.utils;
+
+/**
+ * Benchmark stand-in for top.galqq.utils.ImageExtractor
+ * Keeps only the element holders; extraction itself reflects on QQ classes at runtime
+ */
+public class ImageExtractor {
+
+    public static class ImageElement {
+        public String fileName;
+        public long fileSize;
+        public int width;
+        public int height;
+        public String md5;
+        public String imageUrl;
+        public String fileUuid;
+        public String sourcePath;
+        public String thumbPath;
+
+        public String getFullUrl() {
+            return imageUrl;
+        }
+    }
+
+    public static class EmojiElement {
+        public static final int TYPE_SYSTEM = 1;
+        public static final int TYPE_MARKET = 2;
+
+        public int emojiType;
+        public String emojiId;
+        public String emojiText;
+        public String emojiUrl;
+    }
+}
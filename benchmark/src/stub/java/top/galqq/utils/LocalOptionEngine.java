@@ -0,0 +1,17 @@
+package top.galqq.utils;
+
+/**
+ * Benchmark stand-in for top.galqq.utils.LocalOptionEngine
+ * Signature-only placeholder, unreachable while OptionEngines reports the AI engine
+ */
+public final class LocalOptionEngine {
+    private static final LocalOptionEngine INSTANCE = new LocalOptionEngine();
+
+    private LocalOptionEngine() {}
+
+    public static LocalOptionEngine getInstance() {
+        return INSTANCE;
+    }
+
+    public void learnReply(String trigger, String reply, long gapMs) {}
+}
@@ -0,0 +1,36 @@
+package top.galqq.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Benchmark stand-in for top.galqq.utils.MessageContextJournal
+ * Keeps MessageContextManager in memory so the benchmarks measure the cache, not disk writes
+ */
+public final class MessageContextJournal {
+    private static final MessageContextJournal INSTANCE = new MessageContextJournal();
+
+    private MessageContextJournal() {}
+
+    public static MessageContextJournal getInstance() {
+        return INSTANCE;
+    }
+
+    public void append(String conversationId, MessageContextManager.ChatMessage message) {}
+
+    public List<MessageContextManager.ChatMessage> load(String conversationId, int maxMessages) {
+        return new ArrayList<>();
+    }
+
+    public void loadAsync(String conversationId, int maxMessages,
+                          Consumer<List<MessageContextManager.ChatMessage>> callback) {
+        callback.accept(new ArrayList<>());
+    }
+
+    public void delete(String conversationId) {}
+
+    public void deleteAll() {}
+
+    public void evictStale() {}
+}
@@ -0,0 +1,13 @@
+package top.galqq.utils;
+
+/**
+ * Benchmark stand-in for top.galqq.utils.OptionEngines
+ * Always reports the AI engine, so MessageContextManager skips local learning
+ */
+public final class OptionEngines {
+    private OptionEngines() {}
+
+    public static boolean isLocalEngineInUse() {
+        return false;
+    }
+}
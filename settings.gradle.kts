@@ -23,4 +23,5 @@ dependencyResolutionManagement {
 rootProject.name = "galqq"
 include(":app")
 include(":libs:stub")
+include(":benchmark")
  
\ No newline at end of file